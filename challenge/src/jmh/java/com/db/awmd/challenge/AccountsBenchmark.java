@@ -0,0 +1,123 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Repository and service operations under concurrent load. With {@code distribution=SKEWED} most
+ * operations hit a handful of hot accounts, the way merchant accounts attract transfers in
+ * production; {@code UNIFORM} spreads them evenly. {@code metrics=false} turns off the
+ * {@link TransferMetrics} timings, to show what the instrumentation costs.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class AccountsBenchmark {
+
+  public enum Distribution {
+    UNIFORM,
+    SKEWED
+  }
+
+  /** Share of operations that go to the hot accounts in the SKEWED distribution. */
+  private static final double HOT_SHARE = 0.8;
+
+  private static final int HOT_ACCOUNTS = 4;
+
+  @Param({"10000"})
+  public int accounts;
+
+  @Param({"UNIFORM", "SKEWED"})
+  public Distribution distribution;
+
+  @Param({"true", "false"})
+  public boolean metrics;
+
+  private AccountsRepository repository;
+
+  private AccountsService service;
+
+  private String[] accountIds;
+
+  private final AtomicLong createdAccounts = new AtomicLong();
+
+  private final BigDecimal amount = new BigDecimal("0.01");
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    TransferMetrics transferMetrics = new TransferMetrics(16, this.metrics);
+    this.repository = new AccountsRepositoryInMemory((account, description) -> { }, MoneyMode.DECIMAL, 2,
+        new String[0], 0, transferMetrics);
+    this.service = new AccountsService(this.repository, transferMetrics);
+    this.accountIds = new String[this.accounts];
+    for (int i = 0; i < this.accounts; i++) {
+      this.accountIds[i] = "Id-" + i;
+      // Large enough that withdrawals never run dry during a run
+      this.repository.createAccount(new Account(this.accountIds[i], new BigDecimal("1000000000.00")));
+    }
+  }
+
+  @Benchmark
+  public void createAccount() {
+    this.repository.createAccount(new Account("New-" + this.createdAccounts.incrementAndGet(), BigDecimal.ONE));
+  }
+
+  @Benchmark
+  public Account getAccount() {
+    return this.repository.getAccount(pick());
+  }
+
+  @Benchmark
+  public BigDecimal withdraw() {
+    return this.repository.withdraw(pick(), pick(), this.amount);
+  }
+
+  @Benchmark
+  public BigDecimal deposit() {
+    return this.repository.deposit(pick(), pick(), this.amount);
+  }
+
+  @Benchmark
+  public TransferResult transfer() {
+    return this.repository.transfer(pick(), pick(), this.amount);
+  }
+
+  @Benchmark
+  public TransferResult serviceTransfer() {
+    return this.service.transfer(pick(), pick(), this.amount);
+  }
+
+  private String pick() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (this.distribution == Distribution.SKEWED && random.nextDouble() < HOT_SHARE) {
+      return this.accountIds[random.nextInt(HOT_ACCOUNTS)];
+    }
+    return this.accountIds[random.nextInt(this.accountIds.length)];
+  }
+}
@@ -0,0 +1,172 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.wire.BinaryTransferProtocol;
+import com.db.awmd.challenge.wire.BinaryTransferServer;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+
+/**
+ * The same transfer sent to the running application over a keep-alive HTTP connection and over
+ * the binary endpoint, one request at a time and {@value #PIPELINE} frames per write. Client and
+ * server share the machine, so the scores include the client's own cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BinaryTransferBenchmark {
+
+  private static final int PIPELINE = 64;
+
+  private EmbeddedWebApplicationContext context;
+
+  private SocketChannel http;
+
+  private SocketChannel binary;
+
+  private final ByteBuffer httpRequest = ByteBuffer.wrap(
+    "POST /v1/accounts/transfer/Id-1/Id-2/1 HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n"
+      .getBytes(StandardCharsets.US_ASCII));
+
+  private final ByteBuffer binaryRequests = ByteBuffer.allocateDirect(64 * PIPELINE);
+
+  private final ByteBuffer responses = ByteBuffer.allocateDirect(1 << 16);
+
+  private final byte[] scratch = new byte[1 << 16];
+
+  private boolean httpClose;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    // Arguments, so they win over application.yml
+    this.context = (EmbeddedWebApplicationContext) SpringApplication.run(DevChallengeApplication.class,
+      "--server.port=0", "--binary.enabled=true", "--binary.port=0", "--binary.io-threads=1",
+      "--admission.client.rate-per-second=0", "--admission.account.rate-per-second=0", "--logging.level.root=WARN");
+    AccountsService accounts = this.context.getBean(AccountsService.class);
+    accounts.createAccount(new Account("Id-1", new BigDecimal("1000000000")));
+    accounts.createAccount(new Account("Id-2", new BigDecimal("1000000000")));
+    this.http = connect(this.context.getEmbeddedServletContainer().getPort());
+    this.binary = connect(this.context.getBean(BinaryTransferServer.class).getPort());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    this.http.close();
+    this.binary.close();
+    this.context.close();
+  }
+
+  @Benchmark
+  public int http() throws IOException {
+    this.httpRequest.rewind();
+    while (this.httpRequest.hasRemaining()) {
+      this.http.write(this.httpRequest);
+    }
+    this.responses.clear();
+    int length;
+    do {
+      read(this.http);
+      length = httpResponseLength();
+    } while (length < 0);
+    if (this.httpClose) {
+      // Tomcat closes a keep-alive connection after maxKeepAliveRequests
+      this.http.close();
+      this.http = connect(this.context.getEmbeddedServletContainer().getPort());
+    }
+    return length;
+  }
+
+  @Benchmark
+  public int binary() throws IOException {
+    return binaryRoundTrip(1);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIPELINE)
+  public int binaryPipelined() throws IOException {
+    return binaryRoundTrip(PIPELINE);
+  }
+
+  private int binaryRoundTrip(int frames) throws IOException {
+    this.binaryRequests.clear();
+    for (int i = 0; i < frames; i++) {
+      BinaryTransferProtocol.putTransfer(this.binaryRequests, i, "Id-1", "Id-2", BigDecimal.ONE);
+    }
+    this.binaryRequests.flip();
+    while (this.binaryRequests.hasRemaining()) {
+      this.binary.write(this.binaryRequests);
+    }
+    this.responses.clear();
+    int answered = 0;
+    int offset = 0;
+    while (answered < frames) {
+      read(this.binary);
+      while (this.responses.position() - offset >= 4
+        && this.responses.position() - offset >= 4 + this.responses.getInt(offset)) {
+        offset += 4 + this.responses.getInt(offset);
+        answered++;
+      }
+    }
+    return offset;
+  }
+
+  private static SocketChannel connect(int port) throws IOException {
+    SocketChannel channel = SocketChannel.open(new InetSocketAddress("localhost", port));
+    channel.socket().setTcpNoDelay(true);
+    return channel;
+  }
+
+  private void read(SocketChannel channel) throws IOException {
+    if (channel.read(this.responses) < 0) {
+      throw new EOFException();
+    }
+  }
+
+  /**
+   * Returns the length of the complete HTTP response in the buffer, or -1 while more is to come.
+   * Handles a Content-Length body and a chunked one.
+   */
+  private int httpResponseLength() {
+    int size = this.responses.position();
+    for (int i = 0; i < size; i++) {
+      this.scratch[i] = this.responses.get(i);
+    }
+    String received = new String(this.scratch, 0, size, StandardCharsets.US_ASCII);
+    int headersEnd = received.indexOf("\r\n\r\n");
+    if (headersEnd < 0) {
+      return -1;
+    }
+    this.httpClose = received.indexOf("Connection: close") >= 0;
+    int contentLength = received.indexOf("Content-Length: ");
+    if (contentLength >= 0 && contentLength < headersEnd) {
+      int bodyLength = Integer.parseInt(received.substring(contentLength + 16, received.indexOf("\r\n", contentLength)));
+      return size >= headersEnd + 4 + bodyLength ? size : -1;
+    }
+    return received.endsWith("0\r\n\r\n") ? size : -1;
+  }
+}
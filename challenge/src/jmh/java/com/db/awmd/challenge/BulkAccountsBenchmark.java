@@ -0,0 +1,91 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountImportResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountFormat;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.NotificationService;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to import and export {@code accounts} accounts in each bulk format. The target is a million
+ * accounts a minute or better in both directions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class BulkAccountsBenchmark {
+
+  @Param({"1000000"})
+  public int accounts;
+
+  @Param({"NDJSON", "CSV"})
+  public AccountFormat format;
+
+  private final NotificationService notifications = (account, description) -> { };
+
+  private AccountsBulkService populated;
+
+  private byte[] exported;
+
+  private AccountsBulkService empty;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(this.notifications);
+    for (int i = 0; i < this.accounts; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal(i).movePointLeft(2)));
+    }
+    this.populated = new AccountsBulkService(repository);
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    this.populated.exportAccounts(output, this.format);
+    this.exported = output.toByteArray();
+  }
+
+  @Setup(Level.Iteration)
+  public void emptyRepository() {
+    this.empty = new AccountsBulkService(new AccountsRepositoryInMemory(this.notifications));
+  }
+
+  @Benchmark
+  public AccountImportResult importAccounts() throws IOException {
+    return this.empty.importAccounts(new ByteArrayInputStream(this.exported), this.format);
+  }
+
+  @Benchmark
+  public long exportAccounts() throws IOException {
+    return this.populated.exportAccounts(new DiscardingOutputStream(), this.format);
+  }
+
+  private static final class DiscardingOutputStream extends OutputStream {
+
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  }
+}
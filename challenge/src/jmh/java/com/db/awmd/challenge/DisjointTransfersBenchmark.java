@@ -0,0 +1,72 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * How transfers scale when no two threads share an account: each thread moves money back and forth
+ * within its own pair, so no account lock is contended and what is left is the service, ledger and
+ * sequence every transfer goes through. Run with {@code -t 1} and again with {@code -t} set to the
+ * core count; on four or more cores the second should show well over 1.5 times the first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DisjointTransfersBenchmark {
+
+  private final AtomicInteger pairs = new AtomicInteger();
+
+  private final BigDecimal amount = BigDecimal.ONE;
+
+  private AccountsService service;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.service = new AccountsService(new AccountsRepositoryInMemory((account, description) -> { }));
+  }
+
+  @State(Scope.Thread)
+  public static class Pair {
+
+    private String first;
+
+    private String second;
+
+    private boolean forward;
+
+    @Setup(Level.Trial)
+    public void setUp(DisjointTransfersBenchmark benchmark) {
+      int pair = benchmark.pairs.getAndIncrement();
+      this.first = "Id-" + pair + "-from";
+      this.second = "Id-" + pair + "-to";
+      benchmark.service.createAccount(new Account(this.first, new BigDecimal("1000")));
+      benchmark.service.createAccount(new Account(this.second, new BigDecimal("1000")));
+    }
+  }
+
+  @Benchmark
+  public TransferResult transfer(Pair pair) {
+    pair.forward = !pair.forward;
+    return pair.forward ? this.service.transfer(pair.first, pair.second, this.amount)
+        : this.service.transfer(pair.second, pair.first, this.amount);
+  }
+}
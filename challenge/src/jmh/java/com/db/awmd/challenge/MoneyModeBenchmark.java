@@ -0,0 +1,57 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the {@link MoneyMode#DECIMAL} and {@link MoneyMode#MINOR_UNITS} transfer paths. Run
+ * with the {@code gc} profiler (the default in build.gradle) to compare allocation per operation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyModeBenchmark {
+
+  @Param({"DECIMAL", "MINOR_UNITS"})
+  public MoneyMode moneyMode;
+
+  private AccountsRepositoryInMemory repository;
+
+  private final BigDecimal amount = new BigDecimal("0.01");
+
+  private boolean forward;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    this.repository = new AccountsRepositoryInMemory((account, description) -> { }, this.moneyMode, 2);
+    this.repository.createAccount(new Account("Id-1", new BigDecimal("1000000.00")));
+    this.repository.createAccount(new Account("Id-2", new BigDecimal("1000000.00")));
+  }
+
+  @Benchmark
+  public TransferResult transfer() {
+    this.forward = !this.forward;
+    return this.forward
+      ? this.repository.transfer("Id-1", "Id-2", this.amount)
+      : this.repository.transfer("Id-2", "Id-1", this.amount);
+  }
+}
@@ -0,0 +1,79 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.service.NotificationService;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Heap-resident against off-heap accounts at scale. Setup prints the heap each store needs after a
+ * full collection; the benchmarks show lookup and transfer cost, and the {@code gc} profiler shows
+ * what collections cost with that many accounts live.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g", "-XX:MaxDirectMemorySize=8g"})
+public class OffHeapStoreBenchmark {
+
+  @Param({"memory", "offheap"})
+  public String store;
+
+  @Param({"10000000"})
+  public int accounts;
+
+  private AccountsRepository repository;
+
+  private final BigDecimal amount = new BigDecimal("0.01");
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    NotificationService notifications = (account, description) -> { };
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    System.gc();
+    long before = memory.getHeapMemoryUsage().getUsed();
+    this.repository = "offheap".equals(this.store)
+      ? new AccountsRepositoryOffHeap(notifications, 2, this.accounts, 4096)
+      : new AccountsRepositoryInMemory(notifications);
+    for (int i = 0; i < this.accounts; i++) {
+      this.repository.createAccount(new Account("Id-" + i, new BigDecimal("1000000")));
+    }
+    System.gc();
+    long heap = memory.getHeapMemoryUsage().getUsed() - before;
+    System.out.printf("%n%s: %d accounts use %d MiB of heap (%d bytes per account)%n", this.store,
+      this.accounts, heap >> 20, heap / this.accounts);
+  }
+
+  @Benchmark
+  public Account getAccount() {
+    return this.repository.getAccount("Id-" + ThreadLocalRandom.current().nextInt(this.accounts));
+  }
+
+  @Benchmark
+  public TransferResult transfer() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return this.repository.transfer("Id-" + random.nextInt(this.accounts), "Id-" + random.nextInt(this.accounts),
+      this.amount);
+  }
+}
@@ -0,0 +1,92 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryJournaled;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Startup time of the journaled repository: load the newest snapshot of {@code accounts} accounts
+ * and replay a journal tail of {@code tailTransfers} transfers written after it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class RecoveryBenchmark {
+
+  @Param({"10000000"})
+  public int accounts;
+
+  @Param({"100000"})
+  public int tailTransfers;
+
+  private Path directory;
+
+  private AccountsRepositoryJournaled recovered;
+
+  @Setup(Level.Trial)
+  public void writeHistory() throws IOException {
+    this.directory = Files.createTempDirectory("recovery-benchmark");
+    AccountsRepositoryJournaled repository = open();
+    for (int i = 0; i < this.accounts; i++) {
+      repository.createAccount(new Account("Id-" + i, new BigDecimal("1000.00")));
+    }
+    repository.snapshot();
+    BigDecimal amount = new BigDecimal("0.01");
+    for (int i = 0; i < this.tailTransfers; i++) {
+      repository.transfer("Id-" + (i % this.accounts), "Id-" + ((i + 1) % this.accounts), amount);
+    }
+    repository.close();
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeRecovered() throws IOException {
+    if (this.recovered != null) {
+      this.recovered.close();
+      this.recovered = null;
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void deleteHistory() throws IOException {
+    try (Stream<Path> paths = Files.walk(this.directory)) {
+      paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public AccountsRepositoryJournaled recover() throws IOException {
+    this.recovered = open();
+    return this.recovered;
+  }
+
+  private AccountsRepositoryJournaled open() throws IOException {
+    AccountsRepositoryJournaled repository = new AccountsRepositoryJournaled(
+      new AccountsRepositoryInMemory((account, description) -> { }), this.directory.toString(), 64 << 20, false,
+      0, Long.MAX_VALUE);
+    repository.recover();
+    return repository;
+  }
+}
@@ -0,0 +1,84 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositorySharded;
+import com.db.awmd.challenge.service.NotificationService;
+import java.math.BigDecimal;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Lock-based against single-writer sharded accounts. Run with {@code -t} set to the core count and
+ * again with fewer threads to see how each store scales; {@code shards} is ignored by the memory
+ * store.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardedStoreBenchmark {
+
+  @Param({"memory", "sharded"})
+  public String store;
+
+  @Param({"4"})
+  public int shards;
+
+  @Param({"10000"})
+  public int accounts;
+
+  private AccountsRepository repository;
+
+  private String[] accountIds;
+
+  private final BigDecimal amount = new BigDecimal("0.01");
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    NotificationService notifications = (account, description) -> { };
+    if ("sharded".equals(this.store)) {
+      AccountsRepositorySharded sharded = new AccountsRepositorySharded(notifications, this.shards);
+      sharded.start();
+      this.repository = sharded;
+    } else {
+      this.repository = new AccountsRepositoryInMemory(notifications);
+    }
+    this.accountIds = new String[this.accounts];
+    for (int i = 0; i < this.accounts; i++) {
+      this.accountIds[i] = "Id-" + i;
+      this.repository.createAccount(new Account(this.accountIds[i], new BigDecimal("1000000000.00")));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws InterruptedException {
+    if (this.repository instanceof AccountsRepositorySharded) {
+      ((AccountsRepositorySharded) this.repository).stop();
+    }
+  }
+
+  @Benchmark
+  public TransferResult transfer() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    return this.repository.transfer(this.accountIds[random.nextInt(this.accounts)],
+      this.accountIds[random.nextInt(this.accounts)], this.amount);
+  }
+}
@@ -0,0 +1,57 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Deposits into a single hot account, with and without striping. Run with increasing thread counts
+ * ({@code -t 1}, {@code -t 2}, ...) to see how deposit throughput scales with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StripedAccountBenchmark {
+
+  @Param({"false", "true"})
+  public boolean striped;
+
+  @Param({"DECIMAL", "MINOR_UNITS"})
+  public MoneyMode moneyMode;
+
+  private AccountsRepositoryInMemory repository;
+
+  private final BigDecimal amount = new BigDecimal("0.01");
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    String[] stripedIds = this.striped ? new String[] {"Id-hot"} : new String[0];
+    this.repository = new AccountsRepositoryInMemory((account, description) -> { }, this.moneyMode, 2, stripedIds, 0,
+      new TransferMetrics());
+    this.repository.createAccount(new Account("Id-hot", BigDecimal.ZERO));
+    this.repository.createAccount(new Account("Id-source", new BigDecimal("1000000000000")));
+  }
+
+  @Benchmark
+  public BigDecimal deposit() {
+    return this.repository.deposit("Id-source", "Id-hot", this.amount);
+  }
+}
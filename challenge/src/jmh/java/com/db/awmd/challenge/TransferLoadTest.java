@@ -0,0 +1,283 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.service.AccountsService;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.embedded.EmbeddedWebApplicationContext;
+import org.springframework.core.env.Environment;
+
+/**
+ * Closed-loop HTTP load test for the transfer endpoint. Starts the application in-process, opens
+ * {@code loadtest.connections} keep-alive connections from a single non-blocking client thread and
+ * has each send a transfer, wait for the answer and think for {@code loadtest.think-millis} before
+ * the next one. Prints throughput and latency percentiles for the measured period.
+ *
+ * <p>Every argument is passed to the application as well, so the two request thread modes are
+ * compared with, for example:
+ *
+ * <pre>
+ * ./gradlew loadTest -PloadTestArgs="--server.threads.mode=PLATFORM --loadtest.connections=20000"
+ * ./gradlew loadTest -PloadTestArgs="--server.threads.mode=VIRTUAL --loadtest.connections=20000"
+ * </pre>
+ *
+ * Virtual threads need a Java 21 runtime ({@code -PloadTestJava=/path/to/java}); tens of
+ * thousands of connections need a matching {@code ulimit -n}.
+ */
+public class TransferLoadTest {
+
+  private static final int ACCOUNTS = 1000;
+
+  public static void main(String[] args) throws Exception {
+    SpringApplication application = new SpringApplication(DevChallengeApplication.class);
+    application.setDefaultProperties(Collections.singletonMap("server.port", "0"));
+    EmbeddedWebApplicationContext context = (EmbeddedWebApplicationContext) application.run(args);
+    try {
+      Environment environment = context.getEnvironment();
+      AccountsService accounts = context.getBean(AccountsService.class);
+      for (int i = 0; i < ACCOUNTS; i++) {
+        accounts.createAccount(new Account("Load-" + i, new BigDecimal("1000000000")));
+      }
+      TransferLoadTest test = new TransferLoadTest(context.getEmbeddedServletContainer().getPort(),
+        environment.getProperty("loadtest.connections", Integer.class, 1000),
+        environment.getProperty("loadtest.think-millis", Integer.class, 10));
+      test.run(environment.getProperty("loadtest.warmup-seconds", Integer.class, 10),
+        environment.getProperty("loadtest.seconds", Integer.class, 30));
+      System.out.printf("mode=%s connections=%d%n%s%n", environment.getProperty("server.threads.mode", "PLATFORM"),
+        test.connections, test.summary());
+    } finally {
+      context.close();
+    }
+  }
+
+  private final InetSocketAddress address;
+
+  private final int connections;
+
+  private final long thinkNanos;
+
+  private long[] latencies = new long[1 << 16];
+
+  private int recorded;
+
+  private long errors;
+
+  private long reconnects;
+
+  private long measuredNanos;
+
+  TransferLoadTest(int port, int connections, int thinkMillis) {
+    this.address = new InetSocketAddress("localhost", port);
+    this.connections = connections;
+    this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(thinkMillis);
+  }
+
+  void run(int warmupSeconds, int seconds) throws IOException {
+    try (Selector selector = Selector.open()) {
+      Client[] clients = new Client[this.connections];
+      long start = System.nanoTime();
+      long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSeconds);
+      long end = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+      // Connections are opened over the first half of the warm-up so the accept queue keeps up
+      long rampNanos = TimeUnit.SECONDS.toNanos(warmupSeconds) / 2;
+      int opened = 0;
+      long now;
+      while ((now = System.nanoTime()) < end) {
+        int due = rampNanos == 0 ? this.connections
+          : (int) Math.min(this.connections, (now - start) * this.connections / rampNanos + 1);
+        for (; opened < due; opened++) {
+          clients[opened] = new Client(selector);
+        }
+        for (int i = 0; i < opened; i++) {
+          if (clients[i].idle && now >= clients[i].nextSendAt) {
+            try {
+              clients[i].send(now);
+            } catch (IOException ex) {
+              this.errors++;
+              clients[i].reconnect(selector);
+            }
+          }
+        }
+        selector.select(1);
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          Client client = (Client) key.attachment();
+          try {
+            client.handle(key, now >= measureFrom);
+          } catch (IOException ex) {
+            this.errors++;
+            client.reconnect(selector);
+          }
+        }
+      }
+      this.measuredNanos = end - measureFrom;
+      for (int i = 0; i < opened; i++) {
+        clients[i].channel.close();
+      }
+    }
+  }
+
+  String summary() {
+    long[] sorted = Arrays.copyOf(this.latencies, this.recorded);
+    Arrays.sort(sorted);
+    double seconds = this.measuredNanos / 1e9;
+    return String.format("requests=%d throughput=%.0f/s errors=%d reconnects=%d "
+        + "p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+      this.recorded, this.recorded / seconds, this.errors, this.reconnects, percentile(sorted, 0.5),
+      percentile(sorted, 0.9), percentile(sorted, 0.99), percentile(sorted, 0.999), percentile(sorted, 1.0));
+  }
+
+  private static double percentile(long[] sorted, double quantile) {
+    if (sorted.length == 0) {
+      return 0;
+    }
+    int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+    return sorted[Math.max(0, index)] / 1e6;
+  }
+
+  private void record(long latencyNanos) {
+    if (this.recorded == this.latencies.length) {
+      this.latencies = Arrays.copyOf(this.latencies, this.latencies.length * 2);
+    }
+    this.latencies[this.recorded++] = latencyNanos;
+  }
+
+  /**
+   * One keep-alive connection sending a transfer at a time.
+   */
+  private final class Client {
+
+    private SocketChannel channel;
+
+    private SelectionKey key;
+
+    private final ByteBuffer response = ByteBuffer.allocate(16384);
+
+    private ByteBuffer request;
+
+    private boolean idle;
+
+    private long nextSendAt;
+
+    private long sentAt;
+
+    Client(Selector selector) throws IOException {
+      open(selector);
+    }
+
+    private void open(Selector selector) throws IOException {
+      this.channel = SocketChannel.open();
+      this.channel.configureBlocking(false);
+      boolean connected = this.channel.connect(address);
+      this.key = this.channel.register(selector, connected ? 0 : SelectionKey.OP_CONNECT, this);
+      this.idle = connected;
+      this.nextSendAt = 0;
+    }
+
+    void reconnect(Selector selector) throws IOException {
+      this.channel.close();
+      reconnects++;
+      open(selector);
+    }
+
+    void send(long now) throws IOException {
+      ThreadLocalRandom random = ThreadLocalRandom.current();
+      String path = "/v1/accounts/transfer/Load-" + random.nextInt(ACCOUNTS) + "/Load-" + random.nextInt(ACCOUNTS) + "/1";
+      this.request = ByteBuffer.wrap(("POST " + path + " HTTP/1.1\r\nHost: localhost\r\nContent-Length: 0\r\n\r\n")
+        .getBytes(StandardCharsets.US_ASCII));
+      this.response.clear();
+      this.idle = false;
+      this.sentAt = now;
+      this.channel.write(this.request);
+      this.key.interestOps(this.request.hasRemaining()
+        ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    void handle(SelectionKey key, boolean measured) throws IOException {
+      if (key.isConnectable()) {
+        this.channel.finishConnect();
+        this.idle = true;
+        key.interestOps(0);
+        return;
+      }
+      if (key.isWritable()) {
+        this.channel.write(this.request);
+        if (!this.request.hasRemaining()) {
+          key.interestOps(SelectionKey.OP_READ);
+        }
+      }
+      if (key.isReadable()) {
+        if (this.channel.read(this.response) < 0) {
+          throw new IOException("Connection closed by server");
+        }
+        Response parsed = Response.parse(this.response);
+        if (parsed == null) {
+          return;
+        }
+        long now = System.nanoTime();
+        if (measured) {
+          record(now - this.sentAt);
+          if (parsed.status >= 300) {
+            errors++;
+          }
+        }
+        key.interestOps(0);
+        this.nextSendAt = now + thinkNanos;
+        if (parsed.close) {
+          reconnect(key.selector());
+        } else {
+          this.idle = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * The parts of an HTTP/1.1 response the test needs, once all of it has arrived.
+   */
+  private static final class Response {
+
+    private final int status;
+
+    private final boolean close;
+
+    private Response(int status, boolean close) {
+      this.status = status;
+      this.close = close;
+    }
+
+    static Response parse(ByteBuffer buffer) {
+      String text = new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1);
+      int headerEnd = text.indexOf("\r\n\r\n");
+      if (headerEnd < 0) {
+        return null;
+      }
+      String headers = text.substring(0, headerEnd).toLowerCase();
+      int lengthAt = headers.indexOf("content-length:");
+      if (lengthAt >= 0) {
+        int lineEnd = headers.indexOf("\r\n", lengthAt);
+        int length = Integer.parseInt(headers.substring(lengthAt + 15, lineEnd < 0 ? headers.length() : lineEnd).trim());
+        if (text.length() < headerEnd + 4 + length) {
+          return null;
+        }
+      } else if (headers.contains("transfer-encoding: chunked") && !text.endsWith("0\r\n\r\n")) {
+        return null;
+      }
+      return new Response(Integer.parseInt(text.substring(9, 12)), headers.contains("connection: close"));
+    }
+  }
+}
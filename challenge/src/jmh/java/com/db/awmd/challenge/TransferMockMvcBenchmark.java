@@ -0,0 +1,77 @@
+package com.db.awmd.challenge;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.AccountResponseCache;
+import com.db.awmd.challenge.web.AccountsController;
+import com.db.awmd.challenge.web.IdempotencyCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+/**
+ * The full controller path of a transfer: request mapping, path variable conversion, the transfer
+ * itself and JSON serialization of the response. The account reads show a cached body and a
+ * conditional request answered with 304.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TransferMockMvcBenchmark {
+
+  private MockMvc mockMvc;
+
+  private String etag;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory((account, description) -> { });
+    repository.createAccount(new Account("Id-1", new BigDecimal("1000000000")));
+    repository.createAccount(new Account("Id-2", new BigDecimal("1000000000")));
+    AccountsController controller = new AccountsController(new AccountsService(repository),
+      new AccountsBulkService(repository), new IdempotencyCache(100000, 3600, 64),
+      new AccountResponseCache(new ObjectMapper(), 100000, 64), 10000);
+    this.mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+    // Read-only, so its cached body and ETag stay valid while transfers run
+    repository.createAccount(new Account("Id-3", new BigDecimal("1000")));
+    this.etag = AccountResponseCache.etag(repository.getAccount("Id-3").currentBalance());
+  }
+
+  @Benchmark
+  public MvcResult transfer() throws Exception {
+    return this.mockMvc.perform(post("/v1/accounts/transfer/Id-1/Id-2/1")).andReturn();
+  }
+
+  @Benchmark
+  public MvcResult getAccount() throws Exception {
+    return this.mockMvc.perform(get("/v1/accounts/Id-3")).andReturn();
+  }
+
+  @Benchmark
+  public MvcResult getAccountNotModified() throws Exception {
+    return this.mockMvc.perform(get("/v1/accounts/Id-3").header(HttpHeaders.IF_NONE_MATCH, this.etag)).andReturn();
+  }
+}
@@ -1,34 +1,295 @@
 package com.db.awmd.challenge.domain;
 
+import com.db.awmd.challenge.exception.AccountClosedException;
+import com.db.awmd.challenge.exception.AccountEvictedException;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
 import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.Setter;
+import lombok.ToString;
 import org.hibernate.validator.constraints.NotEmpty;
 
 @Data
+@EqualsAndHashCode(of = "accountId")
+@ToString(exclude = { "lock", "idleVersion", "idleSince" })
 public class Account {
 
+  /**
+   * Kept to one line, so every account can be exported to NDJSON or CSV and read back.
+   */
   @NotNull
   @NotEmpty
+  @Pattern(regexp = "[^\\r\\n]*", message = "must not contain line breaks")
   private final String accountId;
 
-  @NotNull
-  @Min(value = 0, message = "Initial balance must be positive.")
-  private BigDecimal balance;
+  /**
+   * ISO 4217 code of the currency the balance is held in; {@code null} means the deployment's base
+   * currency ({@code fx.base-currency}).
+   */
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private final String currency;
+
+  /**
+   * Current balance, replaced with compare-and-set on every change. Reads never block, and a
+   * credit never waits for a debit running on another thread.
+   */
+  @Getter(AccessLevel.NONE)
+  private final AtomicReference<Balance> balanceCell;
+
+  /**
+   * Serializes debits. Credits only ever increase a balance, so they go straight to the balance
+   * cell; anything that checks funds before taking them out holds this lock, which keeps the check
+   * valid until the debit is applied.
+   */
+  @JsonIgnore
+  private final transient Lock lock = new ReentrantLock();
+
+  /**
+   * Version and time the tiering pass last saw the balance change at; only that pass reads or
+   * writes them, so the transfer path never touches them.
+   */
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private transient long idleVersion = -1;
+
+  @Getter(AccessLevel.NONE)
+  @Setter(AccessLevel.NONE)
+  private transient long idleSince;
 
   public Account(String accountId) {
-    this.accountId = accountId;
-    this.balance = BigDecimal.ZERO;
+    this(accountId, BigDecimal.ZERO);
+  }
+
+  public Account(String accountId, BigDecimal balance) {
+    this(accountId, balance, null);
   }
 
   @JsonCreator
   public Account(@JsonProperty("accountId") String accountId,
-    @JsonProperty("balance") BigDecimal balance) {
+    @JsonProperty("balance") BigDecimal balance,
+    @JsonProperty("currency") String currency) {
+    this(accountId, new DecimalBalance(balance, 0), currency);
+  }
+
+  protected Account(String accountId, Balance balance, String currency) {
     this.accountId = accountId;
-    this.balance = balance;
+    this.currency = currency;
+    this.balanceCell = new AtomicReference<>(balance);
+  }
+
+  @NotNull
+  @Min(value = 0, message = "Initial balance must be positive.")
+  public BigDecimal getBalance() {
+    return this.balanceCell.get().getAmount();
+  }
+
+  public void setBalance(BigDecimal balance) {
+    Balance current;
+    do {
+      current = this.balanceCell.get();
+    } while (!this.balanceCell.compareAndSet(current, current.withAmount(balance)));
+  }
+
+  /**
+   * Returns the number of changes made to the balance. Read it together with the amount through
+   * {@link #currentBalance()} when both must belong to the same change.
+   */
+  public long getVersion() {
+    return currentBalance().getVersion();
+  }
+
+  /**
+   * Returns the balance cell as last published, amount and version together.
+   */
+  public Balance currentBalance() {
+    return this.balanceCell.get();
+  }
+
+  /**
+   * Returns whether the account has been closed. A closed account keeps its last balance and takes
+   * no more transfers.
+   */
+  @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+  public boolean isClosed() {
+    Balance current = currentBalance();
+    return current instanceof SealedBalance && ((SealedBalance) current).isClosed();
+  }
+
+  /**
+   * Stops every further change to the balance and returns the final cell. Closing raises the
+   * version; sealing an instance that is moving to the cold store does not, since the account
+   * itself does not change. An already sealed balance is returned as it is. Callers must hold
+   * {@link #getLock()}, so no debit is under way; credits arriving later fail instead of landing.
+   */
+  public SealedBalance seal(boolean closed) {
+    return seal(closed, 0);
+  }
+
+  /**
+   * Seals the main cell at its version plus {@code extraVersions}, for subclasses whose balance is
+   * spread over more cells than this one.
+   */
+  protected SealedBalance seal(boolean closed, long extraVersions) {
+    Balance current;
+    SealedBalance sealed;
+    do {
+      current = this.balanceCell.get();
+      if (current instanceof SealedBalance) {
+        return (SealedBalance) current;
+      }
+      long version = current.getVersion() + extraVersions + (closed ? 1 : 0);
+      sealed = new SealedBalance(current, version, closed);
+    } while (!this.balanceCell.compareAndSet(current, sealed));
+    return sealed;
+  }
+
+  /**
+   * Undoes {@link #seal(boolean)} when the account turns out not to be closable after all. The
+   * reopened balance holds the amount that was sealed at one version past the sealed cell, so a
+   * reader that saw the sealed version sees the reopened one as newer. Callers must hold
+   * {@link #getLock()}.
+   */
+  public void unseal(SealedBalance sealed) {
+    this.balanceCell.compareAndSet(sealed, sealed.getLast().withVersion(sealed.getVersion() + 1));
+  }
+
+  /**
+   * Called by the tiering pass only: returns whether the balance has stayed at the same version for
+   * at least {@code idleNanos} of the passes made so far.
+   */
+  public boolean markIdle(long nowNanos, long idleNanos) {
+    long version = currentBalance().getVersion();
+    if (version != this.idleVersion) {
+      this.idleVersion = version;
+      this.idleSince = nowNanos;
+      return false;
+    }
+    return nowNanos - this.idleSince >= idleNanos;
+  }
+
+  /**
+   * Switches the balance to its {@link MoneyMode#MINOR_UNITS} representation. Only called before
+   * the account is published to other threads.
+   */
+  public void useMinorUnits(int scale) {
+    Balance current = this.balanceCell.get();
+    this.balanceCell.set(new MinorUnitsBalance(MinorUnits.toMinorUnits(current.getAmount(), scale), scale,
+      current.getVersion()));
+  }
+
+  /**
+   * Reinstates a balance recorded earlier, version included, when rebuilding accounts from durable
+   * storage. Keeps the account's money representation. Only called while no transfers run.
+   */
+  public void restoreBalance(BigDecimal amount, long version) {
+    Balance current = this.balanceCell.get();
+    if (current instanceof MinorUnitsBalance) {
+      int scale = ((MinorUnitsBalance) current).getScale();
+      this.balanceCell.set(new MinorUnitsBalance(MinorUnits.toMinorUnits(amount, scale), scale, version));
+    } else {
+      this.balanceCell.set(new DecimalBalance(amount, version));
+    }
+  }
+
+  /**
+   * Adds {@code amount} to the balance without taking a lock.
+   */
+  public Balance credit(BigDecimal amount) {
+    Balance current;
+    Balance updated;
+    do {
+      current = this.balanceCell.get();
+      if (current instanceof SealedBalance) {
+        throw sealed((SealedBalance) current);
+      }
+      updated = current.plus(amount);
+    } while (!this.balanceCell.compareAndSet(current, updated));
+    return updated;
+  }
+
+  /**
+   * Minor-units variant of {@link #credit(BigDecimal)}; the account must use
+   * {@link MoneyMode#MINOR_UNITS}.
+   */
+  public MinorUnitsBalance credit(long units) {
+    MinorUnitsBalance current;
+    MinorUnitsBalance updated;
+    do {
+      Balance cell = this.balanceCell.get();
+      if (cell instanceof SealedBalance) {
+        throw sealed((SealedBalance) cell);
+      }
+      current = (MinorUnitsBalance) cell;
+      updated = current.plus(units);
+    } while (!this.balanceCell.compareAndSet(current, updated));
+    return updated;
+  }
+
+  /**
+   * Subtracts {@code amount} from the balance, refusing to go below zero. Callers must hold
+   * {@link #getLock()}; the compare-and-set only guards against concurrent credits.
+   */
+  public Balance debit(BigDecimal amount) throws LowAccountBalanceException {
+    Balance current;
+    Balance updated;
+    do {
+      current = this.balanceCell.get();
+      if (current instanceof SealedBalance) {
+        throw sealed((SealedBalance) current);
+      }
+      updated = current.minus(amount);
+      if (updated.signum() < 0) {
+        throw lowBalance();
+      }
+    } while (!this.balanceCell.compareAndSet(current, updated));
+    return updated;
+  }
+
+  /**
+   * Minor-units variant of {@link #debit(BigDecimal)}; the account must use
+   * {@link MoneyMode#MINOR_UNITS}.
+   */
+  public MinorUnitsBalance debit(long units) throws LowAccountBalanceException {
+    MinorUnitsBalance current;
+    MinorUnitsBalance updated;
+    do {
+      Balance cell = this.balanceCell.get();
+      if (cell instanceof SealedBalance) {
+        throw sealed((SealedBalance) cell);
+      }
+      current = (MinorUnitsBalance) cell;
+      updated = current.minus(units);
+      if (updated.signum() < 0) {
+        throw lowBalance();
+      }
+    } while (!this.balanceCell.compareAndSet(current, updated));
+    return updated;
+  }
+
+  /**
+   * The exception a change to a sealed balance fails with.
+   */
+  protected RuntimeException sealed(SealedBalance balance) {
+    return balance.isClosed() ? new AccountClosedException("Account id " + this.accountId + " is closed")
+      : new AccountEvictedException("Account id " + this.accountId + " has moved to the cold store");
   }
-  
+
+  private LowAccountBalanceException lowBalance() {
+    return new LowAccountBalanceException(
+      "Unable to withdraw funds due to Low Account Balance for Account Id " + this.accountId);
+  }
+
 }
@@ -0,0 +1,18 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+import lombok.Data;
+
+/**
+ * Outcome of a bulk account import. Only the first few rejections are described; {@code rejected}
+ * counts all of them.
+ */
+@Data
+public class AccountImportResult {
+
+  private final long imported;
+
+  private final long rejected;
+
+  private final List<String> errors;
+}
@@ -0,0 +1,41 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Immutable balance cell. An {@link Account} publishes a new instance for every change, so a reader
+ * always sees an amount together with the version that produced it. The concrete type depends on
+ * the {@link MoneyMode} the account was created with.
+ */
+public abstract class Balance {
+
+  private final long version;
+
+  protected Balance(long version) {
+    this.version = version;
+  }
+
+  public long getVersion() {
+    return this.version;
+  }
+
+  public abstract BigDecimal getAmount();
+
+  public abstract int signum();
+
+  public abstract Balance plus(BigDecimal delta);
+
+  public abstract Balance minus(BigDecimal delta);
+
+  public abstract Balance withAmount(BigDecimal newAmount);
+
+  /**
+   * Returns the same amount, in the same representation, at {@code newVersion}.
+   */
+  public abstract Balance withVersion(long newVersion);
+
+  @Override
+  public String toString() {
+    return "Balance(amount=" + getAmount() + ", version=" + this.version + ")";
+  }
+}
@@ -0,0 +1,13 @@
+package com.db.awmd.challenge.domain;
+
+/**
+ * How a batch of transfers reacts when some of its entries cannot be applied.
+ */
+public enum BatchMode {
+
+  /** Apply every transfer or none of them. */
+  ALL_OR_NOTHING,
+
+  /** Apply every transfer that can be applied, in order, and report the others as rejected. */
+  BEST_EFFORT
+}
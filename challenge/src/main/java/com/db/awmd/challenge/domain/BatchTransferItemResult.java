@@ -0,0 +1,39 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Data;
+
+/**
+ * Outcome of one entry of a batch, reported at the same index as the request entry.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchTransferItemResult {
+
+  public enum Status {
+    APPLIED,
+    REJECTED,
+    NOT_APPLIED
+  }
+
+  private final int index;
+
+  private final Status status;
+
+  private final String message;
+
+  private final TransferResult result;
+
+  public static BatchTransferItemResult applied(int index, TransferResult result) {
+    return new BatchTransferItemResult(index, Status.APPLIED, null, result);
+  }
+
+  public static BatchTransferItemResult rejected(int index, String message) {
+    return new BatchTransferItemResult(index, Status.REJECTED, message, null);
+  }
+
+  public static BatchTransferItemResult notApplied(int index) {
+    return new BatchTransferItemResult(index, Status.NOT_APPLIED,
+      "Not applied because another transfer in the batch was rejected", null);
+  }
+}
@@ -0,0 +1,23 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+import lombok.Data;
+
+/**
+ * Outcome of a batch of transfers, one entry per requested transfer in request order.
+ */
+@Data
+public class BatchTransferResult {
+
+  private final BatchMode mode;
+
+  private final int applied;
+
+  private final int rejected;
+
+  private final List<BatchTransferItemResult> results;
+
+  public boolean isFullyApplied() {
+    return this.applied == this.results.size();
+  }
+}
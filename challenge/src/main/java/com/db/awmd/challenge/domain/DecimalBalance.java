@@ -0,0 +1,46 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Balance cell holding a {@link BigDecimal}; used in {@link MoneyMode#DECIMAL}.
+ */
+public final class DecimalBalance extends Balance {
+
+  private final BigDecimal amount;
+
+  public DecimalBalance(BigDecimal amount, long version) {
+    super(version);
+    this.amount = amount;
+  }
+
+  @Override
+  public BigDecimal getAmount() {
+    return this.amount;
+  }
+
+  @Override
+  public int signum() {
+    return this.amount.signum();
+  }
+
+  @Override
+  public DecimalBalance plus(BigDecimal delta) {
+    return new DecimalBalance(this.amount.add(delta), getVersion() + 1);
+  }
+
+  @Override
+  public DecimalBalance minus(BigDecimal delta) {
+    return new DecimalBalance(this.amount.subtract(delta), getVersion() + 1);
+  }
+
+  @Override
+  public DecimalBalance withAmount(BigDecimal newAmount) {
+    return new DecimalBalance(newAmount, getVersion() + 1);
+  }
+
+  @Override
+  public DecimalBalance withVersion(long newVersion) {
+    return new DecimalBalance(this.amount, newVersion);
+  }
+}
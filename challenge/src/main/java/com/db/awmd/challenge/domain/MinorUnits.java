@@ -0,0 +1,44 @@
+package com.db.awmd.challenge.domain;
+
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import java.math.BigDecimal;
+
+/**
+ * Conversions between {@link BigDecimal} amounts and fixed-point {@code long} minor units. Every
+ * conversion and every arithmetic step is checked: an amount that does not fit the scale or the
+ * range of a {@code long} is rejected rather than rounded or wrapped.
+ */
+public final class MinorUnits {
+
+  private MinorUnits() {
+  }
+
+  public static long toMinorUnits(BigDecimal amount, int scale) throws InvalidAmountException {
+    try {
+      return amount.movePointRight(scale).longValueExact();
+    } catch (ArithmeticException ex) {
+      throw new InvalidAmountException(
+        "Amount " + amount + " cannot be represented with " + scale + " decimal places");
+    }
+  }
+
+  public static BigDecimal toDecimal(long units, int scale) {
+    return BigDecimal.valueOf(units, scale);
+  }
+
+  public static long add(long units, long delta) throws InvalidAmountException {
+    try {
+      return Math.addExact(units, delta);
+    } catch (ArithmeticException ex) {
+      throw new InvalidAmountException("Balance overflow");
+    }
+  }
+
+  public static long subtract(long units, long delta) throws InvalidAmountException {
+    try {
+      return Math.subtractExact(units, delta);
+    } catch (ArithmeticException ex) {
+      throw new InvalidAmountException("Balance overflow");
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Balance cell holding a {@code long} count of minor units; used in {@link MoneyMode#MINOR_UNITS}.
+ * The {@code long} overloads keep the transfer path free of {@link BigDecimal} allocations.
+ */
+public final class MinorUnitsBalance extends Balance {
+
+  private final long units;
+
+  private final int scale;
+
+  public MinorUnitsBalance(long units, int scale, long version) {
+    super(version);
+    this.units = units;
+    this.scale = scale;
+  }
+
+  public long getUnits() {
+    return this.units;
+  }
+
+  public int getScale() {
+    return this.scale;
+  }
+
+  @Override
+  public BigDecimal getAmount() {
+    return MinorUnits.toDecimal(this.units, this.scale);
+  }
+
+  @Override
+  public int signum() {
+    return Long.signum(this.units);
+  }
+
+  public MinorUnitsBalance plus(long delta) {
+    return new MinorUnitsBalance(MinorUnits.add(this.units, delta), this.scale, getVersion() + 1);
+  }
+
+  public MinorUnitsBalance minus(long delta) {
+    return new MinorUnitsBalance(MinorUnits.subtract(this.units, delta), this.scale, getVersion() + 1);
+  }
+
+  @Override
+  public MinorUnitsBalance plus(BigDecimal delta) {
+    return plus(MinorUnits.toMinorUnits(delta, this.scale));
+  }
+
+  @Override
+  public MinorUnitsBalance minus(BigDecimal delta) {
+    return minus(MinorUnits.toMinorUnits(delta, this.scale));
+  }
+
+  @Override
+  public MinorUnitsBalance withAmount(BigDecimal newAmount) {
+    return new MinorUnitsBalance(MinorUnits.toMinorUnits(newAmount, this.scale), this.scale,
+      getVersion() + 1);
+  }
+
+  @Override
+  public MinorUnitsBalance withVersion(long newVersion) {
+    return new MinorUnitsBalance(this.units, this.scale, newVersion);
+  }
+}
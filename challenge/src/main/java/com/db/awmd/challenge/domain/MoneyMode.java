@@ -0,0 +1,16 @@
+package com.db.awmd.challenge.domain;
+
+/**
+ * How account balances are held in memory.
+ */
+public enum MoneyMode {
+
+  /** Balances and amounts are {@link java.math.BigDecimal}s throughout. */
+  DECIMAL,
+
+  /**
+   * Balances are {@code long} counts of the currency's minor unit (cents for a scale of 2). A
+   * {@link java.math.BigDecimal} is only created when a value crosses the JSON boundary.
+   */
+  MINOR_UNITS
+}
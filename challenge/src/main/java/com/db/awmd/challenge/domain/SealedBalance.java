@@ -0,0 +1,63 @@
+package com.db.awmd.challenge.domain;
+
+import java.math.BigDecimal;
+
+/**
+ * Final balance cell of an account that takes no more changes: one that has been closed, or one
+ * whose instance has been moved to the cold store and replaced by a fresh one on its next use.
+ * Reads still see the last amount; {@link Account#credit(BigDecimal)} and
+ * {@link Account#debit(BigDecimal)} refuse to replace it.
+ */
+public final class SealedBalance extends Balance {
+
+  private final Balance last;
+
+  private final boolean closed;
+
+  SealedBalance(Balance last, long version, boolean closed) {
+    super(version);
+    this.last = last;
+    this.closed = closed;
+  }
+
+  public boolean isClosed() {
+    return this.closed;
+  }
+
+  /**
+   * Returns the balance as it was when it was sealed, in the account's own representation.
+   */
+  public Balance getLast() {
+    return this.last;
+  }
+
+  @Override
+  public BigDecimal getAmount() {
+    return this.last.getAmount();
+  }
+
+  @Override
+  public int signum() {
+    return this.last.signum();
+  }
+
+  @Override
+  public Balance plus(BigDecimal delta) {
+    throw new IllegalStateException("Sealed balances do not change");
+  }
+
+  @Override
+  public Balance minus(BigDecimal delta) {
+    throw new IllegalStateException("Sealed balances do not change");
+  }
+
+  @Override
+  public Balance withAmount(BigDecimal newAmount) {
+    throw new IllegalStateException("Sealed balances do not change");
+  }
+
+  @Override
+  public Balance withVersion(long newVersion) {
+    throw new IllegalStateException("Sealed balances do not change");
+  }
+}
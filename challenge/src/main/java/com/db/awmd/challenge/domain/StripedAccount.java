@@ -0,0 +1,308 @@
+package com.db.awmd.challenge.domain;
+
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Account whose credits are spread over several sub-balance cells, for accounts that receive a
+ * large share of all transfers. Each thread credits its own stripe, so concurrent deposits do not
+ * retry against one compare-and-set cell. A debit, still made under {@link #getLock()}, first
+ * drains every stripe into the main cell and then applies the usual funds check there: stripes only
+ * ever grow between drains, so the check is as strict as for a plain {@link Account}.
+ *
+ * <p>Reads add the main cell and the stripes up, and the version of the total is the sum of the cell
+ * versions, so it only grows. A drain or seal moving amounts between cells raises a move counter
+ * to odd while it runs, and a read that overlaps one is taken again, so no read misses or counts
+ * twice the amount being moved. {@link #currentBalance()} also collects the cells twice and only
+ * accepts a total when both collections saw the very same cells, which makes it a total that held
+ * at one instant; under a stream of credits it gives up after {@value #COLLECT_ATTEMPTS} attempts
+ * and returns the last collection, which may include a credit that finished after one it leaves
+ * out. The balance a credit returns is a single collection.
+ */
+public class StripedAccount extends Account {
+
+  // Stripes sit this many array slots apart so that two of them never share a cache line
+  private static final int PADDING = 16;
+
+  private static final int COLLECT_ATTEMPTS = 8;
+
+  private final int stripes;
+
+  private final AtomicReferenceArray<Balance> stripeCells;
+
+  // Odd while a drain or seal moves amounts between cells; only changed under getLock()
+  private volatile long moves;
+
+  public StripedAccount(Account account, int stripes) {
+    super(account.getAccountId(), account.currentBalance(), account.getCurrency());
+    if (stripes < 1) {
+      throw new IllegalArgumentException("Stripes must be positive");
+    }
+    this.stripes = stripes;
+    this.stripeCells = new AtomicReferenceArray<>(stripes * PADDING);
+    resetStripes(account.currentBalance());
+  }
+
+  @Override
+  public BigDecimal getBalance() {
+    return currentBalance().getAmount();
+  }
+
+  @Override
+  public void setBalance(BigDecimal balance) {
+    drain();
+    super.setBalance(balance);
+  }
+
+  @Override
+  public Balance currentBalance() {
+    Balance main = super.currentBalance();
+    if (main instanceof SealedBalance) {
+      // Sealing moved every stripe into the main cell
+      return main;
+    }
+    Balance[] cells = new Balance[this.stripes + 1];
+    Balance[] again = new Balance[this.stripes + 1];
+    long moves = collect(cells);
+    for (int attempt = 1; attempt < COLLECT_ATTEMPTS; attempt++) {
+      long movesAgain = collect(again);
+      if (movesAgain == moves && sameCells(cells, again)) {
+        break;
+      }
+      Balance[] newer = again;
+      again = cells;
+      cells = newer;
+      moves = movesAgain;
+    }
+    return total(cells);
+  }
+
+  @Override
+  public void useMinorUnits(int scale) {
+    super.useMinorUnits(scale);
+    resetStripes(super.currentBalance());
+  }
+
+  @Override
+  public void restoreBalance(BigDecimal amount, long version) {
+    super.restoreBalance(amount, version);
+    resetStripes(super.currentBalance());
+  }
+
+  @Override
+  public Balance credit(BigDecimal amount) {
+    int index = home();
+    for (;;) {
+      int slot = index * PADDING;
+      Balance current = this.stripeCells.get(slot);
+      if (current instanceof SealedBalance) {
+        throw sealed((SealedBalance) current);
+      }
+      if (this.stripeCells.compareAndSet(slot, current, current.plus(amount))) {
+        return collectedBalance();
+      }
+      // Another thread shares this stripe; move on rather than retry on the same cell
+      index = (index + 1) % this.stripes;
+    }
+  }
+
+  @Override
+  public MinorUnitsBalance credit(long units) {
+    int index = home();
+    for (;;) {
+      int slot = index * PADDING;
+      Balance cell = this.stripeCells.get(slot);
+      if (cell instanceof SealedBalance) {
+        throw sealed((SealedBalance) cell);
+      }
+      MinorUnitsBalance current = (MinorUnitsBalance) cell;
+      if (this.stripeCells.compareAndSet(slot, current, current.plus(units))) {
+        return (MinorUnitsBalance) collectedBalance();
+      }
+      index = (index + 1) % this.stripes;
+    }
+  }
+
+  @Override
+  public Balance debit(BigDecimal amount) throws LowAccountBalanceException {
+    drain();
+    super.debit(amount);
+    return currentBalance();
+  }
+
+  @Override
+  public MinorUnitsBalance debit(long units) throws LowAccountBalanceException {
+    drain();
+    super.debit(units);
+    return (MinorUnitsBalance) currentBalance();
+  }
+
+  /**
+   * Seals every stripe at zero, moving what it held into the main cell, and then seals the main
+   * cell, so a credit racing the seal either lands before it or fails.
+   */
+  @Override
+  public SealedBalance seal(boolean closed) {
+    this.moves++;
+    try {
+      return sealStripes(closed);
+    } finally {
+      this.moves++;
+    }
+  }
+
+  private SealedBalance sealStripes(boolean closed) {
+    long stripeVersions = 0;
+    for (int i = 0; i < this.stripes; i++) {
+      int slot = i * PADDING;
+      Balance current;
+      Balance emptied;
+      do {
+        current = this.stripeCells.get(slot);
+        if (current instanceof SealedBalance) {
+          break;
+        }
+        emptied = current.withAmount(BigDecimal.ZERO);
+      } while (!this.stripeCells.compareAndSet(slot, current,
+        new SealedBalance(emptied, emptied.getVersion(), closed)));
+      stripeVersions += stripe(i).getVersion();
+      if (current instanceof SealedBalance || current.signum() == 0) {
+        continue;
+      }
+      if (current instanceof MinorUnitsBalance) {
+        super.credit(((MinorUnitsBalance) current).getUnits());
+      } else {
+        super.credit(current.getAmount());
+      }
+    }
+    // The sealed total keeps counting the stripes' changes, so its version does not go back
+    return seal(closed, stripeVersions);
+  }
+
+  @Override
+  public void unseal(SealedBalance sealed) {
+    for (int i = 0; i < this.stripes; i++) {
+      Balance current = stripe(i);
+      if (current instanceof SealedBalance) {
+        this.stripeCells.set(i * PADDING, ((SealedBalance) current).getLast());
+      }
+    }
+    super.unseal(sealed);
+  }
+
+  @Override
+  public String toString() {
+    return "StripedAccount(accountId=" + getAccountId() + ", balance=" + currentBalance() + ", stripes="
+      + this.stripes + ")";
+  }
+
+  /**
+   * Moves every stripe's amount into the main cell. Callers must hold {@link #getLock()}.
+   */
+  private void drain() {
+    this.moves++;
+    try {
+      drainStripes();
+    } finally {
+      this.moves++;
+    }
+  }
+
+  private void drainStripes() {
+    for (int i = 0; i < this.stripes; i++) {
+      int slot = i * PADDING;
+      Balance current;
+      do {
+        current = this.stripeCells.get(slot);
+        if (current.signum() == 0) {
+          break;
+        }
+      } while (!this.stripeCells.compareAndSet(slot, current, current.withAmount(BigDecimal.ZERO)));
+      if (current.signum() == 0) {
+        continue;
+      }
+      if (current instanceof MinorUnitsBalance) {
+        super.credit(((MinorUnitsBalance) current).getUnits());
+      } else {
+        super.credit(current.getAmount());
+      }
+    }
+  }
+
+  /**
+   * Reads the main cell and every stripe into {@code cells} while no drain or seal is moving amounts
+   * between them, and returns the move count they were read at.
+   */
+  private long collect(Balance[] cells) {
+    for (;;) {
+      long moves = this.moves;
+      if ((moves & 1) == 0) {
+        cells[0] = super.currentBalance();
+        for (int i = 0; i < this.stripes; i++) {
+          cells[i + 1] = stripe(i);
+        }
+        if (this.moves == moves) {
+          return moves;
+        }
+      }
+      Thread.yield();
+    }
+  }
+
+  private Balance collectedBalance() {
+    Balance[] cells = new Balance[this.stripes + 1];
+    collect(cells);
+    return total(cells);
+  }
+
+  private static boolean sameCells(Balance[] cells, Balance[] again) {
+    for (int i = 0; i < cells.length; i++) {
+      // Every change publishes a new cell, so an unchanged reference is an unchanged cell
+      if (cells[i] != again[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Balance total(Balance[] cells) {
+    Balance main = cells[0];
+    if (main instanceof SealedBalance) {
+      return main;
+    }
+    long version = main.getVersion();
+    if (main instanceof MinorUnitsBalance) {
+      long units = ((MinorUnitsBalance) main).getUnits();
+      for (int i = 1; i < cells.length; i++) {
+        MinorUnitsBalance stripe = (MinorUnitsBalance) cells[i];
+        units = MinorUnits.add(units, stripe.getUnits());
+        version += stripe.getVersion();
+      }
+      return new MinorUnitsBalance(units, ((MinorUnitsBalance) main).getScale(), version);
+    }
+    BigDecimal amount = main.getAmount();
+    for (int i = 1; i < cells.length; i++) {
+      amount = amount.add(cells[i].getAmount());
+      version += cells[i].getVersion();
+    }
+    return new DecimalBalance(amount, version);
+  }
+
+  private void resetStripes(Balance main) {
+    Balance empty = main instanceof MinorUnitsBalance
+      ? new MinorUnitsBalance(0L, ((MinorUnitsBalance) main).getScale(), 0)
+      : new DecimalBalance(BigDecimal.ZERO, 0);
+    for (int i = 0; i < this.stripes; i++) {
+      this.stripeCells.set(i * PADDING, empty);
+    }
+  }
+
+  private Balance stripe(int index) {
+    return this.stripeCells.get(index * PADDING);
+  }
+
+  private int home() {
+    return (int) (Thread.currentThread().getId() % this.stripes);
+  }
+}
@@ -0,0 +1,19 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
+import lombok.Data;
+
+/**
+ * A transfer as recorded in the transfer ledger: its position in the ledger, when it was applied in
+ * epoch milliseconds, and the transfer with the balances it left behind.
+ */
+@Data
+public class TransferEvent {
+
+  private final long sequence;
+
+  private final long timestamp;
+
+  @JsonUnwrapped
+  private final TransferResult transfer;
+}
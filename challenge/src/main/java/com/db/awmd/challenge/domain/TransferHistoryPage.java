@@ -0,0 +1,18 @@
+package com.db.awmd.challenge.domain;
+
+import java.util.List;
+import lombok.Data;
+
+/**
+ * One page of an account's transfer history, oldest first. {@code nextCursor} is passed back as
+ * {@code cursor} to fetch the following page and is null on the last one.
+ */
+@Data
+public class TransferHistoryPage {
+
+  private final String accountId;
+
+  private final List<TransferEvent> transfers;
+
+  private final Long nextCursor;
+}
@@ -0,0 +1,28 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import java.math.BigDecimal;
+import lombok.Data;
+
+/**
+ * One entry of a batch transfer request.
+ */
+@Data
+public class TransferRequest {
+
+  private final String fromAccountId;
+
+  private final String toAccountId;
+
+  private final BigDecimal amount;
+
+  @JsonCreator
+  public TransferRequest(@JsonProperty("fromAccountId") String fromAccountId,
+    @JsonProperty("toAccountId") String toAccountId,
+    @JsonProperty("amount") BigDecimal amount) {
+    this.fromAccountId = fromAccountId;
+    this.toAccountId = toAccountId;
+    this.amount = amount;
+  }
+}
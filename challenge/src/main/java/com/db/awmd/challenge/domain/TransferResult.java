@@ -0,0 +1,37 @@
+package com.db.awmd.challenge.domain;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.math.BigDecimal;
+import lombok.Data;
+
+/**
+ * Outcome of a single atomic transfer: the balances of both accounts right after the transfer was
+ * applied. {@code amount} is in the currency of the withdrawn account; when the deposited account
+ * holds another currency, {@code depositedAmount} is what it was credited and {@code rate} the
+ * exchange rate used. {@code sequence} is the number the store gave the transfer for the ledger, or
+ * -1 when it gave none.
+ */
+@Data
+public class TransferResult {
+
+  private final String fromAccountId;
+
+  private final String toAccountId;
+
+  private final BigDecimal amount;
+
+  private final BigDecimal newWithdrawnAccountBalance;
+
+  private final BigDecimal newDepositedAccountBalance;
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private BigDecimal depositedAmount;
+
+  @JsonInclude(JsonInclude.Include.NON_NULL)
+  private BigDecimal rate;
+
+  @JsonIgnore
+  private long sequence = -1;
+
+}
@@ -0,0 +1,12 @@
+package com.db.awmd.challenge.exception;
+
+public class AccountClosedException extends RuntimeException {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public AccountClosedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,16 @@
+package com.db.awmd.challenge.exception;
+
+/**
+ * Raised when a balance change reaches an account instance that has been moved to the cold store.
+ * Never leaves the repository, which looks the account up again and retries.
+ */
+public class AccountEvictedException extends RuntimeException {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public AccountEvictedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,12 @@
+package com.db.awmd.challenge.exception;
+
+public class AccountNotEmptyException extends RuntimeException {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public AccountNotEmptyException(String message) {
+		super(message);
+	}
+}
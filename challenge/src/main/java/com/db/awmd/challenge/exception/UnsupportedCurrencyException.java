@@ -0,0 +1,12 @@
+package com.db.awmd.challenge.exception;
+
+public class UnsupportedCurrencyException extends RuntimeException {
+	/**
+	 * 
+	 */
+	private static final long serialVersionUID = 1L;
+
+	public UnsupportedCurrencyException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,234 @@
+package com.db.awmd.challenge.fx;
+
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.UnsupportedCurrencyException;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Exchange rates used to credit a transfer in the currency of the receiving account.
+ *
+ * <p>The table is copy-on-write: every refresh builds a complete new set of cross rates, one for
+ * each pair of known currencies, and publishes it with a single volatile write. A transfer reads
+ * that reference once and looks its pair up in plain hash maps, so converting takes no lock, never
+ * waits for a refresh and never sees a half-loaded table. Rates are quoted against
+ * {@code fx.base-currency}; an account without a currency holds the base currency.
+ *
+ * <p>Rates come from {@link #update(Map)}, for a feed, or from {@code fx.rates-file}, a properties
+ * file of {@code CODE=rate} lines giving how much of each currency one unit of the base currency
+ * buys. The file is read at startup and again every {@code fx.refresh-seconds} when it has
+ * changed; a file that does not parse is logged and the previous rates stay in use.
+ */
+@Component
+@Slf4j
+public class FxRateTable {
+
+	private final String baseCurrency;
+
+	private final Path ratesFile;
+
+	private final long refreshSeconds;
+
+	private volatile Rates rates;
+
+	private long loadedModified = Long.MIN_VALUE;
+
+	private ScheduledExecutorService refresher;
+
+	public FxRateTable() {
+		this("EUR", "", 0);
+	}
+
+	@Autowired
+	public FxRateTable(@Value("${fx.base-currency:EUR}") String baseCurrency,
+			@Value("${fx.rates-file:}") String ratesFile,
+			@Value("${fx.refresh-seconds:60}") long refreshSeconds) {
+		this.baseCurrency = requireCurrency(baseCurrency);
+		this.ratesFile = ratesFile.isEmpty() ? null : Paths.get(ratesFile);
+		this.refreshSeconds = refreshSeconds;
+		this.rates = new Rates(Collections.singletonMap(this.baseCurrency, BigDecimal.ONE));
+	}
+
+	@PostConstruct
+	public void start() {
+		if (this.ratesFile == null) {
+			return;
+		}
+		refresh();
+		if (this.refreshSeconds > 0) {
+			this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "fx-rates");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.refresher.scheduleWithFixedDelay(this::refresh, this.refreshSeconds, this.refreshSeconds,
+					TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (this.refresher != null) {
+			this.refresher.shutdownNow();
+		}
+	}
+
+	public String getBaseCurrency() {
+		return this.baseCurrency;
+	}
+
+	/**
+	 * Replaces every rate at once. {@code rates} gives, per currency code, how much of it one unit of
+	 * the base currency buys; the base currency itself is always 1.
+	 */
+	public void update(Map<String, BigDecimal> rates) {
+		Map<String, BigDecimal> perBase = new HashMap<>();
+		for (Map.Entry<String, BigDecimal> rate : rates.entrySet()) {
+			if (rate.getValue() == null || rate.getValue().signum() <= 0) {
+				throw new IllegalArgumentException("Rate for " + rate.getKey() + " must be positive");
+			}
+			perBase.put(requireCurrency(rate.getKey()), rate.getValue());
+		}
+		perBase.put(this.baseCurrency, BigDecimal.ONE);
+		this.rates = new Rates(perBase);
+		log.info("Loaded exchange rates for {} currencies against {}", perBase.size(), this.baseCurrency);
+	}
+
+	/**
+	 * Returns the currency an account holds: its own, or the base currency when it has none.
+	 */
+	public String currencyOf(String currency) {
+		return currency == null ? this.baseCurrency : currency;
+	}
+
+	/**
+	 * Returns whether two accounts' currencies are the same, so a transfer needs no conversion.
+	 */
+	public boolean sameCurrency(String first, String second) {
+		return currencyOf(first).equals(currencyOf(second));
+	}
+
+	/**
+	 * Returns how much of {@code to} one unit of {@code from} buys, or {@code null} when either has no
+	 * rate.
+	 */
+	public BigDecimal getRate(String from, String to) {
+		Map<String, BigDecimal> fromRates = this.rates.cross.get(currencyOf(from));
+		return fromRates == null ? null : fromRates.get(currencyOf(to));
+	}
+
+	/**
+	 * Returns the rate a transfer from {@code from} to {@code to} converts at, or {@code null} when
+	 * both are the same currency and nothing needs converting.
+	 */
+	public BigDecimal rateFor(String from, String to) throws UnsupportedCurrencyException {
+		if (sameCurrency(from, to)) {
+			return null;
+		}
+		BigDecimal rate = getRate(from, to);
+		if (rate == null) {
+			throw new UnsupportedCurrencyException(
+					"No exchange rate from " + currencyOf(from) + " to " + currencyOf(to));
+		}
+		return rate;
+	}
+
+	/**
+	 * Converts {@code amount} at {@code rate} into {@code to}, rounded half-even to {@code scale}
+	 * decimal places. An amount that rounds down to nothing is rejected.
+	 */
+	public BigDecimal convert(BigDecimal amount, BigDecimal rate, String to, int scale) throws InvalidAmountException {
+		BigDecimal converted = amount.multiply(rate).setScale(scale, RoundingMode.HALF_EVEN);
+		if (converted.signum() <= 0) {
+			throw new InvalidAmountException("Transfer amount is too small to convert to " + currencyOf(to));
+		}
+		return converted;
+	}
+
+	/**
+	 * Returns the decimal places usually used for amounts of {@code currency}.
+	 */
+	public int fractionDigits(String currency) {
+		return Math.max(0, Currency.getInstance(currencyOf(currency)).getDefaultFractionDigits());
+	}
+
+	/**
+	 * Returns {@code currency} when it is an ISO 4217 code, and rejects anything else.
+	 */
+	public static String requireCurrency(String currency) throws UnsupportedCurrencyException {
+		try {
+			return Currency.getInstance(currency).getCurrencyCode();
+		} catch (IllegalArgumentException | NullPointerException ex) {
+			throw new UnsupportedCurrencyException("Unknown currency " + currency);
+		}
+	}
+
+	/**
+	 * Loads {@code fx.rates-file} again if it changed since it was last loaded.
+	 */
+	public synchronized void refresh() {
+		if (this.ratesFile == null) {
+			return;
+		}
+		try {
+			long modified = Files.getLastModifiedTime(this.ratesFile).toMillis();
+			if (modified == this.loadedModified) {
+				return;
+			}
+			Properties properties = new Properties();
+			try (Reader reader = Files.newBufferedReader(this.ratesFile, StandardCharsets.UTF_8)) {
+				properties.load(reader);
+			}
+			Map<String, BigDecimal> rates = new HashMap<>();
+			for (String currency : properties.stringPropertyNames()) {
+				rates.put(currency.trim(), new BigDecimal(properties.getProperty(currency).trim()));
+			}
+			update(rates);
+			this.loadedModified = modified;
+		} catch (IOException | RuntimeException ex) {
+			log.warn("Unable to load exchange rates from {}; keeping the previous rates", this.ratesFile, ex);
+		}
+	}
+
+	/**
+	 * One published set of rates. Never changed after construction.
+	 */
+	private static final class Rates {
+
+		private final Map<String, Map<String, BigDecimal>> cross;
+
+		private Rates(Map<String, BigDecimal> perBase) {
+			Map<String, Map<String, BigDecimal>> cross = new HashMap<>();
+			for (Map.Entry<String, BigDecimal> from : perBase.entrySet()) {
+				Map<String, BigDecimal> fromRates = new HashMap<>();
+				for (Map.Entry<String, BigDecimal> to : perBase.entrySet()) {
+					fromRates.put(to.getKey(), from.getKey().equals(to.getKey()) ? BigDecimal.ONE
+							: to.getValue().divide(from.getValue(), MathContext.DECIMAL64));
+				}
+				cross.put(from.getKey(), fromRates);
+			}
+			this.cross = cross;
+		}
+	}
+}
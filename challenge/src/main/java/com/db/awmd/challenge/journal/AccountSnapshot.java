@@ -0,0 +1,231 @@
+package com.db.awmd.challenge.journal;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.MinorUnitsBalance;
+import com.db.awmd.challenge.domain.SealedBalance;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compact binary image of every account, paired with the {@link TransferJournal} segment that
+ * replay has to resume from.
+ *
+ * <p>A snapshot is taken while transfers keep running. The journal is rolled to a new segment
+ * first, then each account's immutable balance cell is read once. Any change the snapshot missed
+ * was applied after that account was read, and so was journaled into the new segment or a later
+ * one; changes it did catch may appear there too, and replay skips them by version.
+ *
+ * <p>Layout: {@code [int magic][byte format][long fromSegment]} then one {@code [byte 1][entry]}
+ * per account, {@code [byte 0][long count][int crc32]}. The amount kind of an entry is flagged when
+ * its account is closed, as in the journal. Format 2 entries carry the account's currency code,
+ * empty for the base currency. Format 1 snapshots have no format byte: the segment index follows the
+ * magic directly, and its top byte, always 0, is read as the format.
+ */
+@Slf4j
+public final class AccountSnapshot {
+
+	private static final int MAGIC = 0x41435353;
+
+	private static final String PREFIX = "snapshot-";
+
+	private static final String SUFFIX = ".bin";
+
+	private static final int CLOSED = 2;
+
+	private static final byte FORMAT_VERSION = 2;
+
+	private AccountSnapshot() {
+	}
+
+	/**
+	 * Writes a snapshot of the accounts supplied by {@code source} and returns the number written.
+	 * The file only appears under its final name once it is complete and on disk.
+	 */
+	public static long write(Path directory, long fromSegment, Consumer<Consumer<Account>> source) throws IOException {
+		Path target = directory.resolve(String.format("%s%016d%s", PREFIX, fromSegment, SUFFIX));
+		Path temporary = directory.resolve(target.getFileName() + ".tmp");
+		long count;
+		try (FileOutputStream file = new FileOutputStream(temporary.toFile())) {
+			CRC32 crc = new CRC32();
+			DataOutputStream out = new DataOutputStream(
+					new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), crc));
+			out.writeInt(MAGIC);
+			out.writeByte(FORMAT_VERSION);
+			out.writeLong(fromSegment);
+			long[] written = new long[1];
+			try {
+				source.accept(account -> {
+					try {
+						out.writeByte(1);
+						writeEntry(out, account);
+						written[0]++;
+					} catch (IOException ex) {
+						throw new UncheckedIOException(ex);
+					}
+				});
+			} catch (UncheckedIOException ex) {
+				throw ex.getCause();
+			}
+			count = written[0];
+			out.writeByte(0);
+			out.writeLong(count);
+			out.writeInt((int) crc.getValue());
+			out.flush();
+			file.getFD().sync();
+		}
+		Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE);
+		return count;
+	}
+
+	/**
+	 * Loads the newest intact snapshot into {@code visitor} and returns the journal segment replay
+	 * must resume from, or 0 when there is no usable snapshot and the whole journal must be replayed.
+	 */
+	public static long loadLatest(Path directory, JournalVisitor visitor) throws IOException {
+		List<Path> snapshots = snapshotFiles(directory);
+		for (int i = snapshots.size() - 1; i >= 0; i--) {
+			Path path = snapshots.get(i);
+			long fromSegment = read(path, visitor);
+			if (fromSegment >= 0) {
+				return fromSegment;
+			}
+			// Entries are streamed before the checksum can be verified, so undo them and fall back
+			log.warn("Ignoring unreadable snapshot {}", path);
+			visitor.onClear();
+		}
+		return 0;
+	}
+
+	/**
+	 * Removes every snapshot older than the one resuming from {@code fromSegment}.
+	 */
+	public static void deleteBefore(Path directory, long fromSegment) throws IOException {
+		for (Path path : snapshotFiles(directory)) {
+			if (indexOf(path) < fromSegment) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	private static long read(Path path, JournalVisitor visitor) throws IOException {
+		CRC32 crc = new CRC32();
+		try (InputStream file = Files.newInputStream(path)) {
+			DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(file, 1 << 16), crc));
+			if (in.readInt() != MAGIC) {
+				return -1;
+			}
+			byte format = in.readByte();
+			long fromSegment;
+			if (format == 0) {
+				format = 1;
+				fromSegment = 0;
+				for (int i = 0; i < 7; i++) {
+					fromSegment = fromSegment << 8 | in.readUnsignedByte();
+				}
+			} else if (format == FORMAT_VERSION) {
+				fromSegment = in.readLong();
+			} else {
+				log.warn("Snapshot {} has format {}, newer than this version reads", path, format);
+				return -1;
+			}
+			long read = 0;
+			while (in.readByte() == 1) {
+				String accountId = in.readUTF();
+				String currency = format >= 2 ? in.readUTF() : "";
+				long version = in.readLong();
+				int scale = in.readInt();
+				byte kind = in.readByte();
+				BigDecimal amount;
+				if ((kind & ~CLOSED) == 0) {
+					amount = BigDecimal.valueOf(in.readLong(), scale);
+				} else {
+					byte[] unscaled = new byte[in.readInt()];
+					in.readFully(unscaled);
+					amount = new BigDecimal(new BigInteger(unscaled), scale);
+				}
+				visitor.onBalance(accountId, currency.isEmpty() ? null : currency, amount, version, (kind & CLOSED) != 0);
+				read++;
+			}
+			long count = in.readLong();
+			int expected = (int) crc.getValue();
+			if (in.readInt() != expected || count != read) {
+				return -1;
+			}
+			return fromSegment;
+		} catch (EOFException ex) {
+			return -1;
+		}
+	}
+
+	private static void writeEntry(DataOutputStream out, Account account) throws IOException {
+		Balance balance = account.currentBalance();
+		out.writeUTF(account.getAccountId());
+		out.writeUTF(account.getCurrency() == null ? "" : account.getCurrency());
+		out.writeLong(balance.getVersion());
+		int closed = 0;
+		if (balance instanceof SealedBalance) {
+			closed = ((SealedBalance) balance).isClosed() ? CLOSED : 0;
+			balance = ((SealedBalance) balance).getLast();
+		}
+		if (balance instanceof MinorUnitsBalance) {
+			MinorUnitsBalance units = (MinorUnitsBalance) balance;
+			out.writeInt(units.getScale());
+			out.writeByte(closed);
+			out.writeLong(units.getUnits());
+			return;
+		}
+		BigDecimal amount = balance.getAmount();
+		BigInteger unscaled = amount.unscaledValue();
+		out.writeInt(amount.scale());
+		if (unscaled.bitLength() < 64) {
+			out.writeByte(closed);
+			out.writeLong(unscaled.longValue());
+		} else {
+			byte[] bytes = unscaled.toByteArray();
+			out.writeByte(1 | closed);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static List<Path> snapshotFiles(Path directory) throws IOException {
+		List<Path> paths = new ArrayList<>();
+		if (!Files.isDirectory(directory)) {
+			return paths;
+		}
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+			for (Path path : stream) {
+				paths.add(path);
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	private static long indexOf(Path path) {
+		String name = path.getFileName().toString();
+		return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+	}
+}
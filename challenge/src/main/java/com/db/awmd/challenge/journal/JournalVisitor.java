@@ -0,0 +1,18 @@
+package com.db.awmd.challenge.journal;
+
+import java.math.BigDecimal;
+
+/**
+ * Receives the records of a {@link TransferJournal} in the order they were appended.
+ */
+public interface JournalVisitor {
+
+	/** All accounts were removed. */
+	void onClear();
+
+	/**
+	 * An account in {@code currency}, {@code null} for the base currency, held {@code amount} at
+	 * {@code version}, and had been closed if {@code closed}.
+	 */
+	void onBalance(String accountId, String currency, BigDecimal amount, long version, boolean closed);
+}
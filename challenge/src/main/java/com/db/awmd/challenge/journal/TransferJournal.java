@@ -0,0 +1,568 @@
+package com.db.awmd.challenge.journal;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.MinorUnitsBalance;
+import com.db.awmd.challenge.domain.SealedBalance;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only binary journal of account balances, written through memory-mapped segment files.
+ *
+ * <p>Every record carries the full balance cell (amount and version) of each account it touches
+ * rather than the operation that changed it. Replay keeps the highest version seen per account, so
+ * the outcome does not depend on the order in which concurrent transfers reached the journal.
+ *
+ * <p>Appends copy an encoded record into the current segment under a short lock. With {@code fsync}
+ * enabled the caller then waits until a flusher thread has forced the segment to disk; one force
+ * covers every record appended since the previous one, so concurrent transfers share a single
+ * fsync (group commit).
+ *
+ * <p>Record layout: {@code [int length][int crc32][byte type][payload]}. A zero length marks the
+ * unused tail of a segment. Each balance in a payload is flagged when its account is closed.
+ * Balances records start with a format version byte; version 2 adds each account's currency code.
+ * Records of version 1, written before the version byte existed under their own type, are still
+ * replayed, their accounts in the base currency.
+ */
+@Slf4j
+public class TransferJournal implements Closeable {
+
+	private static final String SEGMENT_PREFIX = "journal-";
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+
+	private static final int HEADER_SIZE = 8;
+
+	private static final byte TYPE_CLEAR = 1;
+
+	// Format 1, without the version byte or currencies; only ever read
+	private static final byte TYPE_BALANCES = 2;
+
+	private static final byte TYPE_VERSIONED_BALANCES = 3;
+
+	private static final byte FORMAT_VERSION = 2;
+
+	private static final byte AMOUNT_LONG = 0;
+
+	private static final byte AMOUNT_BIG = 1;
+
+	// Set alongside the amount kind on the balance of a closed account
+	private static final byte CLOSED = 2;
+
+	private final Path directory;
+
+	private final int segmentSize;
+
+	private final boolean fsync;
+
+	private final ReentrantLock appendLock = new ReentrantLock();
+
+	// A lock rather than a monitor, so a virtual thread waiting for the disk frees its carrier
+	private final ReentrantLock durabilityLock = new ReentrantLock();
+
+	private final Condition durability = this.durabilityLock.newCondition();
+
+	private final ThreadLocal<Encoder> encoders = ThreadLocal.withInitial(Encoder::new);
+
+	private MappedByteBuffer segment;
+
+	private long segmentIndex;
+
+	private volatile long appendedSequence;
+
+	private long durableSequence;
+
+	// Why the flusher stopped before close(), if it did; records it had not forced never will be
+	private RuntimeException failure;
+
+	// Set once close() has forced the last segment; nothing appended after that is forced
+	private boolean closed;
+
+	private volatile boolean running;
+
+	private Thread flusher;
+
+	public TransferJournal(Path directory, int segmentSize, boolean fsync) {
+		this.directory = directory;
+		this.segmentSize = segmentSize;
+		this.fsync = fsync;
+	}
+
+	/**
+	 * Replays every intact record on disk. Must be called before {@link #open()}. A segment ends at
+	 * its first torn or corrupt record, which can only be the tail of the last write before a crash:
+	 * the record is marked as the unused tail of the segment, so later restarts stop there too, and
+	 * replay goes on with the segments recovery appended to afterwards.
+	 */
+	public void replay(JournalVisitor visitor) throws IOException {
+		replay(visitor, 0);
+	}
+
+	/**
+	 * Replays the intact records of segment {@code fromSegment} and every later segment, skipping
+	 * the history an {@link AccountSnapshot} already covers.
+	 */
+	public void replay(JournalVisitor visitor, long fromSegment) throws IOException {
+		Files.createDirectories(this.directory);
+		for (Path path : segmentFiles()) {
+			long index = indexOf(path);
+			this.segmentIndex = Math.max(this.segmentIndex, index);
+			if (index < fromSegment) {
+				continue;
+			}
+			long torn = replaySegment(path, visitor);
+			if (torn >= 0) {
+				log.warn("Journal segment {} ends with a torn record at offset {}; dropping it", path, torn);
+				markEnd(path, torn);
+			}
+		}
+	}
+
+	/**
+	 * Starts a fresh segment after the last one on disk and, with fsync enabled, the flusher thread.
+	 */
+	public void open() throws IOException {
+		Files.createDirectories(this.directory);
+		if (this.segmentIndex == 0) {
+			for (Path path : segmentFiles()) {
+				this.segmentIndex = Math.max(this.segmentIndex, indexOf(path));
+			}
+		}
+		this.segment = mapSegment(++this.segmentIndex);
+		this.running = true;
+		if (this.fsync) {
+			this.flusher = new Thread(this::flushLoop, "journal-flusher");
+			this.flusher.setDaemon(true);
+			this.flusher.start();
+		}
+	}
+
+	/**
+	 * Records the current balance cell of each account and, with fsync enabled, returns once the
+	 * record is on disk.
+	 */
+	public void appendBalances(Account... accounts) {
+		awaitDurable(append(this.encoders.get().encodeBalances(accounts)));
+	}
+
+	public void appendBalances(List<Account> accounts) {
+		appendBalances(accounts.toArray(new Account[accounts.size()]));
+	}
+
+	/**
+	 * Records the current balance cell of each account without waiting for the disk, so the caller
+	 * can release its locks first. Returns the sequence to pass to {@link #awaitDurable(long)}.
+	 */
+	public long appendBalancesLater(List<Account> accounts) {
+		return append(this.encoders.get().encodeBalances(accounts.toArray(new Account[accounts.size()])));
+	}
+
+	public void appendClear() {
+		awaitDurable(append(this.encoders.get().encodeClear()));
+	}
+
+	/**
+	 * With fsync enabled, returns once the record appended as {@code sequence}, and every record
+	 * before it, is on disk. Throws if the wait is interrupted, if forcing the journal failed or if the
+	 * journal closed first, as the record may not be on disk then.
+	 */
+	public void awaitDurable(long sequence) {
+		if (!this.fsync) {
+			return;
+		}
+		this.durabilityLock.lock();
+		try {
+			this.durability.signalAll();
+			while (this.durableSequence < sequence && this.failure == null && !this.closed) {
+				try {
+					this.durability.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					throw new UncheckedIOException(
+							new InterruptedIOException("Interrupted while the journal record was being forced to disk"));
+				}
+			}
+			if (this.durableSequence < sequence) {
+				throw new UncheckedIOException(this.failure != null
+						? new IOException("The journal could not be forced to disk", this.failure)
+						: new IOException("The journal closed before the record was forced to disk"));
+			}
+		} finally {
+			this.durabilityLock.unlock();
+		}
+	}
+
+	/**
+	 * Forces the current segment and starts a new one, returning the new segment's index. Every
+	 * record appended from now on lands in that segment or a later one.
+	 */
+	public long roll() {
+		this.appendLock.lock();
+		try {
+			roll(0);
+			return this.segmentIndex;
+		} finally {
+			this.appendLock.unlock();
+		}
+	}
+
+	/**
+	 * Deletes the segments before {@code segment} once a snapshot makes them redundant.
+	 */
+	public void deleteSegmentsBefore(long segment) throws IOException {
+		for (Path path : segmentFiles()) {
+			if (indexOf(path) < segment) {
+				Files.deleteIfExists(path);
+			}
+		}
+	}
+
+	public Path getDirectory() {
+		return this.directory;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.running = false;
+		this.durabilityLock.lock();
+		try {
+			this.durability.signalAll();
+		} finally {
+			this.durabilityLock.unlock();
+		}
+		if (this.flusher != null) {
+			try {
+				this.flusher.join();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		long forced = -1;
+		this.appendLock.lock();
+		try {
+			if (this.segment != null) {
+				this.segment.force();
+				forced = this.appendedSequence;
+			}
+		} finally {
+			this.appendLock.unlock();
+			this.durabilityLock.lock();
+			try {
+				if (this.failure == null) {
+					this.durableSequence = Math.max(this.durableSequence, forced);
+				}
+				this.closed = true;
+				this.durability.signalAll();
+			} finally {
+				this.durabilityLock.unlock();
+			}
+		}
+	}
+
+	private long append(ByteBuffer record) {
+		this.appendLock.lock();
+		try {
+			if (this.segment.remaining() < record.remaining() + 4) {
+				roll(record.remaining());
+			}
+			this.segment.put(record);
+			return ++this.appendedSequence;
+		} finally {
+			this.appendLock.unlock();
+		}
+	}
+
+	private void roll(int recordSize) {
+		if (recordSize + 4 > this.segmentSize) {
+			throw new IllegalArgumentException("Journal record of " + recordSize + " bytes exceeds the segment size");
+		}
+		// Records already in the old segment become durable here; the flusher only forces the current one
+		this.segment.force();
+		try {
+			this.segment = mapSegment(++this.segmentIndex);
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * Forces whatever has been appended whenever there is something new, and once more on the way out
+	 * so writers racing {@link #close()} are not left waiting. A failure stops the loop and is handed
+	 * to every waiting and later writer instead of leaving them to wait for a flush that never comes.
+	 */
+	private void flushLoop() {
+		try {
+			boolean more = true;
+			while (more) {
+				this.durabilityLock.lock();
+				try {
+					while (this.running && this.durableSequence >= this.appendedSequence) {
+						this.durability.await();
+					}
+					more = this.running;
+				} finally {
+					this.durabilityLock.unlock();
+				}
+				flush();
+			}
+		} catch (InterruptedException ex) {
+			fail(new UncheckedIOException(new InterruptedIOException("Journal flusher interrupted")));
+		} catch (RuntimeException ex) {
+			log.error("Unable to force the journal to disk; writers waiting on it will fail", ex);
+			fail(ex);
+		}
+	}
+
+	private void flush() {
+		long target;
+		MappedByteBuffer current;
+		this.appendLock.lock();
+		try {
+			target = this.appendedSequence;
+			current = this.segment;
+		} finally {
+			this.appendLock.unlock();
+		}
+		current.force();
+		this.durabilityLock.lock();
+		try {
+			this.durableSequence = target;
+			this.durability.signalAll();
+		} finally {
+			this.durabilityLock.unlock();
+		}
+	}
+
+	private void fail(RuntimeException ex) {
+		this.durabilityLock.lock();
+		try {
+			this.failure = ex;
+			this.durability.signalAll();
+		} finally {
+			this.durabilityLock.unlock();
+		}
+	}
+
+	/**
+	 * Replays the intact records of one segment and returns the offset of the first torn one, or -1
+	 * when there is none.
+	 */
+	private long replaySegment(Path path, JournalVisitor visitor) throws IOException {
+		ByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		CRC32 crc = new CRC32();
+		while (buffer.remaining() >= HEADER_SIZE) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+			if (length == 0) {
+				return -1;
+			}
+			int checksum = buffer.getInt();
+			if (length < 0 || length > buffer.remaining()) {
+				return start;
+			}
+			ByteBuffer payload = buffer.slice();
+			payload.limit(length);
+			crc.reset();
+			crc.update(payload.duplicate());
+			if ((int) crc.getValue() != checksum) {
+				return start;
+			}
+			try {
+				decode(payload, visitor);
+			} catch (BufferUnderflowException ex) {
+				return start;
+			}
+			buffer.position(buffer.position() + length);
+		}
+		return -1;
+	}
+
+	// A zero length is what ends a segment that was never filled
+	private static void markEnd(Path path, long offset) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			ByteBuffer end = ByteBuffer.allocate(4);
+			while (end.hasRemaining()) {
+				channel.write(end, offset + end.position());
+			}
+			channel.force(false);
+		}
+	}
+
+	private static void decode(ByteBuffer payload, JournalVisitor visitor) throws IOException {
+		byte type = payload.get();
+		if (type == TYPE_CLEAR) {
+			visitor.onClear();
+			return;
+		}
+		byte format = type == TYPE_BALANCES ? 1 : payload.get();
+		if (format > FORMAT_VERSION) {
+			throw new IOException("Journal record of format " + format + " is newer than this version reads");
+		}
+		int count = payload.getInt();
+		for (int i = 0; i < count; i++) {
+			byte[] id = new byte[payload.getShort() & 0xFFFF];
+			payload.get(id);
+			String currency = null;
+			if (format >= 2) {
+				byte[] code = new byte[payload.get()];
+				payload.get(code);
+				currency = code.length == 0 ? null : new String(code, StandardCharsets.US_ASCII);
+			}
+			long version = payload.getLong();
+			int scale = payload.getInt();
+			byte kind = payload.get();
+			BigDecimal amount;
+			if ((kind & ~CLOSED) == AMOUNT_LONG) {
+				amount = BigDecimal.valueOf(payload.getLong(), scale);
+			} else {
+				byte[] unscaled = new byte[payload.getInt()];
+				payload.get(unscaled);
+				amount = new BigDecimal(new BigInteger(unscaled), scale);
+			}
+			visitor.onBalance(new String(id, StandardCharsets.UTF_8), currency, amount, version, (kind & CLOSED) != 0);
+		}
+	}
+
+	private MappedByteBuffer mapSegment(long index) throws IOException {
+		Path path = this.directory.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+		try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+			file.setLength(this.segmentSize);
+			return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.segmentSize);
+		}
+	}
+
+	private List<Path> segmentFiles() throws IOException {
+		List<Path> paths = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(this.directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+			for (Path path : stream) {
+				paths.add(path);
+			}
+		}
+		Collections.sort(paths);
+		return paths;
+	}
+
+	private static long indexOf(Path path) {
+		String name = path.getFileName().toString();
+		return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+	}
+
+	/**
+	 * Per-thread encoding buffer, reused across appends so encoding happens outside the append lock
+	 * without allocating.
+	 */
+	private static final class Encoder {
+
+		private ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+		private final CRC32 crc = new CRC32();
+
+		ByteBuffer encodeClear() {
+			begin();
+			this.buffer.put(TYPE_CLEAR);
+			return finish();
+		}
+
+		ByteBuffer encodeBalances(Account[] accounts) {
+			begin();
+			this.buffer.put(TYPE_VERSIONED_BALANCES);
+			this.buffer.put(FORMAT_VERSION);
+			this.buffer.putInt(accounts.length);
+			for (Account account : accounts) {
+				putBalance(account.getAccountId(), account.getCurrency(), account.currentBalance());
+			}
+			return finish();
+		}
+
+		private void putBalance(String accountId, String currency, Balance balance) {
+			byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+			ensure(id.length + 64);
+			this.buffer.putShort((short) id.length);
+			this.buffer.put(id);
+			if (currency == null) {
+				this.buffer.put((byte) 0);
+			} else {
+				this.buffer.put((byte) currency.length());
+				this.buffer.put(currency.getBytes(StandardCharsets.US_ASCII));
+			}
+			this.buffer.putLong(balance.getVersion());
+			byte closed = 0;
+			if (balance instanceof SealedBalance) {
+				closed = ((SealedBalance) balance).isClosed() ? CLOSED : 0;
+				balance = ((SealedBalance) balance).getLast();
+			}
+			if (balance instanceof MinorUnitsBalance) {
+				MinorUnitsBalance units = (MinorUnitsBalance) balance;
+				this.buffer.putInt(units.getScale());
+				this.buffer.put((byte) (AMOUNT_LONG | closed));
+				this.buffer.putLong(units.getUnits());
+				return;
+			}
+			BigDecimal amount = balance.getAmount();
+			BigInteger unscaled = amount.unscaledValue();
+			this.buffer.putInt(amount.scale());
+			if (unscaled.bitLength() < 64) {
+				this.buffer.put((byte) (AMOUNT_LONG | closed));
+				this.buffer.putLong(unscaled.longValue());
+			} else {
+				byte[] bytes = unscaled.toByteArray();
+				ensure(bytes.length + 8);
+				this.buffer.put((byte) (AMOUNT_BIG | closed));
+				this.buffer.putInt(bytes.length);
+				this.buffer.put(bytes);
+			}
+		}
+
+		private void begin() {
+			this.buffer.clear();
+			this.buffer.position(HEADER_SIZE);
+		}
+
+		private ByteBuffer finish() {
+			int length = this.buffer.position() - HEADER_SIZE;
+			ByteBuffer payload = this.buffer.duplicate();
+			payload.flip();
+			payload.position(HEADER_SIZE);
+			this.crc.reset();
+			this.crc.update(payload);
+			this.buffer.putInt(0, length);
+			this.buffer.putInt(4, (int) this.crc.getValue());
+			this.buffer.flip();
+			return this.buffer;
+		}
+
+		private void ensure(int bytes) {
+			if (this.buffer.remaining() < bytes) {
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(this.buffer.capacity() * 2, this.buffer.position() + bytes));
+				this.buffer.flip();
+				larger.put(this.buffer);
+				this.buffer = larger;
+			}
+		}
+	}
+}
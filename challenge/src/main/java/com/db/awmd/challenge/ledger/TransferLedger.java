@@ -0,0 +1,481 @@
+package com.db.awmd.challenge.ledger;
+
+import com.db.awmd.challenge.domain.TransferEvent;
+import com.db.awmd.challenge.domain.TransferHistoryPage;
+import com.db.awmd.challenge.domain.TransferResult;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * In-memory, append-only record of applied transfers, queryable per account.
+ *
+ * <p>Events are numbered by the {@link TransferSequence} the stores number transfers with, and kept
+ * in a ring of {@code ledger.capacity} slots, so memory is fixed at startup. The oldest event is
+ * evicted when its slot is taken by an event {@code ledger.capacity} numbers later or when it is
+ * older than {@code ledger.retention-seconds}. Each account with retained events has an index: a
+ * list of chunks holding the sequences of its events in ascending order. A query binary-searches
+ * that index and reads only the account's own events, however long the whole history is. Evicting an
+ * event drops it from the indexes of its two accounts, so the indexes never outlive the events they
+ * point to.
+ *
+ * <p>Appends take no shared lock: an event goes into its slot with a compare-and-set, and only the
+ * index of each of its accounts is updated under one of {@value #INDEX_STRIPES} striped locks.
+ * Timestamps come from a clock that never goes back, so sequence order is time order up to appends
+ * racing across a millisecond.
+ *
+ * <p>Some numbers are never recorded: a store took one for a transfer that then failed, or a stripe
+ * of the sequence dropped the rest of its block. Eviction by age steps over such a number once it is
+ * below the {@link TransferSequence#floor()} read at least {@code ledger.in-flight-grace-millis}
+ * ago: no store can have taken it since, and any store that took it before has had that long to
+ * record it. A transfer recorded later than that is kept, and goes when the ring comes round to its
+ * slot.
+ */
+@Component
+public class TransferLedger {
+
+	private static final int INDEX_STRIPES = 64;
+
+	private final AtomicReferenceArray<TransferEvent> ring;
+
+	private final TransferSequence sequence;
+
+	private final long retentionMillis;
+
+	private final int maxPageSize;
+
+	private final long inFlightGraceMillis;
+
+	private final Map<String, AccountIndex> indexes = new ConcurrentHashMap<>();
+
+	private final ReentrantLock[] indexLocks = new ReentrantLock[INDEX_STRIPES];
+
+	private final AtomicLong clock = new AtomicLong();
+
+	// Events before this one are evicted; it and later ones may not be
+	private final AtomicLong firstSequence = new AtomicLong();
+
+	private final AtomicReference<Checkpoint> checkpoint = new AtomicReference<>(
+			new Checkpoint(Long.MIN_VALUE, Long.MIN_VALUE, Long.MIN_VALUE));
+
+	private final LongAdder recorded = new LongAdder();
+
+	private final LongAdder evicted = new LongAdder();
+
+	public TransferLedger() {
+		this(1000000, 86400, 1000);
+	}
+
+	public TransferLedger(int capacity, long retentionSeconds, int maxPageSize) {
+		this(capacity, retentionSeconds, maxPageSize, 1000, new TransferSequence());
+	}
+
+	@Autowired
+	public TransferLedger(@Value("${ledger.capacity:1000000}") int capacity,
+			@Value("${ledger.retention-seconds:86400}") long retentionSeconds,
+			@Value("${ledger.max-page-size:1000}") int maxPageSize,
+			@Value("${ledger.in-flight-grace-millis:1000}") long inFlightGraceMillis,
+			TransferSequence sequence) {
+		this.ring = new AtomicReferenceArray<>(capacity);
+		this.sequence = sequence;
+		this.retentionMillis = TimeUnit.SECONDS.toMillis(retentionSeconds);
+		this.maxPageSize = maxPageSize;
+		this.inFlightGraceMillis = inFlightGraceMillis;
+		for (int i = 0; i < INDEX_STRIPES; i++) {
+			this.indexLocks[i] = new ReentrantLock();
+		}
+	}
+
+	/**
+	 * Appends an applied transfer and returns the event recorded for it.
+	 */
+	public TransferEvent record(TransferResult transfer) {
+		return record(Collections.singletonList(transfer)).get(0);
+	}
+
+	/**
+	 * Appends applied transfers under the sequences their store gave them, or under new ones in the
+	 * given order for transfers without one.
+	 */
+	public List<TransferEvent> record(List<TransferResult> transfers) {
+		long now = this.clock.accumulateAndGet(System.currentTimeMillis(), Math::max);
+		evict(now);
+		List<TransferEvent> events = new ArrayList<>(transfers.size());
+		for (TransferResult transfer : transfers) {
+			long sequence = transfer.getSequence() >= 0 ? transfer.getSequence() : this.sequence.next();
+			TransferEvent event = new TransferEvent(sequence, now, transfer);
+			this.recorded.increment();
+			if (store(event)) {
+				index(transfer.getFromAccountId(), sequence);
+				if (!transfer.getToAccountId().equals(transfer.getFromAccountId())) {
+					index(transfer.getToAccountId(), sequence);
+				}
+			}
+			events.add(event);
+		}
+		return events;
+	}
+
+	/**
+	 * Returns up to {@code limit} retained events of the account, oldest first, never more than
+	 * {@code ledger.max-page-size}. With a {@code cursor} the page starts after that sequence;
+	 * otherwise with {@code since} it starts at the first event at or after that time, in epoch
+	 * milliseconds.
+	 */
+	public TransferHistoryPage history(String accountId, Long since, Long cursor, int limit) {
+		evict(Math.max(this.clock.get(), System.currentTimeMillis()));
+		int pageSize = Math.max(1, Math.min(limit, this.maxPageSize));
+		long[] sequences;
+		boolean more;
+		ReentrantLock lock = indexLock(accountId);
+		lock.lock();
+		try {
+			AccountIndex index = this.indexes.get(accountId);
+			if (index == null) {
+				return new TransferHistoryPage(accountId, Collections.emptyList(), null);
+			}
+			int position;
+			if (cursor != null) {
+				position = index.firstAfter(cursor);
+			} else if (since != null) {
+				position = index.firstAtOrAfter(this, since);
+			} else {
+				position = 0;
+			}
+			int end = (int) Math.min(index.size(), (long) position + pageSize);
+			sequences = new long[Math.max(0, end - position)];
+			for (int i = position; i < end; i++) {
+				sequences[i - position] = index.get(i);
+			}
+			more = end < index.size();
+		} finally {
+			lock.unlock();
+		}
+		List<TransferEvent> events = new ArrayList<>(sequences.length);
+		for (long sequence : sequences) {
+			TransferEvent event = event(sequence);
+			// Evicted since the index was read
+			if (event != null) {
+				events.add(event);
+			}
+		}
+		Long nextCursor = more && sequences.length > 0 ? sequences[sequences.length - 1] : null;
+		return new TransferHistoryPage(accountId, events, nextCursor);
+	}
+
+	public long size() {
+		return this.recorded.sum() - this.evicted.sum();
+	}
+
+	public long getEvictedCount() {
+		return this.evicted.sum();
+	}
+
+	public int getCapacity() {
+		return this.ring.length();
+	}
+
+	// The event recorded under the sequence, or null when it is evicted or not recorded yet
+	private TransferEvent event(long sequence) {
+		TransferEvent event = this.ring.get(slot(sequence));
+		return event != null && event.getSequence() == sequence ? event : null;
+	}
+
+	private int slot(long sequence) {
+		return (int) (sequence % this.ring.length());
+	}
+
+	/**
+	 * Puts the event in its slot, evicting the older event there. Returns false when a later event
+	 * took the slot first, which evicts this one straight away.
+	 */
+	private boolean store(TransferEvent event) {
+		int slot = slot(event.getSequence());
+		for (;;) {
+			TransferEvent previous = this.ring.get(slot);
+			if (previous != null && previous.getSequence() > event.getSequence()) {
+				this.evicted.increment();
+				return false;
+			}
+			if (this.ring.compareAndSet(slot, previous, event)) {
+				if (previous != null) {
+					evicted(previous);
+				}
+				return true;
+			}
+		}
+	}
+
+	// Evicts events older than the retention, oldest first
+	private void evict(long now) {
+		long cutoff = now - this.retentionMillis;
+		long horizon = Long.MIN_VALUE;
+		for (;;) {
+			long first = this.firstSequence.get();
+			int slot = slot(first);
+			TransferEvent event = this.ring.get(slot);
+			if (event == null || event.getSequence() < first) {
+				// Not recorded yet, or never will be once it is below the horizon
+				if (horizon == Long.MIN_VALUE) {
+					horizon = horizon(now);
+				}
+				if (first >= horizon) {
+					return;
+				}
+				this.firstSequence.compareAndSet(first, first + 1);
+				continue;
+			}
+			if (event.getSequence() == first && event.getTimestamp() >= cutoff) {
+				return;
+			}
+			if (this.firstSequence.compareAndSet(first, first + 1) && event.getSequence() == first
+					&& this.ring.compareAndSet(slot, event, null)) {
+				evicted(event);
+			}
+		}
+	}
+
+	/**
+	 * Returns a sequence floor read at least the grace window ago; numbers below it that are not
+	 * recorded yet never will be. Reads a new floor at most once per window.
+	 */
+	private long horizon(long now) {
+		Checkpoint current = this.checkpoint.get();
+		if (current.readAt == Long.MIN_VALUE || now - current.readAt >= this.inFlightGraceMillis) {
+			// Losing the race to another evicting thread leaves its checkpoint, which is as good
+			this.checkpoint.compareAndSet(current, new Checkpoint(this.sequence.floor(), now, current.floor));
+			current = this.checkpoint.get();
+		}
+		return current.horizon;
+	}
+
+	private void evicted(TransferEvent event) {
+		this.evicted.increment();
+		unindex(event.getTransfer().getFromAccountId(), event.getSequence());
+		if (!event.getTransfer().getToAccountId().equals(event.getTransfer().getFromAccountId())) {
+			unindex(event.getTransfer().getToAccountId(), event.getSequence());
+		}
+	}
+
+	private void index(String accountId, long sequence) {
+		ReentrantLock lock = indexLock(accountId);
+		lock.lock();
+		try {
+			AccountIndex index = this.indexes.computeIfAbsent(accountId, id -> new AccountIndex());
+			index.add(sequence);
+			// Appends racing each other round the whole ring can leave entries behind; they are dropped here
+			while (index.size() > 0 && index.get(0) <= sequence - this.ring.length()) {
+				index.removeFirst();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// The evicted event is nearly always the oldest of the account's events, so the head of its index
+	private void unindex(String accountId, long sequence) {
+		ReentrantLock lock = indexLock(accountId);
+		lock.lock();
+		try {
+			AccountIndex index = this.indexes.get(accountId);
+			if (index == null) {
+				return;
+			}
+			index.remove(sequence);
+			if (index.size() == 0) {
+				this.indexes.remove(accountId);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private ReentrantLock indexLock(String accountId) {
+		int hash = accountId.hashCode();
+		return this.indexLocks[(hash ^ hash >>> 16) & (INDEX_STRIPES - 1)];
+	}
+
+	/**
+	 * A floor of the sequence and when it was read, with the floor read the time before.
+	 */
+	private static final class Checkpoint {
+
+		private final long floor;
+
+		private final long readAt;
+
+		private final long horizon;
+
+		Checkpoint(long floor, long readAt, long horizon) {
+			this.floor = floor;
+			this.readAt = readAt;
+			this.horizon = horizon;
+		}
+	}
+
+	/**
+	 * Sequences of one account's events in ascending order, held in chunks that double in size up to
+	 * {@value #MAX_CHUNK} entries: an account with a handful of transfers costs a few longs, a busy one
+	 * does not copy its index as it grows.
+	 */
+	private static final class AccountIndex {
+
+		private static final int FIRST_CHUNK = 4;
+
+		private static final int MAX_CHUNK = 1024;
+
+		private final List<long[]> chunks = new ArrayList<>();
+
+		// Entries already removed from the first chunk
+		private int head;
+
+		// Entries used in the last chunk
+		private int tail;
+
+		private int size;
+
+		/**
+		 * Adds a sequence, nearly always the highest yet; one whose append was overtaken by a later
+		 * one is moved back into place.
+		 */
+		void add(long sequence) {
+			long[] last = this.chunks.isEmpty() ? null : this.chunks.get(this.chunks.size() - 1);
+			if (last == null || this.tail == last.length) {
+				last = new long[last == null ? FIRST_CHUNK : Math.min(MAX_CHUNK, last.length * 2)];
+				this.chunks.add(last);
+				this.tail = 0;
+			}
+			last[this.tail++] = sequence;
+			this.size++;
+			int position = this.size - 1;
+			while (position > 0 && get(position - 1) > sequence) {
+				set(position, get(position - 1));
+				position--;
+			}
+			if (position < this.size - 1) {
+				set(position, sequence);
+			}
+		}
+
+		/**
+		 * Removes a sequence, nearly always the first.
+		 */
+		void remove(long sequence) {
+			if (this.size == 0) {
+				return;
+			}
+			if (get(0) == sequence) {
+				removeFirst();
+				return;
+			}
+			int position = firstAfter(sequence - 1);
+			if (position == this.size || get(position) != sequence) {
+				return;
+			}
+			for (int i = position; i < this.size - 1; i++) {
+				set(i, get(i + 1));
+			}
+			removeLast();
+		}
+
+		void removeFirst() {
+			this.head++;
+			this.size--;
+			long[] first = this.chunks.get(0);
+			if (this.head == (this.chunks.size() == 1 ? this.tail : first.length)) {
+				this.chunks.remove(0);
+				this.head = 0;
+				if (this.chunks.isEmpty()) {
+					this.tail = 0;
+				}
+			}
+		}
+
+		private void removeLast() {
+			this.size--;
+			this.tail--;
+			if (this.size == 0) {
+				this.chunks.clear();
+				this.head = 0;
+				this.tail = 0;
+			} else if (this.tail == 0) {
+				this.chunks.remove(this.chunks.size() - 1);
+				this.tail = this.chunks.get(this.chunks.size() - 1).length;
+			}
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		long get(int position) {
+			int offset = position + this.head;
+			for (long[] chunk : this.chunks) {
+				if (offset < chunk.length) {
+					return chunk[offset];
+				}
+				offset -= chunk.length;
+			}
+			throw new IndexOutOfBoundsException("Position " + position + " of " + this.size);
+		}
+
+		private void set(int position, long sequence) {
+			int offset = position + this.head;
+			for (long[] chunk : this.chunks) {
+				if (offset < chunk.length) {
+					chunk[offset] = sequence;
+					return;
+				}
+				offset -= chunk.length;
+			}
+			throw new IndexOutOfBoundsException("Position " + position + " of " + this.size);
+		}
+
+		/**
+		 * Returns the position of the first sequence greater than {@code sequence}.
+		 */
+		int firstAfter(long sequence) {
+			int low = 0;
+			int high = this.size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (get(middle) <= sequence) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Returns the position of the first event recorded at or after {@code timestamp}.
+		 */
+		int firstAtOrAfter(TransferLedger ledger, long timestamp) {
+			int low = 0;
+			int high = this.size;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				// An event evicted but not yet dropped from the index is older than any retained one
+				TransferEvent event = ledger.event(get(middle));
+				if (event == null || event.getTimestamp() < timestamp) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.db.awmd.challenge.ledger;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.stereotype.Component;
+
+/**
+ * Numbers applied transfers for the {@link TransferLedger}. A store takes the number while it still
+ * holds the lock its debit was applied under, so two transfers out of the same account are numbered
+ * in the order their debits were applied, and the ledger lists them in that order.
+ *
+ * <p>Stores number through {@link #next(int)} with a stripe hint derived from the source account,
+ * so that the shared counter is not one cache line every debit lock waits on. Each of
+ * {@value #STRIPES} stripes takes a block of {@value #BLOCK} numbers from the shared counter at a
+ * time and hands them out in order; a given account always maps to the same stripe, whose numbers
+ * only grow, so its transfers keep their order. Numbers are unique but no longer dense in time: a
+ * stripe that falls well behind the shared counter drops the rest of its block, and those numbers
+ * are never recorded.
+ */
+@Component
+public class TransferSequence {
+
+	private static final int STRIPES = 64;
+
+	private static final int BLOCK = 64;
+
+	// How far the shared counter may run ahead of a stripe before its block is dropped
+	private static final long STALE_AFTER = 2L * STRIPES * BLOCK;
+
+	private final AtomicLong next = new AtomicLong();
+
+	private final Stripe[] stripes = new Stripe[STRIPES];
+
+	public TransferSequence() {
+		for (int i = 0; i < STRIPES; i++) {
+			this.stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Takes a number straight from the shared counter.
+	 */
+	public long next() {
+		return this.next.getAndIncrement();
+	}
+
+	/**
+	 * Takes a number from the stripe {@code hint} maps to. Callers pass the same hint for every
+	 * transfer out of one account.
+	 */
+	public long next(int hint) {
+		Stripe stripe = this.stripes[(hint ^ hint >>> 16) & (STRIPES - 1)];
+		stripe.lock.lock();
+		try {
+			if (stripe.next == stripe.end || this.next.get() - stripe.next > STALE_AFTER) {
+				stripe.next = this.next.getAndAdd(BLOCK);
+				stripe.end = stripe.next + BLOCK;
+			}
+			return stripe.next++;
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns a number below which nothing will be handed out from now on: every stripe drops a
+	 * block that far behind the shared counter rather than use it.
+	 */
+	public long floor() {
+		return this.next.get() - STALE_AFTER;
+	}
+
+	private static final class Stripe {
+
+		// Not a monitor: a virtual thread waiting here frees its carrier
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private long next;
+
+		private long end;
+	}
+}
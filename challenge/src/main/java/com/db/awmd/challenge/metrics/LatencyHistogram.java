@@ -0,0 +1,33 @@
+package com.db.awmd.challenge.metrics;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Latency distribution with wait-free recording. Writers record into an HdrHistogram
+ * {@link Recorder}; a reader folds what was recorded since the last read into a running total, so
+ * recording never waits for a reader.
+ */
+public class LatencyHistogram {
+
+	private static final int SIGNIFICANT_DIGITS = 2;
+
+	private final Recorder recorder = new Recorder(SIGNIFICANT_DIGITS);
+
+	private final Histogram total = new Histogram(SIGNIFICANT_DIGITS);
+
+	private Histogram interval;
+
+	public void recordNanos(long nanos) {
+		this.recorder.recordValue(Math.max(0L, nanos));
+	}
+
+	/**
+	 * Returns a copy of everything recorded so far.
+	 */
+	public synchronized Histogram snapshot() {
+		this.interval = this.recorder.getIntervalHistogram(this.interval);
+		this.total.add(this.interval);
+		return this.total.copy();
+	}
+}
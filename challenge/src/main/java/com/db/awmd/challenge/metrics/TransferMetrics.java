@@ -0,0 +1,204 @@
+package com.db.awmd.challenge.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import org.HdrHistogram.Histogram;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Latency histograms and rejection counters for the transfer path, published on the actuator
+ * {@code /metrics} endpoint. The common path stays nearly free: transfer latency is measured on one
+ * transfer in {@code accounts.metrics.sample-rate}, lock waits and notification enqueue times are
+ * only recorded when the thread actually had to wait, and the counters are only touched when a
+ * transfer is rejected. With {@code accounts.metrics.enabled} off nothing is timed at all; the
+ * counters still count.
+ *
+ * <p>Latencies are published in microseconds, and {@code count} is the number of recorded values:
+ * one per sampled transfer, and one per lock acquisition or enqueue that had to wait.
+ */
+@Component
+public class TransferMetrics implements PublicMetrics {
+
+	private static final int DEFAULT_SAMPLE_RATE = 16;
+
+	private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+	private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999" };
+
+	private final int sampleRate;
+
+	private final boolean enabled;
+
+	private final LatencyHistogram transferLatency = new LatencyHistogram();
+
+	private final LatencyHistogram lockWait = new LatencyHistogram();
+
+	private final LatencyHistogram notificationEnqueue = new LatencyHistogram();
+
+	private final LongAdder invalidAccountId = new LongAdder();
+
+	private final LongAdder lowAccountBalance = new LongAdder();
+
+	private final LongAdder invalidAmount = new LongAdder();
+
+	private final LongAdder unsupportedCurrency = new LongAdder();
+
+	private final LongAdder accountClosed = new LongAdder();
+
+	private final LongAdder batchRejected = new LongAdder();
+
+	public TransferMetrics() {
+		this(DEFAULT_SAMPLE_RATE);
+	}
+
+	public TransferMetrics(int sampleRate) {
+		this(sampleRate, true);
+	}
+
+	@Autowired
+	public TransferMetrics(@Value("${accounts.metrics.sample-rate:16}") int sampleRate,
+			@Value("${accounts.metrics.enabled:true}") boolean enabled) {
+		this.sampleRate = Math.max(1, sampleRate);
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Returns the start time of a transfer to measure, or zero for one that is not sampled.
+	 */
+	public long startTransfer() {
+		if (!this.enabled) {
+			return 0L;
+		}
+		if (this.sampleRate > 1 && ThreadLocalRandom.current().nextInt(this.sampleRate) != 0) {
+			return 0L;
+		}
+		return System.nanoTime();
+	}
+
+	public void endTransfer(long start) {
+		if (start != 0L) {
+			this.transferLatency.recordNanos(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * Takes {@code lock}, recording how long the thread waited when another thread held it.
+	 */
+	public void lock(Lock lock) {
+		if (!this.enabled) {
+			lock.lock();
+			return;
+		}
+		if (lock.tryLock()) {
+			return;
+		}
+		long start = System.nanoTime();
+		lock.lock();
+		this.lockWait.recordNanos(System.nanoTime() - start);
+	}
+
+	public void recordNotificationEnqueueNanos(long nanos) {
+		if (this.enabled) {
+			this.notificationEnqueue.recordNanos(nanos);
+		}
+	}
+
+	public void countInvalidAccountId() {
+		this.invalidAccountId.increment();
+	}
+
+	public void countLowAccountBalance() {
+		this.lowAccountBalance.increment();
+	}
+
+	public void countInvalidAmount() {
+		this.invalidAmount.increment();
+	}
+
+	public void countUnsupportedCurrency() {
+		this.unsupportedCurrency.increment();
+	}
+
+	public void countAccountClosed() {
+		this.accountClosed.increment();
+	}
+
+	public void countBatchRejected(int rejected) {
+		this.batchRejected.add(rejected);
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		addLatency(metrics, "histogram.transfers.latency", this.transferLatency);
+		metrics.add(new Metric<>("gauge.transfers.latency.sample-rate", this.sampleRate));
+		addLatency(metrics, "histogram.accounts.lock-wait", this.lockWait);
+		addLatency(metrics, "histogram.notifications.enqueue", this.notificationEnqueue);
+		metrics.add(new Metric<>("counter.exceptions.invalid-account-id", getInvalidAccountIdCount()));
+		metrics.add(new Metric<>("counter.exceptions.low-account-balance", getLowAccountBalanceCount()));
+		metrics.add(new Metric<>("counter.exceptions.invalid-amount", getInvalidAmountCount()));
+		metrics.add(new Metric<>("counter.exceptions.unsupported-currency", getUnsupportedCurrencyCount()));
+		metrics.add(new Metric<>("counter.exceptions.account-closed", getAccountClosedCount()));
+		metrics.add(new Metric<>("counter.transfers.batch.rejected", getBatchRejectedCount()));
+		return metrics;
+	}
+
+	public int getSampleRate() {
+		return this.sampleRate;
+	}
+
+	public LatencyHistogram getTransferLatency() {
+		return this.transferLatency;
+	}
+
+	public LatencyHistogram getLockWait() {
+		return this.lockWait;
+	}
+
+	public LatencyHistogram getNotificationEnqueue() {
+		return this.notificationEnqueue;
+	}
+
+	public long getInvalidAccountIdCount() {
+		return this.invalidAccountId.sum();
+	}
+
+	public long getLowAccountBalanceCount() {
+		return this.lowAccountBalance.sum();
+	}
+
+	public long getInvalidAmountCount() {
+		return this.invalidAmount.sum();
+	}
+
+	public long getUnsupportedCurrencyCount() {
+		return this.unsupportedCurrency.sum();
+	}
+
+	public long getAccountClosedCount() {
+		return this.accountClosed.sum();
+	}
+
+	public long getBatchRejectedCount() {
+		return this.batchRejected.sum();
+	}
+
+	private static void addLatency(List<Metric<?>> metrics, String prefix, LatencyHistogram latency) {
+		Histogram histogram = latency.snapshot();
+		metrics.add(new Metric<>(prefix + ".count", histogram.getTotalCount()));
+		metrics.add(new Metric<>(prefix + ".mean", histogram.getMean() / 1000));
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			metrics.add(new Metric<>(prefix + "." + PERCENTILE_NAMES[i],
+					histogram.getValueAtPercentile(PERCENTILES[i]) / 1000.0));
+		}
+		metrics.add(new Metric<>(prefix + ".max", histogram.getMaxValue() / 1000.0));
+	}
+}
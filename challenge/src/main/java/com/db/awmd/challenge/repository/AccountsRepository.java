@@ -1,24 +1,70 @@
 package com.db.awmd.challenge.repository;
 
 import java.math.BigDecimal;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
 import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.exception.UnsupportedCurrencyException;
 
 public interface AccountsRepository {
 
-  void createAccount(Account account) throws DuplicateAccountIdException;
+  void createAccount(Account account) throws DuplicateAccountIdException, InvalidAmountException;
+
+  /**
+   * Creates every account in {@code accounts}. An account that cannot be created is handed to
+   * {@code rejected} with the reason instead of failing the rest. Returns the number created.
+   */
+  default int createAccounts(List<Account> accounts, BiConsumer<Account, RuntimeException> rejected) {
+    int created = 0;
+    for (Account account : accounts) {
+      try {
+        createAccount(account);
+        created++;
+      } catch (DuplicateAccountIdException | InvalidAmountException | UnsupportedCurrencyException ex) {
+        rejected.accept(account, ex);
+      }
+    }
+    return created;
+  }
 
   Account getAccount(String accountId);
 
+  /**
+   * Visits every account once without blocking transfers. The balance and version of each visited
+   * account are read together, but accounts keep changing during the walk.
+   */
+  void forEachAccount(Consumer<Account> action);
+
   void clearAccounts();
 
   BigDecimal withdraw(String fromAccountId,String toAccountId, BigDecimal amount) throws InvalidAccountIdException,LowAccountBalanceException;
   
   BigDecimal deposit(String fromAccountId, String toAccountId, BigDecimal amount) throws InvalidAccountIdException;
-  
- 
-  
+
+  /**
+   * Withdraws {@code amount} from one account and deposits it into the other: once this returns
+   * both balances have changed, and when it throws neither has. Each account's balance is replaced
+   * in one step, so a read of one account always sees a committed balance and version; the two
+   * accounts are not changed together, though, so a reader looking at both while the transfer runs
+   * can see it half-applied.
+   */
+  TransferResult transfer(String fromAccountId, String toAccountId, BigDecimal amount)
+    throws InvalidAccountIdException, LowAccountBalanceException, InvalidAmountException;
+
+  /**
+   * Applies a batch of transfers with a single validation pass and a single ordered locking pass
+   * over every account the batch debits. Each entry gets its own result, in request order.
+   */
+  BatchTransferResult transferBatch(List<TransferRequest> transfers, BatchMode mode);
+
 }
@@ -1,39 +1,181 @@
 package com.db.awmd.challenge.repository;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.SealedBalance;
+import com.db.awmd.challenge.domain.StripedAccount;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.AccountEvictedException;
+import com.db.awmd.challenge.exception.AccountNotEmptyException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
 import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
 import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.exception.UnsupportedCurrencyException;
+import com.db.awmd.challenge.fx.FxRateTable;
+import com.db.awmd.challenge.ledger.TransferSequence;
+import com.db.awmd.challenge.metrics.TransferMetrics;
 import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.service.TransferDirection;
 
 import lombok.extern.slf4j.Slf4j;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Repository;
 
 @Repository
 @Slf4j
-public class AccountsRepositoryInMemory implements AccountsRepository {
+public class AccountsRepositoryInMemory implements ArchivingAccountsRepository {
+
+	private static final BigDecimal MAX_UNITS = BigDecimal.valueOf(Long.MAX_VALUE);
 
 	@Autowired
 	private final NotificationService notificationService;
+
+	private final MoneyMode moneyMode;
+
+	private final int scale;
+
+	private final Set<String> stripedAccountIds;
+
+	private final int stripes;
+
+	private final TransferMetrics transferMetrics;
+
+	private final FxRateTable fxRates;
+
+	private final ColdAccountStore coldAccounts;
+
+	private final long idleNanos;
+
+	private final long scanSeconds;
+
+	private final TransferSequence transferSequence;
+
+	private ScheduledExecutorService tieringScheduler;
 	  
-	 @Autowired
 	 public AccountsRepositoryInMemory(NotificationService notificationService) {
+	   this(notificationService, MoneyMode.DECIMAL, 2);
+	 }
+
+	 public AccountsRepositoryInMemory(NotificationService notificationService, MoneyMode moneyMode, int scale) {
+	   this(notificationService, moneyMode, scale, new String[0], 0, new TransferMetrics());
+	 }
+
+	 public AccountsRepositoryInMemory(NotificationService notificationService, MoneyMode moneyMode, int scale,
+	     String[] stripedAccountIds, int stripes, TransferMetrics transferMetrics) {
+	   this(notificationService, moneyMode, scale, stripedAccountIds, stripes, transferMetrics, new FxRateTable());
+	 }
+
+	 public AccountsRepositoryInMemory(NotificationService notificationService, MoneyMode moneyMode, int scale,
+	     String[] stripedAccountIds, int stripes, TransferMetrics transferMetrics, FxRateTable fxRates) {
+	   this(notificationService, moneyMode, scale, stripedAccountIds, stripes, transferMetrics, fxRates,
+	     new ColdAccountStore(), 0, 60);
+	 }
+
+	 public AccountsRepositoryInMemory(NotificationService notificationService, MoneyMode moneyMode, int scale,
+	     String[] stripedAccountIds, int stripes, TransferMetrics transferMetrics, FxRateTable fxRates,
+	     ColdAccountStore coldAccounts, long idleSeconds, long scanSeconds) {
+	   this(notificationService, moneyMode, scale, stripedAccountIds, stripes, transferMetrics, fxRates, coldAccounts,
+	     idleSeconds, scanSeconds, new TransferSequence());
+	 }
+
+	 @Autowired
+	 public AccountsRepositoryInMemory(NotificationService notificationService,
+	     @Value("${accounts.money.mode:DECIMAL}") MoneyMode moneyMode,
+	     @Value("${accounts.money.scale:2}") int scale,
+	     @Value("${accounts.striped.ids:}") String[] stripedAccountIds,
+	     @Value("${accounts.striped.stripes:0}") int stripes,
+	     TransferMetrics transferMetrics,
+	     FxRateTable fxRates,
+	     ColdAccountStore coldAccounts,
+	     @Value("${accounts.tiering.idle-seconds:0}") long idleSeconds,
+	     @Value("${accounts.tiering.scan-seconds:60}") long scanSeconds,
+	     TransferSequence transferSequence) {
 	   this.notificationService = notificationService;
-	  
-	 }    
+	   this.moneyMode = moneyMode;
+	   this.scale = scale;
+	   this.stripedAccountIds = new HashSet<>(Arrays.asList(stripedAccountIds));
+	   this.stripes = stripes > 0 ? stripes : Runtime.getRuntime().availableProcessors();
+	   this.transferMetrics = transferMetrics;
+	   this.fxRates = fxRates;
+	   this.coldAccounts = coldAccounts;
+	   this.idleNanos = TimeUnit.SECONDS.toNanos(idleSeconds);
+	   this.scanSeconds = scanSeconds;
+	   this.transferSequence = transferSequence;
+	 }
+
+	@PostConstruct
+	public void startTiering() {
+		if (this.idleNanos > 0) {
+			this.tieringScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "account-tiering");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.tieringScheduler.scheduleWithFixedDelay(this::evictIdleAccountsQuietly, this.scanSeconds,
+					this.scanSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void stopTiering() {
+		if (this.tieringScheduler != null) {
+			this.tieringScheduler.shutdownNow();
+		}
+	}
 	    
   private final Map<String, Account> accounts = new ConcurrentHashMap<>();
 
+  // Moves of one id between memory and the cold store take turns under one of these, never under
+  // the map's own lock for the id: that lock guards a whole bin of ids and must not wait on the disk
+  private final ReentrantLock[] tieringLocks = newTieringLocks();
+
   @Override
-  public void createAccount(Account account) throws DuplicateAccountIdException {
-    Account previousAccount = accounts.putIfAbsent(account.getAccountId(), account);
-    if (previousAccount != null) {
+  public void createAccount(Account account) throws DuplicateAccountIdException, InvalidAmountException {
+    if (account.getCurrency() != null) {
+      FxRateTable.requireCurrency(account.getCurrency());
+    }
+    if (stripedAccountIds.contains(account.getAccountId()) && !(account instanceof StripedAccount)) {
+      account = new StripedAccount(account, stripes);
+    }
+    if (moneyMode == MoneyMode.MINOR_UNITS) {
+      account.useMinorUnits(scaleOf(account.getCurrency()));
+    }
+    Account created = account;
+    // Checked under the map's lock for the id; an account moving to the cold store is written there
+    // before it leaves the map and comes back into the map before it leaves there, so it is always
+    // found in one of the two
+    Account previousAccount = accounts.compute(account.getAccountId(),
+      (accountId, known) -> known == null && !coldAccounts.contains(accountId) ? created : known);
+    if (previousAccount != account) {
       throw new DuplicateAccountIdException(
         "Account id " + account.getAccountId() + " already exists!");
     }
@@ -41,37 +183,253 @@ public class AccountsRepositoryInMemory implements AccountsRepository {
 
   @Override
   public Account getAccount(String accountId) {
-    return accounts.get(accountId);
+    Account account = accounts.get(accountId);
+    if (account != null || coldAccounts.isEmpty()) {
+      return account;
+    }
+    return thaw(accountId);
   }
 
   @Override
   public void clearAccounts() {
     accounts.clear();
+    coldAccounts.clear();
+  }
+
+  /**
+   * Visits every account without blocking writers. Accounts created or removed during the walk may
+   * or may not be visited; each visited in-memory account is the live instance, and each account in
+   * the cold store a copy read from it, which stays there.
+   */
+  @Override
+  public void forEachAccount(Consumer<Account> action) {
+    if (coldAccounts.isEmpty()) {
+      accounts.values().forEach(action);
+      return;
+    }
+    // An account thawed during the walk is met again in memory; the ids keep it to one visit
+    Set<String> visited = new HashSet<>();
+    coldAccounts.forEach(entry -> {
+      visited.add(entry.getAccountId());
+      action.accept(toAccount(entry));
+    });
+    for (Account account : accounts.values()) {
+      if (!visited.contains(account.getAccountId())) {
+        action.accept(account);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of accounts held in the cold store.
+   */
+  public int getColdAccountCount() {
+    return coldAccounts.size();
+  }
+
+  /**
+   * Closes an account whose balance is zero. A closed account keeps its id and last balance and
+   * refuses every further transfer; closing it again does nothing.
+   */
+  @Override
+  public Account closeAccount(String accountId) throws InvalidAccountIdException, AccountNotEmptyException {
+    for (;;) {
+      Account account = getAccount(accountId);
+      if (account == null) {
+        throw new InvalidAccountIdException("Please enter a valid account id!");
+      }
+      transferMetrics.lock(account.getLock());
+      try {
+        if (account.isClosed()) {
+          return account;
+        }
+        if (account.getBalance().signum() == 0) {
+          SealedBalance sealed = account.seal(true);
+          if (!sealed.isClosed()) {
+            // Moved to the cold store before the lock was ours; closed once thawed
+            continue;
+          }
+          if (sealed.signum() == 0) {
+            log.info("Closed Account Id {}", accountId);
+            return account;
+          }
+          // A credit landed between the check and the seal
+          account.unseal(sealed);
+        }
+        throw new AccountNotEmptyException(
+          "Account id " + accountId + " still holds a balance of " + account.getBalance());
+      } finally {
+        account.getLock().unlock();
+      }
+    }
+  }
+
+  /**
+   * Closes the account if it is not closed yet and moves it to the cold store for good. It stays
+   * readable there but takes no memory beyond its id.
+   */
+  @Override
+  public Account archiveAccount(String accountId) throws InvalidAccountIdException, AccountNotEmptyException {
+    Account closed = closeAccount(accountId);
+    Account account = accounts.get(accountId);
+    if (account != null) {
+      transferMetrics.lock(account.getLock());
+      try {
+        moveToCold(account, account.seal(false));
+      } finally {
+        account.getLock().unlock();
+      }
+      log.info("Archived Account Id {}", accountId);
+    }
+    return closed;
+  }
+
+  /**
+   * Moves every account whose balance has not changed for {@code accounts.tiering.idle-seconds} to
+   * the cold store, judged by the passes made so far. An account that is locked, or whose balance
+   * changes while it is being moved, stays in memory until a later pass. Returns the number moved.
+   */
+  public int evictIdleAccounts(long nowNanos) {
+    int evicted = 0;
+    for (Account account : accounts.values()) {
+      // Striped accounts are the hottest ones by configuration
+      if (account instanceof StripedAccount || !account.markIdle(nowNanos, idleNanos)
+          || !account.getLock().tryLock()) {
+        continue;
+      }
+      try {
+        if (moveToCold(account, account.seal(false))) {
+          evicted++;
+        }
+      } finally {
+        account.getLock().unlock();
+      }
+    }
+    coldAccounts.compactIfNeeded();
+    return evicted;
+  }
+
+  private void evictIdleAccountsQuietly() {
+    try {
+      int evicted = evictIdleAccounts(System.nanoTime());
+      if (evicted > 0) {
+        log.info("Moved {} idle accounts to the cold store, {} held there", evicted, coldAccounts.size());
+      }
+    } catch (RuntimeException ex) {
+      log.error("Moving idle accounts to the cold store failed", ex);
+    }
+  }
+
+  /**
+   * Writes a sealed account to the cold store, then drops its instance, so a lookup finds the
+   * account in one place or the other. The caller holds the account's lock.
+   */
+  private boolean moveToCold(Account account, SealedBalance sealed) {
+    String accountId = account.getAccountId();
+    ReentrantLock tieringLock = tieringLock(accountId);
+    tieringLock.lock();
+    try {
+      if (accounts.get(accountId) != account) {
+        return false;
+      }
+      coldAccounts.put(new ColdAccountStore.Entry(accountId, account.getCurrency(), sealed.getAmount(),
+        sealed.getVersion(), sealed.isClosed()));
+      if (!accounts.remove(accountId, account)) {
+        // The store was cleared in between
+        coldAccounts.take(accountId);
+        return false;
+      }
+      return true;
+    } finally {
+      tieringLock.unlock();
+    }
+  }
+
+  /**
+   * Brings an account back from the cold store. An archived account is not brought back: each
+   * lookup gets a closed copy of it.
+   */
+  private Account thaw(String accountId) {
+    // A lookup racing another thread's thaw waits for it here, then finds the account in memory
+    ReentrantLock tieringLock = tieringLock(accountId);
+    tieringLock.lock();
+    try {
+      Account account = accounts.get(accountId);
+      if (account != null) {
+        return account;
+      }
+      ColdAccountStore.Entry entry = coldAccounts.get(accountId);
+      if (entry == null) {
+        return null;
+      }
+      account = toAccount(entry);
+      if (entry.isClosed()) {
+        return account;
+      }
+      accounts.put(accountId, account);
+      coldAccounts.take(accountId);
+      return account;
+    } finally {
+      tieringLock.unlock();
+    }
+  }
+
+  private ReentrantLock tieringLock(String accountId) {
+    int hash = accountId.hashCode();
+    return tieringLocks[(hash ^ hash >>> 16) & (tieringLocks.length - 1)];
+  }
+
+  private static ReentrantLock[] newTieringLocks() {
+    ReentrantLock[] locks = new ReentrantLock[64];
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new ReentrantLock();
+    }
+    return locks;
+  }
+
+  private Account toAccount(ColdAccountStore.Entry entry) {
+    Account account = new Account(entry.getAccountId(), entry.getBalance(), entry.getCurrency());
+    if (moneyMode == MoneyMode.MINOR_UNITS) {
+      account.useMinorUnits(scaleOf(account.getCurrency()));
+    }
+    if (entry.isClosed()) {
+      // Closing raises the version by one
+      account.restoreBalance(entry.getBalance(), entry.getVersion() - 1);
+      account.seal(true);
+    } else {
+      account.restoreBalance(entry.getBalance(), entry.getVersion());
+    }
+    return account;
   }
 
 @Override
 public BigDecimal withdraw(String fromAccountId, String toAccountId, BigDecimal amount) throws InvalidAccountIdException,LowAccountBalanceException{
+	for (;;) {
+		try {
+			return tryWithdraw(fromAccountId, toAccountId, amount);
+		} catch (AccountEvictedException ex) {
+			// Looked up just before it moved to the cold store; the next lookup brings it back
+		}
+	}
+}
+
+private BigDecimal tryWithdraw(String fromAccountId, String toAccountId, BigDecimal amount) throws InvalidAccountIdException,LowAccountBalanceException{
 	Account withDrawAccount  = getAccount(fromAccountId);
 	Account depositAccount  = getAccount(toAccountId);
 	
 	if(depositAccount!=null) {
-		this.notificationService.notifyAboutTransfer(depositAccount, "Amount being transfered to account"+depositAccount.getAccountId()+" is "+amount);
+		this.notificationService.notifyAboutTransfer(depositAccount, TransferDirection.INCOMING, amount);
 	}
 	// Check if account exists in order to withdraw funds
 	if(withDrawAccount!=null) {
-	BigDecimal accountBalance = withDrawAccount.getBalance();
-		
-		BigDecimal updateBalance = accountBalance.subtract(amount);
-		//Check if updated balance greater than equal to zero
-		if(updateBalance.signum() == 1 || updateBalance.signum() == 0) {
-			withDrawAccount.setBalance(updateBalance);
-			accounts.replace(fromAccountId, withDrawAccount);
-			log.info("Updated balance after withdraw in Acoount Id {}", fromAccountId," is {}", withDrawAccount.getBalance());
+		// Debits hold the account lock so a concurrent batch or transfer can rely on its funds check
+		transferMetrics.lock(withDrawAccount.getLock());
+		try {
+			BigDecimal updateBalance = withDrawAccount.debit(amount).getAmount();
+			log.debug("Updated balance after withdraw in Account Id {} is {}", fromAccountId, updateBalance);
 			return updateBalance;
-		}
-		// If no sufficient account balance available to withdraw funds then throw new low account balance exception
-		else {
-			throw new LowAccountBalanceException("Unable to withdraw funds due to Low Account Balance for Account Id "+fromAccountId);
+		} finally {
+			withDrawAccount.getLock().unlock();
 		}
 	}
 	// Throw invalid account id exception if wrong account id has been entered
@@ -82,20 +440,27 @@ public BigDecimal withdraw(String fromAccountId, String toAccountId, BigDecimal
   
 @Override
 public BigDecimal deposit(String fromAccountId, String toAccountId, BigDecimal amount) throws InvalidAccountIdException {
+	for (;;) {
+		try {
+			return tryDeposit(fromAccountId, toAccountId, amount);
+		} catch (AccountEvictedException ex) {
+			// Looked up just before it moved to the cold store; the next lookup brings it back
+		}
+	}
+}
+
+private BigDecimal tryDeposit(String fromAccountId, String toAccountId, BigDecimal amount) throws InvalidAccountIdException {
 	Account depositAccount  = getAccount(toAccountId);
 	Account withDrawAccount  = getAccount(fromAccountId);
 	
 	if(withDrawAccount!=null) {
-		this.notificationService.notifyAboutTransfer(depositAccount, "Amount being transfered from account"+depositAccount.getAccountId()+" is "+amount);
+		this.notificationService.notifyAboutTransfer(depositAccount, TransferDirection.INCOMING, amount);
 	}
 	// Check if account exists in order to deposit funds
 	if(depositAccount!=null) {
-	BigDecimal accountBalance = depositAccount.getBalance();
-	
-		BigDecimal updateBalance = accountBalance.add(amount);
-		depositAccount.setBalance(updateBalance);
-		accounts.replace(toAccountId, depositAccount);
-		log.info("Updated balance after deposit in Account Id {}",toAccountId," is {}", depositAccount.getBalance());
+		// Credits never take a lock: the balance cell is updated with compare-and-set
+		BigDecimal updateBalance = depositAccount.credit(amount).getAmount();
+		log.debug("Updated balance after deposit in Account Id {} is {}", toAccountId, updateBalance);
 		return updateBalance;
 	}
 	// Throw invalid account id exception if wrong account id has been entered
@@ -104,5 +469,350 @@ public BigDecimal deposit(String fromAccountId, String toAccountId, BigDecimal a
 	}
 	}
 
+@Override
+public TransferResult transfer(String fromAccountId, String toAccountId, BigDecimal amount)
+		throws InvalidAccountIdException, LowAccountBalanceException {
+	requirePositive(amount);
+	for (;;) {
+		try {
+			return tryTransfer(fromAccountId, toAccountId, amount);
+		} catch (AccountEvictedException ex) {
+			// Looked up just before it moved to the cold store; the next lookup brings it back
+		}
+	}
+}
+
+private TransferResult tryTransfer(String fromAccountId, String toAccountId, BigDecimal amount)
+		throws InvalidAccountIdException, LowAccountBalanceException {
+	Account withDrawAccount = getAccount(fromAccountId);
+	Account depositAccount = getAccount(toAccountId);
+	if (withDrawAccount == null || depositAccount == null) {
+		throw new InvalidAccountIdException("Please enter a valid account id!");
+	}
+
+	// Converted before any lock is taken; a same-currency transfer skips this entirely
+	BigDecimal rate = fxRates.rateFor(withDrawAccount.getCurrency(), depositAccount.getCurrency());
+	BigDecimal depositAmount = depositAmount(amount, rate, depositAccount);
+
+	// Only the debited account is locked; the credit is a lock-free compare-and-set, so transfers
+	// never hold two locks and cannot deadlock. The two legs are published separately: a reader can
+	// see the debit before the credit, and, when the credit is refused, the debit before it is undone
+	Balance withdrawnBalance;
+	Balance depositedBalance;
+	long sequence;
+	long units = toUnits(amount, withDrawAccount);
+	long depositUnits = rate == null ? units : toUnits(depositAmount, depositAccount);
+	transferMetrics.lock(withDrawAccount.getLock());
+	try {
+		withdrawnBalance = debit(withDrawAccount, amount, units);
+		try {
+			depositedBalance = credit(depositAccount, depositAmount, depositUnits);
+		} catch (RuntimeException ex) {
+			// The deposit account was sealed after the lookup, or its balance would overflow in
+			// minor units; the debit is put back while the lock still keeps the withdraw account
+			// from being sealed too
+			credit(withDrawAccount, amount, units);
+			throw ex;
+		}
+		// Numbered before the lock is released, so the ledger lists debits in the order they were applied
+		sequence = transferSequence.next(fromAccountId.hashCode());
+	} finally {
+		withDrawAccount.getLock().unlock();
+	}
+
+	notifyAboutTransfer(withDrawAccount, depositAccount, amount, depositAmount);
+	// Guarded: three arguments would otherwise allocate a varargs array on every transfer
+	if (log.isDebugEnabled()) {
+		log.debug("Transferred {} from Account Id {} to Account Id {}", amount, fromAccountId, toAccountId);
+	}
+	TransferResult result = toResult(withDrawAccount, depositAccount, amount, rate, depositAmount, withdrawnBalance,
+			depositedBalance);
+	result.setSequence(sequence);
+	return result;
+}
+
+@Override
+public BatchTransferResult transferBatch(List<TransferRequest> transfers, BatchMode mode) {
+	for (;;) {
+		try {
+			return tryTransferBatch(transfers, mode);
+		} catch (AccountEvictedException ex) {
+			// An account moved to the cold store before the batch locked it; nothing was applied
+		}
+	}
+}
+
+private BatchTransferResult tryTransferBatch(List<TransferRequest> transfers, BatchMode mode) {
+	int size = transfers.size();
+	BatchTransferItemResult[] results = new BatchTransferItemResult[size];
+	Account[] withDrawAccounts = new Account[size];
+	Account[] depositAccounts = new Account[size];
+	long[] units = new long[size];
+	BigDecimal[] rates = new BigDecimal[size];
+	BigDecimal[] depositAmounts = new BigDecimal[size];
+	long[] depositUnits = new long[size];
+
+	// Validation pass: every distinct account is looked up once, amounts are converted between
+	// currencies, and the accounts involved are collected in accountId order for the locking pass
+	Map<String, Account> resolved = new HashMap<>();
+	TreeMap<String, Account> involved = new TreeMap<>();
+	int rejected = 0;
+	for (int i = 0; i < size; i++) {
+		TransferRequest transfer = transfers.get(i);
+		try {
+			requirePositive(transfer.getAmount());
+			withDrawAccounts[i] = resolve(resolved, transfer.getFromAccountId());
+			depositAccounts[i] = resolve(resolved, transfer.getToAccountId());
+			units[i] = toUnits(transfer.getAmount(), withDrawAccounts[i]);
+			rates[i] = fxRates.rateFor(withDrawAccounts[i].getCurrency(), depositAccounts[i].getCurrency());
+			depositAmounts[i] = depositAmount(transfer.getAmount(), rates[i], depositAccounts[i]);
+			depositUnits[i] = rates[i] == null ? units[i] : toUnits(depositAmounts[i], depositAccounts[i]);
+			involved.put(withDrawAccounts[i].getAccountId(), withDrawAccounts[i]);
+			involved.put(depositAccounts[i].getAccountId(), depositAccounts[i]);
+		} catch (InvalidAccountIdException | InvalidAmountException | UnsupportedCurrencyException ex) {
+			results[i] = BatchTransferItemResult.rejected(i, ex.getMessage());
+			rejected++;
+		}
+	}
+	if (mode == BatchMode.ALL_OR_NOTHING && rejected > 0) {
+		return toBatchResult(mode, markNotApplied(results));
+	}
+
+	// Locking pass: every account involved is locked, in accountId order so concurrent batches cannot
+	// deadlock. Other credits stay lock-free and can only raise a locked balance, so a funds check
+	// made under these locks remains valid until the batch is applied; locking the credited accounts
+	// too keeps them from being closed or moved to the cold store half way through.
+	List<Account> locked = new ArrayList<>(involved.values());
+	int held = 0;
+	try {
+		for (Account account : locked) {
+			transferMetrics.lock(account.getLock());
+			held++;
+			Balance current = account.currentBalance();
+			if (current instanceof SealedBalance && !((SealedBalance) current).isClosed()) {
+				throw new AccountEvictedException("Account id " + account.getAccountId() + " has moved to the cold store");
+			}
+		}
+		if (rejectClosed(withDrawAccounts, depositAccounts, results) && mode == BatchMode.ALL_OR_NOTHING) {
+			return toBatchResult(mode, markNotApplied(results));
+		}
+		if (mode == BatchMode.ALL_OR_NOTHING
+				&& !fundsCoverBatch(transfers, withDrawAccounts, depositAccounts, depositAmounts, results)) {
+			return toBatchResult(mode, markNotApplied(results));
+		}
+		for (int i = 0; i < size; i++) {
+			if (results[i] != null) {
+				continue;
+			}
+			TransferRequest transfer = transfers.get(i);
+			Balance withdrawnBalance;
+			Balance depositedBalance;
+			try {
+				withdrawnBalance = debit(withDrawAccounts[i], transfer.getAmount(), units[i]);
+			} catch (LowAccountBalanceException ex) {
+				results[i] = BatchTransferItemResult.rejected(i, ex.getMessage());
+				continue;
+			}
+			try {
+				depositedBalance = credit(depositAccounts[i], depositAmounts[i], depositUnits[i]);
+			} catch (RuntimeException ex) {
+				// The credit would take the balance past what minor units hold. After the funds check
+				// only a lock-free credit landing in between can cause that, and the batch is undone.
+				credit(withDrawAccounts[i], transfer.getAmount(), units[i]);
+				results[i] = BatchTransferItemResult.rejected(i, ex.getMessage());
+				if (mode == BatchMode.ALL_OR_NOTHING) {
+					undoApplied(i, transfers, withDrawAccounts, depositAccounts, units, depositAmounts, depositUnits,
+							results);
+					return toBatchResult(mode, markNotApplied(results));
+				}
+				continue;
+			}
+			results[i] = BatchTransferItemResult.applied(i, toResult(withDrawAccounts[i], depositAccounts[i],
+					transfer.getAmount(), rates[i], depositAmounts[i], withdrawnBalance, depositedBalance));
+		}
+		// Numbered while the accounts are still locked, so each account's transfers keep the order the batch
+		// applied them in
+		for (BatchTransferItemResult result : results) {
+			if (result.getStatus() == BatchTransferItemResult.Status.APPLIED) {
+				TransferResult applied = result.getResult();
+				applied.setSequence(transferSequence.next(applied.getFromAccountId().hashCode()));
+			}
+		}
+	} finally {
+		for (int i = held - 1; i >= 0; i--) {
+			locked.get(i).getLock().unlock();
+		}
+	}
+
+	for (int i = 0; i < size; i++) {
+		if (results[i].getStatus() == BatchTransferItemResult.Status.APPLIED) {
+			notifyAboutTransfer(withDrawAccounts[i], depositAccounts[i], transfers.get(i).getAmount(), depositAmounts[i]);
+		}
+	}
+	BatchTransferResult batchResult = toBatchResult(mode, results);
+	log.info("Applied {} of {} batched transfers ({})", batchResult.getApplied(), size, mode);
+	return batchResult;
+}
+
+/**
+ * Replays the batch against the locked balances without changing them. Marks every transfer that
+ * would overdraw its account, or take the deposit account past what minor units hold, as rejected
+ * and returns whether none did.
+ */
+private boolean fundsCoverBatch(List<TransferRequest> transfers, Account[] withDrawAccounts,
+		Account[] depositAccounts, BigDecimal[] depositAmounts, BatchTransferItemResult[] results) {
+	Map<Account, BigDecimal> projected = new IdentityHashMap<>();
+	boolean covered = true;
+	for (int i = 0; i < transfers.size(); i++) {
+		if (results[i] != null) {
+			continue;
+		}
+		BigDecimal amount = transfers.get(i).getAmount();
+		BigDecimal remaining = projected.getOrDefault(withDrawAccounts[i], withDrawAccounts[i].getBalance()).subtract(amount);
+		if (remaining.signum() < 0) {
+			results[i] = BatchTransferItemResult.rejected(i,
+					"Unable to withdraw funds due to Low Account Balance for Account Id " + withDrawAccounts[i].getAccountId());
+			covered = false;
+			continue;
+		}
+		BigDecimal credited = (depositAccounts[i] == withDrawAccounts[i] ? remaining
+				: projected.getOrDefault(depositAccounts[i], depositAccounts[i].getBalance())).add(depositAmounts[i]);
+		if (overflows(credited, depositAccounts[i])) {
+			results[i] = BatchTransferItemResult.rejected(i,
+					"Balance overflow for Account Id " + depositAccounts[i].getAccountId());
+			covered = false;
+			continue;
+		}
+		projected.put(withDrawAccounts[i], remaining);
+		projected.put(depositAccounts[i], credited);
+	}
+	return covered;
+}
+
+/**
+ * Reverses the transfers applied before {@code failed}, newest first, and clears their results. The
+ * accounts are still locked and other credits only raise their balances, so every reversing debit
+ * is covered.
+ */
+private void undoApplied(int failed, List<TransferRequest> transfers, Account[] withDrawAccounts,
+		Account[] depositAccounts, long[] units, BigDecimal[] depositAmounts, long[] depositUnits,
+		BatchTransferItemResult[] results) {
+	for (int i = failed - 1; i >= 0; i--) {
+		if (results[i] != null && results[i].getStatus() == BatchTransferItemResult.Status.APPLIED) {
+			debit(depositAccounts[i], depositAmounts[i], depositUnits[i]);
+			credit(withDrawAccounts[i], transfers.get(i).getAmount(), units[i]);
+			results[i] = null;
+		}
+	}
+}
+
+/**
+ * Marks every transfer from or to a closed account as rejected and returns whether there was one.
+ * The accounts are locked, so none can be closed meanwhile.
+ */
+private static boolean rejectClosed(Account[] withDrawAccounts, Account[] depositAccounts,
+		BatchTransferItemResult[] results) {
+	boolean found = false;
+	for (int i = 0; i < results.length; i++) {
+		if (results[i] != null) {
+			continue;
+		}
+		Account closed = withDrawAccounts[i].isClosed() ? withDrawAccounts[i]
+				: depositAccounts[i].isClosed() ? depositAccounts[i] : null;
+		if (closed != null) {
+			results[i] = BatchTransferItemResult.rejected(i, "Account id " + closed.getAccountId() + " is closed");
+			found = true;
+		}
+	}
+	return found;
+}
+
+private Account resolve(Map<String, Account> resolved, String accountId) throws InvalidAccountIdException {
+	Account account = accountId == null ? null : resolved.computeIfAbsent(accountId, this::getAccount);
+	if (account == null) {
+		throw new InvalidAccountIdException("Please enter a valid account id!");
+	}
+	return account;
+}
+
+private static BatchTransferItemResult[] markNotApplied(BatchTransferItemResult[] results) {
+	for (int i = 0; i < results.length; i++) {
+		if (results[i] == null) {
+			results[i] = BatchTransferItemResult.notApplied(i);
+		}
+	}
+	return results;
+}
+
+private static BatchTransferResult toBatchResult(BatchMode mode, BatchTransferItemResult[] results) {
+	int applied = 0;
+	int rejected = 0;
+	for (BatchTransferItemResult result : results) {
+		if (result.getStatus() == BatchTransferItemResult.Status.APPLIED) {
+			applied++;
+		} else if (result.getStatus() == BatchTransferItemResult.Status.REJECTED) {
+			rejected++;
+		}
+	}
+	return new BatchTransferResult(mode, applied, rejected, Arrays.asList(results));
+}
+
+private static void requirePositive(BigDecimal amount) throws InvalidAmountException {
+	if (amount == null || amount.signum() <= 0) {
+		throw new InvalidAmountException("Transfer amount must be positive");
+	}
+}
+
+// In minor-units mode the amount is converted once and every leg runs on longs
+private long toUnits(BigDecimal amount, Account account) throws InvalidAmountException {
+	return moneyMode == MoneyMode.MINOR_UNITS
+			? MinorUnits.toMinorUnits(amount, scaleOf(account.getCurrency())) : 0L;
+}
+
+// Base-currency balances keep accounts.money.scale; every other currency counts its own minor unit
+private int scaleOf(String currency) {
+	return fxRates.sameCurrency(currency, null) ? scale : fxRates.fractionDigits(currency);
+}
+
+private Balance debit(Account account, BigDecimal amount, long units) throws LowAccountBalanceException {
+	return moneyMode == MoneyMode.MINOR_UNITS ? account.debit(units) : account.debit(amount);
+}
+
+private Balance credit(Account account, BigDecimal amount, long units) {
+	return moneyMode == MoneyMode.MINOR_UNITS ? account.credit(units) : account.credit(amount);
+}
+
+// Minor units are longs, so a balance needing more of them than a long holds cannot be stored
+private boolean overflows(BigDecimal balance, Account account) {
+	return moneyMode == MoneyMode.MINOR_UNITS
+			&& balance.movePointRight(scaleOf(account.getCurrency())).compareTo(MAX_UNITS) > 0;
+}
+
+// What the deposit account is credited: the amount itself, or converted at rate into its currency
+private BigDecimal depositAmount(BigDecimal amount, BigDecimal rate, Account depositAccount) throws InvalidAmountException {
+	if (rate == null) {
+		return amount;
+	}
+	return fxRates.convert(amount, rate, depositAccount.getCurrency(), scaleOf(depositAccount.getCurrency()));
+}
+
+private void notifyAboutTransfer(Account withDrawAccount, Account depositAccount, BigDecimal amount,
+		BigDecimal depositAmount) {
+	this.notificationService.notifyAboutTransfer(withDrawAccount, TransferDirection.OUTGOING, amount);
+	this.notificationService.notifyAboutTransfer(depositAccount, TransferDirection.INCOMING, depositAmount);
+}
+
+private static TransferResult toResult(Account withDrawAccount, Account depositAccount, BigDecimal amount,
+		BigDecimal rate, BigDecimal depositAmount, Balance withdrawnBalance, Balance depositedBalance) {
+	// A transfer from an account to itself reports the balance after both legs
+	BigDecimal withdrawn = withDrawAccount == depositAccount ? depositedBalance.getAmount() : withdrawnBalance.getAmount();
+	TransferResult result = new TransferResult(withDrawAccount.getAccountId(), depositAccount.getAccountId(), amount,
+			withdrawn, depositedBalance.getAmount());
+	if (rate != null) {
+		result.setDepositedAmount(depositAmount);
+		result.setRate(rate);
+	}
+	return result;
+}
 
 }
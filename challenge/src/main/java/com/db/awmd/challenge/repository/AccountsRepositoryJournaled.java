@@ -0,0 +1,367 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.AccountNotEmptyException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.journal.AccountSnapshot;
+import com.db.awmd.challenge.journal.JournalVisitor;
+import com.db.awmd.challenge.journal.TransferJournal;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Durable {@link AccountsRepository}. Balances live in an {@link AccountsRepositoryInMemory} and
+ * every change is recorded in a {@link TransferJournal} before the call returns. A transfer is
+ * applied and appended to the journal while the locks of its accounts are held, and the caller
+ * then waits for the disk without them. An
+ * {@link AccountSnapshot} is written periodically in the background; on startup the newest
+ * snapshot is loaded and only the journal written after it is replayed. Enabled with
+ * {@code accounts.store=journal}.
+ *
+ * <p>Journal records and snapshots carry each account's currency along with its balance.
+ * Closing an account is journaled with its final balance, so it stays closed across restarts.
+ */
+@Repository
+@Primary
+@ConditionalOnProperty(prefix = "accounts", name = "store", havingValue = "journal")
+@Slf4j
+public class AccountsRepositoryJournaled implements ArchivingAccountsRepository {
+
+	private final AccountsRepositoryInMemory accounts;
+
+	private final TransferJournal journal;
+
+	private final long snapshotIntervalSeconds;
+
+	private final long startupTargetMillis;
+
+	private ScheduledExecutorService snapshotScheduler;
+
+	@Autowired
+	public AccountsRepositoryJournaled(AccountsRepositoryInMemory accounts,
+			@Value("${accounts.journal.directory:journal}") String directory,
+			@Value("${accounts.journal.segment-size:67108864}") int segmentSize,
+			@Value("${accounts.journal.fsync:true}") boolean fsync,
+			@Value("${accounts.snapshot.interval-seconds:300}") long snapshotIntervalSeconds,
+			@Value("${accounts.snapshot.startup-target-millis:60000}") long startupTargetMillis) {
+		this.accounts = accounts;
+		this.journal = new TransferJournal(Paths.get(directory), segmentSize, fsync);
+		this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+		this.startupTargetMillis = startupTargetMillis;
+	}
+
+	@PostConstruct
+	public void recover() throws IOException {
+		long start = System.nanoTime();
+		// Records are applied straight to the in-memory accounts; replay keeps the highest version
+		this.accounts.clearAccounts();
+		JournalVisitor visitor = new JournalVisitor() {
+
+			@Override
+			public void onClear() {
+				accounts.clearAccounts();
+			}
+
+			@Override
+			public void onBalance(String accountId, String currency, BigDecimal amount, long version, boolean closed) {
+				// Closing raised the version by one; the balance before it is restored and closed again
+				long openVersion = closed ? version - 1 : version;
+				Account known = accounts.getAccount(accountId);
+				if (known == null) {
+					Account account = new Account(accountId, BigDecimal.ZERO, currency);
+					account.restoreBalance(amount, openVersion);
+					accounts.createAccount(account);
+					known = accounts.getAccount(accountId);
+				} else if (known.currentBalance().getVersion() < version) {
+					known.restoreBalance(amount, openVersion);
+				} else {
+					return;
+				}
+				if (closed) {
+					known.getLock().lock();
+					try {
+						known.seal(true);
+					} finally {
+						known.getLock().unlock();
+					}
+				}
+			}
+		};
+		long fromSegment = AccountSnapshot.loadLatest(this.journal.getDirectory(), visitor);
+		this.journal.replay(visitor, fromSegment);
+		long[] recovered = new long[1];
+		this.accounts.forEachAccount(account -> recovered[0]++);
+		this.journal.open();
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		if (elapsedMillis > this.startupTargetMillis) {
+			log.warn("Recovered {} accounts in {} ms, over the startup target of {} ms; consider snapshotting more often",
+					recovered[0], elapsedMillis, this.startupTargetMillis);
+		} else {
+			log.info("Recovered {} accounts from snapshot and journal segment {} onwards in {} ms", recovered[0],
+					fromSegment, elapsedMillis);
+		}
+
+		if (this.snapshotIntervalSeconds > 0) {
+			this.snapshotScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "account-snapshot");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.snapshotScheduler.scheduleWithFixedDelay(this::snapshotQuietly, this.snapshotIntervalSeconds,
+					this.snapshotIntervalSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		if (this.snapshotScheduler != null) {
+			this.snapshotScheduler.shutdownNow();
+		}
+		this.journal.close();
+	}
+
+	/**
+	 * Writes a snapshot of every account while transfers keep running, then deletes the journal
+	 * segments and snapshots it supersedes.
+	 */
+	public synchronized void snapshot() throws IOException {
+		long start = System.nanoTime();
+		long fromSegment = this.journal.roll();
+		long count = AccountSnapshot.write(this.journal.getDirectory(), fromSegment, this.accounts::forEachAccount);
+		this.journal.deleteSegmentsBefore(fromSegment);
+		AccountSnapshot.deleteBefore(this.journal.getDirectory(), fromSegment);
+		log.info("Wrote snapshot of {} accounts in {} ms", count,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+	}
+
+	private void snapshotQuietly() {
+		try {
+			snapshot();
+		} catch (IOException | RuntimeException ex) {
+			log.error("Unable to write account snapshot", ex);
+		}
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException, InvalidAmountException {
+		this.accounts.createAccount(account);
+		this.journal.appendBalances(account);
+	}
+
+	/**
+	 * Records the whole batch with one durable write rather than one per account.
+	 */
+	@Override
+	public int createAccounts(List<Account> batch, BiConsumer<Account, RuntimeException> rejected) {
+		Set<Account> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+		int created = this.accounts.createAccounts(batch, (account, ex) -> {
+			failed.add(account);
+			rejected.accept(account, ex);
+		});
+		List<Account> changed = new ArrayList<>(created);
+		for (Account account : batch) {
+			if (!failed.contains(account)) {
+				changed.add(account);
+			}
+		}
+		if (!changed.isEmpty()) {
+			this.journal.appendBalances(changed);
+		}
+		return created;
+	}
+
+	@Override
+	public Account getAccount(String accountId) {
+		return this.accounts.getAccount(accountId);
+	}
+
+	@Override
+	public void forEachAccount(Consumer<Account> action) {
+		this.accounts.forEachAccount(action);
+	}
+
+	@Override
+	public void clearAccounts() {
+		this.accounts.clearAccounts();
+		this.journal.appendClear();
+	}
+
+	@Override
+	public Account closeAccount(String accountId) throws InvalidAccountIdException, AccountNotEmptyException {
+		Account closed;
+		long sequence;
+		Map<String, Account> locked = lock(Collections.singleton(accountId));
+		try {
+			closed = this.accounts.closeAccount(accountId);
+			sequence = this.journal.appendBalancesLater(Collections.singletonList(closed));
+		} finally {
+			unlock(locked);
+		}
+		this.journal.awaitDurable(sequence);
+		return closed;
+	}
+
+	/**
+	 * Journals the account as closed, then moves it to the cold store. The cold store is not durable,
+	 * so after a restart the account comes back closed and in memory, until tiering moves it out again.
+	 */
+	@Override
+	public Account archiveAccount(String accountId) throws InvalidAccountIdException, AccountNotEmptyException {
+		closeAccount(accountId);
+		return this.accounts.archiveAccount(accountId);
+	}
+
+	@Override
+	public BigDecimal withdraw(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException, LowAccountBalanceException {
+		BigDecimal balance;
+		long sequence;
+		Map<String, Account> locked = lock(Collections.singleton(fromAccountId));
+		try {
+			balance = this.accounts.withdraw(fromAccountId, toAccountId, amount);
+			sequence = this.journal.appendBalancesLater(new ArrayList<>(locked.values()));
+		} finally {
+			unlock(locked);
+		}
+		this.journal.awaitDurable(sequence);
+		return balance;
+	}
+
+	@Override
+	public BigDecimal deposit(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException {
+		BigDecimal balance;
+		long sequence;
+		Map<String, Account> locked = lock(Collections.singleton(toAccountId));
+		try {
+			balance = this.accounts.deposit(fromAccountId, toAccountId, amount);
+			sequence = this.journal.appendBalancesLater(new ArrayList<>(locked.values()));
+		} finally {
+			unlock(locked);
+		}
+		this.journal.awaitDurable(sequence);
+		return balance;
+	}
+
+	@Override
+	public TransferResult transfer(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException, LowAccountBalanceException, InvalidAmountException {
+		TransferResult result;
+		long sequence;
+		Map<String, Account> locked = lock(Arrays.asList(fromAccountId, toAccountId));
+		try {
+			result = this.accounts.transfer(fromAccountId, toAccountId, amount);
+			sequence = this.journal.appendBalancesLater(new ArrayList<>(locked.values()));
+		} finally {
+			unlock(locked);
+		}
+		this.journal.awaitDurable(sequence);
+		return result;
+	}
+
+	@Override
+	public BatchTransferResult transferBatch(List<TransferRequest> transfers, BatchMode mode) {
+		List<String> accountIds = new ArrayList<>(transfers.size() * 2);
+		for (TransferRequest transfer : transfers) {
+			accountIds.add(transfer.getFromAccountId());
+			accountIds.add(transfer.getToAccountId());
+		}
+		BatchTransferResult result;
+		long sequence = 0;
+		Map<String, Account> locked = lock(accountIds);
+		try {
+			result = this.accounts.transferBatch(transfers, mode);
+			// One record, and so one durable write, for every account the batch changed
+			Map<String, Account> changed = new LinkedHashMap<>();
+			for (BatchTransferItemResult item : result.getResults()) {
+				if (item.getStatus() == BatchTransferItemResult.Status.APPLIED) {
+					changed.put(item.getResult().getFromAccountId(), locked.get(item.getResult().getFromAccountId()));
+					changed.put(item.getResult().getToAccountId(), locked.get(item.getResult().getToAccountId()));
+				}
+			}
+			if (!changed.isEmpty()) {
+				sequence = this.journal.appendBalancesLater(new ArrayList<>(changed.values()));
+			}
+		} finally {
+			unlock(locked);
+		}
+		this.journal.awaitDurable(sequence);
+		return result;
+	}
+
+	/**
+	 * Locks the accounts behind the given ids in accountId order, the order the in-memory store locks
+	 * in, and returns them by id; ids of unknown accounts are left for that store to reject. Each
+	 * operation changes its accounts and appends their balances while holding their locks, so the
+	 * journal has every change to an account in the order it was made: a record that carries a
+	 * balance never precedes the record of a change the balance includes.
+	 */
+	private Map<String, Account> lock(Collection<String> accountIds) {
+		Set<String> ordered = new TreeSet<>();
+		for (String accountId : accountIds) {
+			if (accountId != null) {
+				ordered.add(accountId);
+			}
+		}
+		for (;;) {
+			Map<String, Account> locked = new LinkedHashMap<>();
+			boolean current = true;
+			for (String accountId : ordered) {
+				Account account = this.accounts.getAccount(accountId);
+				if (account == null) {
+					continue;
+				}
+				account.getLock().lock();
+				locked.put(accountId, account);
+				// Moved to the cold store between the lookup and the lock, it comes back as another
+				// instance; an archived account is a fresh closed copy every time and takes no changes
+				if (!account.isClosed() && this.accounts.getAccount(accountId) != account) {
+					current = false;
+					break;
+				}
+			}
+			if (current) {
+				return locked;
+			}
+			unlock(locked);
+		}
+	}
+
+	private static void unlock(Map<String, Account> locked) {
+		for (Account account : locked.values()) {
+			account.getLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,833 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.exception.UnsupportedCurrencyException;
+import com.db.awmd.challenge.fx.FxRateTable;
+import com.db.awmd.challenge.ledger.TransferSequence;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.service.TransferDirection;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Consumer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+/**
+ * {@link AccountsRepository} that keeps every account outside the Java heap, for deployments with
+ * tens of millions of accounts. Accounts live in open-addressing tables of fixed 32-byte slots in
+ * direct buffers: the 64-bit hash of the account id, a reference to the account's record in an
+ * off-heap key arena, the balance as {@code long} minor units and its version. No object is
+ * allocated per account, so heap size and GC pauses do not grow with the number of accounts.
+ *
+ * <p>An arena record is {@code [int idLength][byte format][byte scale][3 bytes currency][id]}: the
+ * format version of the record, the number of decimals the account's minor units stand for, its
+ * ISO 4217 code, zeros for the base currency, then the id's UTF-8 bytes. Base-currency accounts
+ * count {@code accounts.money.scale} decimals, every other currency its own minor unit. A transfer
+ * between two currencies credits the amount converted at the current rate, as in
+ * {@link AccountsRepositoryInMemory}.
+ *
+ * <p>The table is split into segments of at most {@value #MAX_SEGMENT_SLOTS} slots. Lookups in a
+ * segment run under an optimistic {@link StampedLock} read and only inserts take its write lock.
+ * Slots never move once written, so a balance is guarded by one of a fixed set of striped locks
+ * chosen by slot; a transfer takes the stripes of both accounts in index order. The capacity is
+ * fixed at startup from {@code accounts.offheap.capacity}. Direct memory is bounded by
+ * {@code -XX:MaxDirectMemorySize}. Enabled with {@code accounts.store=offheap}.
+ *
+ * <p>{@link #getAccount(String)} returns a detached copy of the account; changing it does not
+ * change the stored balance. Slots have no room for a closed flag, so accounts cannot be closed or
+ * archived: this is not a {@link LifecycleAccountsRepository}.
+ */
+@Repository
+@Primary
+@ConditionalOnProperty(prefix = "accounts", name = "store", havingValue = "offheap")
+@Slf4j
+public class AccountsRepositoryOffHeap implements AccountsRepository {
+
+	private static final int SLOT_BYTES = 32;
+
+	private static final int HASH = 0;
+
+	private static final int KEY = 8;
+
+	private static final int BALANCE = 16;
+
+	private static final int VERSION = 24;
+
+	private static final int MAX_SEGMENT_SLOTS = 1 << 20;
+
+	private static final double LOAD_FACTOR = 0.75;
+
+	private static final int ARENA_CHUNK_BYTES = 1 << 20;
+
+	private static final int MAX_ARENA_CHUNKS = 1 << 16;
+
+	private static final int ID_LENGTH = 0;
+
+	private static final int FORMAT = 4;
+
+	private static final int SCALE = 5;
+
+	private static final int CURRENCY = 6;
+
+	private static final int ID = 9;
+
+	private static final byte FORMAT_VERSION = 1;
+
+	private static final int CURRENCY_BYTES = 3;
+
+	private final NotificationService notificationService;
+
+	private final int scale;
+
+	private final Segment[] segments;
+
+	private final ReentrantLock[] balanceLocks;
+
+	private final TransferMetrics transferMetrics;
+
+	private final FxRateTable fxRates;
+
+	private final TransferSequence transferSequence;
+
+	public AccountsRepositoryOffHeap(NotificationService notificationService, int scale, long capacity,
+			int lockStripes) {
+		this(notificationService, scale, capacity, lockStripes, new TransferMetrics(), new FxRateTable());
+	}
+
+	public AccountsRepositoryOffHeap(NotificationService notificationService, int scale, long capacity,
+			int lockStripes, TransferMetrics transferMetrics, FxRateTable fxRates) {
+		this(notificationService, scale, capacity, lockStripes, transferMetrics, fxRates, new TransferSequence());
+	}
+
+	@Autowired
+	public AccountsRepositoryOffHeap(NotificationService notificationService,
+			@Value("${accounts.money.scale:2}") int scale,
+			@Value("${accounts.offheap.capacity:1000000}") long capacity,
+			@Value("${accounts.offheap.lock-stripes:4096}") int lockStripes,
+			TransferMetrics transferMetrics,
+			FxRateTable fxRates,
+			TransferSequence transferSequence) {
+		this.notificationService = notificationService;
+		this.transferMetrics = transferMetrics;
+		this.fxRates = fxRates;
+		this.transferSequence = transferSequence;
+		this.scale = scale;
+		long slots = Math.max(16L, (long) Math.ceil(capacity / LOAD_FACTOR));
+		int segmentSlots = (int) Math.min(MAX_SEGMENT_SLOTS, Long.highestOneBit(slots - 1) << 1);
+		int segmentCount = (int) ((slots + segmentSlots - 1) / segmentSlots);
+		this.segments = new Segment[segmentCount];
+		for (int i = 0; i < segmentCount; i++) {
+			this.segments[i] = new Segment(segmentSlots);
+		}
+		int stripes = Integer.highestOneBit(Math.max(1, lockStripes - 1)) << 1;
+		this.balanceLocks = new ReentrantLock[stripes];
+		for (int i = 0; i < stripes; i++) {
+			this.balanceLocks[i] = new ReentrantLock();
+		}
+		log.info("Off-heap account table: {} segments of {} slots ({} MiB) for {} accounts", segmentCount,
+				segmentSlots, (long) segmentCount * segmentSlots * SLOT_BYTES >> 20, capacity);
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException, InvalidAmountException {
+		String currency = account.getCurrency() == null ? null : FxRateTable.requireCurrency(account.getCurrency());
+		int accountScale = scaleOf(currency);
+		long units = MinorUnits.toMinorUnits(account.getBalance(), accountScale);
+		byte[] key = encode(account.getAccountId());
+		long hash = hash(key);
+		byte[] code = currency == null ? new byte[CURRENCY_BYTES] : currency.getBytes(StandardCharsets.US_ASCII);
+		if (!segmentFor(hash).insert(hash, key, code, accountScale, units, account.currentBalance().getVersion())) {
+			throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+		}
+	}
+
+	/**
+	 * Returns a detached copy of the account as of one instant. Balances live in the slots, so
+	 * changing the copy changes nothing, and its {@link Account#getLock()} guards nothing either:
+	 * holding it does not keep the stored balance from moving. Transfers never build one; they hand
+	 * the notification service the account id.
+	 */
+	@Override
+	public Account getAccount(String accountId) {
+		long ref = find(accountId);
+		if (ref < 0) {
+			return null;
+		}
+		ReentrantLock lock = lockFor(ref);
+		lock.lock();
+		try {
+			return toAccount(accountId, ref);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public void clearAccounts() {
+		for (Segment segment : this.segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Visits a detached copy of every account. Each segment is copied under its read lock, so
+	 * accounts created during the walk may or may not be visited, and the action runs once the locks
+	 * are released: a slow consumer holds up neither transfers nor inserts.
+	 */
+	@Override
+	public void forEachAccount(Consumer<Account> action) {
+		List<Account> copies = new ArrayList<>();
+		for (int s = 0; s < this.segments.length; s++) {
+			Segment segment = this.segments[s];
+			long stamp = segment.lock.readLock();
+			try {
+				for (int slot = 0; slot <= segment.mask; slot++) {
+					if (segment.slots.getLong(slot * SLOT_BYTES + HASH) != 0L) {
+						long ref = ref(s, slot);
+						String accountId = segment.readKey(slot);
+						ReentrantLock lock = lockFor(ref);
+						lock.lock();
+						try {
+							copies.add(toAccount(accountId, ref));
+						} finally {
+							lock.unlock();
+						}
+					}
+				}
+			} finally {
+				segment.lock.unlockRead(stamp);
+			}
+			copies.forEach(action);
+			copies.clear();
+		}
+	}
+
+	@Override
+	public BigDecimal withdraw(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException, LowAccountBalanceException {
+		long fromRef = find(fromAccountId);
+		long toRef = find(toAccountId);
+		if (toRef >= 0) {
+			this.notificationService.notifyAboutTransfer(toAccountId, TransferDirection.INCOMING, amount);
+		}
+		if (fromRef < 0) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		int accountScale = scale(fromRef);
+		long units = MinorUnits.toMinorUnits(amount, accountScale);
+		ReentrantLock lock = lockFor(fromRef);
+		this.transferMetrics.lock(lock);
+		try {
+			long balance = balance(fromRef);
+			if (balance < units) {
+				throw lowBalance(fromAccountId);
+			}
+			store(fromRef, MinorUnits.subtract(balance, units));
+			return MinorUnits.toDecimal(balance(fromRef), accountScale);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public BigDecimal deposit(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException {
+		long toRef = find(toAccountId);
+		if (toRef < 0) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		if (find(fromAccountId) >= 0) {
+			this.notificationService.notifyAboutTransfer(toAccountId, TransferDirection.INCOMING, amount);
+		}
+		int accountScale = scale(toRef);
+		long units = MinorUnits.toMinorUnits(amount, accountScale);
+		ReentrantLock lock = lockFor(toRef);
+		this.transferMetrics.lock(lock);
+		try {
+			store(toRef, MinorUnits.add(balance(toRef), units));
+			return MinorUnits.toDecimal(balance(toRef), accountScale);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	@Override
+	public TransferResult transfer(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException, LowAccountBalanceException, InvalidAmountException {
+		requirePositive(amount);
+		long fromRef = find(fromAccountId);
+		long toRef = find(toAccountId);
+		if (fromRef < 0 || toRef < 0) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		// Converted before any lock is taken; a same-currency transfer skips this entirely
+		BigDecimal rate = rateFor(fromRef, toRef);
+		long units = MinorUnits.toMinorUnits(amount, scale(fromRef));
+		BigDecimal depositAmount = depositAmount(amount, rate, toRef);
+		long depositUnits = rate == null ? units : MinorUnits.toMinorUnits(depositAmount, scale(toRef));
+
+		TransferResult result;
+		int[] stripes = stripes(fromRef, toRef);
+		lock(stripes);
+		try {
+			result = apply(fromAccountId, fromRef, toAccountId, toRef, amount, units, rate, depositAmount, depositUnits);
+		} finally {
+			unlock(stripes);
+		}
+
+		notifyAboutTransfer(fromAccountId, toAccountId, amount, depositAmount);
+		if (log.isDebugEnabled()) {
+			log.debug("Transferred {} from Account Id {} to Account Id {}", amount, fromAccountId, toAccountId);
+		}
+		return result;
+	}
+
+	@Override
+	public BatchTransferResult transferBatch(List<TransferRequest> transfers, BatchMode mode) {
+		int size = transfers.size();
+		BatchTransferItemResult[] results = new BatchTransferItemResult[size];
+		long[] fromRefs = new long[size];
+		long[] toRefs = new long[size];
+		long[] units = new long[size];
+		BigDecimal[] rates = new BigDecimal[size];
+		BigDecimal[] depositAmounts = new BigDecimal[size];
+		long[] depositUnits = new long[size];
+
+		// Validation pass: every distinct account is looked up once and amounts are converted between
+		// currencies
+		Map<String, Long> resolved = new HashMap<>();
+		long[] touched = new long[size * 2];
+		int rejected = 0;
+		for (int i = 0; i < size; i++) {
+			TransferRequest transfer = transfers.get(i);
+			try {
+				requirePositive(transfer.getAmount());
+				fromRefs[i] = resolve(resolved, transfer.getFromAccountId());
+				toRefs[i] = resolve(resolved, transfer.getToAccountId());
+				units[i] = MinorUnits.toMinorUnits(transfer.getAmount(), scale(fromRefs[i]));
+				rates[i] = rateFor(fromRefs[i], toRefs[i]);
+				depositAmounts[i] = depositAmount(transfer.getAmount(), rates[i], toRefs[i]);
+				depositUnits[i] = rates[i] == null ? units[i] : MinorUnits.toMinorUnits(depositAmounts[i], scale(toRefs[i]));
+				touched[2 * i] = fromRefs[i];
+				touched[2 * i + 1] = toRefs[i];
+			} catch (InvalidAccountIdException | InvalidAmountException | UnsupportedCurrencyException ex) {
+				results[i] = BatchTransferItemResult.rejected(i, ex.getMessage());
+				touched[2 * i] = -1;
+				touched[2 * i + 1] = -1;
+				rejected++;
+			}
+		}
+		if (mode == BatchMode.ALL_OR_NOTHING && rejected > 0) {
+			return toBatchResult(mode, markNotApplied(results));
+		}
+
+		// Locking pass: the stripes of every account in the batch, in index order
+		int[] stripes = stripes(touched);
+		lock(stripes);
+		try {
+			if (mode == BatchMode.ALL_OR_NOTHING && !fundsCoverBatch(transfers, fromRefs, toRefs, units, depositUnits,
+					results)) {
+				return toBatchResult(mode, markNotApplied(results));
+			}
+			for (int i = 0; i < size; i++) {
+				if (results[i] != null) {
+					continue;
+				}
+				TransferRequest transfer = transfers.get(i);
+				try {
+					results[i] = BatchTransferItemResult.applied(i, apply(transfer.getFromAccountId(), fromRefs[i],
+							transfer.getToAccountId(), toRefs[i], transfer.getAmount(), units[i], rates[i], depositAmounts[i],
+							depositUnits[i]));
+				} catch (LowAccountBalanceException | InvalidAmountException ex) {
+					results[i] = BatchTransferItemResult.rejected(i, ex.getMessage());
+				}
+			}
+		} finally {
+			unlock(stripes);
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (results[i].getStatus() == BatchTransferItemResult.Status.APPLIED) {
+				TransferRequest transfer = transfers.get(i);
+				notifyAboutTransfer(transfer.getFromAccountId(), transfer.getToAccountId(), transfer.getAmount(),
+						depositAmounts[i]);
+			}
+		}
+		BatchTransferResult batchResult = toBatchResult(mode, results);
+		log.info("Applied {} of {} batched transfers ({})", batchResult.getApplied(), size, mode);
+		return batchResult;
+	}
+
+	/**
+	 * Moves {@code units} out of one slot and {@code depositUnits} into another, both under stripes
+	 * the caller holds, and numbers the transfer for the ledger before they are released.
+	 */
+	private TransferResult apply(String fromAccountId, long fromRef, String toAccountId, long toRef,
+			BigDecimal amount, long units, BigDecimal rate, BigDecimal depositAmount, long depositUnits)
+			throws LowAccountBalanceException, InvalidAmountException {
+		long fromBalance = balance(fromRef);
+		if (fromBalance < units) {
+			throw lowBalance(fromAccountId);
+		}
+		// Work out both balances before storing either, so an overflow leaves both untouched
+		long withdrawn = fromBalance - units;
+		long deposited = fromRef == toRef ? fromBalance : MinorUnits.add(balance(toRef), depositUnits);
+		store(fromRef, withdrawn);
+		store(toRef, deposited);
+		// A transfer from an account to itself reports the balance after both legs
+		TransferResult result = new TransferResult(fromAccountId, toAccountId, amount,
+				MinorUnits.toDecimal(fromRef == toRef ? deposited : withdrawn, scale(fromRef)),
+				MinorUnits.toDecimal(deposited, scale(toRef)));
+		if (rate != null) {
+			result.setDepositedAmount(depositAmount);
+			result.setRate(rate);
+		}
+		result.setSequence(this.transferSequence.next(stripe(fromRef)));
+		return result;
+	}
+
+	/**
+	 * Replays the batch against the locked balances without changing them. Marks every transfer that
+	 * would overdraw its account, or take the deposit account past what a {@code long} holds, as
+	 * rejected and returns whether none did.
+	 */
+	private boolean fundsCoverBatch(List<TransferRequest> transfers, long[] fromRefs, long[] toRefs, long[] units,
+			long[] depositUnits, BatchTransferItemResult[] results) {
+		Map<Long, Long> projected = new HashMap<>();
+		boolean covered = true;
+		for (int i = 0; i < transfers.size(); i++) {
+			long remaining = projected.getOrDefault(fromRefs[i], balance(fromRefs[i])) - units[i];
+			if (remaining < 0) {
+				results[i] = BatchTransferItemResult.rejected(i,
+						lowBalance(transfers.get(i).getFromAccountId()).getMessage());
+				covered = false;
+				continue;
+			}
+			long credited;
+			try {
+				credited = MinorUnits.add(toRefs[i] == fromRefs[i] ? remaining
+						: projected.getOrDefault(toRefs[i], balance(toRefs[i])), depositUnits[i]);
+			} catch (InvalidAmountException ex) {
+				results[i] = BatchTransferItemResult.rejected(i,
+						"Balance overflow for Account Id " + transfers.get(i).getToAccountId());
+				covered = false;
+				continue;
+			}
+			projected.put(fromRefs[i], remaining);
+			projected.put(toRefs[i], credited);
+		}
+		return covered;
+	}
+
+	private long resolve(Map<String, Long> resolved, String accountId) throws InvalidAccountIdException {
+		Long ref = accountId == null ? null : resolved.computeIfAbsent(accountId, this::find);
+		if (ref == null || ref < 0) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		return ref;
+	}
+
+	private static BatchTransferItemResult[] markNotApplied(BatchTransferItemResult[] results) {
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] == null) {
+				results[i] = BatchTransferItemResult.notApplied(i);
+			}
+		}
+		return results;
+	}
+
+	private static BatchTransferResult toBatchResult(BatchMode mode, BatchTransferItemResult[] results) {
+		int applied = 0;
+		int rejected = 0;
+		for (BatchTransferItemResult result : results) {
+			if (result.getStatus() == BatchTransferItemResult.Status.APPLIED) {
+				applied++;
+			} else if (result.getStatus() == BatchTransferItemResult.Status.REJECTED) {
+				rejected++;
+			}
+		}
+		return new BatchTransferResult(mode, applied, rejected, Arrays.asList(results));
+	}
+
+	private static void requirePositive(BigDecimal amount) throws InvalidAmountException {
+		if (amount == null || amount.signum() <= 0) {
+			throw new InvalidAmountException("Transfer amount must be positive");
+		}
+	}
+
+	private static LowAccountBalanceException lowBalance(String accountId) {
+		return new LowAccountBalanceException(
+				"Unable to withdraw funds due to Low Account Balance for Account Id " + accountId);
+	}
+
+	private void notifyAboutTransfer(String fromAccountId, String toAccountId, BigDecimal amount,
+			BigDecimal depositAmount) {
+		this.notificationService.notifyAboutTransfer(fromAccountId, TransferDirection.OUTGOING, amount);
+		this.notificationService.notifyAboutTransfer(toAccountId, TransferDirection.INCOMING, depositAmount);
+	}
+
+	// Callers hold the slot's stripe, so balance and version are read together
+	private Account toAccount(String accountId, long ref) {
+		Account account = new Account(accountId, BigDecimal.ZERO, currency(ref));
+		account.restoreBalance(MinorUnits.toDecimal(balance(ref), scale(ref)), version(ref));
+		return account;
+	}
+
+	// Base-currency balances keep accounts.money.scale; every other currency counts its own minor unit
+	private int scaleOf(String currency) {
+		return this.fxRates.sameCurrency(currency, null) ? this.scale : this.fxRates.fractionDigits(currency);
+	}
+
+	// Accounts whose records hold the same code skip the rate table, and with it any allocation
+	private BigDecimal rateFor(long fromRef, long toRef) throws UnsupportedCurrencyException {
+		if (segment(fromRef).sameCurrency((int) fromRef, segment(toRef), (int) toRef)) {
+			return null;
+		}
+		return this.fxRates.rateFor(currency(fromRef), currency(toRef));
+	}
+
+	// What the deposit account is credited: the amount itself, or converted at rate into its currency
+	private BigDecimal depositAmount(BigDecimal amount, BigDecimal rate, long toRef) throws InvalidAmountException {
+		if (rate == null) {
+			return amount;
+		}
+		return this.fxRates.convert(amount, rate, currency(toRef), scale(toRef));
+	}
+
+	private int scale(long ref) {
+		return segment(ref).scale((int) ref);
+	}
+
+	private String currency(long ref) {
+		return segment(ref).currency((int) ref);
+	}
+
+	/**
+	 * Returns a reference to the account's slot, segment index in the high half and slot index in
+	 * the low half, or -1 when there is no such account.
+	 */
+	private long find(String accountId) {
+		if (accountId == null) {
+			return -1L;
+		}
+		byte[] key = encode(accountId);
+		long hash = hash(key);
+		int segmentIndex = segmentIndex(hash);
+		int slot = this.segments[segmentIndex].lookup(hash, key);
+		return slot < 0 ? -1L : ref(segmentIndex, slot);
+	}
+
+	private long balance(long ref) {
+		return slots(ref).getLong(offset(ref) + BALANCE);
+	}
+
+	private long version(long ref) {
+		return slots(ref).getLong(offset(ref) + VERSION);
+	}
+
+	private void store(long ref, long balance) {
+		ByteBuffer slots = slots(ref);
+		int offset = offset(ref);
+		slots.putLong(offset + BALANCE, balance);
+		slots.putLong(offset + VERSION, slots.getLong(offset + VERSION) + 1);
+	}
+
+	private ByteBuffer slots(long ref) {
+		return segment(ref).slots;
+	}
+
+	private Segment segment(long ref) {
+		return this.segments[(int) (ref >>> 32)];
+	}
+
+	private static int offset(long ref) {
+		return (int) ref * SLOT_BYTES;
+	}
+
+	private static long ref(int segmentIndex, int slot) {
+		return (long) segmentIndex << 32 | slot;
+	}
+
+	private Segment segmentFor(long hash) {
+		return this.segments[segmentIndex(hash)];
+	}
+
+	// Maps the high half of the hash onto the segments; the low half picks the slot
+	private int segmentIndex(long hash) {
+		return (int) (((hash >>> 32) * this.segments.length) >>> 32);
+	}
+
+	private ReentrantLock lockFor(long ref) {
+		return this.balanceLocks[stripe(ref)];
+	}
+
+	private int stripe(long ref) {
+		long mixed = ref * 0x9E3779B97F4A7C15L;
+		return (int) (mixed ^ mixed >>> 32) & (this.balanceLocks.length - 1);
+	}
+
+	private int[] stripes(long... refs) {
+		int[] stripes = new int[refs.length];
+		int count = 0;
+		for (long ref : refs) {
+			if (ref >= 0) {
+				stripes[count++] = stripe(ref);
+			}
+		}
+		return Arrays.stream(stripes, 0, count).sorted().distinct().toArray();
+	}
+
+	private void lock(int[] stripes) {
+		for (int stripe : stripes) {
+			this.transferMetrics.lock(this.balanceLocks[stripe]);
+		}
+	}
+
+	private void unlock(int[] stripes) {
+		for (int i = stripes.length - 1; i >= 0; i--) {
+			this.balanceLocks[stripes[i]].unlock();
+		}
+	}
+
+	private static byte[] encode(String accountId) throws InvalidAccountIdException {
+		byte[] key = accountId.getBytes(StandardCharsets.UTF_8);
+		if (key.length > ARENA_CHUNK_BYTES - ID) {
+			throw new InvalidAccountIdException("Account id is too long");
+		}
+		return key;
+	}
+
+	// FNV-1a over the id bytes with a final avalanche step; zero marks an empty slot
+	private static long hash(byte[] key) {
+		long hash = 0xcbf29ce484222325L;
+		for (byte b : key) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash == 0L ? 1L : hash;
+	}
+
+	/**
+	 * One open-addressing table with linear probing, and the key arena holding the ids of its
+	 * accounts. Slots are only ever added, so a slot index stays valid until the table is cleared.
+	 */
+	private static final class Segment {
+
+		private final ByteBuffer slots;
+
+		private final int mask;
+
+		private final int maxSize;
+
+		private final StampedLock lock = new StampedLock();
+
+		private final ByteBuffer[] arena = new ByteBuffer[MAX_ARENA_CHUNKS];
+
+		private int arenaChunk;
+
+		private int arenaOffset;
+
+		private int size;
+
+		Segment(int slotCount) {
+			this.slots = ByteBuffer.allocateDirect(slotCount * SLOT_BYTES).order(ByteOrder.nativeOrder());
+			this.mask = slotCount - 1;
+			this.maxSize = (int) (slotCount * LOAD_FACTOR);
+		}
+
+		/**
+		 * Finds the slot of an account without blocking: a probe that overlapped an insert is
+		 * repeated under the read lock.
+		 */
+		int lookup(long hash, byte[] key) {
+			long stamp = this.lock.tryOptimisticRead();
+			if (stamp != 0L) {
+				try {
+					int slot = probe(hash, key);
+					if (this.lock.validate(stamp)) {
+						return slot;
+					}
+				} catch (RuntimeException ex) {
+					// Read a half-written slot or arena chunk; fall through to the read lock
+				}
+			}
+			stamp = this.lock.readLock();
+			try {
+				return probe(hash, key);
+			} finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * Adds an account, or returns false when one with the same id already exists.
+		 */
+		boolean insert(long hash, byte[] key, byte[] currency, int scale, long balance, long version) {
+			long stamp = this.lock.writeLock();
+			try {
+				if (probe(hash, key) >= 0) {
+					return false;
+				}
+				if (this.size >= this.maxSize) {
+					throw new IllegalStateException("Off-heap account table is full; raise accounts.offheap.capacity");
+				}
+				int slot = (int) hash & this.mask;
+				while (this.slots.getLong(slot * SLOT_BYTES + HASH) != 0L) {
+					slot = (slot + 1) & this.mask;
+				}
+				int offset = slot * SLOT_BYTES;
+				this.slots.putLong(offset + KEY, appendKey(key, currency, scale));
+				this.slots.putLong(offset + BALANCE, balance);
+				this.slots.putLong(offset + VERSION, version);
+				this.slots.putLong(offset + HASH, hash);
+				this.size++;
+				return true;
+			} finally {
+				this.lock.unlockWrite(stamp);
+			}
+		}
+
+		void clear() {
+			long stamp = this.lock.writeLock();
+			try {
+				for (int slot = 0; slot <= this.mask; slot++) {
+					this.slots.putLong(slot * SLOT_BYTES + HASH, 0L);
+				}
+				// Arena chunks stay allocated and are written over from the start
+				this.arenaChunk = 0;
+				this.arenaOffset = 0;
+				this.size = 0;
+			} finally {
+				this.lock.unlockWrite(stamp);
+			}
+		}
+
+		String readKey(int slot) {
+			long keyRef = this.slots.getLong(slot * SLOT_BYTES + KEY);
+			ByteBuffer chunk = this.arena[(int) (keyRef >>> 32)];
+			int offset = (int) keyRef;
+			byte[] key = new byte[chunk.getInt(offset + ID_LENGTH)];
+			for (int i = 0; i < key.length; i++) {
+				key[i] = chunk.get(offset + ID + i);
+			}
+			return new String(key, StandardCharsets.UTF_8);
+		}
+
+		int scale(int slot) {
+			long keyRef = this.slots.getLong(slot * SLOT_BYTES + KEY);
+			return this.arena[(int) (keyRef >>> 32)].get((int) keyRef + SCALE);
+		}
+
+		// Null for the base currency
+		String currency(int slot) {
+			long keyRef = this.slots.getLong(slot * SLOT_BYTES + KEY);
+			ByteBuffer chunk = this.arena[(int) (keyRef >>> 32)];
+			int offset = (int) keyRef;
+			if (chunk.get(offset + CURRENCY) == 0) {
+				return null;
+			}
+			byte[] code = new byte[CURRENCY_BYTES];
+			for (int i = 0; i < code.length; i++) {
+				code[i] = chunk.get(offset + CURRENCY + i);
+			}
+			return new String(code, StandardCharsets.US_ASCII);
+		}
+
+		boolean sameCurrency(int slot, Segment other, int otherSlot) {
+			long keyRef = this.slots.getLong(slot * SLOT_BYTES + KEY);
+			long otherKeyRef = other.slots.getLong(otherSlot * SLOT_BYTES + KEY);
+			ByteBuffer chunk = this.arena[(int) (keyRef >>> 32)];
+			ByteBuffer otherChunk = other.arena[(int) (otherKeyRef >>> 32)];
+			for (int i = 0; i < CURRENCY_BYTES; i++) {
+				if (chunk.get((int) keyRef + CURRENCY + i) != otherChunk.get((int) otherKeyRef + CURRENCY + i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private int probe(long hash, byte[] key) {
+			int slot = (int) hash & this.mask;
+			for (int probes = 0; probes <= this.mask; probes++) {
+				long slotHash = this.slots.getLong(slot * SLOT_BYTES + HASH);
+				if (slotHash == 0L) {
+					return -1;
+				}
+				if (slotHash == hash && keyEquals(this.slots.getLong(slot * SLOT_BYTES + KEY), key)) {
+					return slot;
+				}
+				slot = (slot + 1) & this.mask;
+			}
+			return -1;
+		}
+
+		private boolean keyEquals(long keyRef, byte[] key) {
+			ByteBuffer chunk = this.arena[(int) (keyRef >>> 32)];
+			int offset = (int) keyRef;
+			if (chunk.getInt(offset + ID_LENGTH) != key.length) {
+				return false;
+			}
+			for (int i = 0; i < key.length; i++) {
+				if (chunk.get(offset + ID + i) != key[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// Stores the account's record, the id last; called under the write lock
+		private long appendKey(byte[] key, byte[] currency, int scale) {
+			int length = ID + key.length;
+			if (this.arena[this.arenaChunk] != null && this.arenaOffset + length > ARENA_CHUNK_BYTES) {
+				this.arenaChunk++;
+				this.arenaOffset = 0;
+			}
+			if (this.arenaChunk == MAX_ARENA_CHUNKS) {
+				throw new IllegalStateException("Off-heap key arena is full");
+			}
+			if (this.arena[this.arenaChunk] == null) {
+				this.arena[this.arenaChunk] = ByteBuffer.allocateDirect(ARENA_CHUNK_BYTES);
+			}
+			ByteBuffer chunk = this.arena[this.arenaChunk];
+			int offset = this.arenaOffset;
+			chunk.putInt(offset + ID_LENGTH, key.length);
+			chunk.put(offset + FORMAT, FORMAT_VERSION);
+			chunk.put(offset + SCALE, (byte) scale);
+			for (int i = 0; i < CURRENCY_BYTES; i++) {
+				chunk.put(offset + CURRENCY + i, currency[i]);
+			}
+			for (int i = 0; i < key.length; i++) {
+				chunk.put(offset + ID + i, key[i]);
+			}
+			this.arenaOffset += length;
+			return (long) this.arenaChunk << 32 | offset;
+		}
+	}
+}
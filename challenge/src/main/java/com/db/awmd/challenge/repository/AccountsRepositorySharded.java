@@ -0,0 +1,804 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.MinorUnits;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.AccountNotEmptyException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.exception.UnsupportedCurrencyException;
+import com.db.awmd.challenge.fx.FxRateTable;
+import com.db.awmd.challenge.ledger.TransferSequence;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.service.TransferDirection;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Repository;
+
+/**
+ * {@link AccountsRepository} that partitions accounts into shards by account id hash. Each shard is
+ * owned by one thread, the only thread that ever changes the balances of its accounts: callers hand
+ * it operations through its queue and wait for the answer, so balances are updated without locks
+ * and threads never contend for an account.
+ *
+ * <p>A transfer within one shard is applied by that shard's thread in one step. A transfer across
+ * shards runs in two phases: the source shard reserves the amount by debiting it and sends the
+ * credit to the destination shard, which applies it and sends a commit back. If the credit cannot
+ * be applied the destination sends a release instead, and the source returns the reserved amount.
+ * Until then the money is in flight: it has left the source balance and is not yet visible in the
+ * destination balance.
+ *
+ * <p>A batch parks the threads of every shard it touches and is applied by the calling thread while
+ * they wait, so it keeps request order and its all-or-nothing guarantee; batches run one at a time.
+ * Accounts can be closed but not archived, as there is no cold store to move them to. Enabled with
+ * {@code accounts.store=sharded}.
+ */
+@Repository
+@Primary
+@ConditionalOnProperty(prefix = "accounts", name = "store", havingValue = "sharded")
+@Slf4j
+public class AccountsRepositorySharded implements LifecycleAccountsRepository {
+
+	private static final int DRAIN_BATCH = 256;
+
+	private static final long POLL_TIMEOUT_MILLIS = 100;
+
+	private static final BigDecimal MAX_UNITS = BigDecimal.valueOf(Long.MAX_VALUE);
+
+	private final NotificationService notificationService;
+
+	private final MoneyMode moneyMode;
+
+	private final int scale;
+
+	private final FxRateTable fxRates;
+
+	private final TransferSequence transferSequence;
+
+	private final Shard[] shards;
+
+	private final ReentrantLock batchLock = new ReentrantLock();
+
+	private volatile boolean accepting;
+
+	private volatile boolean running;
+
+	public AccountsRepositorySharded(NotificationService notificationService, int shards) {
+		this(notificationService, MoneyMode.DECIMAL, 2, shards);
+	}
+
+	public AccountsRepositorySharded(NotificationService notificationService, MoneyMode moneyMode, int scale,
+			int shards) {
+		this(notificationService, moneyMode, scale, shards, new FxRateTable());
+	}
+
+	public AccountsRepositorySharded(NotificationService notificationService, MoneyMode moneyMode, int scale,
+			int shards, FxRateTable fxRates) {
+		this(notificationService, moneyMode, scale, shards, fxRates, new TransferSequence());
+	}
+
+	@Autowired
+	public AccountsRepositorySharded(NotificationService notificationService,
+			@Value("${accounts.money.mode:DECIMAL}") MoneyMode moneyMode,
+			@Value("${accounts.money.scale:2}") int scale,
+			@Value("${accounts.sharded.shards:0}") int shards,
+			FxRateTable fxRates,
+			TransferSequence transferSequence) {
+		this.notificationService = notificationService;
+		this.moneyMode = moneyMode;
+		this.scale = scale;
+		this.fxRates = fxRates;
+		this.transferSequence = transferSequence;
+		this.shards = new Shard[shards > 0 ? shards : Runtime.getRuntime().availableProcessors()];
+		for (int i = 0; i < this.shards.length; i++) {
+			this.shards[i] = new Shard(i);
+		}
+	}
+
+	@PostConstruct
+	public void start() {
+		this.running = true;
+		this.accepting = true;
+		for (Shard shard : this.shards) {
+			shard.thread.start();
+		}
+		log.info("Started {} account shards", this.shards.length);
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		// New operations are refused first; transfers already in flight between shards get to finish
+		this.accepting = false;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (getReservedTransfers() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		this.running = false;
+		for (Shard shard : this.shards) {
+			shard.thread.join(TimeUnit.SECONDS.toMillis(5));
+		}
+	}
+
+	public int getShardCount() {
+		return this.shards.length;
+	}
+
+	/**
+	 * Returns the cross-shard transfers whose amount has been reserved on the source shard and not
+	 * yet committed or released.
+	 */
+	public long getReservedTransfers() {
+		long reserved = 0;
+		for (Shard shard : this.shards) {
+			reserved += shard.reservations;
+		}
+		return reserved;
+	}
+
+	@Override
+	public void createAccount(Account account) throws DuplicateAccountIdException, InvalidAmountException {
+		Shard shard = shardFor(account.getAccountId());
+		await(shard.submit(() -> insert(shard, account)));
+	}
+
+	/**
+	 * Hands each shard its part of the batch as a single operation.
+	 */
+	@Override
+	public int createAccounts(List<Account> batch, BiConsumer<Account, RuntimeException> rejected) {
+		Map<Shard, List<Account>> byShard = new IdentityHashMap<>();
+		for (Account account : batch) {
+			byShard.computeIfAbsent(shardFor(account.getAccountId()), shard -> new ArrayList<>()).add(account);
+		}
+		List<CompletableFuture<List<Rejection>>> results = new ArrayList<>(byShard.size());
+		for (Map.Entry<Shard, List<Account>> entry : byShard.entrySet()) {
+			Shard shard = entry.getKey();
+			results.add(shard.submit(() -> {
+				List<Rejection> rejections = new ArrayList<>();
+				for (Account account : entry.getValue()) {
+					try {
+						insert(shard, account);
+					} catch (DuplicateAccountIdException | InvalidAmountException | UnsupportedCurrencyException ex) {
+						rejections.add(new Rejection(account, ex));
+					}
+				}
+				return rejections;
+			}));
+		}
+		int created = batch.size();
+		for (CompletableFuture<List<Rejection>> result : results) {
+			for (Rejection rejection : await(result)) {
+				rejected.accept(rejection.account, rejection.reason);
+				created--;
+			}
+		}
+		return created;
+	}
+
+	// Runs on the shard's thread, before the account is visible to anyone else
+	private Account insert(Shard shard, Account account) throws DuplicateAccountIdException, InvalidAmountException {
+		if (account.getCurrency() != null) {
+			FxRateTable.requireCurrency(account.getCurrency());
+		}
+		if (this.moneyMode == MoneyMode.MINOR_UNITS) {
+			account.useMinorUnits(scaleOf(account.getCurrency()));
+		}
+		if (shard.accounts.putIfAbsent(account.getAccountId(), account) != null) {
+			throw new DuplicateAccountIdException("Account id " + account.getAccountId() + " already exists!");
+		}
+		return account;
+	}
+
+	/**
+	 * Reads the live account without going through its shard; the balance cell is safe to read from
+	 * any thread.
+	 */
+	@Override
+	public Account getAccount(String accountId) {
+		return accountId == null ? null : shardFor(accountId).accounts.get(accountId);
+	}
+
+	@Override
+	public void clearAccounts() {
+		List<CompletableFuture<Account>> cleared = new ArrayList<>(this.shards.length);
+		for (Shard shard : this.shards) {
+			cleared.add(shard.submit(() -> {
+				shard.accounts.clear();
+				return null;
+			}));
+		}
+		for (CompletableFuture<Account> future : cleared) {
+			await(future);
+		}
+	}
+
+	/**
+	 * Visits every account without stopping the shards. Accounts created or removed during the walk
+	 * may or may not be visited; each visited account is the live instance.
+	 */
+	@Override
+	public void forEachAccount(Consumer<Account> action) {
+		for (Shard shard : this.shards) {
+			shard.accounts.values().forEach(action);
+		}
+	}
+
+	/**
+	 * Closes an account whose balance is zero. It runs on the thread of the account's shard, so no
+	 * transfer is half way through the account; a cross-shard transfer out of the shard that is
+	 * still waiting for its credit could yet have its amount handed back, so the shard must have none.
+	 */
+	@Override
+	public Account closeAccount(String accountId) throws InvalidAccountIdException, AccountNotEmptyException {
+		if (accountId == null) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		Shard shard = shardFor(accountId);
+		return await(shard.submit(() -> {
+			Account account = existing(shard, accountId);
+			if (account.isClosed()) {
+				return account;
+			}
+			if (account.getBalance().signum() != 0) {
+				throw new AccountNotEmptyException(
+						"Account id " + accountId + " still holds a balance of " + account.getBalance());
+			}
+			if (shard.reservations > 0) {
+				throw new AccountNotEmptyException("Account id " + accountId + " may still have transfers in flight");
+			}
+			// Only this thread changes the account, so the lock seal() asks for is never contended
+			account.getLock().lock();
+			try {
+				account.seal(true);
+			} finally {
+				account.getLock().unlock();
+			}
+			log.info("Closed Account Id {}", accountId);
+			return account;
+		}));
+	}
+
+	@Override
+	public BigDecimal withdraw(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException, LowAccountBalanceException {
+		Account depositAccount = getAccount(toAccountId);
+		if (depositAccount != null) {
+			this.notificationService.notifyAboutTransfer(depositAccount, TransferDirection.INCOMING, amount);
+		}
+		if (fromAccountId == null) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		Shard shard = shardFor(fromAccountId);
+		BigDecimal updateBalance = await(shard.submit(() -> {
+			Account account = existing(shard, fromAccountId);
+			return debit(account, amount, toUnits(amount, account));
+		})).getAmount();
+		log.debug("Updated balance after withdraw in Account Id {} is {}", fromAccountId, updateBalance);
+		return updateBalance;
+	}
+
+	@Override
+	public BigDecimal deposit(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException {
+		Account depositAccount = getAccount(toAccountId);
+		if (depositAccount != null && getAccount(fromAccountId) != null) {
+			this.notificationService.notifyAboutTransfer(depositAccount, TransferDirection.INCOMING, amount);
+		}
+		if (toAccountId == null) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		Shard shard = shardFor(toAccountId);
+		BigDecimal updateBalance = await(shard.submit(() -> {
+			Account account = existing(shard, toAccountId);
+			return credit(account, amount, toUnits(amount, account));
+		})).getAmount();
+		log.debug("Updated balance after deposit in Account Id {} is {}", toAccountId, updateBalance);
+		return updateBalance;
+	}
+
+	@Override
+	public TransferResult transfer(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException, LowAccountBalanceException, InvalidAmountException {
+		requirePositive(amount);
+		if (fromAccountId == null || toAccountId == null) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		Shard from = shardFor(fromAccountId);
+		Shard to = shardFor(toAccountId);
+		CompletableFuture<TransferResult> result = new CompletableFuture<>();
+		from.execute(() -> {
+			try {
+				Account withDrawAccount = existing(from, fromAccountId);
+				// Unknown destinations are turned away before anything is reserved; across shards the
+				// destination shard checks again when the credit arrives
+				Account depositAccount = existing(to, toAccountId);
+				BigDecimal rate = this.fxRates.rateFor(withDrawAccount.getCurrency(), depositAccount.getCurrency());
+				BigDecimal depositAmount = depositAmount(amount, rate, depositAccount);
+				long units = toUnits(amount, withDrawAccount);
+				long depositUnits = rate == null ? units : toUnits(depositAmount, depositAccount);
+				if (from == to) {
+					Balance withdrawnBalance = debit(withDrawAccount, amount, units);
+					Balance depositedBalance;
+					try {
+						depositedBalance = credit(depositAccount, depositAmount, depositUnits);
+					} catch (RuntimeException ex) {
+						// The credit would overflow in minor units; only this thread writes the shard, so
+						// putting the debit back cannot fail
+						credit(withDrawAccount, amount, units);
+						throw ex;
+					}
+					TransferResult transferResult = toResult(withDrawAccount, depositAccount, amount, rate, depositAmount,
+							withdrawnBalance, depositedBalance);
+					transferResult.setSequence(this.transferSequence.next(from.index));
+					result.complete(transferResult);
+				} else {
+					Balance withdrawnBalance = debit(withDrawAccount, amount, units);
+					// Numbered with the debit, on the thread that owns the source account; a credit that is
+					// later refused leaves its number unused
+					long sequence = this.transferSequence.next(from.index);
+					from.reservations++;
+					to.send(() -> creditReserved(from, withDrawAccount, withdrawnBalance, amount, units, to, toAccountId,
+							rate, depositAmount, depositUnits, sequence, result));
+				}
+			} catch (RuntimeException ex) {
+				result.completeExceptionally(ex);
+			}
+		});
+		TransferResult transferResult = await(result);
+
+		notifyAboutTransfer(fromAccountId, toAccountId, amount,
+				transferResult.getRate() == null ? amount : transferResult.getDepositedAmount());
+		// Guarded: three arguments would otherwise allocate a varargs array on every transfer
+		if (log.isDebugEnabled()) {
+			log.debug("Transferred {} from Account Id {} to Account Id {}", amount, fromAccountId, toAccountId);
+		}
+		return transferResult;
+	}
+
+	/**
+	 * Second phase of a cross-shard transfer, run by the destination shard: applies the credit and
+	 * commits the reservation, or releases it back to the source account.
+	 */
+	private void creditReserved(Shard from, Account withDrawAccount, Balance withdrawnBalance, BigDecimal amount,
+			long units, Shard to, String toAccountId, BigDecimal rate, BigDecimal depositAmount, long depositUnits,
+			long sequence, CompletableFuture<TransferResult> result) {
+		Balance depositedBalance;
+		Account depositAccount;
+		try {
+			depositAccount = existing(to, toAccountId);
+			depositedBalance = credit(depositAccount, depositAmount, depositUnits);
+		} catch (RuntimeException ex) {
+			from.send(() -> {
+				credit(withDrawAccount, amount, units);
+				from.reservations--;
+				result.completeExceptionally(ex);
+			});
+			return;
+		}
+		from.send(() -> from.reservations--);
+		TransferResult transferResult = toResult(withDrawAccount, depositAccount, amount, rate, depositAmount,
+				withdrawnBalance, depositedBalance);
+		transferResult.setSequence(sequence);
+		result.complete(transferResult);
+	}
+
+	@Override
+	public BatchTransferResult transferBatch(List<TransferRequest> transfers, BatchMode mode) {
+		int size = transfers.size();
+		BatchTransferItemResult[] results = new BatchTransferItemResult[size];
+		Account[] withDrawAccounts = new Account[size];
+		Account[] depositAccounts = new Account[size];
+		long[] units = new long[size];
+		BigDecimal[] rates = new BigDecimal[size];
+		BigDecimal[] depositAmounts = new BigDecimal[size];
+		long[] depositUnits = new long[size];
+
+		// Validation pass: every distinct account is looked up once, amounts are converted between
+		// currencies, and the shards the batch touches are collected in index order
+		Map<String, Account> resolved = new HashMap<>();
+		TreeMap<Integer, Shard> touched = new TreeMap<>();
+		int rejected = 0;
+		for (int i = 0; i < size; i++) {
+			TransferRequest transfer = transfers.get(i);
+			try {
+				requirePositive(transfer.getAmount());
+				withDrawAccounts[i] = resolve(resolved, transfer.getFromAccountId());
+				depositAccounts[i] = resolve(resolved, transfer.getToAccountId());
+				units[i] = toUnits(transfer.getAmount(), withDrawAccounts[i]);
+				rates[i] = this.fxRates.rateFor(withDrawAccounts[i].getCurrency(), depositAccounts[i].getCurrency());
+				depositAmounts[i] = depositAmount(transfer.getAmount(), rates[i], depositAccounts[i]);
+				depositUnits[i] = rates[i] == null ? units[i] : toUnits(depositAmounts[i], depositAccounts[i]);
+				Shard fromShard = shardFor(transfer.getFromAccountId());
+				Shard toShard = shardFor(transfer.getToAccountId());
+				touched.put(fromShard.index, fromShard);
+				touched.put(toShard.index, toShard);
+			} catch (InvalidAccountIdException | InvalidAmountException | UnsupportedCurrencyException ex) {
+				results[i] = BatchTransferItemResult.rejected(i, ex.getMessage());
+				rejected++;
+			}
+		}
+		if (mode == BatchMode.ALL_OR_NOTHING && rejected > 0) {
+			return toBatchResult(mode, markNotApplied(results));
+		}
+
+		// Parking pass: once every touched shard thread waits at the barrier, this thread is the only
+		// writer of their accounts. Batches take turns so two of them never park shards in each other's way.
+		this.batchLock.lock();
+		CountDownLatch resume = new CountDownLatch(1);
+		try {
+			CountDownLatch parked = new CountDownLatch(touched.size());
+			for (Shard shard : touched.values()) {
+				shard.execute(() -> {
+					parked.countDown();
+					awaitUninterruptibly(resume);
+				});
+			}
+			awaitUninterruptibly(parked);
+			if (rejectClosed(withDrawAccounts, depositAccounts, results) && mode == BatchMode.ALL_OR_NOTHING) {
+				return toBatchResult(mode, markNotApplied(results));
+			}
+			if (mode == BatchMode.ALL_OR_NOTHING
+					&& !fundsCoverBatch(transfers, withDrawAccounts, depositAccounts, depositAmounts, results)) {
+				return toBatchResult(mode, markNotApplied(results));
+			}
+			for (int i = 0; i < size; i++) {
+				if (results[i] != null) {
+					continue;
+				}
+				TransferRequest transfer = transfers.get(i);
+				Balance withdrawnBalance;
+				Balance depositedBalance;
+				try {
+					withdrawnBalance = debit(withDrawAccounts[i], transfer.getAmount(), units[i]);
+				} catch (LowAccountBalanceException ex) {
+					results[i] = BatchTransferItemResult.rejected(i, ex.getMessage());
+					continue;
+				}
+				try {
+					depositedBalance = credit(depositAccounts[i], depositAmounts[i], depositUnits[i]);
+				} catch (RuntimeException ex) {
+					// The credit would take the balance past what minor units hold; the debit is put back so
+					// no item is half applied. The shards are parked, so an all-or-nothing batch, which the
+					// funds check has already covered, never gets here.
+					credit(withDrawAccounts[i], transfer.getAmount(), units[i]);
+					results[i] = BatchTransferItemResult.rejected(i, ex.getMessage());
+					continue;
+				}
+				TransferResult result = toResult(withDrawAccounts[i], depositAccounts[i], transfer.getAmount(), rates[i],
+						depositAmounts[i], withdrawnBalance, depositedBalance);
+				result.setSequence(this.transferSequence.next(shardFor(transfer.getFromAccountId()).index));
+				results[i] = BatchTransferItemResult.applied(i, result);
+			}
+		} finally {
+			resume.countDown();
+			this.batchLock.unlock();
+		}
+
+		for (int i = 0; i < size; i++) {
+			if (results[i].getStatus() == BatchTransferItemResult.Status.APPLIED) {
+				notifyAboutTransfer(withDrawAccounts[i], depositAccounts[i], transfers.get(i).getAmount(),
+						depositAmounts[i]);
+			}
+		}
+		BatchTransferResult batchResult = toBatchResult(mode, results);
+		log.info("Applied {} of {} batched transfers ({})", batchResult.getApplied(), size, mode);
+		return batchResult;
+	}
+
+	/**
+	 * Replays the batch against the parked balances without changing them. Marks every transfer that
+	 * would overdraw its account, or take the deposit account past what minor units hold, as rejected
+	 * and returns whether none did.
+	 */
+	private boolean fundsCoverBatch(List<TransferRequest> transfers, Account[] withDrawAccounts,
+			Account[] depositAccounts, BigDecimal[] depositAmounts, BatchTransferItemResult[] results) {
+		Map<Account, BigDecimal> projected = new IdentityHashMap<>();
+		boolean covered = true;
+		for (int i = 0; i < transfers.size(); i++) {
+			BigDecimal amount = transfers.get(i).getAmount();
+			BigDecimal remaining = projected.getOrDefault(withDrawAccounts[i], withDrawAccounts[i].getBalance()).subtract(amount);
+			if (remaining.signum() < 0) {
+				results[i] = BatchTransferItemResult.rejected(i,
+						"Unable to withdraw funds due to Low Account Balance for Account Id " + withDrawAccounts[i].getAccountId());
+				covered = false;
+				continue;
+			}
+			BigDecimal credited = (depositAccounts[i] == withDrawAccounts[i] ? remaining
+					: projected.getOrDefault(depositAccounts[i], depositAccounts[i].getBalance())).add(depositAmounts[i]);
+			if (overflows(credited, depositAccounts[i])) {
+				results[i] = BatchTransferItemResult.rejected(i,
+						"Balance overflow for Account Id " + depositAccounts[i].getAccountId());
+				covered = false;
+				continue;
+			}
+			projected.put(withDrawAccounts[i], remaining);
+			projected.put(depositAccounts[i], credited);
+		}
+		return covered;
+	}
+
+	private Account resolve(Map<String, Account> resolved, String accountId) throws InvalidAccountIdException {
+		Account account = accountId == null ? null : resolved.computeIfAbsent(accountId, this::getAccount);
+		if (account == null) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		return account;
+	}
+
+	private static Account existing(Shard shard, String accountId) throws InvalidAccountIdException {
+		Account account = shard.accounts.get(accountId);
+		if (account == null) {
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		return account;
+	}
+
+	/**
+	 * Marks every transfer from or to a closed account as rejected and returns whether there was one.
+	 * The shards are parked, so none can be closed meanwhile.
+	 */
+	private static boolean rejectClosed(Account[] withDrawAccounts, Account[] depositAccounts,
+			BatchTransferItemResult[] results) {
+		boolean found = false;
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] != null) {
+				continue;
+			}
+			Account closed = withDrawAccounts[i].isClosed() ? withDrawAccounts[i]
+					: depositAccounts[i].isClosed() ? depositAccounts[i] : null;
+			if (closed != null) {
+				results[i] = BatchTransferItemResult.rejected(i, "Account id " + closed.getAccountId() + " is closed");
+				found = true;
+			}
+		}
+		return found;
+	}
+
+	private static BatchTransferItemResult[] markNotApplied(BatchTransferItemResult[] results) {
+		for (int i = 0; i < results.length; i++) {
+			if (results[i] == null) {
+				results[i] = BatchTransferItemResult.notApplied(i);
+			}
+		}
+		return results;
+	}
+
+	private static BatchTransferResult toBatchResult(BatchMode mode, BatchTransferItemResult[] results) {
+		int applied = 0;
+		int rejected = 0;
+		for (BatchTransferItemResult result : results) {
+			if (result.getStatus() == BatchTransferItemResult.Status.APPLIED) {
+				applied++;
+			} else if (result.getStatus() == BatchTransferItemResult.Status.REJECTED) {
+				rejected++;
+			}
+		}
+		return new BatchTransferResult(mode, applied, rejected, Arrays.asList(results));
+	}
+
+	private static void requirePositive(BigDecimal amount) throws InvalidAmountException {
+		if (amount == null || amount.signum() <= 0) {
+			throw new InvalidAmountException("Transfer amount must be positive");
+		}
+	}
+
+	// In minor-units mode the amount is converted once, in the account's own minor unit
+	private long toUnits(BigDecimal amount, Account account) throws InvalidAmountException {
+		return this.moneyMode == MoneyMode.MINOR_UNITS
+				? MinorUnits.toMinorUnits(amount, scaleOf(account.getCurrency())) : 0L;
+	}
+
+	// Base-currency balances keep accounts.money.scale; every other currency counts its own minor unit
+	private int scaleOf(String currency) {
+		return this.fxRates.sameCurrency(currency, null) ? this.scale : this.fxRates.fractionDigits(currency);
+	}
+
+	// The owning shard thread is the only writer, so the account lock is never needed
+	private Balance debit(Account account, BigDecimal amount, long units) throws LowAccountBalanceException {
+		return this.moneyMode == MoneyMode.MINOR_UNITS ? account.debit(units) : account.debit(amount);
+	}
+
+	private Balance credit(Account account, BigDecimal amount, long units) {
+		return this.moneyMode == MoneyMode.MINOR_UNITS ? account.credit(units) : account.credit(amount);
+	}
+
+	// Minor units are longs, so a balance needing more of them than a long holds cannot be stored
+	private boolean overflows(BigDecimal balance, Account account) {
+		return this.moneyMode == MoneyMode.MINOR_UNITS
+				&& balance.movePointRight(scaleOf(account.getCurrency())).compareTo(MAX_UNITS) > 0;
+	}
+
+	// What the deposit account is credited: the amount itself, or converted at rate into its currency
+	private BigDecimal depositAmount(BigDecimal amount, BigDecimal rate, Account depositAccount)
+			throws InvalidAmountException {
+		if (rate == null) {
+			return amount;
+		}
+		return this.fxRates.convert(amount, rate, depositAccount.getCurrency(), scaleOf(depositAccount.getCurrency()));
+	}
+
+	private void notifyAboutTransfer(String fromAccountId, String toAccountId, BigDecimal amount,
+			BigDecimal depositAmount) {
+		notifyAboutTransfer(getAccount(fromAccountId), getAccount(toAccountId), amount, depositAmount);
+	}
+
+	private void notifyAboutTransfer(Account withDrawAccount, Account depositAccount, BigDecimal amount,
+			BigDecimal depositAmount) {
+		this.notificationService.notifyAboutTransfer(withDrawAccount, TransferDirection.OUTGOING, amount);
+		this.notificationService.notifyAboutTransfer(depositAccount, TransferDirection.INCOMING, depositAmount);
+	}
+
+	private static TransferResult toResult(Account withDrawAccount, Account depositAccount, BigDecimal amount,
+			BigDecimal rate, BigDecimal depositAmount, Balance withdrawnBalance, Balance depositedBalance) {
+		// A transfer from an account to itself reports the balance after both legs
+		BigDecimal withdrawn = withDrawAccount == depositAccount ? depositedBalance.getAmount() : withdrawnBalance.getAmount();
+		TransferResult result = new TransferResult(withDrawAccount.getAccountId(), depositAccount.getAccountId(), amount,
+				withdrawn, depositedBalance.getAmount());
+		if (rate != null) {
+			result.setDepositedAmount(depositAmount);
+			result.setRate(rate);
+		}
+		return result;
+	}
+
+	private Shard shardFor(String accountId) {
+		int hash = accountId.hashCode() * 0x9E3779B9;
+		return this.shards[(int) (((hash ^ hash >>> 16) & 0xffffffffL) * this.shards.length >>> 32)];
+	}
+
+	/**
+	 * Unwraps the failure a shard thread reported so callers see the repository's own exceptions.
+	 */
+	private static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException ex) {
+			if (ex.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) ex.getCause();
+			}
+			throw ex;
+		}
+	}
+
+	private static void awaitUninterruptibly(CountDownLatch latch) {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				latch.await();
+				break;
+			} catch (InterruptedException ex) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static final class Rejection {
+
+		private final Account account;
+
+		private final RuntimeException reason;
+
+		Rejection(Account account, RuntimeException reason) {
+			this.account = account;
+			this.reason = reason;
+		}
+	}
+
+	/**
+	 * One partition of the accounts and the thread that owns it. Only the owner writes to the map and
+	 * to the balances in it; other threads may read both.
+	 */
+	private final class Shard {
+
+		private final int index;
+
+		private final Map<String, Account> accounts = new ConcurrentHashMap<>();
+
+		private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+
+		private final Thread thread;
+
+		// Written by the owner thread only
+		private volatile long reservations;
+
+		Shard(int index) {
+			this.index = index;
+			this.thread = new Thread(this::run, "account-shard-" + index);
+			this.thread.setDaemon(true);
+		}
+
+		/**
+		 * Queues an operation from a caller for the owner thread.
+		 */
+		void execute(Runnable operation) {
+			if (!accepting) {
+				throw new IllegalStateException("Account shards are not running");
+			}
+			this.queue.add(operation);
+		}
+
+		/**
+		 * Queues a message from another shard. The queue is unbounded so that shards can always
+		 * message each other; every caller waits for its answer, which bounds it in practice.
+		 */
+		void send(Runnable message) {
+			this.queue.add(message);
+		}
+
+		<T> CompletableFuture<T> submit(Supplier<T> operation) {
+			CompletableFuture<T> future = new CompletableFuture<>();
+			execute(() -> {
+				try {
+					future.complete(operation.get());
+				} catch (RuntimeException ex) {
+					future.completeExceptionally(ex);
+				}
+			});
+			return future;
+		}
+
+		private void run() {
+			List<Runnable> batch = new ArrayList<>(DRAIN_BATCH);
+			while (running || !this.queue.isEmpty()) {
+				try {
+					Runnable first = this.queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+					if (first == null) {
+						continue;
+					}
+					batch.add(first);
+					this.queue.drainTo(batch, DRAIN_BATCH - 1);
+					for (Runnable operation : batch) {
+						runSafely(operation);
+					}
+					batch.clear();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+
+		private void runSafely(Runnable operation) {
+			try {
+				operation.run();
+			} catch (RuntimeException ex) {
+				log.error("Account shard {} operation failed", this.index, ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,17 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.AccountNotEmptyException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+
+/**
+ * A store that can also move closed accounts out of memory for good. The archive endpoint is only
+ * offered when the configured store implements this.
+ */
+public interface ArchivingAccountsRepository extends LifecycleAccountsRepository {
+
+  /**
+   * Closes an account, if needed, and moves it out of memory for good; it stays readable.
+   */
+  Account archiveAccount(String accountId) throws InvalidAccountIdException, AccountNotEmptyException;
+}
@@ -0,0 +1,348 @@
+package com.db.awmd.challenge.repository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import javax.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Accounts moved out of memory by {@link AccountsRepositoryInMemory}: dormant ones, until they are
+ * used again, and archived ones, which stay here.
+ *
+ * <p>Each account is one record appended to a local file, and only its id and file offset stay on
+ * the heap. Taking an account back out leaves its record behind as garbage; once garbage outweighs
+ * the live records the file is rewritten without it. The file is a cache tier, not durable storage:
+ * it is truncated when first opened and deleted on shutdown, and accounts that must survive a
+ * restart need the journal store.
+ *
+ * <p>Every file access holds one lock. Only accounts that are not being used come here, so the
+ * lock is never on the path of an active account. It is a {@link ReentrantLock} rather than a
+ * monitor, so a virtual thread thawing an account does not pin its carrier for the disk read.
+ */
+@Component
+@Slf4j
+public class ColdAccountStore implements PublicMetrics {
+
+	private static final byte CLOSED = 1;
+
+	private static final byte HAS_CURRENCY = 2;
+
+	// Rewrites below this much garbage are not worth the copy
+	private static final long MIN_COMPACTION_BYTES = 1 << 20;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private Path file;
+
+	private final Map<String, Long> offsets = new ConcurrentHashMap<>();
+
+	private FileChannel channel;
+
+	private long end;
+
+	private long liveBytes;
+
+	private long garbageBytes;
+
+	private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+	/**
+	 * A store in a temporary file.
+	 */
+	public ColdAccountStore() {
+	}
+
+	@Autowired
+	public ColdAccountStore(@Value("${accounts.tiering.file:cold-accounts.dat}") String file) {
+		this.file = Paths.get(file);
+	}
+
+	/**
+	 * Appends an account, replacing any earlier record of it.
+	 */
+	public void put(Entry entry) {
+		this.lock.lock();
+		try {
+			ByteBuffer record = encode(entry);
+			long offset = this.end;
+			try {
+				write(channel(), record, offset);
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Unable to write to the cold account store", ex);
+			}
+			this.end += record.limit();
+			this.liveBytes += record.limit();
+			Long previous = this.offsets.put(entry.getAccountId(), offset);
+			if (previous != null) {
+				dropped(previous);
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	public boolean contains(String accountId) {
+		return this.offsets.containsKey(accountId);
+	}
+
+	public boolean isEmpty() {
+		return this.offsets.isEmpty();
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(new Metric<>("gauge.accounts.cold", size()));
+	}
+
+	public int size() {
+		return this.offsets.size();
+	}
+
+	/**
+	 * Returns the stored account, or {@code null} when there is none; it stays in the store.
+	 */
+	public Entry get(String accountId) {
+		this.lock.lock();
+		try {
+			Long offset = this.offsets.get(accountId);
+			return offset == null ? null : read(offset);
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the stored account and removes it, or returns {@code null} when there is none.
+	 */
+	public Entry take(String accountId) {
+		this.lock.lock();
+		try {
+			Long offset = this.offsets.remove(accountId);
+			if (offset == null) {
+				return null;
+			}
+			Entry entry = read(offset);
+			dropped(offset);
+			return entry;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Visits every stored account. Accounts put or taken during the walk may or may not be visited.
+	 */
+	public void forEach(Consumer<Entry> action) {
+		for (String accountId : this.offsets.keySet()) {
+			Entry entry = get(accountId);
+			if (entry != null) {
+				action.accept(entry);
+			}
+		}
+	}
+
+	public void clear() {
+		this.lock.lock();
+		try {
+			this.offsets.clear();
+			this.end = 0;
+			this.liveBytes = 0;
+			this.garbageBytes = 0;
+			if (this.channel != null) {
+				try {
+					this.channel.truncate(0);
+				} catch (IOException ex) {
+					throw new UncheckedIOException("Unable to clear the cold account store", ex);
+				}
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Rewrites the file without the records of accounts taken back out, once they make up more than
+	 * half of it.
+	 */
+	public void compactIfNeeded() {
+		this.lock.lock();
+		try {
+			if (this.garbageBytes < MIN_COMPACTION_BYTES || this.garbageBytes < this.liveBytes) {
+				return;
+			}
+			Path target = this.file.resolveSibling(this.file.getFileName() + ".compact");
+			Map<String, Long> moved = new HashMap<>();
+			long written = 0;
+			try (FileChannel compacted = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				for (Map.Entry<String, Long> offset : this.offsets.entrySet()) {
+					ByteBuffer record = encode(read(offset.getValue()));
+					write(compacted, record, written);
+					moved.put(offset.getKey(), written);
+					written += record.limit();
+				}
+				this.channel.close();
+				Files.move(target, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+			} catch (IOException ex) {
+				throw new UncheckedIOException("Unable to compact the cold account store", ex);
+			}
+			log.info("Compacted the cold account store from {} to {} bytes", this.end, written);
+			this.offsets.putAll(moved);
+			this.end = written;
+			this.liveBytes = written;
+			this.garbageBytes = 0;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	@PreDestroy
+	public void close() throws IOException {
+		this.lock.lock();
+		try {
+			if (this.channel != null) {
+				this.channel.close();
+				this.channel = null;
+				Files.deleteIfExists(this.file);
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	private void dropped(long offset) {
+		int length = recordLength(offset);
+		this.liveBytes -= length;
+		this.garbageBytes += length;
+	}
+
+	private FileChannel channel() throws IOException {
+		if (this.channel == null) {
+			this.channel = FileChannel.open(path(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		}
+		return this.channel;
+	}
+
+	private Path path() throws IOException {
+		if (this.file == null) {
+			this.file = Files.createTempFile("cold-accounts", ".dat");
+		}
+		return this.file;
+	}
+
+	// Record: length:int flags:byte id:short-length UTF-8 [currency:3 ASCII] version:long scale:int
+	// unscaledValue:short-length bytes
+	private ByteBuffer encode(Entry entry) {
+		byte[] id = entry.getAccountId().getBytes(StandardCharsets.UTF_8);
+		byte[] unscaled = entry.getBalance().unscaledValue().toByteArray();
+		int length = 4 + 1 + 2 + id.length + (entry.getCurrency() != null ? 3 : 0) + 8 + 4 + 2 + unscaled.length;
+		if (this.buffer.capacity() < length) {
+			this.buffer = ByteBuffer.allocate(Math.max(length, this.buffer.capacity() * 2));
+		}
+		ByteBuffer record = this.buffer;
+		record.clear();
+		record.putInt(length);
+		record.put((byte) ((entry.isClosed() ? CLOSED : 0) | (entry.getCurrency() != null ? HAS_CURRENCY : 0)));
+		record.putShort((short) id.length).put(id);
+		if (entry.getCurrency() != null) {
+			record.put(entry.getCurrency().getBytes(StandardCharsets.US_ASCII));
+		}
+		record.putLong(entry.getVersion());
+		record.putInt(entry.getBalance().scale());
+		record.putShort((short) unscaled.length).put(unscaled);
+		record.flip();
+		return record;
+	}
+
+	private Entry read(long offset) {
+		try {
+			ByteBuffer record = ByteBuffer.allocate(recordLength(offset));
+			while (record.hasRemaining()) {
+				if (this.channel.read(record, offset + record.position()) < 0) {
+					throw new IOException("Cold account record at " + offset + " is cut short");
+				}
+			}
+			record.flip();
+			record.getInt();
+			byte flags = record.get();
+			byte[] id = new byte[record.getShort()];
+			record.get(id);
+			String currency = null;
+			if ((flags & HAS_CURRENCY) != 0) {
+				byte[] code = new byte[3];
+				record.get(code);
+				currency = new String(code, StandardCharsets.US_ASCII);
+			}
+			long version = record.getLong();
+			int scale = record.getInt();
+			byte[] unscaled = new byte[record.getShort()];
+			record.get(unscaled);
+			return new Entry(new String(id, StandardCharsets.UTF_8), currency, new BigDecimal(new BigInteger(unscaled), scale),
+					version, (flags & CLOSED) != 0);
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Unable to read the cold account store", ex);
+		}
+	}
+
+	private int recordLength(long offset) {
+		ByteBuffer length = ByteBuffer.allocate(4);
+		try {
+			while (length.hasRemaining()) {
+				if (this.channel.read(length, offset + length.position()) < 0) {
+					throw new IOException("Cold account record at " + offset + " is cut short");
+				}
+			}
+		} catch (IOException ex) {
+			throw new UncheckedIOException("Unable to read the cold account store", ex);
+		}
+		return length.getInt(0);
+	}
+
+	private static void write(FileChannel channel, ByteBuffer record, long offset) throws IOException {
+		while (record.hasRemaining()) {
+			offset += channel.write(record, offset);
+		}
+	}
+
+	/**
+	 * One account as stored.
+	 */
+	@Data
+	public static class Entry {
+
+		private final String accountId;
+
+		private final String currency;
+
+		private final BigDecimal balance;
+
+		private final long version;
+
+		private final boolean closed;
+	}
+}
@@ -0,0 +1,18 @@
+package com.db.awmd.challenge.repository;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.AccountNotEmptyException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+
+/**
+ * A store that can close accounts. Not every store can: the close endpoint is only offered when
+ * the configured store implements this.
+ */
+public interface LifecycleAccountsRepository extends AccountsRepository {
+
+  /**
+   * Closes an account whose balance is zero and returns it. A closed account stays readable but
+   * refuses every transfer.
+   */
+  Account closeAccount(String accountId) throws InvalidAccountIdException, AccountNotEmptyException;
+}
@@ -0,0 +1,41 @@
+package com.db.awmd.challenge.service;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Line-oriented formats for bulk account import and export, one account per line.
+ */
+public enum AccountFormat {
+
+  /** One JSON object per line: {@code {"accountId":"Id-1","balance":10.00,"version":3}}. */
+  NDJSON(AccountFormat.NDJSON_VALUE),
+
+  /** A header line {@code accountId,balance,version}, then one account per line. */
+  CSV(AccountFormat.CSV_VALUE);
+
+  public static final String NDJSON_VALUE = "application/x-ndjson";
+
+  public static final String CSV_VALUE = "text/csv";
+
+  private final MediaType mediaType;
+
+  AccountFormat(String mediaType) {
+    this.mediaType = MediaType.parseMediaType(mediaType);
+  }
+
+  public MediaType getMediaType() {
+    return this.mediaType;
+  }
+
+  /**
+   * Returns the format for a request's content type, or null when it is neither.
+   */
+  public static AccountFormat forMediaType(MediaType mediaType) {
+    for (AccountFormat format : values()) {
+      if (format.mediaType.isCompatibleWith(mediaType)) {
+        return format;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,321 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountImportResult;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Loads and dumps accounts in bulk as {@link AccountFormat NDJSON or CSV} streams. Imports are read
+ * line by line and handed to the repository {@code batch-size} accounts at a time, so no more than
+ * one batch is held in memory. Exports copy every balance with the {@link TransferGate} closed and
+ * write the copy once it is open again, so they hold one balance per account.
+ */
+@Service
+@Slf4j
+public class AccountsBulkService {
+
+	private static final int BUFFER_BYTES = 1 << 16;
+
+	private static final String CSV_HEADER = "accountId,balance,version,currency";
+
+	// Every later change adds one to the version; this leaves as much room for those as was used
+	private static final long MAX_VERSION = Long.MAX_VALUE / 2;
+
+	private final AccountsRepository accountsRepository;
+
+	private final TransferGate transferGate;
+
+	private final int batchSize;
+
+	private final int maxErrors;
+
+	private final JsonFactory jsonFactory = new JsonFactory();
+
+	public AccountsBulkService(AccountsRepository accountsRepository) {
+		this(accountsRepository, 1000, 100);
+	}
+
+	public AccountsBulkService(AccountsRepository accountsRepository, int batchSize, int maxErrors) {
+		this(accountsRepository, new TransferGate(), batchSize, maxErrors);
+	}
+
+	@Autowired
+	public AccountsBulkService(AccountsRepository accountsRepository, TransferGate transferGate,
+			@Value("${accounts.import.batch-size:1000}") int batchSize,
+			@Value("${accounts.import.max-errors:100}") int maxErrors) {
+		this.accountsRepository = accountsRepository;
+		this.transferGate = transferGate;
+		this.batchSize = batchSize;
+		this.maxErrors = maxErrors;
+	}
+
+	/**
+	 * Creates an account for every line of {@code input}. Lines that cannot be parsed and accounts the
+	 * repository refuses are counted as rejected and do not stop the import.
+	 */
+	public AccountImportResult importAccounts(InputStream input, AccountFormat format) throws IOException {
+		long start = System.nanoTime();
+		ImportProgress progress = new ImportProgress();
+		List<Account> batch = new ArrayList<>(this.batchSize);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8), BUFFER_BYTES);
+		long lineNumber = 0;
+		String line;
+		while ((line = reader.readLine()) != null) {
+			lineNumber++;
+			if (line.trim().isEmpty() || (format == AccountFormat.CSV && lineNumber == 1 && line.startsWith("accountId"))) {
+				continue;
+			}
+			try {
+				batch.add(format == AccountFormat.CSV ? parseCsv(line) : parseJson(line));
+			} catch (IOException | IllegalArgumentException ex) {
+				progress.reject("line " + lineNumber + ": " + ex.getMessage());
+				continue;
+			}
+			if (batch.size() == this.batchSize) {
+				flush(batch, progress);
+			}
+		}
+		flush(batch, progress);
+		log.info("Imported {} accounts ({} rejected) in {} ms", progress.imported, progress.rejected,
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return new AccountImportResult(progress.imported, progress.rejected, progress.errors);
+	}
+
+	/**
+	 * Writes every account to {@code output} and returns how many were written. The balances are
+	 * those of one instant: they are copied while the {@link TransferGate} holds back every transfer
+	 * made through {@link AccountsService}, so no transfer is counted on one side and not the other.
+	 * Transfers wait only for the copy, not for the output to be written.
+	 */
+	public long exportAccounts(OutputStream output, AccountFormat format) throws IOException {
+		long start = System.nanoTime();
+		List<ExportedAccount> image = this.transferGate.closed(() -> {
+			List<ExportedAccount> accounts = new ArrayList<>();
+			this.accountsRepository.forEachAccount(
+					account -> accounts.add(new ExportedAccount(account, account.currentBalance())));
+			return accounts;
+		});
+		long copied = System.nanoTime();
+		try {
+			if (format == AccountFormat.CSV) {
+				Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), BUFFER_BYTES);
+				writer.write(CSV_HEADER);
+				writer.write('\n');
+				for (ExportedAccount account : image) {
+					writeCsv(writer, account.account, account.balance);
+				}
+				writer.flush();
+			} else {
+				JsonGenerator generator = this.jsonFactory.createGenerator(output);
+				// Lines are ended explicitly instead of separating root values with a space
+				generator.setRootValueSeparator(null);
+				for (ExportedAccount account : image) {
+					writeJson(generator, account.account, account.balance);
+				}
+				generator.flush();
+			}
+		} catch (UncheckedIOException ex) {
+			throw ex.getCause();
+		}
+		log.info("Exported {} accounts in {} ms, {} ms of them with transfers held", image.size(),
+				TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), TimeUnit.NANOSECONDS.toMillis(copied - start));
+		return image.size();
+	}
+
+	private void flush(List<Account> batch, ImportProgress progress) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		progress.imported += this.accountsRepository.createAccounts(batch,
+				(account, ex) -> progress.reject(ex.getMessage()));
+		batch.clear();
+	}
+
+	private Account parseJson(String line) throws IOException {
+		String accountId = null;
+		BigDecimal balance = null;
+		long version = 0;
+		String currency = null;
+		try (JsonParser parser = this.jsonFactory.createParser(line)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IllegalArgumentException("Expected a JSON object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+				if ("accountId".equals(field)) {
+					accountId = parser.getValueAsString();
+				} else if ("balance".equals(field)) {
+					balance = parser.getCurrentToken() == JsonToken.VALUE_STRING ? new BigDecimal(parser.getText())
+							: parser.getDecimalValue();
+				} else if ("version".equals(field)) {
+					version = parser.getLongValue();
+				} else if ("currency".equals(field)) {
+					currency = parser.getValueAsString();
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+		return toAccount(accountId, balance, version, currency);
+	}
+
+	private static Account parseCsv(String line) {
+		String accountId;
+		int next;
+		if (line.startsWith("\"")) {
+			StringBuilder quoted = new StringBuilder();
+			int i = 1;
+			while (true) {
+				if (i >= line.length()) {
+					throw new IllegalArgumentException("Unterminated quoted account id");
+				}
+				char c = line.charAt(i++);
+				if (c == '"') {
+					if (i < line.length() && line.charAt(i) == '"') {
+						quoted.append('"');
+						i++;
+					} else {
+						break;
+					}
+				} else {
+					quoted.append(c);
+				}
+			}
+			accountId = quoted.toString();
+			next = i;
+		} else {
+			next = line.indexOf(',');
+			accountId = next < 0 ? line : line.substring(0, next);
+		}
+		if (next < 0 || next >= line.length() || line.charAt(next) != ',') {
+			throw new IllegalArgumentException("Expected accountId,balance[,version[,currency]]");
+		}
+		String[] rest = line.substring(next + 1).split(",", -1);
+		if (rest.length > 3) {
+			throw new IllegalArgumentException("Expected accountId,balance[,version[,currency]]");
+		}
+		BigDecimal balance = new BigDecimal(rest[0].trim());
+		long version = rest.length >= 2 && !rest[1].trim().isEmpty() ? Long.parseLong(rest[1].trim()) : 0L;
+		String currency = rest.length == 3 && !rest[2].trim().isEmpty() ? rest[2].trim() : null;
+		return toAccount(accountId, balance, version, currency);
+	}
+
+	// The same rules the create endpoint validates with: an id on one line, and a balance that is not
+	// negative. An id spanning lines could not be read back from either format.
+	private static Account toAccount(String accountId, BigDecimal balance, long version, String currency) {
+		if (accountId == null || accountId.isEmpty()) {
+			throw new IllegalArgumentException("Account id is missing");
+		}
+		if (accountId.indexOf('\n') >= 0 || accountId.indexOf('\r') >= 0) {
+			throw new IllegalArgumentException("Account id must not contain line breaks");
+		}
+		if (balance == null || balance.signum() < 0) {
+			throw new IllegalArgumentException("Initial balance must be positive.");
+		}
+		if (version < 0 || version > MAX_VERSION) {
+			throw new IllegalArgumentException("Version must be between 0 and " + MAX_VERSION);
+		}
+		Account account = new Account(accountId, BigDecimal.ZERO, currency);
+		account.restoreBalance(balance, version);
+		return account;
+	}
+
+	private static void writeJson(JsonGenerator generator, Account account, Balance balance) {
+		try {
+			generator.writeStartObject();
+			generator.writeStringField("accountId", account.getAccountId());
+			if (account.getCurrency() != null) {
+				generator.writeStringField("currency", account.getCurrency());
+			}
+			generator.writeNumberField("balance", balance.getAmount());
+			generator.writeNumberField("version", balance.getVersion());
+			generator.writeEndObject();
+			generator.writeRaw('\n');
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	private static void writeCsv(Writer writer, Account account, Balance balance) {
+		String accountId = account.getAccountId();
+		try {
+			if (accountId.indexOf(',') >= 0 || accountId.indexOf('"') >= 0 || accountId.indexOf('\n') >= 0
+					|| accountId.indexOf('\r') >= 0) {
+				writer.write('"');
+				writer.write(accountId.replace("\"", "\"\""));
+				writer.write('"');
+			} else {
+				writer.write(accountId);
+			}
+			writer.write(',');
+			writer.write(balance.getAmount().toPlainString());
+			writer.write(',');
+			writer.write(Long.toString(balance.getVersion()));
+			writer.write(',');
+			if (account.getCurrency() != null) {
+				writer.write(account.getCurrency());
+			}
+			writer.write('\n');
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+	}
+
+	/**
+	 * An account and its balance as they stood when an export copied them.
+	 */
+	private static final class ExportedAccount {
+
+		private final Account account;
+
+		private final Balance balance;
+
+		ExportedAccount(Account account, Balance balance) {
+			this.account = account;
+			this.balance = balance;
+		}
+	}
+
+	/**
+	 * Running totals of one import.
+	 */
+	private final class ImportProgress {
+
+		private long imported;
+
+		private long rejected;
+
+		private final List<String> errors = new ArrayList<>();
+
+		void reject(String error) {
+			this.rejected++;
+			if (this.errors.size() < maxErrors) {
+				this.errors.add(error);
+			}
+		}
+	}
+}
@@ -1,10 +1,29 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.TransferHistoryPage;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.AccountClosedException;
+import com.db.awmd.challenge.exception.AccountNotEmptyException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.exception.UnsupportedCurrencyException;
+import com.db.awmd.challenge.ledger.TransferLedger;
+import com.db.awmd.challenge.metrics.TransferMetrics;
 import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.ArchivingAccountsRepository;
+import com.db.awmd.challenge.repository.LifecycleAccountsRepository;
 import lombok.Getter;
 
 import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
@@ -15,9 +34,34 @@ public class AccountsService {
 	@Getter
 	private final AccountsRepository accountsRepository;
 
-	@Autowired
+	private final TransferMetrics transferMetrics;
+
+	@Getter
+	private final TransferLedger transferLedger;
+
+	@Getter
+	private final TransferGate transferGate;
+
 	public AccountsService(AccountsRepository accountsRepository) {
+		this(accountsRepository, new TransferMetrics());
+	}
+
+	public AccountsService(AccountsRepository accountsRepository, TransferMetrics transferMetrics) {
+		this(accountsRepository, transferMetrics, new TransferLedger());
+	}
+
+	public AccountsService(AccountsRepository accountsRepository, TransferMetrics transferMetrics,
+			TransferLedger transferLedger) {
+		this(accountsRepository, transferMetrics, transferLedger, new TransferGate());
+	}
+
+	@Autowired
+	public AccountsService(AccountsRepository accountsRepository, TransferMetrics transferMetrics,
+			TransferLedger transferLedger, TransferGate transferGate) {
 		this.accountsRepository = accountsRepository;
+		this.transferMetrics = transferMetrics;
+		this.transferLedger = transferLedger;
+		this.transferGate = transferGate;
 	}
 
 	public void createAccount(Account account) {
@@ -28,12 +72,135 @@ public class AccountsService {
 		return this.accountsRepository.getAccount(accountId);
 	}
 
+	/**
+	 * Whether the store can close accounts; {@link #closeAccount(String)} is only offered when it can.
+	 */
+	public boolean canCloseAccounts() {
+		return this.accountsRepository instanceof LifecycleAccountsRepository;
+	}
+
+	/**
+	 * Whether the store can archive accounts; {@link #archiveAccount(String)} is only offered when it
+	 * can.
+	 */
+	public boolean canArchiveAccounts() {
+		return this.accountsRepository instanceof ArchivingAccountsRepository;
+	}
+
+	public Account closeAccount(String accountId) throws InvalidAccountIdException, AccountNotEmptyException {
+		Lock gate = this.transferGate.enter();
+		try {
+			return ((LifecycleAccountsRepository) this.accountsRepository).closeAccount(accountId);
+		} finally {
+			gate.unlock();
+		}
+	}
+
+	public Account archiveAccount(String accountId) throws InvalidAccountIdException, AccountNotEmptyException {
+		Lock gate = this.transferGate.enter();
+		try {
+			return ((ArchivingAccountsRepository) this.accountsRepository).archiveAccount(accountId);
+		} finally {
+			gate.unlock();
+		}
+	}
+
 	public BigDecimal withdraw(String fromAccountId, String toAccountId, BigDecimal amount) {
-		return this.accountsRepository.withdraw(fromAccountId, toAccountId, amount);
+		Lock gate = this.transferGate.enter();
+		try {
+			return this.accountsRepository.withdraw(fromAccountId, toAccountId, amount);
+		} catch (RuntimeException ex) {
+			count(ex);
+			throw ex;
+		} finally {
+			gate.unlock();
+		}
 	}
 
 	public BigDecimal deposit(String fromAccountId, String toAccountId, BigDecimal amount) {
-		return this.accountsRepository.deposit(fromAccountId, toAccountId, amount);
+		Lock gate = this.transferGate.enter();
+		try {
+			return this.accountsRepository.deposit(fromAccountId, toAccountId, amount);
+		} catch (RuntimeException ex) {
+			count(ex);
+			throw ex;
+		} finally {
+			gate.unlock();
+		}
+	}
+
+	/**
+	 * Moves {@code amount} between two accounts: both change or, when this throws, neither does. Only
+	 * the debited account is locked, so transfers between unrelated accounts run in parallel, but the
+	 * debit and the credit are published one after the other; a reader of both accounts may see the
+	 * money gone from one and not yet in the other. Only a reader that closes the
+	 * {@link TransferGate} sees a total across accounts taken at one instant.
+	 */
+	public TransferResult transfer(String fromAccountId, String toAccountId, BigDecimal amount)
+			throws InvalidAccountIdException, LowAccountBalanceException {
+		long start = this.transferMetrics.startTransfer();
+		Lock gate = this.transferGate.enter();
+		try {
+			TransferResult result = this.accountsRepository.transfer(fromAccountId, toAccountId, amount);
+			this.transferLedger.record(result);
+			return result;
+		} catch (RuntimeException ex) {
+			count(ex);
+			throw ex;
+		} finally {
+			gate.unlock();
+			this.transferMetrics.endTransfer(start);
+		}
+	}
+
+	public BatchTransferResult transferBatch(List<TransferRequest> transfers, BatchMode mode) {
+		BatchTransferResult result;
+		Lock gate = this.transferGate.enter();
+		try {
+			result = this.accountsRepository.transferBatch(transfers, mode);
+		} finally {
+			gate.unlock();
+		}
+		List<TransferResult> applied = new ArrayList<>(result.getApplied());
+		for (BatchTransferItemResult item : result.getResults()) {
+			if (item.getStatus() == BatchTransferItemResult.Status.APPLIED) {
+				applied.add(item.getResult());
+			}
+		}
+		if (!applied.isEmpty()) {
+			this.transferLedger.record(applied);
+		}
+		if (result.getRejected() > 0) {
+			this.transferMetrics.countBatchRejected(result.getRejected());
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a page of the transfers recorded in or out of an account, oldest first. An account
+	 * that neither exists nor has retained transfers is reported as invalid.
+	 */
+	public TransferHistoryPage transferHistory(String accountId, Long since, Long cursor, int limit)
+			throws InvalidAccountIdException {
+		TransferHistoryPage page = this.transferLedger.history(accountId, since, cursor, limit);
+		if (page.getTransfers().isEmpty() && cursor == null && getAccount(accountId) == null) {
+			this.transferMetrics.countInvalidAccountId();
+			throw new InvalidAccountIdException("Please enter a valid account id!");
+		}
+		return page;
+	}
 
+	private void count(RuntimeException ex) {
+		if (ex instanceof InvalidAccountIdException) {
+			this.transferMetrics.countInvalidAccountId();
+		} else if (ex instanceof LowAccountBalanceException) {
+			this.transferMetrics.countLowAccountBalance();
+		} else if (ex instanceof InvalidAmountException) {
+			this.transferMetrics.countInvalidAmount();
+		} else if (ex instanceof UnsupportedCurrencyException) {
+			this.transferMetrics.countUnsupportedCurrency();
+		} else if (ex instanceof AccountClosedException) {
+			this.transferMetrics.countAccountClosed();
+		}
 	}
 }
@@ -0,0 +1,356 @@
+package com.db.awmd.challenge.service;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Service;
+
+/**
+ * Takes transfer notifications off the transfer path. Notifications go onto a bounded queue and a
+ * small pool of workers hands them to the real {@link NotificationService}, so a slow email backend
+ * no longer stalls transfers. Each worker drains up to {@code batch-size} notifications at a time
+ * and sends one combined notification per account.
+ *
+ * <p>A notification that cannot be sent, because the delegate throws or because it has no account,
+ * is counted as a send failure; the worker carries on with the rest. Under the
+ * {@code OVERFLOW_BUFFER} policy the overflow buffer holds at most {@code overflow-capacity}
+ * notifications, and any beyond that are dropped, so a delegate that stays slow cannot fill the heap.
+ *
+ * <p>Notifications are not guaranteed to reach the delegate in the order the transfers happened:
+ * workers send their batches independently, and a notification held in the overflow buffer can be
+ * overtaken by a later one for the same account that went straight onto the queue.
+ */
+@Service
+@Primary
+@Slf4j
+public class AsyncNotificationService implements NotificationService, PublicMetrics {
+
+	private static final long POLL_TIMEOUT_MILLIS = 100;
+
+	private final NotificationService delegate;
+
+	private final BlockingQueue<PendingNotification> queue;
+
+	private final ConcurrentLinkedQueue<PendingNotification> overflow = new ConcurrentLinkedQueue<>();
+
+	// Kept alongside the overflow buffer, whose own size() walks every node
+	private final AtomicInteger overflowSize = new AtomicInteger();
+
+	private final int overflowCapacity;
+
+	private final BackpressurePolicy backpressurePolicy;
+
+	private final int workers;
+
+	private final int batchSize;
+
+	private final List<Thread> workerThreads = new ArrayList<>();
+
+	private volatile boolean running;
+
+	private final LongAdder enqueued = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	private final LongAdder overflowed = new LongAdder();
+
+	private final LongAdder sent = new LongAdder();
+
+	private final LongAdder sendFailures = new LongAdder();
+
+	private final LongAdder sendNanos = new LongAdder();
+
+	private final AtomicLong maxSendNanos = new AtomicLong();
+
+	private final TransferMetrics transferMetrics;
+
+	public AsyncNotificationService(NotificationService delegate, int queueCapacity, int workers, int batchSize,
+			BackpressurePolicy backpressurePolicy) {
+		this(delegate, queueCapacity, workers, batchSize, backpressurePolicy, new TransferMetrics());
+	}
+
+	public AsyncNotificationService(NotificationService delegate, int queueCapacity, int workers, int batchSize,
+			BackpressurePolicy backpressurePolicy, TransferMetrics transferMetrics) {
+		this(delegate, queueCapacity, workers, batchSize, backpressurePolicy, 100000, transferMetrics);
+	}
+
+	@Autowired
+	public AsyncNotificationService(@Qualifier("emailNotificationService") NotificationService delegate,
+			@Value("${notifications.async.queue-capacity:10000}") int queueCapacity,
+			@Value("${notifications.async.workers:2}") int workers,
+			@Value("${notifications.async.batch-size:256}") int batchSize,
+			@Value("${notifications.async.backpressure:BLOCK}") BackpressurePolicy backpressurePolicy,
+			@Value("${notifications.async.overflow-capacity:100000}") int overflowCapacity,
+			TransferMetrics transferMetrics) {
+		this.delegate = delegate;
+		this.transferMetrics = transferMetrics;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.workers = workers;
+		this.batchSize = batchSize;
+		this.backpressurePolicy = backpressurePolicy;
+		this.overflowCapacity = overflowCapacity;
+	}
+
+	@PostConstruct
+	public void start() {
+		this.running = true;
+		for (int i = 0; i < this.workers; i++) {
+			Thread worker = new Thread(this::drainLoop, "notification-worker-" + i);
+			worker.setDaemon(true);
+			worker.start();
+			this.workerThreads.add(worker);
+		}
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		this.running = false;
+		for (Thread worker : this.workerThreads) {
+			worker.join(TimeUnit.SECONDS.toMillis(5));
+		}
+		// Anything still queued after the workers stop is sent on the shutdown thread
+		List<PendingNotification> remaining = new ArrayList<>();
+		this.queue.drainTo(remaining);
+		drainOverflow(remaining, Integer.MAX_VALUE);
+		send(remaining);
+	}
+
+	@Override
+	public void notifyAboutTransfer(Account account, String transferDescription) {
+		enqueue(new PendingNotification(account, transferDescription, null, null));
+	}
+
+	/**
+	 * Queues the notification without building its description; a worker builds it when sending.
+	 */
+	@Override
+	public void notifyAboutTransfer(Account account, TransferDirection direction, BigDecimal amount) {
+		enqueue(new PendingNotification(account, null, direction, amount));
+	}
+
+	/**
+	 * Queues only the id; the account handed to the delegate is built on the worker.
+	 */
+	@Override
+	public void notifyAboutTransfer(String accountId, TransferDirection direction, BigDecimal amount) {
+		enqueue(new PendingNotification(accountId, direction, amount));
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(new Metric<>("gauge.notifications.queue-depth", getQueueDepth()),
+				new Metric<>("counter.notifications.enqueued", getEnqueuedCount()),
+				new Metric<>("counter.notifications.dropped", getDroppedCount()),
+				new Metric<>("counter.notifications.overflowed", getOverflowedCount()),
+				new Metric<>("counter.notifications.sent", getSentCount()),
+				new Metric<>("counter.notifications.send-failures", getSendFailureCount()),
+				new Metric<>("gauge.notifications.send.max-micros", getMaxSendNanos() / 1000));
+	}
+
+	public int getQueueDepth() {
+		return this.queue.size() + this.overflowSize.get();
+	}
+
+	public long getEnqueuedCount() {
+		return this.enqueued.sum();
+	}
+
+	public long getDroppedCount() {
+		return this.dropped.sum();
+	}
+
+	public long getOverflowedCount() {
+		return this.overflowed.sum();
+	}
+
+	public long getSentCount() {
+		return this.sent.sum();
+	}
+
+	public long getSendFailureCount() {
+		return this.sendFailures.sum();
+	}
+
+	public long getSendNanos() {
+		return this.sendNanos.sum();
+	}
+
+	public long getMaxSendNanos() {
+		return this.maxSendNanos.get();
+	}
+
+	private void enqueue(PendingNotification notification) {
+		this.enqueued.increment();
+		if (this.queue.offer(notification)) {
+			return;
+		}
+		// Only a full queue is timed; an offer that succeeds straight away is the common, free case
+		long start = System.nanoTime();
+		enqueueWhenFull(notification);
+		this.transferMetrics.recordNotificationEnqueueNanos(System.nanoTime() - start);
+	}
+
+	private void enqueueWhenFull(PendingNotification notification) {
+		switch (this.backpressurePolicy) {
+		case BLOCK:
+			try {
+				this.queue.put(notification);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				this.dropped.increment();
+			}
+			break;
+		case OVERFLOW_BUFFER:
+			if (this.overflowSize.incrementAndGet() > this.overflowCapacity) {
+				this.overflowSize.decrementAndGet();
+				this.dropped.increment();
+				break;
+			}
+			this.overflow.add(notification);
+			this.overflowed.increment();
+			break;
+		default:
+			this.dropped.increment();
+		}
+	}
+
+	private void drainLoop() {
+		List<PendingNotification> batch = new ArrayList<>(this.batchSize);
+		while (this.running) {
+			try {
+				PendingNotification first = this.queue.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					this.queue.drainTo(batch, this.batchSize - 1);
+				}
+				drainOverflow(batch, this.batchSize);
+				send(batch);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				return;
+			} catch (RuntimeException ex) {
+				// send() already contains failures of single notifications; this keeps the worker alive
+				// whatever else goes wrong
+				log.error("Notification worker failed on a batch of {}", batch.size(), ex);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	private void drainOverflow(List<PendingNotification> batch, int limit) {
+		PendingNotification notification;
+		while (batch.size() < limit && (notification = this.overflow.poll()) != null) {
+			this.overflowSize.decrementAndGet();
+			batch.add(notification);
+		}
+	}
+
+	private void send(List<PendingNotification> batch) {
+		if (batch.isEmpty()) {
+			return;
+		}
+		// One notification per account, descriptions kept in the order they were enqueued
+		Map<String, List<PendingNotification>> byAccount = new LinkedHashMap<>();
+		for (PendingNotification notification : batch) {
+			if (notification.accountId == null) {
+				this.sendFailures.increment();
+				log.warn("Dropping a notification without an account: {}", notification.description);
+				continue;
+			}
+			byAccount.computeIfAbsent(notification.accountId, id -> new ArrayList<>()).add(notification);
+		}
+		for (List<PendingNotification> notifications : byAccount.values()) {
+			long start = System.nanoTime();
+			try {
+				String description = notifications.size() == 1 ? notifications.get(0).description()
+						: joinDescriptions(notifications);
+				this.delegate.notifyAboutTransfer(notifications.get(0).account(), description);
+				this.sent.add(notifications.size());
+			} catch (RuntimeException ex) {
+				this.sendFailures.add(notifications.size());
+				log.warn("Unable to send notification to owner of {}", notifications.get(0).accountId, ex);
+			}
+			recordSend(System.nanoTime() - start);
+		}
+	}
+
+	private void recordSend(long nanos) {
+		this.sendNanos.add(nanos);
+		long max;
+		do {
+			max = this.maxSendNanos.get();
+		} while (nanos > max && !this.maxSendNanos.compareAndSet(max, nanos));
+	}
+
+	private static String joinDescriptions(List<PendingNotification> notifications) {
+		StringBuilder description = new StringBuilder();
+		for (PendingNotification notification : notifications) {
+			if (description.length() > 0) {
+				description.append('\n');
+			}
+			description.append(notification.description());
+		}
+		return description.toString();
+	}
+
+	private static final class PendingNotification {
+
+		private final String accountId;
+
+		private final Account account;
+
+		private final String description;
+
+		private final TransferDirection direction;
+
+		private final BigDecimal amount;
+
+		private PendingNotification(Account account, String description, TransferDirection direction,
+				BigDecimal amount) {
+			this.accountId = account == null ? null : account.getAccountId();
+			this.account = account;
+			this.description = description;
+			this.direction = direction;
+			this.amount = amount;
+		}
+
+		private PendingNotification(String accountId, TransferDirection direction, BigDecimal amount) {
+			this.accountId = accountId;
+			this.account = null;
+			this.description = null;
+			this.direction = direction;
+			this.amount = amount;
+		}
+
+		private Account account() {
+			return this.account != null ? this.account : new Account(this.accountId);
+		}
+
+		private String description() {
+			return this.description != null ? this.description : this.direction.describe(this.accountId, this.amount);
+		}
+	}
+}
@@ -0,0 +1,21 @@
+package com.db.awmd.challenge.service;
+
+/**
+ * What {@link AsyncNotificationService} does with a notification when its queue is full.
+ */
+public enum BackpressurePolicy {
+
+  /** Discard the notification and count it as dropped. */
+  DROP,
+
+  /** Make the transfer thread wait for room in the queue. */
+  BLOCK,
+
+  /**
+   * Put the notification on an in-memory overflow buffer that the workers drain after the queue;
+   * once the buffer holds {@code notifications.async.overflow-capacity} notifications, drop it as
+   * {@code DROP} would. Nothing is written to disk, and order is not kept: a notification in the
+   * buffer may be sent after later ones for the same account that found room in the queue.
+   */
+  OVERFLOW_BUFFER
+}
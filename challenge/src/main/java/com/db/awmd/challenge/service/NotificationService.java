@@ -1,8 +1,27 @@
 package com.db.awmd.challenge.service;
 
 import com.db.awmd.challenge.domain.Account;
+import java.math.BigDecimal;
 
 public interface NotificationService {
 
 	void notifyAboutTransfer(Account account, String transferDescription);
+
+	/**
+	 * Notifies the owner of {@code account} about one side of a transfer. Callers on the transfer
+	 * path use this form so that an implementation sending later can also build the description
+	 * later; by default it is built straight away.
+	 */
+	default void notifyAboutTransfer(Account account, TransferDirection direction, BigDecimal amount) {
+		notifyAboutTransfer(account, direction.describe(account.getAccountId(), amount));
+	}
+
+	/**
+	 * Same as {@link #notifyAboutTransfer(Account, TransferDirection, BigDecimal)} for stores that hold
+	 * no {@link Account} instances and would otherwise build a copy only to hand over its id. By default
+	 * the owner is identified by an account carrying just that id.
+	 */
+	default void notifyAboutTransfer(String accountId, TransferDirection direction, BigDecimal amount) {
+		notifyAboutTransfer(new Account(accountId), direction, amount);
+	}
 }
@@ -0,0 +1,24 @@
+package com.db.awmd.challenge.service;
+
+import java.math.BigDecimal;
+
+/**
+ * Which side of a transfer a notified account was on. Lets {@link NotificationService}
+ * implementations build the description only when it is actually sent.
+ */
+public enum TransferDirection {
+
+  OUTGOING("Amount being transfered from account "),
+
+  INCOMING("Amount being transfered to account ");
+
+  private final String prefix;
+
+  TransferDirection(String prefix) {
+    this.prefix = prefix;
+  }
+
+  public String describe(String accountId, BigDecimal amount) {
+    return this.prefix + accountId + " is " + amount;
+  }
+}
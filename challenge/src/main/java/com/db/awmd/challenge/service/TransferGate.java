@@ -0,0 +1,60 @@
+package com.db.awmd.challenge.service;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Supplier;
+import org.springframework.stereotype.Component;
+
+/**
+ * Lets money move freely until something needs every balance as of one instant. Each change passes
+ * the gate on the read side of one of {@value #STRIPES} locks, picked by its thread, so changes on
+ * different threads do not touch the same lock word; {@link #closed(Supplier)} takes the write side
+ * of all of them, which waits for the changes already running and holds back new ones until it
+ * returns. Whatever runs while the gate is closed should only copy, and copy quickly.
+ */
+@Component
+public class TransferGate {
+
+	private static final int STRIPES = 64;
+
+	private final StampedLock[] stripes = new StampedLock[STRIPES];
+
+	private final Lock[] readLocks = new Lock[STRIPES];
+
+	public TransferGate() {
+		for (int i = 0; i < STRIPES; i++) {
+			this.stripes[i] = new StampedLock();
+			this.readLocks[i] = this.stripes[i].asReadLock();
+		}
+	}
+
+	/**
+	 * Waits while the gate is closed, then lets the calling thread through until it unlocks the
+	 * returned lock.
+	 */
+	public Lock enter() {
+		long id = Thread.currentThread().getId();
+		Lock lock = this.readLocks[(int) (id ^ id >>> 16) & (STRIPES - 1)];
+		lock.lock();
+		return lock;
+	}
+
+	/**
+	 * Runs {@code action} once no change is in progress, with new ones held back until it returns.
+	 */
+	public <T> T closed(Supplier<T> action) {
+		long[] stamps = new long[STRIPES];
+		int locked = 0;
+		try {
+			for (; locked < STRIPES; locked++) {
+				stamps[locked] = this.stripes[locked].writeLock();
+			}
+			return action.get();
+		} finally {
+			while (locked > 0) {
+				locked--;
+				this.stripes[locked].unlockWrite(stamps[locked]);
+			}
+		}
+	}
+}
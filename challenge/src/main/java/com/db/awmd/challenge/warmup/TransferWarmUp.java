@@ -0,0 +1,265 @@
+package com.db.awmd.challenge.warmup;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.fx.FxRateTable;
+import com.db.awmd.challenge.ledger.TransferLedger;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryJournaled;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.repository.AccountsRepositorySharded;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.web.AccountResponseCache;
+import com.db.awmd.challenge.web.AccountsController;
+import com.db.awmd.challenge.web.IdempotencyCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.context.ApplicationContext;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gets the transfer path compiled and initialized before traffic counts on it. Once the context is
+ * up, synthetic transfers, batches and reads run through {@link AccountsController},
+ * {@link AccountsService} and a scratch copy of the configured accounts store, and every response
+ * body is serialized with the application's {@link ObjectMapper}, so the JIT has profiled and
+ * compiled the same code real requests take and Jackson has built its serializers. The scratch
+ * store, ledger, caches and metrics are thrown away afterwards: warm-up never touches a real
+ * account, its history or the published latencies. The live store is then read end to end, which
+ * pages in off-heap segments and cold store records.
+ *
+ * <p>Until all of that is done the {@code transferWarmUp} health indicator reports
+ * {@code OUT_OF_SERVICE}, so {@code /health} answers 503 and a load balancer holds traffic back.
+ *
+ * <p>With {@code warmup.exit=true} the JVM stops as soon as warm-up is done. That makes a training
+ * run for an AppCDS archive: every class the transfer path loads has been loaded by then (see the
+ * {@code cdsArchive} Gradle task).
+ */
+@Component
+@Slf4j
+public class TransferWarmUp implements ApplicationRunner, HealthIndicator {
+
+	private static final BigDecimal OPENING_BALANCE = new BigDecimal("1000000");
+
+	// Far over any scratch balance, so the transfer is refused and the error path gets compiled too
+	private static final BigDecimal OVERDRAFT = new BigDecimal("1000000000");
+
+	private static final int BATCH_SIZE = 4;
+
+	private final AccountsService accountsService;
+
+	private final FxRateTable fxRates;
+
+	private final ObjectMapper objectMapper;
+
+	private final ApplicationContext applicationContext;
+
+	private final String store;
+
+	private final MoneyMode moneyMode;
+
+	private final int scale;
+
+	private final int transfers;
+
+	private final int accounts;
+
+	private final long maxSeconds;
+
+	private final boolean exit;
+
+	private volatile boolean warm;
+
+	private volatile int transfersRun;
+
+	private volatile long elapsedMillis;
+
+	private volatile long preloadedAccounts;
+
+	public TransferWarmUp(AccountsService accountsService, ObjectMapper objectMapper, int transfers) {
+		this(accountsService, new FxRateTable(), objectMapper, null, "memory", MoneyMode.DECIMAL, 2, transfers, 16, 30,
+				false);
+	}
+
+	@Autowired
+	public TransferWarmUp(AccountsService accountsService, FxRateTable fxRates, ObjectMapper objectMapper,
+			ApplicationContext applicationContext,
+			@Value("${accounts.store:memory}") String store,
+			@Value("${accounts.money.mode:DECIMAL}") MoneyMode moneyMode,
+			@Value("${accounts.money.scale:2}") int scale,
+			@Value("${warmup.transfers:20000}") int transfers,
+			@Value("${warmup.accounts:16}") int accounts,
+			@Value("${warmup.max-seconds:30}") long maxSeconds,
+			@Value("${warmup.exit:false}") boolean exit) {
+		this.accountsService = accountsService;
+		this.fxRates = fxRates;
+		this.objectMapper = objectMapper;
+		this.applicationContext = applicationContext;
+		this.store = store;
+		this.moneyMode = moneyMode;
+		this.scale = scale;
+		this.transfers = transfers;
+		this.accounts = Math.max(2, accounts);
+		this.maxSeconds = maxSeconds;
+		this.exit = exit;
+	}
+
+	@Override
+	public void run(ApplicationArguments args) throws Exception {
+		warmUp();
+		if (this.exit) {
+			log.info("Warm-up done, exiting as warmup.exit asks");
+			System.exit(SpringApplication.exit(this.applicationContext, () -> 0));
+		}
+	}
+
+	/**
+	 * Runs the synthetic transfers, then preloads the live store. Returns once the service is warm.
+	 */
+	public void warmUp() throws Exception {
+		long start = System.nanoTime();
+		if (this.transfers > 0) {
+			Path directory = Files.createTempDirectory("warmup");
+			AccountsRepository scratch = scratchStore(directory);
+			try {
+				this.transfersRun = runTransfers(scratch, start + TimeUnit.SECONDS.toNanos(this.maxSeconds));
+			} finally {
+				close(scratch);
+				try (Stream<Path> files = Files.walk(directory)) {
+					files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+				}
+			}
+		}
+		long[] preloaded = new long[1];
+		this.accountsService.getAccountsRepository().forEachAccount(account -> {
+			account.currentBalance();
+			preloaded[0]++;
+		});
+		this.preloadedAccounts = preloaded[0];
+		this.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		this.warm = true;
+		log.info("Warmed up with {} synthetic transfers on a scratch {} store and preloaded {} accounts in {} ms",
+				this.transfersRun, this.store, this.preloadedAccounts, this.elapsedMillis);
+	}
+
+	public boolean isWarm() {
+		return this.warm;
+	}
+
+	@Override
+	public Health health() {
+		if (!this.warm) {
+			return Health.outOfService().withDetail("phase", "warming up").build();
+		}
+		return Health.up().withDetail("transfers", this.transfersRun).withDetail("millis", this.elapsedMillis)
+				.withDetail("preloadedAccounts", this.preloadedAccounts).build();
+	}
+
+	private int runTransfers(AccountsRepository scratch, long deadline) throws IOException {
+		AccountsService service = new AccountsService(scratch, new TransferMetrics(), new TransferLedger(
+				this.transfers + 1, 3600, 100));
+		AccountsController controller = new AccountsController(service, new AccountsBulkService(scratch),
+				new IdempotencyCache(1024, 60, 1), new AccountResponseCache(this.objectMapper, 1024, 1), BATCH_SIZE);
+		String[] ids = new String[this.accounts];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = "warmup-" + i;
+			service.createAccount(new Account(ids[i], OPENING_BALANCE));
+		}
+
+		// Fixed seed: every start warms up on the same mix
+		Random random = new Random(0);
+		List<TransferRequest> batch = new ArrayList<>(BATCH_SIZE);
+		int run = 0;
+		for (; run < this.transfers && System.nanoTime() < deadline; run++) {
+			String from = ids[random.nextInt(ids.length)];
+			String to = ids[random.nextInt(ids.length)];
+			BigDecimal amount = BigDecimal.valueOf(random.nextInt(10000) + 1, 2);
+			ResponseEntity<?> response;
+			switch (run % 16) {
+			case 0:
+				response = controller.getAccount(from, null);
+				break;
+			case 1:
+				batch.clear();
+				for (int i = 0; i < BATCH_SIZE; i++) {
+					batch.add(new TransferRequest(ids[random.nextInt(ids.length)], ids[random.nextInt(ids.length)],
+							amount));
+				}
+				response = controller.transferMoneyBatch(batch,
+						run % 32 == 1 ? BatchMode.ALL_OR_NOTHING : BatchMode.BEST_EFFORT, null);
+				break;
+			case 2:
+				response = controller.transferMoney(from, to, OVERDRAFT, null);
+				break;
+			case 3:
+				response = controller.transferMoney(from, to, amount, "warmup-" + run);
+				break;
+			default:
+				response = controller.transferMoney(from, to, amount, null);
+			}
+			Object body = response.getBody();
+			if (body != null && !(body instanceof byte[]) && !(body instanceof String)) {
+				this.objectMapper.writeValueAsBytes(body);
+			}
+		}
+		return run;
+	}
+
+	// A store of the configured kind, so its own code is what gets compiled
+	private AccountsRepository scratchStore(Path directory) throws IOException {
+		NotificationService silent = (account, description) -> { };
+		switch (this.store) {
+		case "offheap":
+			return new AccountsRepositoryOffHeap(silent, this.scale, this.accounts, 64, new TransferMetrics(),
+					this.fxRates);
+		case "sharded":
+			AccountsRepositorySharded sharded = new AccountsRepositorySharded(silent, this.moneyMode, this.scale, 2,
+					this.fxRates);
+			sharded.start();
+			return sharded;
+		case "journal":
+			AccountsRepositoryJournaled journaled = new AccountsRepositoryJournaled(inMemoryStore(silent),
+					directory.toString(), 1 << 20, false, 0, 60000);
+			journaled.recover();
+			return journaled;
+		default:
+			return inMemoryStore(silent);
+		}
+	}
+
+	private AccountsRepositoryInMemory inMemoryStore(NotificationService silent) {
+		return new AccountsRepositoryInMemory(silent, this.moneyMode, this.scale, new String[0], 0,
+				new TransferMetrics(), this.fxRates);
+	}
+
+	private static void close(AccountsRepository scratch) throws Exception {
+		if (scratch instanceof AccountsRepositorySharded) {
+			((AccountsRepositorySharded) scratch).stop();
+		} else if (scratch instanceof AccountsRepositoryJournaled) {
+			((AccountsRepositoryJournaled) scratch).close();
+		}
+	}
+}
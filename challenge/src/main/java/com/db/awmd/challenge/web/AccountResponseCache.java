@@ -0,0 +1,222 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.SealedBalance;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Serialized {@code GET /v1/accounts/{accountId}} responses, keyed by account and tagged with the
+ * balance version they were written from. Every change to an account raises its version, so a
+ * cached body is reused until the account changes and the ETag of the current version answers
+ * conditional requests without serializing anything.
+ *
+ * <p>Entries are spread over independently locked stripes, each a bounded map in access order; when
+ * a stripe is full its least recently read account is dropped.
+ */
+@Component
+public class AccountResponseCache implements PublicMetrics {
+
+	private final ObjectMapper objectMapper;
+
+	private final Stripe[] stripes;
+
+	private final int stripeCapacity;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder notModified = new LongAdder();
+
+	@Autowired
+	public AccountResponseCache(ObjectMapper objectMapper,
+			@Value("${accounts.read-cache.capacity:100000}") int capacity,
+			@Value("${accounts.read-cache.stripes:64}") int stripes) {
+		this.objectMapper = objectMapper;
+		int count = 1;
+		while (count < stripes) {
+			count <<= 1;
+		}
+		this.stripeCapacity = Math.max(1, capacity / count);
+		this.stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			this.stripes[i] = new Stripe();
+		}
+	}
+
+	/**
+	 * Returns the entity tag of a balance: its version, and a hash of its amount so that an account
+	 * created again under the same id does not match a tag handed out for the old one.
+	 */
+	public static String etag(Balance balance) {
+		return "\"" + balance.getVersion() + "-" + Integer.toHexString(balance.getAmount().hashCode()) + "\"";
+	}
+
+	/**
+	 * Returns whether an {@code If-None-Match} header names the given tag, so the client already
+	 * holds the current representation.
+	 */
+	public boolean matches(String ifNoneMatch, String etag) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : ifNoneMatch.split(",")) {
+			String tag = candidate.trim();
+			if (tag.equals("*") || tag.equals(etag) || tag.equals("W/" + etag)) {
+				this.notModified.increment();
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the JSON body for {@code balance} of {@code account}, serializing it only when the
+	 * cached body belongs to another version.
+	 */
+	public byte[] body(Account account, Balance balance) {
+		String accountId = account.getAccountId();
+		Stripe stripe = this.stripes[spread(accountId.hashCode()) & (this.stripes.length - 1)];
+		BigDecimal amount = balance.getAmount();
+		stripe.lock.lock();
+		try {
+			Entry entry = stripe.entries.get(accountId);
+			if (entry != null && entry.version == balance.getVersion() && entry.amount.equals(amount)) {
+				this.hits.increment();
+				return entry.body;
+			}
+		} finally {
+			stripe.lock.unlock();
+		}
+
+		this.misses.increment();
+		boolean closed = balance instanceof SealedBalance && ((SealedBalance) balance).isClosed();
+		byte[] body = serialize(accountId, account.getCurrency(), amount, balance.getVersion(), closed);
+		// Racing readers may store an older body over a newer one; the check above turns it away
+		stripe.lock.lock();
+		try {
+			stripe.entries.put(accountId, new Entry(balance.getVersion(), amount, body));
+		} finally {
+			stripe.lock.unlock();
+		}
+		return body;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(new Metric<>("gauge.accounts.read-cache.size", size()),
+				new Metric<>("counter.accounts.read-cache.hits", getHitCount()),
+				new Metric<>("counter.accounts.read-cache.misses", getMissCount()),
+				new Metric<>("counter.accounts.read-cache.not-modified", getNotModifiedCount()));
+	}
+
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	public long getNotModifiedCount() {
+		return this.notModified.sum();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : this.stripes) {
+			stripe.lock.lock();
+			try {
+				size += stripe.entries.size();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		return size;
+	}
+
+	// Same fields, in the same order, as the Account's own JSON, but from one balance snapshot
+	private byte[] serialize(String accountId, String currency, BigDecimal amount, long version, boolean closed) {
+		ByteArrayOutputStream body = new ByteArrayOutputStream(64 + accountId.length());
+		try (JsonGenerator generator = this.objectMapper.getFactory().createGenerator(body)) {
+			generator.writeStartObject();
+			generator.writeStringField("accountId", accountId);
+			if (currency != null) {
+				generator.writeStringField("currency", currency);
+			}
+			generator.writeNumberField("balance", amount);
+			if (closed) {
+				generator.writeBooleanField("closed", true);
+			}
+			generator.writeNumberField("version", version);
+			generator.writeEndObject();
+		} catch (IOException ex) {
+			throw new UncheckedIOException(ex);
+		}
+		return body.toByteArray();
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private final class Stripe {
+
+		// Not a monitor: a virtual thread queued behind another reader frees its carrier
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final Map<String, Entry> entries = new LruMap(stripeCapacity);
+	}
+
+	/**
+	 * Entries in access order, dropping the least recently used one past {@code capacity}.
+	 */
+	private static final class LruMap extends LinkedHashMap<String, Entry> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int capacity;
+
+		private LruMap(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return size() > this.capacity;
+		}
+	}
+
+	private static final class Entry {
+
+		private final long version;
+
+		private final BigDecimal amount;
+
+		private final byte[] body;
+
+		private Entry(long version, BigDecimal amount, byte[] body) {
+			this.version = version;
+			this.amount = amount;
+			this.body = body;
+		}
+	}
+}
@@ -1,36 +1,81 @@
 package com.db.awmd.challenge.web;
 
 import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountImportResult;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.TransferHistoryPage;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.AccountClosedException;
+import com.db.awmd.challenge.exception.AccountNotEmptyException;
 import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.IdempotencyKeyReusedException;
 import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
 import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.exception.UnsupportedCurrencyException;
+import com.db.awmd.challenge.service.AccountFormat;
+import com.db.awmd.challenge.service.AccountsBulkService;
 import com.db.awmd.challenge.service.AccountsService;
+import java.io.IOException;
+import java.io.InputStream;
 import java.math.BigDecimal;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.List;
+import java.util.function.Supplier;
 import javax.validation.Valid;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestAttribute;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/v1/accounts")
 @Slf4j
 public class AccountsController {
 
+	/**
+	 * Header carrying a client-chosen key that makes a retried transfer return the original response.
+	 * Keys are scoped to the client {@link TransferAdmissionInterceptor} identified, and a key sent
+	 * again with a different transfer is answered with 422 Unprocessable Entity.
+	 */
+	public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+	private static final long FINGERPRINT_SEED = 0xcbf29ce484222325L;
+
 	private final AccountsService accountsService;
 
+	private final AccountsBulkService accountsBulkService;
+
+	private final IdempotencyCache idempotencyCache;
+
+	private final AccountResponseCache accountResponseCache;
+
+	private final int maxBatchSize;
+
 	@Autowired
-	public AccountsController(AccountsService accountsService) {
+	public AccountsController(AccountsService accountsService, AccountsBulkService accountsBulkService,
+			IdempotencyCache idempotencyCache, AccountResponseCache accountResponseCache,
+			@Value("${accounts.batch.max-size:10000}") int maxBatchSize) {
 		this.accountsService = accountsService;
+		this.accountsBulkService = accountsBulkService;
+		this.idempotencyCache = idempotencyCache;
+		this.accountResponseCache = accountResponseCache;
+		this.maxBatchSize = maxBatchSize;
 	}
 
 	@PostMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -41,41 +86,223 @@ public class AccountsController {
 			this.accountsService.createAccount(account);
 		} catch (DuplicateAccountIdException daie) {
 			return new ResponseEntity<>(daie.getMessage(), HttpStatus.BAD_REQUEST);
+		} catch (InvalidAmountException iae) {
+			return new ResponseEntity<>(iae.getMessage(), HttpStatus.BAD_REQUEST);
+		} catch (UnsupportedCurrencyException uce) {
+			return new ResponseEntity<>(uce.getMessage(), HttpStatus.BAD_REQUEST);
 		}
 
 		return new ResponseEntity<>(HttpStatus.CREATED);
 	}
 
-	@GetMapping(path = "/{accountId}")
-	public Account getAccount(@PathVariable String accountId) {
-		log.info("Retrieving account for id {}", accountId);
+	/**
+	 * Creates the accounts streamed in the request body, one per line, without reading the whole
+	 * body first.
+	 */
+	@PostMapping(consumes = { AccountFormat.NDJSON_VALUE, AccountFormat.CSV_VALUE })
+	public ResponseEntity<Object> importAccounts(@RequestHeader(HttpHeaders.CONTENT_TYPE) MediaType contentType,
+			InputStream body) throws IOException {
+		AccountFormat format = AccountFormat.forMediaType(contentType);
+		AccountImportResult result = this.accountsBulkService.importAccounts(body, format);
+		return new ResponseEntity<>(result, HttpStatus.OK);
+	}
+
+	@GetMapping(produces = AccountFormat.NDJSON_VALUE)
+	public ResponseEntity<StreamingResponseBody> exportAccountsAsJson() {
+		return exportAccounts(AccountFormat.NDJSON);
+	}
+
+	@GetMapping(produces = AccountFormat.CSV_VALUE)
+	public ResponseEntity<StreamingResponseBody> exportAccountsAsCsv() {
+		return exportAccounts(AccountFormat.CSV);
+	}
+
+	public Account getAccount(String accountId) {
 		return this.accountsService.getAccount(accountId);
 	}
 
+	/**
+	 * Answers from the serialized body cached for the account's current version, or with 304 when the
+	 * client's {@code If-None-Match} already names that version.
+	 */
+	@GetMapping(path = "/{accountId}")
+	public ResponseEntity<byte[]> getAccount(@PathVariable String accountId,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		log.debug("Retrieving account for id {}", accountId);
+		Account account = this.accountsService.getAccount(accountId);
+		if (account == null) {
+			return ResponseEntity.ok().build();
+		}
+		Balance balance = account.currentBalance();
+		String etag = AccountResponseCache.etag(balance);
+		if (this.accountResponseCache.matches(ifNoneMatch, etag)) {
+			return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(etag).build();
+		}
+		return ResponseEntity.ok().eTag(etag).contentType(MediaType.APPLICATION_JSON_UTF8)
+				.body(this.accountResponseCache.body(account, balance));
+	}
+
+	/**
+	 * Pages through the transfers in and out of an account, oldest first. The {@code nextCursor} of a
+	 * page, passed back as {@code cursor}, continues after its last transfer.
+	 */
+	@GetMapping(path = "/{accountId}/transfers")
+	public ResponseEntity<Object> getTransfers(@PathVariable String accountId,
+			@RequestParam(required = false) Long since, @RequestParam(required = false) Long cursor,
+			@RequestParam(defaultValue = "100") int limit) {
+		log.debug("Retrieving transfers of account {}", accountId);
+		try {
+			TransferHistoryPage page = this.accountsService.transferHistory(accountId, since, cursor, limit);
+			return new ResponseEntity<>(page, HttpStatus.OK);
+		} catch (InvalidAccountIdException ex) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * Closes an account whose balance is zero; it stays readable but takes no more transfers. Not
+	 * found with a store that cannot close accounts.
+	 */
+	@PostMapping(path = "/{accountId}/close")
+	public ResponseEntity<Object> closeAccount(@PathVariable String accountId) {
+		if (!this.accountsService.canCloseAccounts()) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		log.info("Closing account {}", accountId);
+		try {
+			return new ResponseEntity<>(this.accountsService.closeAccount(accountId), HttpStatus.OK);
+		} catch (InvalidAccountIdException | AccountNotEmptyException ex) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	/**
+	 * Closes an account if needed and moves it out of memory to the cold store, where it stays readable.
+	 * Not found with a store that cannot archive accounts.
+	 */
+	@PostMapping(path = "/{accountId}/archive")
+	public ResponseEntity<Object> archiveAccount(@PathVariable String accountId) {
+		if (!this.accountsService.canArchiveAccounts()) {
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+		}
+		log.info("Archiving account {}", accountId);
+		try {
+			return new ResponseEntity<>(this.accountsService.archiveAccount(accountId), HttpStatus.OK);
+		} catch (InvalidAccountIdException | AccountNotEmptyException ex) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		}
+	}
+
+	public ResponseEntity<Object> transferMoney(String fromAccountId, String toAccountId, BigDecimal amount) {
+		return transferMoney(fromAccountId, toAccountId, amount, null);
+	}
+
+	public ResponseEntity<Object> transferMoney(String fromAccountId, String toAccountId, BigDecimal amount,
+			String idempotencyKey) {
+		return transferMoney(fromAccountId, toAccountId, amount, idempotencyKey, null);
+	}
+
 	@PostMapping(path = "transfer/{fromAccountId}/{toAccountId}/{amount}")
 	public ResponseEntity<Object> transferMoney(@PathVariable String fromAccountId, @PathVariable String toAccountId,
-			@PathVariable BigDecimal amount) {
-		log.info("Transfering Account Money from Account Id {} {} {}", fromAccountId, "to Account Id", toAccountId);
+			@PathVariable BigDecimal amount,
+			@RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+			@RequestAttribute(name = TransferAdmissionInterceptor.CLIENT_ATTRIBUTE, required = false) String client) {
+		log.debug("Transfering Account Money from Account Id {} to Account Id {}", fromAccountId, toAccountId);
 
-		try {
-			synchronized (this) {
-				Map<String, BigDecimal> balances = new ConcurrentHashMap<>();
-				BigDecimal newWithdrawnAccountBalance = this.accountsService.withdraw(fromAccountId, toAccountId,
-						amount);
-				BigDecimal newDepositedAccountBalance = this.accountsService.deposit(fromAccountId, toAccountId,
-						amount);
-
-				balances.put("newWithdrawnAccountBalance", newWithdrawnAccountBalance);
-				balances.put("newDepositedAccountBalance", newDepositedAccountBalance);
-				return new ResponseEntity<>(balances, HttpStatus.OK);
-			}
+		if (idempotencyKey == null) {
+			return applyTransfer(fromAccountId, toAccountId, amount);
+		}
+		long fingerprint = fingerprint(FINGERPRINT_SEED, fromAccountId, toAccountId, amount);
+		return idempotent("transfer:", client, idempotencyKey, fingerprint,
+				() -> applyTransfer(fromAccountId, toAccountId, amount));
+	}
+
+	public ResponseEntity<Object> transferMoneyBatch(List<TransferRequest> transfers, BatchMode mode,
+			String idempotencyKey) {
+		return transferMoneyBatch(transfers, mode, idempotencyKey, null);
+	}
+
+	@PostMapping(path = "transfers/batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Object> transferMoneyBatch(@RequestBody List<TransferRequest> transfers,
+			@RequestParam(defaultValue = "ALL_OR_NOTHING") BatchMode mode,
+			@RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey,
+			@RequestAttribute(name = TransferAdmissionInterceptor.CLIENT_ATTRIBUTE, required = false) String client) {
+		if (transfers == null || transfers.isEmpty() || transfers.size() > this.maxBatchSize) {
+			return new ResponseEntity<>("A batch must contain between 1 and " + this.maxBatchSize + " transfers",
+					HttpStatus.BAD_REQUEST);
+		}
+		if (log.isDebugEnabled()) {
+			log.debug("Transfering Account Money for a batch of {} transfers ({})", transfers.size(), mode);
+		}
+
+		if (idempotencyKey == null) {
+			return applyBatch(transfers, mode);
+		}
+		long fingerprint = fingerprint(FINGERPRINT_SEED, mode);
+		for (TransferRequest transfer : transfers) {
+			fingerprint = fingerprint(fingerprint, transfer.getFromAccountId(), transfer.getToAccountId(),
+					transfer.getAmount());
+		}
+		return idempotent("batch:", client, idempotencyKey, fingerprint, () -> applyBatch(transfers, mode));
+	}
+
+	// The body is written after the handler returns, straight from the repository to the response
+	private ResponseEntity<StreamingResponseBody> exportAccounts(AccountFormat format) {
+		log.info("Exporting all accounts as {}", format);
+		StreamingResponseBody body = output -> this.accountsBulkService.exportAccounts(output, format);
+		return ResponseEntity.ok().contentType(format.getMediaType()).body(body);
+	}
 
+	private ResponseEntity<Object> applyTransfer(String fromAccountId, String toAccountId, BigDecimal amount) {
+		try {
+			TransferResult result = this.accountsService.transfer(fromAccountId, toAccountId, amount);
+			return new ResponseEntity<>(result, HttpStatus.OK);
 		} catch (InvalidAccountIdException ex) {
 			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
 		} catch (LowAccountBalanceException ex) {
 			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		} catch (InvalidAmountException ex) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		} catch (UnsupportedCurrencyException ex) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
+		} catch (AccountClosedException ex) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.BAD_REQUEST);
 		}
 
 	}
 
+	// The client's name is length-prefixed so that no client can spell out another's keys
+	private ResponseEntity<Object> idempotent(String kind, String client, String idempotencyKey, long fingerprint,
+			Supplier<ResponseEntity<Object>> action) {
+		String scope = client == null ? "" : client;
+		try {
+			return this.idempotencyCache.execute(kind + scope.length() + ":" + scope + ":" + idempotencyKey, fingerprint,
+					action);
+		} catch (IdempotencyKeyReusedException ex) {
+			return new ResponseEntity<>(ex.getMessage(), HttpStatus.UNPROCESSABLE_ENTITY);
+		}
+	}
+
+	// FNV-1a over each part and a separator; equal amounts hash alike whatever their scale
+	private static long fingerprint(long hash, Object... parts) {
+		for (Object part : parts) {
+			String text = part instanceof BigDecimal ? ((BigDecimal) part).stripTrailingZeros().toPlainString()
+					: String.valueOf(part);
+			for (int i = 0; i < text.length(); i++) {
+				hash ^= text.charAt(i);
+				hash *= 0x100000001b3L;
+			}
+			hash ^= 0xffff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	private ResponseEntity<Object> applyBatch(List<TransferRequest> transfers, BatchMode mode) {
+		BatchTransferResult result = this.accountsService.transferBatch(transfers, mode);
+		HttpStatus status = mode == BatchMode.ALL_OR_NOTHING && !result.isFullyApplied() ? HttpStatus.BAD_REQUEST
+				: HttpStatus.OK;
+		return new ResponseEntity<>(result, status);
+	}
+
 }
@@ -0,0 +1,215 @@
+package com.db.awmd.challenge.web;
+
+import com.db.awmd.challenge.exception.IdempotencyKeyReusedException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers the response to each client-supplied {@code Idempotency-Key} so a retried request gets
+ * the original response instead of moving money again.
+ *
+ * <p>Keys are spread over independently locked stripes, each a bounded map kept in insertion order.
+ * Every entry lives for the same time, so insertion order is also expiry order: expired entries and,
+ * when a stripe is full, the oldest entries are dropped from the head of the map. A retry that
+ * arrives while the original request is still running waits for its result.
+ *
+ * <p>Each entry also keeps a fingerprint of the request that created it. A key sent again with a
+ * request of another fingerprint is refused with {@link IdempotencyKeyReusedException} rather than
+ * answered with a response to something else.
+ */
+@Component
+public class IdempotencyCache implements PublicMetrics {
+
+	private final Stripe[] stripes;
+
+	private final int stripeCapacity;
+
+	private final long ttlNanos;
+
+	private final LongAdder hits = new LongAdder();
+
+	private final LongAdder misses = new LongAdder();
+
+	private final LongAdder evictions = new LongAdder();
+
+	@Autowired
+	public IdempotencyCache(@Value("${idempotency.capacity:100000}") int capacity,
+			@Value("${idempotency.ttl-seconds:3600}") long ttlSeconds,
+			@Value("${idempotency.stripes:64}") int stripes) {
+		int count = 1;
+		while (count < stripes) {
+			count <<= 1;
+		}
+		this.stripes = new Stripe[count];
+		for (int i = 0; i < count; i++) {
+			this.stripes[i] = new Stripe();
+		}
+		this.stripeCapacity = Math.max(1, capacity / count);
+		this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+	}
+
+	/**
+	 * Runs {@code action} once per key, for callers that do not check what each key was used for.
+	 */
+	public <T> T execute(String key, Supplier<T> action) {
+		return execute(key, 0L, action);
+	}
+
+	/**
+	 * Returns the result recorded for {@code key}, or runs {@code action} and records its result
+	 * along with {@code fingerprint}. If {@code action} throws, nothing is recorded and a retry runs
+	 * it again.
+	 *
+	 * @throws IdempotencyKeyReusedException when {@code key} was recorded with another fingerprint
+	 */
+	public <T> T execute(String key, long fingerprint, Supplier<T> action) throws IdempotencyKeyReusedException {
+		Stripe stripe = this.stripes[spread(key.hashCode()) & (this.stripes.length - 1)];
+		CompletableFuture<Object> pending = new CompletableFuture<>();
+		CompletableFuture<Object> existing;
+		long now = System.nanoTime();
+		stripe.lock.lock();
+		try {
+			expire(stripe, now);
+			Entry entry = stripe.entries.get(key);
+			if (entry != null && entry.fingerprint != fingerprint) {
+				throw new IdempotencyKeyReusedException("Idempotency key was already used for a different request");
+			}
+			existing = entry == null ? null : entry.result;
+			if (existing == null) {
+				stripe.entries.put(key, new Entry(pending, fingerprint, now + this.ttlNanos));
+				if (stripe.entries.size() > this.stripeCapacity) {
+					Iterator<Entry> oldest = stripe.entries.values().iterator();
+					oldest.next();
+					oldest.remove();
+					this.evictions.increment();
+				}
+			}
+		} finally {
+			stripe.lock.unlock();
+		}
+		if (existing != null) {
+			this.hits.increment();
+			return await(existing);
+		}
+
+		this.misses.increment();
+		try {
+			T result = action.get();
+			pending.complete(result);
+			return result;
+		} catch (RuntimeException | Error ex) {
+			stripe.lock.lock();
+			try {
+				Entry entry = stripe.entries.get(key);
+				if (entry != null && entry.result == pending) {
+					stripe.entries.remove(key);
+				}
+			} finally {
+				stripe.lock.unlock();
+			}
+			pending.completeExceptionally(ex);
+			throw ex;
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(new Metric<>("gauge.idempotency.size", size()),
+				new Metric<>("counter.idempotency.hits", getHitCount()),
+				new Metric<>("counter.idempotency.misses", getMissCount()),
+				new Metric<>("counter.idempotency.evictions", getEvictionCount()));
+	}
+
+	public long getHitCount() {
+		return this.hits.sum();
+	}
+
+	public long getMissCount() {
+		return this.misses.sum();
+	}
+
+	public long getEvictionCount() {
+		return this.evictions.sum();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : this.stripes) {
+			stripe.lock.lock();
+			try {
+				size += stripe.entries.size();
+			} finally {
+				stripe.lock.unlock();
+			}
+		}
+		return size;
+	}
+
+	private void expire(Stripe stripe, long now) {
+		Iterator<Entry> entries = stripe.entries.values().iterator();
+		while (entries.hasNext()) {
+			if (entries.next().expiresAt - now > 0) {
+				return;
+			}
+			entries.remove();
+			this.evictions.increment();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T await(CompletableFuture<Object> result) {
+		try {
+			return (T) result.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the original request", ex);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw (Error) cause;
+		}
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+	private static final class Stripe {
+
+		// Not a monitor: a virtual thread queued behind another request frees its carrier
+		private final ReentrantLock lock = new ReentrantLock();
+
+		private final Map<String, Entry> entries = new LinkedHashMap<>();
+	}
+
+	private static final class Entry {
+
+		private final CompletableFuture<Object> result;
+
+		private final long fingerprint;
+
+		private final long expiresAt;
+
+		private Entry(CompletableFuture<Object> result, long fingerprint, long expiresAt) {
+			this.result = result;
+			this.fingerprint = fingerprint;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
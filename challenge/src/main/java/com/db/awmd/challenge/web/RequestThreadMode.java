@@ -0,0 +1,13 @@
+package com.db.awmd.challenge.web;
+
+/**
+ * Threads the embedded Tomcat runs requests on, chosen with {@code server.threads.mode}.
+ */
+public enum RequestThreadMode {
+
+  /** Tomcat's own bounded pool of platform threads. */
+  PLATFORM,
+
+  /** A new virtual thread per request; needs Java 21 or later at runtime. */
+  VIRTUAL
+}
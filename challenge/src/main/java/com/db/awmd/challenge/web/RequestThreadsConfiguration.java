@@ -0,0 +1,90 @@
+package com.db.awmd.challenge.web;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.embedded.EmbeddedServletContainerCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Chooses the threads the embedded Tomcat runs requests on. In {@link RequestThreadMode#VIRTUAL}
+ * every request gets its own virtual thread, so a transfer waiting on a lock, a journal flush or a
+ * full notification queue no longer holds one of a few hundred platform threads. Tomcat's NIO
+ * connector already keeps idle connections off threads; {@code server.threads.max-connections}
+ * sets how many it accepts at once.
+ *
+ * <p>On JDK 21 a virtual thread that blocks while holding a monitor, or while waiting to enter one,
+ * pins its carrier thread. So everything a transfer or account read can block on is a
+ * {@code java.util.concurrent} lock, condition or queue: the account locks, the journal's wait for
+ * fsync, the idempotency and response caches and the cold store. Two monitors remain, both off
+ * the transfer path: the latency histogram snapshot taken by a metrics scrape, which does no I/O,
+ * and the rates file refresh, which runs on its own scheduler thread.
+ *
+ * <p>The code is compiled for Java 8, so the virtual thread API is looked up reflectively and only
+ * needed when the mode is selected. On an older runtime the mode falls back to Tomcat's own pool
+ * with a warning, rather than keeping the application from starting.
+ */
+@Configuration
+@Slf4j
+public class RequestThreadsConfiguration {
+
+	@Bean
+	public EmbeddedServletContainerCustomizer requestThreadsCustomizer(
+			@Value("${server.threads.mode:PLATFORM}") RequestThreadMode mode,
+			@Value("${server.threads.max-connections:10000}") int maxConnections) {
+		return threadsCustomizer(mode, maxConnections, RequestThreadsConfiguration::newVirtualThreadExecutor);
+	}
+
+	/**
+	 * Builds the customizer with {@code virtualThreads} creating the executor for
+	 * {@link RequestThreadMode#VIRTUAL}; an {@link IllegalStateException} from it means virtual threads
+	 * are not available, and requests stay on Tomcat's pool.
+	 */
+	public static EmbeddedServletContainerCustomizer threadsCustomizer(RequestThreadMode mode, int maxConnections,
+			Supplier<ExecutorService> virtualThreads) {
+		return container -> {
+			if (!(container instanceof TomcatEmbeddedServletContainerFactory)) {
+				return;
+			}
+			((TomcatEmbeddedServletContainerFactory) container).addConnectorCustomizers(connector -> {
+				ProtocolHandler handler = connector.getProtocolHandler();
+				if (handler instanceof AbstractProtocol) {
+					AbstractProtocol<?> protocol = (AbstractProtocol<?>) handler;
+					protocol.setMaxConnections(maxConnections);
+					RequestThreadMode used = mode;
+					if (mode == RequestThreadMode.VIRTUAL) {
+						try {
+							protocol.setExecutor(virtualThreads.get());
+						} catch (IllegalStateException ex) {
+							log.warn("Virtual threads are not available, serving requests on platform threads: {}",
+									ex.getMessage());
+							used = RequestThreadMode.PLATFORM;
+						}
+					}
+					log.info("Serving requests on {} threads, up to {} connections", used, maxConnections);
+				}
+			});
+		};
+	}
+
+	static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+			builder = builderType.getMethod("name", String.class, long.class).invoke(builder, "http-virtual-", 0L);
+			ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, factory);
+		} catch (ReflectiveOperationException ex) {
+			throw new IllegalStateException("server.threads.mode=VIRTUAL needs Java 21 or later, running on "
+					+ System.getProperty("java.version"), ex);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package com.db.awmd.challenge.web;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets keyed by an arbitrary string, each refilled at {@code ratePerSecond} and holding at
+ * most {@code burst} tokens.
+ *
+ * <p>A bucket is a single {@link AtomicLong}: the time at which it would be full again, in
+ * {@link System#nanoTime()} units. Taking a token moves that time one refill interval later and is
+ * allowed while it stays within {@code burst} intervals of now, so a check is one read and one
+ * compare-and-set with no lock and no timer. A bucket whose full time has passed holds no state worth
+ * keeping; when more than {@code maxKeys} buckets exist, full ones are swept out, at most once per
+ * second. A key arriving while the map is still at capacity evicts the fullest of a few buckets
+ * rather than share one bucket with every other newcomer: a caller rotating through fresh keys would
+ * otherwise drain that shared bucket and lock out every client seen for the first time.
+ */
+public class TokenBucketLimiter {
+
+	private static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	// Buckets looked at to pick one to evict when the map is at capacity
+	private static final int EVICTION_SAMPLE = 8;
+
+	private final ConcurrentMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+	private final long intervalNanos;
+
+	private final long toleranceNanos;
+
+	private final int maxKeys;
+
+	private volatile long nextSweep = Long.MIN_VALUE;
+
+	public TokenBucketLimiter(int ratePerSecond, int burst, int maxKeys) {
+		this.intervalNanos = Math.max(1, TimeUnit.SECONDS.toNanos(1) / ratePerSecond);
+		this.toleranceNanos = this.intervalNanos * Math.max(1, burst);
+		this.maxKeys = maxKeys;
+	}
+
+	/**
+	 * Takes a token from the bucket of {@code key}. Returns 0 when one was available, otherwise the
+	 * nanoseconds until the next one is and takes nothing.
+	 */
+	public long tryAcquire(String key, long nowNanos) {
+		AtomicLong bucket = bucket(key, nowNanos);
+		while (true) {
+			long full = bucket.get();
+			long next = Math.max(full, nowNanos) + this.intervalNanos;
+			long wait = next - nowNanos - this.toleranceNanos;
+			if (wait > 0) {
+				return wait;
+			}
+			if (bucket.compareAndSet(full, next)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Puts back a token {@link #tryAcquire(String, long)} took from the bucket of {@code key}, for a
+	 * request refused further on. Does nothing once the bucket is full again or has been dropped.
+	 */
+	public void release(String key, long nowNanos) {
+		AtomicLong bucket = this.buckets.get(key);
+		if (bucket == null) {
+			return;
+		}
+		while (true) {
+			long full = bucket.get();
+			if (full - nowNanos <= 0 || bucket.compareAndSet(full, full - this.intervalNanos)) {
+				return;
+			}
+		}
+	}
+
+	public int size() {
+		return this.buckets.size();
+	}
+
+	private AtomicLong bucket(String key, long nowNanos) {
+		AtomicLong bucket = this.buckets.get(key);
+		if (bucket != null) {
+			return bucket;
+		}
+		if (this.buckets.size() >= this.maxKeys) {
+			sweep(nowNanos);
+			if (this.buckets.size() >= this.maxKeys) {
+				evict();
+			}
+		}
+		return this.buckets.computeIfAbsent(key, k -> new AtomicLong(Long.MIN_VALUE));
+	}
+
+	// A token taken from a bucket just as it is swept is forgotten, so that key gets a full bucket back
+	private void sweep(long nowNanos) {
+		if (nowNanos < this.nextSweep) {
+			return;
+		}
+		this.nextSweep = nowNanos + SWEEP_INTERVAL_NANOS;
+		this.buckets.values().removeIf(bucket -> bucket.get() <= nowNanos);
+	}
+
+	// The bucket that would be full soonest loses the least by being forgotten
+	private void evict() {
+		String victim = null;
+		long victimFull = Long.MAX_VALUE;
+		int sampled = 0;
+		for (Map.Entry<String, AtomicLong> entry : this.buckets.entrySet()) {
+			long full = entry.getValue().get();
+			if (victim == null || full < victimFull) {
+				victim = entry.getKey();
+				victimFull = full;
+			}
+			if (++sampled == EVICTION_SAMPLE) {
+				break;
+			}
+		}
+		if (victim != null) {
+			this.buckets.remove(victim);
+		}
+	}
+}
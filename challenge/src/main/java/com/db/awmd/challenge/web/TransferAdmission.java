@@ -0,0 +1,144 @@
+package com.db.awmd.challenge.web;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Admission limits shared by every endpoint that moves money, so a client is held to the same
+ * budget whether it comes in over REST ({@link TransferAdmissionInterceptor}) or over the binary
+ * endpoint. A transfer is refused when its client or its source account has used up its token
+ * bucket, or when {@code admission.max-concurrent-transfers} transfers are already running. A rate
+ * of 0 turns that limit off, as does a concurrency limit of 0. Tokens taken for a transfer that is
+ * then refused by a later check are given back, so a refusal costs the caller nothing.
+ *
+ * <p>Every admitted transfer must be followed by one {@link #release()} once it is done.
+ */
+@Component
+public class TransferAdmission implements PublicMetrics {
+
+	private final TokenBucketLimiter clientLimiter;
+
+	private final TokenBucketLimiter accountLimiter;
+
+	private final int maxConcurrent;
+
+	private final AtomicInteger inFlight = new AtomicInteger();
+
+	private final LongAdder clientRejections = new LongAdder();
+
+	private final LongAdder accountRejections = new LongAdder();
+
+	private final LongAdder concurrencyRejections = new LongAdder();
+
+	/**
+	 * Admits every transfer.
+	 */
+	public TransferAdmission() {
+		this(0, 0, 0, 0, 0, 0);
+	}
+
+	@Autowired
+	public TransferAdmission(@Value("${admission.client.rate-per-second:10000}") int clientRate,
+			@Value("${admission.client.burst:20000}") int clientBurst,
+			@Value("${admission.account.rate-per-second:1000}") int accountRate,
+			@Value("${admission.account.burst:2000}") int accountBurst,
+			@Value("${admission.max-keys:100000}") int maxKeys,
+			@Value("${admission.max-concurrent-transfers:256}") int maxConcurrent) {
+		this.clientLimiter = clientRate > 0 ? new TokenBucketLimiter(clientRate, clientBurst, maxKeys) : null;
+		this.accountLimiter = accountRate > 0 ? new TokenBucketLimiter(accountRate, accountBurst, maxKeys) : null;
+		this.maxConcurrent = maxConcurrent;
+	}
+
+	/**
+	 * Takes a token for {@code client} and, when it is known, for {@code fromAccountId}, then a slot
+	 * among the running transfers. Returns {@code null} when the transfer may go ahead, in which case
+	 * the caller owes a {@link #release()}; otherwise why it may not and when to try again.
+	 */
+	public Rejection tryAdmit(String client, String fromAccountId) {
+		long now = System.nanoTime();
+		if (this.clientLimiter != null) {
+			long wait = this.clientLimiter.tryAcquire(client, now);
+			if (wait > 0) {
+				this.clientRejections.increment();
+				return new Rejection(wait, "Too many transfers from this client");
+			}
+		}
+		if (this.accountLimiter != null && fromAccountId != null) {
+			long wait = this.accountLimiter.tryAcquire(fromAccountId, now);
+			if (wait > 0) {
+				releaseClient(client, now);
+				this.accountRejections.increment();
+				return new Rejection(wait, "Too many transfers from account " + fromAccountId);
+			}
+		}
+		if (this.maxConcurrent > 0 && this.inFlight.incrementAndGet() > this.maxConcurrent) {
+			this.inFlight.decrementAndGet();
+			releaseClient(client, now);
+			if (this.accountLimiter != null && fromAccountId != null) {
+				this.accountLimiter.release(fromAccountId, now);
+			}
+			this.concurrencyRejections.increment();
+			return new Rejection(TimeUnit.SECONDS.toNanos(1), "Too many transfers in progress");
+		}
+		return null;
+	}
+
+	/**
+	 * Gives back the slot of a transfer {@link #tryAdmit(String, String)} let through.
+	 */
+	public void release() {
+		if (this.maxConcurrent > 0) {
+			this.inFlight.decrementAndGet();
+		}
+	}
+
+	private void releaseClient(String client, long now) {
+		if (this.clientLimiter != null) {
+			this.clientLimiter.release(client, now);
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(new Metric<>("gauge.transfers.in-flight", getInFlight()),
+				new Metric<>("counter.transfers.throttled.client", getClientRejectionCount()),
+				new Metric<>("counter.transfers.throttled.account", getAccountRejectionCount()),
+				new Metric<>("counter.transfers.throttled.concurrency", getConcurrencyRejectionCount()));
+	}
+
+	public int getInFlight() {
+		return this.inFlight.get();
+	}
+
+	public long getClientRejectionCount() {
+		return this.clientRejections.sum();
+	}
+
+	public long getAccountRejectionCount() {
+		return this.accountRejections.sum();
+	}
+
+	public long getConcurrencyRejectionCount() {
+		return this.concurrencyRejections.sum();
+	}
+
+	/**
+	 * Why a transfer was refused, and how long until the limit it hit lets one through again.
+	 */
+	@Data
+	public static class Rejection {
+
+		private final long waitNanos;
+
+		private final String message;
+	}
+}
@@ -0,0 +1,24 @@
+package com.db.awmd.challenge.web;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurerAdapter;
+
+/**
+ * Puts {@link TransferAdmissionInterceptor} in front of the endpoints that move money.
+ */
+@Configuration
+public class TransferAdmissionConfiguration extends WebMvcConfigurerAdapter {
+
+	private final TransferAdmissionInterceptor transferAdmissionInterceptor;
+
+	public TransferAdmissionConfiguration(TransferAdmissionInterceptor transferAdmissionInterceptor) {
+		this.transferAdmissionInterceptor = transferAdmissionInterceptor;
+	}
+
+	@Override
+	public void addInterceptors(InterceptorRegistry registry) {
+		registry.addInterceptor(this.transferAdmissionInterceptor).addPathPatterns("/v1/accounts/transfer/**",
+				"/v1/accounts/transfers/batch");
+	}
+}
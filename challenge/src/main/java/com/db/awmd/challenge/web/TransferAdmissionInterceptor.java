@@ -0,0 +1,119 @@
+package com.db.awmd.challenge.web;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.servlet.handler.HandlerInterceptorAdapter;
+
+/**
+ * Admission control in front of the transfer endpoints. A transfer is answered with 429 Too Many
+ * Requests, before it reaches {@link AccountsController}, when {@link TransferAdmission} refuses it:
+ * its client or its source account has used up its token bucket, or too many transfers are already
+ * running. Shedding at a fixed concurrency keeps the transfers that are admitted fast instead of
+ * letting every request queue behind the same locks.
+ *
+ * <p>Clients are identified by remote address. The {@code admission.client-header} header is only
+ * believed on requests arriving from one of the {@code admission.trusted-proxies} addresses, which
+ * are expected to set it themselves; anyone else could pick a fresh value per request and never run
+ * out of tokens. The client is left in the {@link #CLIENT_ATTRIBUTE} request attribute for the
+ * handler. A batch is charged one token to its client; its source accounts are not known until the
+ * body is read.
+ */
+@Component
+@Slf4j
+public class TransferAdmissionInterceptor extends HandlerInterceptorAdapter {
+
+	/** Request attribute holding the client a transfer was admitted for. */
+	public static final String CLIENT_ATTRIBUTE = "com.db.awmd.challenge.web.TransferAdmissionInterceptor.CLIENT";
+
+	private static final String ADMITTED = TransferAdmissionInterceptor.class.getName() + ".ADMITTED";
+
+	private final TransferAdmission admission;
+
+	private final String clientHeader;
+
+	private final Set<String> trustedProxies;
+
+	public TransferAdmissionInterceptor(int clientRate, int clientBurst, int accountRate, int accountBurst, int maxKeys,
+			int maxConcurrent, String clientHeader, String... trustedProxies) {
+		this(new TransferAdmission(clientRate, clientBurst, accountRate, accountBurst, maxKeys, maxConcurrent),
+				clientHeader, trustedProxies);
+	}
+
+	@Autowired
+	public TransferAdmissionInterceptor(TransferAdmission admission,
+			@Value("${admission.client-header:X-Client-Id}") String clientHeader,
+			@Value("${admission.trusted-proxies:}") String[] trustedProxies) {
+		this.admission = admission;
+		this.clientHeader = clientHeader;
+		this.trustedProxies = new HashSet<>(Arrays.asList(trustedProxies));
+	}
+
+	@Override
+	public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+			throws IOException {
+		String client = client(request);
+		request.setAttribute(CLIENT_ATTRIBUTE, client);
+		TransferAdmission.Rejection rejection = this.admission.tryAdmit(client, fromAccountId(request));
+		if (rejection != null) {
+			return reject(response, rejection);
+		}
+		request.setAttribute(ADMITTED, Boolean.TRUE);
+		return true;
+	}
+
+	@Override
+	public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+			Exception ex) {
+		if (request.getAttribute(ADMITTED) != null) {
+			request.removeAttribute(ADMITTED);
+			this.admission.release();
+		}
+	}
+
+	public TransferAdmission getAdmission() {
+		return this.admission;
+	}
+
+	private String client(HttpServletRequest request) {
+		String remoteAddress = request.getRemoteAddr();
+		if (!this.trustedProxies.contains(remoteAddress)) {
+			return remoteAddress;
+		}
+		String client = request.getHeader(this.clientHeader);
+		return client != null ? client : remoteAddress;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static String fromAccountId(HttpServletRequest request) {
+		Map<String, String> variables = (Map<String, String>) request
+				.getAttribute(HandlerMapping.URI_TEMPLATE_VARIABLES_ATTRIBUTE);
+		return variables == null ? null : variables.get("fromAccountId");
+	}
+
+	private static boolean reject(HttpServletResponse response, TransferAdmission.Rejection rejection)
+			throws IOException {
+		log.debug("Rejected a transfer: {}", rejection.getMessage());
+		response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+		// Whole seconds, rounded up
+		long retryAfter = Math.max(1,
+				TimeUnit.NANOSECONDS.toSeconds(rejection.getWaitNanos() + TimeUnit.SECONDS.toNanos(1) - 1));
+		response.setHeader(HttpHeaders.RETRY_AFTER, Long.toString(retryAfter));
+		response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+		response.getWriter().write(rejection.getMessage());
+		return false;
+	}
+}
@@ -0,0 +1,169 @@
+package com.db.awmd.challenge.wire;
+
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.TransferRequest;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Frame layout of the binary transfer endpoint served by {@link BinaryTransferServer}. All numbers
+ * are big-endian.
+ *
+ * <p>Every frame starts with an {@code int} length counting the bytes that follow it, then one
+ * type or status byte and the {@code int} correlation id the client chose for the request, which
+ * the response echoes. A client may send any number of requests without waiting; responses come
+ * back in request order.
+ *
+ * <pre>
+ * request   length:int type:byte correlationId:int body
+ *   TRANSFER  from:id to:id amount:amount
+ *   BATCH     mode:byte count:short count * (from:id to:id amount:amount)
+ * response  length:int status:byte correlationId:int body
+ *   OK        TRANSFER: withdrawnBalance:amount depositedBalance:amount
+ *             BATCH:    applied:int rejected:int count * itemStatus:byte
+ *   otherwise message:short-length UTF-8
+ *
+ * id        length:byte UTF-8 bytes (1 to 255)
+ * amount    scale:byte unscaledValue:long
+ * </pre>
+ */
+public final class BinaryTransferProtocol {
+
+	public static final byte TRANSFER = 1;
+
+	public static final byte BATCH = 2;
+
+	public static final byte OK = 0;
+
+	public static final byte INVALID_ACCOUNT = 1;
+
+	public static final byte LOW_BALANCE = 2;
+
+	public static final byte INVALID_AMOUNT = 3;
+
+	public static final byte UNSUPPORTED_CURRENCY = 4;
+
+	public static final byte BAD_FRAME = 5;
+
+	public static final byte ERROR = 6;
+
+	public static final byte ACCOUNT_CLOSED = 7;
+
+	/** Refused by the admission limits; the frame was not applied and may be sent again later. */
+	public static final byte THROTTLED = 8;
+
+	public static final byte ITEM_APPLIED = 0;
+
+	public static final byte ITEM_REJECTED = 1;
+
+	public static final byte ITEM_NOT_APPLIED = 2;
+
+	public static final byte MODE_ALL_OR_NOTHING = 0;
+
+	public static final byte MODE_BEST_EFFORT = 1;
+
+	/** Length, status and correlation id. */
+	public static final int HEADER_SIZE = 9;
+
+	public static final int MAX_ID_LENGTH = 255;
+
+	/** Longest error message written; longer ones are cut short. */
+	public static final int MAX_MESSAGE_LENGTH = 256;
+
+	private BinaryTransferProtocol() {
+	}
+
+	/**
+	 * Appends a transfer request frame.
+	 */
+	public static void putTransfer(ByteBuffer out, int correlationId, String fromAccountId, String toAccountId,
+			BigDecimal amount) {
+		int start = startFrame(out, TRANSFER, correlationId);
+		putId(out, fromAccountId);
+		putId(out, toAccountId);
+		putAmount(out, amount);
+		endFrame(out, start);
+	}
+
+	/**
+	 * Appends a batch request frame.
+	 */
+	public static void putBatch(ByteBuffer out, int correlationId, BatchMode mode, List<TransferRequest> transfers) {
+		int start = startFrame(out, BATCH, correlationId);
+		out.put(mode == BatchMode.BEST_EFFORT ? MODE_BEST_EFFORT : MODE_ALL_OR_NOTHING);
+		out.putShort((short) transfers.size());
+		for (TransferRequest transfer : transfers) {
+			putId(out, transfer.getFromAccountId());
+			putId(out, transfer.getToAccountId());
+			putAmount(out, transfer.getAmount());
+		}
+		endFrame(out, start);
+	}
+
+	/**
+	 * Appends an error response frame carrying {@code message}.
+	 */
+	public static void putError(ByteBuffer out, byte status, int correlationId, String message) {
+		int start = startFrame(out, status, correlationId);
+		byte[] bytes = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+		int length = Math.min(bytes.length, MAX_MESSAGE_LENGTH);
+		out.putShort((short) length);
+		out.put(bytes, 0, length);
+		endFrame(out, start);
+	}
+
+	/**
+	 * Starts a frame with a placeholder length, returning where it starts for
+	 * {@link #endFrame(ByteBuffer, int)}.
+	 */
+	public static int startFrame(ByteBuffer out, byte typeOrStatus, int correlationId) {
+		int start = out.position();
+		out.putInt(0);
+		out.put(typeOrStatus);
+		out.putInt(correlationId);
+		return start;
+	}
+
+	public static void endFrame(ByteBuffer out, int start) {
+		out.putInt(start, out.position() - start - 4);
+	}
+
+	public static void putId(ByteBuffer out, String accountId) {
+		byte[] bytes = accountId.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length == 0 || bytes.length > MAX_ID_LENGTH) {
+			throw new IllegalArgumentException("Account ids must be 1 to " + MAX_ID_LENGTH + " bytes");
+		}
+		out.put((byte) bytes.length);
+		out.put(bytes);
+	}
+
+	/**
+	 * Reads an account id, using {@code scratch} (at least {@link #MAX_ID_LENGTH} bytes) to hold
+	 * its bytes.
+	 */
+	public static String getId(ByteBuffer in, byte[] scratch) {
+		int length = in.get() & 0xFF;
+		in.get(scratch, 0, length);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes {@code amount} as its scale and unscaled value. An amount whose scale does not fit in a
+	 * byte, or whose unscaled value does not fit in a {@code long}, cannot be written.
+	 */
+	public static void putAmount(ByteBuffer out, BigDecimal amount) {
+		if (amount.scale() < Byte.MIN_VALUE || amount.scale() > Byte.MAX_VALUE
+				|| amount.unscaledValue().bitLength() > 63) {
+			throw new IllegalArgumentException("Amount " + amount + " does not fit the binary protocol");
+		}
+		out.put((byte) amount.scale());
+		out.putLong(amount.unscaledValue().longValue());
+	}
+
+	public static BigDecimal getAmount(ByteBuffer in) {
+		int scale = in.get();
+		return BigDecimal.valueOf(in.getLong(), scale);
+	}
+}
@@ -0,0 +1,517 @@
+package com.db.awmd.challenge.wire;
+
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.AccountClosedException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.exception.UnsupportedCurrencyException;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.web.TransferAdmission;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Binary transfer endpoint on a plain TCP port, for gateways that would otherwise spend more time
+ * producing and parsing JSON and request paths than the transfer itself takes. Frames are laid out
+ * as described in {@link BinaryTransferProtocol}; every transfer and batch is applied through
+ * {@link AccountsService}, exactly as the REST endpoints apply them.
+ *
+ * <p>Connections are spread over {@code binary.io-threads} selector threads. Each connection owns
+ * one read and one write buffer for its lifetime: every complete frame that has arrived is applied
+ * in order and its response appended to the write buffer, which goes out in a single write once the
+ * frames read so far are answered. A client therefore pipelines by writing many frames before
+ * reading. While a connection's responses cannot be written, it is not read from either.
+ *
+ * <p>Transfers run on the selector thread, so one waiting for a contended account delays the other
+ * connections on that thread.
+ *
+ * <p>Every frame passes the same {@link TransferAdmission} limits as the REST endpoints, with the
+ * client identified by its remote address; a refused frame is answered with
+ * {@link BinaryTransferProtocol#THROTTLED}. A batch is charged one token to its client, as over
+ * REST.
+ */
+@Component
+@ConditionalOnProperty(prefix = "binary", name = "enabled", havingValue = "true")
+@Slf4j
+public class BinaryTransferServer implements PublicMetrics {
+
+	private static final int RESPONSE_ROOM = BinaryTransferProtocol.HEADER_SIZE + 2
+			+ BinaryTransferProtocol.MAX_MESSAGE_LENGTH;
+
+	private final AccountsService accountsService;
+
+	private final TransferAdmission admission;
+
+	private final int port;
+
+	private final int ioThreads;
+
+	private final int maxFrameSize;
+
+	private final int maxBatchSize;
+
+	private final List<IoLoop> loops = new ArrayList<>();
+
+	private final AtomicInteger nextLoop = new AtomicInteger();
+
+	private final AtomicInteger connections = new AtomicInteger();
+
+	private final LongAdder frames = new LongAdder();
+
+	private final LongAdder badFrames = new LongAdder();
+
+	private ServerSocketChannel serverChannel;
+
+	private Thread acceptor;
+
+	private volatile boolean running;
+
+	public BinaryTransferServer(AccountsService accountsService, int port, int ioThreads, int maxFrameSize,
+			int maxBatchSize) {
+		this(accountsService, new TransferAdmission(), port, ioThreads, maxFrameSize, maxBatchSize);
+	}
+
+	@Autowired
+	public BinaryTransferServer(AccountsService accountsService, TransferAdmission admission,
+			@Value("${binary.port:8091}") int port,
+			@Value("${binary.io-threads:0}") int ioThreads,
+			@Value("${binary.max-frame-size:65536}") int maxFrameSize,
+			@Value("${accounts.batch.max-size:10000}") int maxBatchSize) {
+		this.accountsService = accountsService;
+		this.admission = admission;
+		this.port = port;
+		this.ioThreads = ioThreads > 0 ? ioThreads : Runtime.getRuntime().availableProcessors();
+		this.maxFrameSize = maxFrameSize;
+		this.maxBatchSize = Math.min(maxBatchSize, Short.MAX_VALUE);
+	}
+
+	@PostConstruct
+	public void start() throws IOException {
+		this.running = true;
+		for (int i = 0; i < this.ioThreads; i++) {
+			IoLoop loop = new IoLoop(Selector.open());
+			loop.thread = new Thread(loop, "binary-io-" + i);
+			loop.thread.setDaemon(true);
+			loop.thread.start();
+			this.loops.add(loop);
+		}
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(this.port));
+		this.acceptor = new Thread(this::acceptLoop, "binary-accept");
+		this.acceptor.setDaemon(true);
+		this.acceptor.start();
+		log.info("Binary transfer endpoint listening on port {}", getPort());
+	}
+
+	@PreDestroy
+	public void stop() throws IOException, InterruptedException {
+		this.running = false;
+		this.serverChannel.close();
+		this.acceptor.join(TimeUnit.SECONDS.toMillis(5));
+		for (IoLoop loop : this.loops) {
+			loop.selector.wakeup();
+			loop.thread.join(TimeUnit.SECONDS.toMillis(5));
+		}
+	}
+
+	/**
+	 * Returns the port the endpoint listens on, which is chosen by the system when
+	 * {@code binary.port} is 0.
+	 */
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(new Metric<>("gauge.binary.connections", getConnectionCount()),
+				new Metric<>("counter.binary.frames", getFrameCount()),
+				new Metric<>("counter.binary.bad-frames", getBadFrameCount()));
+	}
+
+	public int getPort() {
+		return this.serverChannel.socket().getLocalPort();
+	}
+
+	public int getConnectionCount() {
+		return this.connections.get();
+	}
+
+	public long getFrameCount() {
+		return this.frames.sum();
+	}
+
+	public long getBadFrameCount() {
+		return this.badFrames.sum();
+	}
+
+	private void acceptLoop() {
+		while (this.running) {
+			try {
+				SocketChannel channel = this.serverChannel.accept();
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+				IoLoop loop = this.loops.get(Math.floorMod(this.nextLoop.getAndIncrement(), this.loops.size()));
+				loop.accepted.add(channel);
+				loop.selector.wakeup();
+			} catch (ClosedChannelException ex) {
+				return;
+			} catch (IOException ex) {
+				log.warn("Unable to accept a binary connection", ex);
+			}
+		}
+	}
+
+	/**
+	 * One selector thread and the connections it serves.
+	 */
+	private final class IoLoop implements Runnable {
+
+		private final Selector selector;
+
+		private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+
+		private Thread thread;
+
+		private IoLoop(Selector selector) {
+			this.selector = selector;
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (running) {
+					this.selector.select();
+					register();
+					Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+					while (keys.hasNext()) {
+						SelectionKey key = keys.next();
+						keys.remove();
+						Connection connection = (Connection) key.attachment();
+						try {
+							if (key.isReadable()) {
+								connection.read();
+							}
+							if (key.isValid() && key.isWritable()) {
+								connection.resume();
+							}
+						} catch (IOException ex) {
+							log.debug("Closing binary connection", ex);
+							connection.close();
+						}
+					}
+				}
+			} catch (IOException ex) {
+				log.error("Binary transfer selector failed", ex);
+			} finally {
+				for (SelectionKey key : this.selector.keys()) {
+					((Connection) key.attachment()).close();
+				}
+				try {
+					this.selector.close();
+				} catch (IOException ex) {
+					log.debug("Unable to close selector", ex);
+				}
+			}
+		}
+
+		private void register() {
+			SocketChannel channel;
+			while ((channel = this.accepted.poll()) != null) {
+				try {
+					Connection connection = new Connection(channel);
+					connection.key = channel.register(this.selector, SelectionKey.OP_READ, connection);
+					connections.incrementAndGet();
+				} catch (IOException ex) {
+					log.warn("Unable to register a binary connection", ex);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A client connection with its reusable buffers. Only touched by its selector thread.
+	 */
+	private final class Connection {
+
+		private final SocketChannel channel;
+
+		private final String client;
+
+		// Filled by reads, drained by apply(); kept in write mode between the two
+		private final ByteBuffer in = ByteBuffer.allocateDirect(maxFrameSize + 4);
+
+		private final ByteBuffer out = ByteBuffer.allocateDirect(2 * (maxFrameSize + RESPONSE_ROOM));
+
+		private final byte[] idBytes = new byte[BinaryTransferProtocol.MAX_ID_LENGTH];
+
+		private SelectionKey key;
+
+		private boolean closeAfterFlush;
+
+		private Connection(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			// The same key the REST endpoints fall back to, so one client shares one bucket across both
+			this.client = ((InetSocketAddress) channel.getRemoteAddress()).getAddress().getHostAddress();
+		}
+
+		private void read() throws IOException {
+			if (this.channel.read(this.in) < 0) {
+				close();
+				return;
+			}
+			apply();
+		}
+
+		/**
+		 * Called once the socket takes writes again: sends what is left and goes on with the frames
+		 * that were waiting.
+		 */
+		private void resume() throws IOException {
+			if (flush()) {
+				apply();
+			}
+		}
+
+		private void apply() throws IOException {
+			this.in.flip();
+			try {
+				while (!this.closeAfterFlush && this.in.remaining() >= 4) {
+					// Every response fits in the length of its request plus an error message
+					if (this.out.remaining() < maxFrameSize + RESPONSE_ROOM && !flush()) {
+						break;
+					}
+					int length = this.in.getInt(this.in.position());
+					if (length < 5 || length > maxFrameSize) {
+						badFrames.increment();
+						BinaryTransferProtocol.putError(this.out, BinaryTransferProtocol.BAD_FRAME, 0,
+								"Frame length must be between 5 and " + maxFrameSize);
+						this.closeAfterFlush = true;
+						break;
+					}
+					if (this.in.remaining() < 4 + length) {
+						break;
+					}
+					applyFrame(length);
+				}
+			} finally {
+				this.in.compact();
+			}
+			if (flush() && this.closeAfterFlush) {
+				close();
+			}
+		}
+
+		private void applyFrame(int length) {
+			frames.increment();
+			int end = this.in.position() + 4 + length;
+			int limit = this.in.limit();
+			this.in.position(this.in.position() + 4);
+			this.in.limit(end);
+			int correlationId = 0;
+			int responseStart = this.out.position();
+			try {
+				byte type = this.in.get();
+				correlationId = this.in.getInt();
+				if (type == BinaryTransferProtocol.TRANSFER) {
+					applyTransfer(correlationId);
+				} else if (type == BinaryTransferProtocol.BATCH) {
+					applyBatch(correlationId);
+				} else {
+					badFrame(responseStart, correlationId, "Unknown frame type " + type);
+				}
+			} catch (BufferUnderflowException | IllegalArgumentException ex) {
+				badFrame(responseStart, correlationId, "Malformed frame");
+			} finally {
+				this.in.limit(limit);
+				this.in.position(end);
+			}
+		}
+
+		private void applyTransfer(int correlationId) {
+			String fromAccountId = BinaryTransferProtocol.getId(this.in, this.idBytes);
+			String toAccountId = BinaryTransferProtocol.getId(this.in, this.idBytes);
+			BigDecimal amount = BinaryTransferProtocol.getAmount(this.in);
+			if (this.in.hasRemaining()) {
+				throw new IllegalArgumentException("Trailing bytes");
+			}
+			if (throttled(correlationId, fromAccountId)) {
+				return;
+			}
+			TransferResult result;
+			try {
+				result = accountsService.transfer(fromAccountId, toAccountId, amount);
+			} catch (InvalidAccountIdException ex) {
+				error(BinaryTransferProtocol.INVALID_ACCOUNT, correlationId, ex);
+				return;
+			} catch (LowAccountBalanceException ex) {
+				error(BinaryTransferProtocol.LOW_BALANCE, correlationId, ex);
+				return;
+			} catch (InvalidAmountException ex) {
+				error(BinaryTransferProtocol.INVALID_AMOUNT, correlationId, ex);
+				return;
+			} catch (UnsupportedCurrencyException ex) {
+				error(BinaryTransferProtocol.UNSUPPORTED_CURRENCY, correlationId, ex);
+				return;
+			} catch (AccountClosedException ex) {
+				error(BinaryTransferProtocol.ACCOUNT_CLOSED, correlationId, ex);
+				return;
+			} catch (RuntimeException ex) {
+				log.error("Binary transfer from {} to {} failed", fromAccountId, toAccountId, ex);
+				error(BinaryTransferProtocol.ERROR, correlationId, ex);
+				return;
+			} finally {
+				admission.release();
+			}
+			int start = BinaryTransferProtocol.startFrame(this.out, BinaryTransferProtocol.OK, correlationId);
+			try {
+				BinaryTransferProtocol.putAmount(this.out, result.getNewWithdrawnAccountBalance());
+				BinaryTransferProtocol.putAmount(this.out, result.getNewDepositedAccountBalance());
+				BinaryTransferProtocol.endFrame(this.out, start);
+			} catch (IllegalArgumentException ex) {
+				// Applied, but a balance is too large to describe
+				this.out.position(start);
+				error(BinaryTransferProtocol.ERROR, correlationId, ex);
+			}
+		}
+
+		private void applyBatch(int correlationId) {
+			byte mode = this.in.get();
+			int count = this.in.getShort();
+			if (mode != BinaryTransferProtocol.MODE_ALL_OR_NOTHING && mode != BinaryTransferProtocol.MODE_BEST_EFFORT) {
+				throw new IllegalArgumentException("Batch mode " + mode);
+			}
+			if (count < 1 || count > maxBatchSize) {
+				throw new IllegalArgumentException("Batch size " + count);
+			}
+			List<TransferRequest> transfers = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				String fromAccountId = BinaryTransferProtocol.getId(this.in, this.idBytes);
+				String toAccountId = BinaryTransferProtocol.getId(this.in, this.idBytes);
+				transfers.add(new TransferRequest(fromAccountId, toAccountId, BinaryTransferProtocol.getAmount(this.in)));
+			}
+			if (this.in.hasRemaining()) {
+				throw new IllegalArgumentException("Trailing bytes");
+			}
+			if (throttled(correlationId, null)) {
+				return;
+			}
+			BatchTransferResult result;
+			try {
+				result = accountsService.transferBatch(transfers,
+						mode == BinaryTransferProtocol.MODE_BEST_EFFORT ? BatchMode.BEST_EFFORT : BatchMode.ALL_OR_NOTHING);
+			} catch (RuntimeException ex) {
+				log.error("Binary batch of {} transfers failed", count, ex);
+				error(BinaryTransferProtocol.ERROR, correlationId, ex);
+				return;
+			} finally {
+				admission.release();
+			}
+			int start = BinaryTransferProtocol.startFrame(this.out, BinaryTransferProtocol.OK, correlationId);
+			this.out.putInt(result.getApplied());
+			this.out.putInt(result.getRejected());
+			for (BatchTransferItemResult item : result.getResults()) {
+				this.out.put(itemStatus(item.getStatus()));
+			}
+			BinaryTransferProtocol.endFrame(this.out, start);
+		}
+
+		/**
+		 * Asks for admission, answering the frame with THROTTLED when it is refused. Returns whether it
+		 * was; otherwise the caller owes a release.
+		 */
+		private boolean throttled(int correlationId, String fromAccountId) {
+			TransferAdmission.Rejection rejection = admission.tryAdmit(this.client, fromAccountId);
+			if (rejection == null) {
+				return false;
+			}
+			BinaryTransferProtocol.putError(this.out, BinaryTransferProtocol.THROTTLED, correlationId,
+					rejection.getMessage());
+			return true;
+		}
+
+		private void badFrame(int responseStart, int correlationId, String message) {
+			badFrames.increment();
+			this.out.position(responseStart);
+			BinaryTransferProtocol.putError(this.out, BinaryTransferProtocol.BAD_FRAME, correlationId, message);
+		}
+
+		private void error(byte status, int correlationId, RuntimeException ex) {
+			BinaryTransferProtocol.putError(this.out, status, correlationId, ex.getMessage());
+		}
+
+		/**
+		 * Writes as much of the pending responses as the socket takes. Returns whether all of them
+		 * went out; otherwise reading stops until the socket is writable again.
+		 */
+		private boolean flush() throws IOException {
+			this.out.flip();
+			try {
+				while (this.out.hasRemaining()) {
+					if (this.channel.write(this.out) == 0) {
+						this.key.interestOps(SelectionKey.OP_WRITE);
+						return false;
+					}
+				}
+			} finally {
+				this.out.compact();
+			}
+			if (this.key.isValid() && this.key.interestOps() != SelectionKey.OP_READ) {
+				this.key.interestOps(SelectionKey.OP_READ);
+			}
+			return true;
+		}
+
+		private void close() {
+			if (!this.channel.isOpen()) {
+				return;
+			}
+			connections.decrementAndGet();
+			this.key.cancel();
+			try {
+				this.channel.close();
+			} catch (IOException ex) {
+				log.debug("Unable to close binary connection", ex);
+			}
+		}
+	}
+
+	private static byte itemStatus(BatchTransferItemResult.Status status) {
+		switch (status) {
+		case APPLIED:
+			return BinaryTransferProtocol.ITEM_APPLIED;
+		case REJECTED:
+			return BinaryTransferProtocol.ITEM_REJECTED;
+		default:
+			return BinaryTransferProtocol.ITEM_NOT_APPLIED;
+		}
+	}
+}
@@ -0,0 +1,84 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.web.AccountResponseCache;
+import com.db.awmd.challenge.web.AccountsController;
+import com.db.awmd.challenge.web.IdempotencyCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+public class AccountResponseCacheTest {
+
+	private AccountsRepositoryInMemory repository;
+
+	private AccountResponseCache cache;
+
+	private MockMvc mockMvc;
+
+	@Before
+	public void setUp() {
+		this.repository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class));
+		this.cache = new AccountResponseCache(new ObjectMapper(), 1000, 4);
+		AccountsController controller = new AccountsController(new AccountsService(this.repository),
+				new AccountsBulkService(this.repository), new IdempotencyCache(100, 3600, 4), this.cache, 100);
+		this.mockMvc = MockMvcBuilders.standaloneSetup(controller).build();
+		this.repository.createAccount(new Account("Id-1", new BigDecimal("100.50")));
+		this.repository.createAccount(new Account("Id-2", new BigDecimal("1")));
+	}
+
+	@Test
+	public void repeatedReadsReuseTheSerializedBody() throws Exception {
+		MvcResult first = this.mockMvc.perform(get("/v1/accounts/Id-1")).andExpect(status().isOk())
+				.andExpect(content().json("{\"accountId\":\"Id-1\",\"balance\":100.50,\"version\":0}")).andReturn();
+		MvcResult second = this.mockMvc.perform(get("/v1/accounts/Id-1")).andExpect(status().isOk()).andReturn();
+
+		assertEquals(first.getResponse().getContentAsString(), second.getResponse().getContentAsString());
+		assertEquals(first.getResponse().getHeader(HttpHeaders.ETAG), second.getResponse().getHeader(HttpHeaders.ETAG));
+		assertEquals(1, this.cache.getMissCount());
+		assertEquals(1, this.cache.getHitCount());
+	}
+
+	@Test
+	public void matchingIfNoneMatchIsAnsweredWithNotModifiedUntilTheAccountChanges() throws Exception {
+		String etag = this.mockMvc.perform(get("/v1/accounts/Id-1")).andReturn().getResponse()
+				.getHeader(HttpHeaders.ETAG);
+
+		this.mockMvc.perform(get("/v1/accounts/Id-1").header(HttpHeaders.IF_NONE_MATCH, "\"other\", " + etag))
+				.andExpect(status().isNotModified()).andExpect(content().string(""));
+		assertEquals(1, this.cache.getNotModifiedCount());
+
+		this.repository.transfer("Id-1", "Id-2", new BigDecimal("0.50"));
+		MvcResult changed = this.mockMvc.perform(get("/v1/accounts/Id-1").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk())
+				.andExpect(content().json("{\"accountId\":\"Id-1\",\"balance\":100.00,\"version\":1}")).andReturn();
+		assertNotEquals(etag, changed.getResponse().getHeader(HttpHeaders.ETAG));
+	}
+
+	@Test
+	public void accountCreatedAgainDoesNotMatchTheOldTag() throws Exception {
+		String etag = this.mockMvc.perform(get("/v1/accounts/Id-2")).andReturn().getResponse()
+				.getHeader(HttpHeaders.ETAG);
+		this.repository.clearAccounts();
+		this.repository.createAccount(new Account("Id-2", new BigDecimal("2")));
+
+		this.mockMvc.perform(get("/v1/accounts/Id-2").header(HttpHeaders.IF_NONE_MATCH, etag))
+				.andExpect(status().isOk()).andExpect(content().json("{\"accountId\":\"Id-2\",\"balance\":2}"));
+	}
+}
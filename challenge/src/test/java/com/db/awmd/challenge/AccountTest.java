@@ -0,0 +1,75 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.DecimalBalance;
+import com.db.awmd.challenge.domain.MinorUnitsBalance;
+import com.db.awmd.challenge.domain.SealedBalance;
+import com.db.awmd.challenge.domain.StripedAccount;
+import java.math.BigDecimal;
+import org.junit.Test;
+
+public class AccountTest {
+
+	@Test
+	public void withVersionKeepsTheAmountAndItsRepresentation() {
+		Balance decimal = new DecimalBalance(new BigDecimal("12.50"), 3).withVersion(7);
+		assertEquals(new BigDecimal("12.50"), decimal.getAmount());
+		assertEquals(7, decimal.getVersion());
+
+		Balance minorUnits = new MinorUnitsBalance(1250, 2, 3).withVersion(7);
+		assertTrue(minorUnits instanceof MinorUnitsBalance);
+		assertEquals(1250, ((MinorUnitsBalance) minorUnits).getUnits());
+		assertEquals(7, minorUnits.getVersion());
+
+		Account account = new Account("Id-1", BigDecimal.ONE);
+		try {
+			account.seal(true).withVersion(10);
+			fail("Sealed balances do not change");
+		} catch (IllegalStateException ex) {
+			assertEquals(0, account.getBalance().compareTo(BigDecimal.ONE));
+		}
+	}
+
+	@Test
+	public void unsealReopensTheSealedAmountAtANewerVersion() {
+		Account account = new Account("Id-1", BigDecimal.ZERO);
+		account.useMinorUnits(2);
+		account.credit(new BigDecimal("5.25"));
+		SealedBalance sealed = account.seal(true);
+		assertTrue(account.isClosed());
+
+		account.unseal(sealed);
+
+		Balance reopened = account.currentBalance();
+		assertTrue(reopened instanceof MinorUnitsBalance);
+		assertEquals(sealed.getVersion() + 1, reopened.getVersion());
+		assertEquals(0, reopened.getAmount().compareTo(new BigDecimal("5.25")));
+		assertFalse(account.isClosed());
+		account.debit(new BigDecimal("5.25"));
+		assertEquals(0, account.getBalance().signum());
+	}
+
+	@Test
+	public void unsealedStripedAccountIsNewerThanWhatWasSealed() {
+		StripedAccount account = new StripedAccount(new Account("Id-hot", BigDecimal.ZERO), 4);
+		for (int i = 0; i < 10; i++) {
+			account.credit(BigDecimal.ONE);
+		}
+		// The sealed version counts the changes of every stripe as well as the main cell's
+		SealedBalance sealed = account.seal(true);
+
+		account.unseal(sealed);
+
+		assertTrue(account.currentBalance().getVersion() > sealed.getVersion());
+		assertEquals(0, account.getBalance().compareTo(BigDecimal.TEN));
+		account.credit(BigDecimal.ONE);
+		account.debit(new BigDecimal("11"));
+		assertEquals(0, account.getBalance().signum());
+	}
+}
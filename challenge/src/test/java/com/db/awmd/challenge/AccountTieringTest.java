@@ -0,0 +1,142 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult.Status;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.AccountClosedException;
+import com.db.awmd.challenge.exception.AccountNotEmptyException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.fx.FxRateTable;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.ColdAccountStore;
+import com.db.awmd.challenge.service.NotificationService;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+public class AccountTieringTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ColdAccountStore coldAccounts;
+
+	private AccountsRepositoryInMemory accountsRepository;
+
+	@Before
+	public void setUp() throws Exception {
+		this.coldAccounts = new ColdAccountStore(this.folder.newFile().getPath());
+		this.accountsRepository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class),
+				MoneyMode.MINOR_UNITS, 2, new String[0], 0, new TransferMetrics(), new FxRateTable(), this.coldAccounts,
+				60, 60);
+		this.accountsRepository.createAccount(new Account("Id-1", new BigDecimal("100.25")));
+		this.accountsRepository.createAccount(new Account("Id-2", new BigDecimal("10"), "EUR"));
+		this.accountsRepository.createAccount(new Account("Id-3", BigDecimal.ZERO));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.coldAccounts.close();
+	}
+
+	@Test
+	public void idleAccountsMoveToTheColdStoreAndComeBackOnTheirNextUse() {
+		long idle = 60_000_000_000L;
+		assertEquals(0, this.accountsRepository.evictIdleAccounts(0));
+		this.accountsRepository.deposit("Id-1", "Id-3", BigDecimal.ONE);
+		long versionBefore = this.accountsRepository.getAccount("Id-2").getVersion();
+
+		// Id-3 changed since the first pass, so it counts as idle from now on
+		assertEquals(2, this.accountsRepository.evictIdleAccounts(idle));
+		assertEquals(2, this.accountsRepository.getColdAccountCount());
+		Map<String, BigDecimal> visited = new HashMap<>();
+		this.accountsRepository.forEachAccount(account -> visited.put(account.getAccountId(), account.getBalance()));
+		assertEquals(3, visited.size());
+
+		Account thawed = this.accountsRepository.getAccount("Id-2");
+		assertEquals("EUR", thawed.getCurrency());
+		assertEquals(versionBefore, thawed.getVersion());
+		assertEquals(1, this.accountsRepository.getColdAccountCount());
+		this.accountsRepository.transfer("Id-1", "Id-2", new BigDecimal("0.25"));
+		assertEquals(0, this.accountsRepository.getColdAccountCount());
+		assertBalance("Id-1", "100.00");
+		assertBalance("Id-2", "10.25");
+		assertBalance("Id-3", "1.00");
+	}
+
+	@Test
+	public void transfersThroughAnEvictedInstanceGoToItsReplacement() {
+		Account stale = this.accountsRepository.getAccount("Id-2");
+		this.accountsRepository.evictIdleAccounts(0);
+		this.accountsRepository.evictIdleAccounts(60_000_000_000L);
+		assertTrue(stale.currentBalance().getAmount().compareTo(BigDecimal.TEN) == 0);
+
+		this.accountsRepository.transfer("Id-1", "Id-2", BigDecimal.ONE);
+
+		assertNotSame(stale, this.accountsRepository.getAccount("Id-2"));
+		assertBalance("Id-2", "11");
+		assertBalance("Id-1", "99.25");
+	}
+
+	@Test
+	public void closedAccountsRefuseTransfersAndArchivedOnesStayReadable() {
+		try {
+			this.accountsRepository.closeAccount("Id-1");
+			fail("An account holding money must not close");
+		} catch (AccountNotEmptyException ex) {
+			assertEquals("Account id Id-1 still holds a balance of 100.25", ex.getMessage());
+		}
+		long version = this.accountsRepository.getAccount("Id-3").getVersion();
+		assertTrue(this.accountsRepository.closeAccount("Id-3").isClosed());
+		assertEquals(version + 1, this.accountsRepository.getAccount("Id-3").getVersion());
+
+		try {
+			this.accountsRepository.transfer("Id-1", "Id-3", BigDecimal.ONE);
+			fail("A closed account must not take deposits");
+		} catch (AccountClosedException ex) {
+			assertEquals("Account id Id-3 is closed", ex.getMessage());
+		}
+		assertBalance("Id-1", "100.25");
+		BatchTransferResult batch = this.accountsRepository.transferBatch(Arrays.asList(
+				new TransferRequest("Id-1", "Id-2", BigDecimal.ONE), new TransferRequest("Id-1", "Id-3", BigDecimal.ONE)),
+				BatchMode.BEST_EFFORT);
+		assertEquals(Status.APPLIED, batch.getResults().get(0).getStatus());
+		assertEquals(Status.REJECTED, batch.getResults().get(1).getStatus());
+
+		Account archived = this.accountsRepository.archiveAccount("Id-3");
+		assertTrue(archived.isClosed());
+		assertEquals(1, this.accountsRepository.getColdAccountCount());
+		Account read = this.accountsRepository.getAccount("Id-3");
+		assertTrue(read.isClosed());
+		assertEquals(version + 1, read.getVersion());
+		assertEquals(0, read.getBalance().signum());
+		assertFalse(this.accountsRepository.getAccount("Id-1").isClosed());
+		try {
+			this.accountsRepository.createAccount(new Account("Id-3"));
+			fail("An archived account keeps its id");
+		} catch (DuplicateAccountIdException ex) {
+			assertEquals(1, this.accountsRepository.getColdAccountCount());
+		}
+	}
+
+	private void assertBalance(String accountId, String expected) {
+		assertEquals(0, this.accountsRepository.getAccount(accountId).getBalance().compareTo(new BigDecimal(expected)));
+	}
+}
@@ -0,0 +1,167 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.AccountImportResult;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.ledger.TransferLedger;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountFormat;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.service.TransferGate;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.validation.Validation;
+import javax.validation.Validator;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AccountsBulkServiceTest {
+
+	private static final int ACCOUNTS = 2000;
+
+	@Test
+	public void importCountsAndDescribesRejectedLines() throws Exception {
+		AccountsRepositoryInMemory repository = repository();
+		repository.createAccount(new Account("Id-existing"));
+		// Batches of two, so rejections come from both the parser and the repository
+		AccountsBulkService bulkService = new AccountsBulkService(repository, 2, 2);
+		String body = String.join("\n", Arrays.asList(
+				"{\"accountId\":\"Id-1\",\"balance\":10.50}",
+				"{\"accountId\":\"Id-2\",\"balance\":\"3\",\"owner\":{\"name\":\"x\"}}",
+				"not json",
+				"",
+				"{\"accountId\":\"Id-3\",\"balance\":-1}",
+				"{\"accountId\":\"Id-existing\",\"balance\":1}",
+				"{\"accountId\":\"Id-4\",\"balance\":4,\"version\":7}"));
+
+		AccountImportResult result = bulkService.importAccounts(input(body), AccountFormat.NDJSON);
+
+		assertEquals(3, result.getImported());
+		assertEquals(3, result.getRejected());
+		assertEquals(2, result.getErrors().size());
+		assertEquals("line 5: Initial balance must be positive.", result.getErrors().get(1));
+		assertEquals(0, repository.getAccount("Id-1").getBalance().compareTo(new BigDecimal("10.50")));
+		assertEquals(7, repository.getAccount("Id-4").currentBalance().getVersion());
+	}
+
+	@Test(timeout = 30000)
+	public void exportsTakenWhileTransfersRunAddUpToTheSameTotal() throws Exception {
+		AccountsRepositoryInMemory repository = repository();
+		// Enough accounts that a walk over them takes longer than a transfer
+		for (int i = 0; i < ACCOUNTS; i++) {
+			repository.createAccount(new Account("Id-" + i, BigDecimal.TEN));
+		}
+		TransferGate gate = new TransferGate();
+		AccountsService service = new AccountsService(repository, new TransferMetrics(), new TransferLedger(), gate);
+		AccountsBulkService bulkService = new AccountsBulkService(repository, gate, 1000, 100);
+		AtomicBoolean running = new AtomicBoolean(true);
+		List<Thread> movers = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			Thread mover = new Thread(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				while (running.get()) {
+					try {
+						service.transfer("Id-" + random.nextInt(ACCOUNTS), "Id-" + random.nextInt(ACCOUNTS), BigDecimal.ONE);
+					} catch (LowAccountBalanceException ex) {
+						// only the totals matter here
+					}
+				}
+			});
+			mover.start();
+			movers.add(mover);
+		}
+		try {
+			for (int export = 0; export < 50; export++) {
+				ByteArrayOutputStream exported = new ByteArrayOutputStream();
+				bulkService.exportAccounts(exported, AccountFormat.CSV);
+				BigDecimal total = BigDecimal.ZERO;
+				String[] lines = new String(exported.toByteArray(), StandardCharsets.UTF_8).split("\n");
+				for (int i = 1; i < lines.length; i++) {
+					total = total.add(new BigDecimal(lines[i].split(",")[1]));
+				}
+				assertEquals(0, total.compareTo(BigDecimal.TEN.multiply(new BigDecimal(ACCOUNTS))));
+			}
+		} finally {
+			running.set(false);
+			for (Thread mover : movers) {
+				mover.join();
+			}
+		}
+	}
+
+	@Test
+	public void csvExportImportsBackWithBalancesAndVersions() throws Exception {
+		AccountsRepositoryInMemory source = repository();
+		source.createAccount(new Account("Id-1", new BigDecimal("100.25")));
+		source.createAccount(new Account("Id, \"quoted\"", new BigDecimal("7")));
+		source.transfer("Id-1", "Id, \"quoted\"", new BigDecimal("0.25"));
+		ByteArrayOutputStream exported = new ByteArrayOutputStream();
+
+		assertEquals(2, new AccountsBulkService(source).exportAccounts(exported, AccountFormat.CSV));
+
+		AccountsRepositoryInMemory target = repository();
+		AccountImportResult result = new AccountsBulkService(target)
+				.importAccounts(new ByteArrayInputStream(exported.toByteArray()), AccountFormat.CSV);
+		assertEquals(2, result.getImported());
+		assertEquals(0, result.getRejected());
+		Account quoted = target.getAccount("Id, \"quoted\"");
+		assertEquals(0, quoted.getBalance().compareTo(new BigDecimal("7.25")));
+		assertEquals(1, quoted.currentBalance().getVersion());
+		assertEquals(0, target.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100.00")));
+	}
+
+	@Test
+	public void ndjsonExportWritesOneAccountPerLine() throws Exception {
+		AccountsRepositoryInMemory repository = repository();
+		repository.createAccount(new Account("Id-1", new BigDecimal("12.30")));
+		ByteArrayOutputStream exported = new ByteArrayOutputStream();
+
+		new AccountsBulkService(repository).exportAccounts(exported, AccountFormat.NDJSON);
+
+		assertEquals("{\"accountId\":\"Id-1\",\"balance\":12.30,\"version\":0}\n",
+				new String(exported.toByteArray(), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void idsSpanningLinesAndVersionsOutOfRangeAreRefused() throws Exception {
+		AccountsRepositoryInMemory repository = repository();
+		String csv = String.join("\n", Arrays.asList("Id-1,1,-1,", "Id-2,1," + Long.MAX_VALUE + ",", "Id-3,1,3,"));
+
+		AccountImportResult result = new AccountsBulkService(repository).importAccounts(input(csv), AccountFormat.CSV);
+
+		assertEquals(1, result.getImported());
+		assertEquals(2, result.getRejected());
+		assertTrue(result.getErrors().get(0).startsWith("line 1: Version must be between 0 and "));
+		assertTrue(result.getErrors().get(1).startsWith("line 2: Version must be between 0 and "));
+
+		result = new AccountsBulkService(repository).importAccounts(
+				input("{\"accountId\":\"Id-4\\nId-5\",\"balance\":1}"), AccountFormat.NDJSON);
+		assertEquals(0, result.getImported());
+		assertEquals("line 1: Account id must not contain line breaks", result.getErrors().get(0));
+
+		Validator validator = Validation.buildDefaultValidatorFactory().getValidator();
+		assertEquals(1, validator.validate(new Account("Id-4\r\nId-5")).size());
+		assertEquals(0, validator.validate(new Account("Id-4")).size());
+	}
+
+	private static AccountsRepositoryInMemory repository() {
+		return new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class));
+	}
+
+	private static ByteArrayInputStream input(String body) {
+		return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+	}
+}
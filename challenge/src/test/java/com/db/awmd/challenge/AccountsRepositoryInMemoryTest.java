@@ -0,0 +1,136 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult.Status;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.NotificationService;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AccountsRepositoryInMemoryTest {
+
+	private AccountsRepository accountsRepository;
+
+	@Before
+	public void setUp() {
+		this.accountsRepository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class));
+		this.accountsRepository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		this.accountsRepository.createAccount(new Account("Id-2", new BigDecimal("50")));
+		this.accountsRepository.createAccount(new Account("Id-3", BigDecimal.ZERO));
+	}
+
+	@Test
+	public void transferBatchAllOrNothingAppliesEveryTransfer() {
+		// The second transfer relies on the credit made by the first one
+		List<TransferRequest> transfers = Arrays.asList(
+				new TransferRequest("Id-1", "Id-3", new BigDecimal("80")),
+				new TransferRequest("Id-3", "Id-2", new BigDecimal("30")));
+
+		BatchTransferResult result = this.accountsRepository.transferBatch(transfers, BatchMode.ALL_OR_NOTHING);
+
+		assertTrue(result.isFullyApplied());
+		assertBalance("Id-1", "20");
+		assertBalance("Id-2", "80");
+		assertBalance("Id-3", "50");
+	}
+
+	@Test
+	public void transferBatchAllOrNothingAppliesNothingWhenOneTransferOverdraws() {
+		List<TransferRequest> transfers = Arrays.asList(
+				new TransferRequest("Id-1", "Id-3", new BigDecimal("80")),
+				new TransferRequest("Id-2", "Id-3", new BigDecimal("60")));
+
+		BatchTransferResult result = this.accountsRepository.transferBatch(transfers, BatchMode.ALL_OR_NOTHING);
+
+		assertFalse(result.isFullyApplied());
+		assertEquals(Status.NOT_APPLIED, result.getResults().get(0).getStatus());
+		assertEquals(Status.REJECTED, result.getResults().get(1).getStatus());
+		assertBalance("Id-1", "100");
+		assertBalance("Id-2", "50");
+		assertBalance("Id-3", "0");
+	}
+
+	@Test
+	public void transferBatchBestEffortSkipsInvalidTransfers() {
+		List<TransferRequest> transfers = Arrays.asList(
+				new TransferRequest("Id-1", "Id-3", new BigDecimal("80")),
+				new TransferRequest("Id-2", "Id-missing", new BigDecimal("10")),
+				new TransferRequest("Id-2", "Id-3", new BigDecimal("-10")),
+				new TransferRequest("Id-1", "Id-2", new BigDecimal("30")));
+
+		BatchTransferResult result = this.accountsRepository.transferBatch(transfers, BatchMode.BEST_EFFORT);
+
+		assertEquals(1, result.getApplied());
+		assertEquals(3, result.getRejected());
+		assertEquals(Status.APPLIED, result.getResults().get(0).getStatus());
+		assertEquals(Status.REJECTED, result.getResults().get(3).getStatus());
+		assertBalance("Id-1", "20");
+		assertBalance("Id-2", "50");
+		assertBalance("Id-3", "80");
+	}
+
+	@Test
+	public void transferThatWouldOverflowTheDepositAccountLeavesBothBalances() {
+		AccountsRepository minorUnits = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class),
+				MoneyMode.MINOR_UNITS, 2);
+		BigDecimal full = BigDecimal.valueOf(Long.MAX_VALUE, 2);
+		minorUnits.createAccount(new Account("Id-1", new BigDecimal("100.00")));
+		minorUnits.createAccount(new Account("Id-2", full));
+
+		try {
+			minorUnits.transfer("Id-1", "Id-2", BigDecimal.TEN);
+			fail("The credit should have overflowed");
+		} catch (InvalidAmountException ex) {
+			assertEquals("Balance overflow", ex.getMessage());
+		}
+
+		assertEquals(0, minorUnits.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100.00")));
+		assertEquals(0, minorUnits.getAccount("Id-2").getBalance().compareTo(full));
+	}
+
+	@Test
+	public void transferBatchRejectsACreditThatWouldOverflowWithoutLeavingItsDebit() {
+		AccountsRepository minorUnits = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class),
+				MoneyMode.MINOR_UNITS, 2);
+		BigDecimal full = BigDecimal.valueOf(Long.MAX_VALUE, 2);
+		minorUnits.createAccount(new Account("Id-1", new BigDecimal("100.00")));
+		minorUnits.createAccount(new Account("Id-2", full));
+		minorUnits.createAccount(new Account("Id-3", BigDecimal.ZERO));
+		List<TransferRequest> transfers = Arrays.asList(
+				new TransferRequest("Id-1", "Id-3", new BigDecimal("80")),
+				new TransferRequest("Id-1", "Id-2", BigDecimal.TEN));
+
+		BatchTransferResult allOrNothing = minorUnits.transferBatch(transfers, BatchMode.ALL_OR_NOTHING);
+
+		assertEquals(Status.NOT_APPLIED, allOrNothing.getResults().get(0).getStatus());
+		assertEquals("Balance overflow for Account Id Id-2", allOrNothing.getResults().get(1).getMessage());
+		assertEquals(0, minorUnits.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100")));
+
+		BatchTransferResult bestEffort = minorUnits.transferBatch(transfers, BatchMode.BEST_EFFORT);
+
+		assertEquals(Status.APPLIED, bestEffort.getResults().get(0).getStatus());
+		assertEquals(Status.REJECTED, bestEffort.getResults().get(1).getStatus());
+		assertEquals(0, minorUnits.getAccount("Id-1").getBalance().compareTo(new BigDecimal("20")));
+		assertEquals(0, minorUnits.getAccount("Id-2").getBalance().compareTo(full));
+		assertEquals(0, minorUnits.getAccount("Id-3").getBalance().compareTo(new BigDecimal("80")));
+	}
+
+	private void assertBalance(String accountId, String expected) {
+		assertEquals(0, this.accountsRepository.getAccount(accountId).getBalance().compareTo(new BigDecimal(expected)));
+	}
+}
@@ -0,0 +1,211 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.exception.AccountClosedException;
+import com.db.awmd.challenge.journal.TransferJournal;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryJournaled;
+import com.db.awmd.challenge.service.NotificationService;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+public class AccountsRepositoryJournaledTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void balancesSurviveRestart() throws Exception {
+		AccountsRepositoryJournaled repository = open(1 << 20);
+		repository.createAccount(new Account("Id-1", new BigDecimal("100.50")));
+		repository.createAccount(new Account("Id-2", new BigDecimal("10")));
+		repository.transfer("Id-1", "Id-2", new BigDecimal("0.50"));
+		repository.transferBatch(Arrays.asList(new TransferRequest("Id-2", "Id-1", new BigDecimal("5"))),
+				BatchMode.ALL_OR_NOTHING);
+		repository.close();
+
+		AccountsRepositoryJournaled reopened = open(1 << 20);
+		assertEquals(0, reopened.getAccount("Id-1").getBalance().compareTo(new BigDecimal("105")));
+		assertEquals(0, reopened.getAccount("Id-2").getBalance().compareTo(new BigDecimal("5.50")));
+		assertEquals(2, reopened.getAccount("Id-1").currentBalance().getVersion());
+		reopened.close();
+	}
+
+	@Test
+	public void replaySpansSegmentsAndHonoursClear() throws Exception {
+		// Small segments force several rolls
+		AccountsRepositoryJournaled repository = open(4096);
+		repository.createAccount(new Account("Id-gone", BigDecimal.TEN));
+		repository.clearAccounts();
+		repository.createAccount(new Account("Id-1", new BigDecimal("1000")));
+		repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		for (int i = 0; i < 500; i++) {
+			repository.transfer("Id-1", "Id-2", BigDecimal.ONE);
+		}
+		repository.close();
+
+		AccountsRepositoryJournaled reopened = open(4096);
+		assertNull(reopened.getAccount("Id-gone"));
+		assertEquals(0, reopened.getAccount("Id-1").getBalance().compareTo(new BigDecimal("500")));
+		assertEquals(0, reopened.getAccount("Id-2").getBalance().compareTo(new BigDecimal("500")));
+		reopened.close();
+	}
+
+	@Test
+	public void recoveryStartsFromSnapshotAndReplaysJournalTail() throws Exception {
+		AccountsRepositoryJournaled repository = open(1 << 20);
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		repository.transfer("Id-1", "Id-2", new BigDecimal("10"));
+		repository.snapshot();
+		repository.transfer("Id-1", "Id-2", new BigDecimal("20"));
+		repository.createAccount(new Account("Id-3", BigDecimal.ONE));
+		repository.close();
+
+		// The segments before the snapshot are gone, so the balances must come from snapshot + tail
+		assertEquals(1, this.folder.getRoot().list((dir, name) -> name.startsWith("snapshot-")).length);
+		AccountsRepositoryJournaled reopened = open(1 << 20);
+		assertEquals(0, reopened.getAccount("Id-1").getBalance().compareTo(new BigDecimal("70")));
+		assertEquals(0, reopened.getAccount("Id-2").getBalance().compareTo(new BigDecimal("30")));
+		assertEquals(0, reopened.getAccount("Id-3").getBalance().compareTo(BigDecimal.ONE));
+		reopened.close();
+	}
+
+	@Test
+	public void writesAfterATornRecordSurviveTheNextRestart() throws Exception {
+		AccountsRepositoryJournaled repository = open(1 << 20);
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		repository.transfer("Id-1", "Id-2", new BigDecimal("10"));
+		repository.close();
+		tearLastRecord(this.folder.getRoot().listFiles((dir, name) -> name.startsWith("journal-"))[0].toPath());
+
+		AccountsRepositoryJournaled recovered = open(1 << 20);
+		assertEquals(0, recovered.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100")));
+		recovered.transfer("Id-1", "Id-2", new BigDecimal("5"));
+		recovered.close();
+
+		AccountsRepositoryJournaled reopened = open(1 << 20);
+		assertEquals(0, reopened.getAccount("Id-1").getBalance().compareTo(new BigDecimal("95")));
+		assertEquals(0, reopened.getAccount("Id-2").getBalance().compareTo(new BigDecimal("5")));
+		reopened.close();
+	}
+
+	@Test
+	public void currenciesSurviveSnapshotAndReplay() throws Exception {
+		AccountsRepositoryJournaled repository = open(1 << 20);
+		repository.createAccount(new Account("Id-usd", new BigDecimal("12.50"), "USD"));
+		repository.createAccount(new Account("Id-base", BigDecimal.TEN));
+		repository.snapshot();
+		repository.createAccount(new Account("Id-jpy", new BigDecimal("1500"), "JPY"));
+		repository.close();
+
+		AccountsRepositoryJournaled reopened = open(1 << 20);
+		assertEquals("USD", reopened.getAccount("Id-usd").getCurrency());
+		assertEquals(0, reopened.getAccount("Id-usd").getBalance().compareTo(new BigDecimal("12.50")));
+		assertNull(reopened.getAccount("Id-base").getCurrency());
+		assertEquals("JPY", reopened.getAccount("Id-jpy").getCurrency());
+		reopened.close();
+	}
+
+	@Test
+	public void closedAccountsStayClosedAcrossRestarts() throws Exception {
+		AccountsRepositoryJournaled repository = open(1 << 20);
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		repository.createAccount(new Account("Id-3", BigDecimal.ZERO));
+		repository.closeAccount("Id-2");
+		repository.snapshot();
+		repository.closeAccount("Id-3");
+		repository.close();
+
+		// Id-2 comes back from the snapshot, Id-3 from the journal tail
+		AccountsRepositoryJournaled reopened = open(1 << 20);
+		for (String accountId : Arrays.asList("Id-2", "Id-3")) {
+			assertTrue(reopened.getAccount(accountId).isClosed());
+			assertEquals(1, reopened.getAccount(accountId).getVersion());
+			try {
+				reopened.transfer("Id-1", accountId, BigDecimal.ONE);
+				fail("A closed account must not take deposits after a restart");
+			} catch (AccountClosedException ex) {
+				assertEquals("Account id " + accountId + " is closed", ex.getMessage());
+			}
+		}
+		assertFalse(reopened.getAccount("Id-1").isClosed());
+		assertEquals(0, reopened.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100")));
+		reopened.close();
+	}
+
+	@Test(timeout = 10000)
+	public void writersAreToldWhenTheirRecordCannotBeForced() throws Exception {
+		TransferJournal journal = new TransferJournal(this.folder.newFolder().toPath(), 1 << 16, true);
+		journal.open();
+		Account account = new Account("Id-1", BigDecimal.TEN);
+		journal.appendBalances(account);
+
+		// The flusher stops as it would on a failing disk
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.getName().equals("journal-flusher")) {
+				thread.interrupt();
+				thread.join();
+			}
+		}
+		try {
+			journal.appendBalances(account);
+			fail("A record the flusher never forced must not be reported durable");
+		} catch (UncheckedIOException ex) {
+			assertEquals("The journal could not be forced to disk", ex.getCause().getMessage());
+		}
+		journal.close();
+
+		TransferJournal closed = new TransferJournal(this.folder.newFolder().toPath(), 1 << 16, true);
+		closed.open();
+		long before = closed.appendBalancesLater(Arrays.asList(account));
+		closed.close();
+		closed.awaitDurable(before);
+		try {
+			closed.awaitDurable(before + 1);
+			fail("A record appended after close must not be reported durable");
+		} catch (UncheckedIOException ex) {
+			assertEquals("The journal closed before the record was forced to disk", ex.getCause().getMessage());
+		}
+	}
+
+	// Flips a payload byte of the segment's last record, as a crash half way through writing it would
+	private static void tearLastRecord(Path segment) throws Exception {
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+			int last = 0;
+			for (int position = 0; buffer.getInt(position) != 0; position += 8 + buffer.getInt(position)) {
+				last = position;
+			}
+			buffer.put(last + 9, (byte) (buffer.get(last + 9) ^ 0xFF));
+			buffer.force();
+		}
+	}
+
+	private AccountsRepositoryJournaled open(int segmentSize) throws Exception {
+		AccountsRepositoryJournaled repository = new AccountsRepositoryJournaled(
+				new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class)),
+				this.folder.getRoot().getPath(), segmentSize, true, 0, 60000);
+		repository.recover();
+		return repository;
+	}
+}
@@ -0,0 +1,246 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.repository.LifecycleAccountsRepository;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.service.TransferDirection;
+import com.db.awmd.challenge.web.AccountResponseCache;
+import com.db.awmd.challenge.web.AccountsController;
+import com.db.awmd.challenge.web.IdempotencyCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+
+public class AccountsRepositoryOffHeapTest {
+
+	private ExecutorService executor;
+
+	@After
+	public void tearDown() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void storesAccountsAcrossSegments() {
+		// Sized for more than one segment
+		AccountsRepositoryOffHeap repository = repository(2000000);
+		for (int i = 0; i < 50000; i++) {
+			repository.createAccount(new Account("Id-" + i, new BigDecimal(i).movePointLeft(2)));
+		}
+
+		for (int i = 0; i < 50000; i += 997) {
+			Account account = repository.getAccount("Id-" + i);
+			assertEquals("Id-" + i, account.getAccountId());
+			assertEquals(0, account.getBalance().compareTo(new BigDecimal(i).movePointLeft(2)));
+		}
+		assertNull(repository.getAccount("Id-50000"));
+		long[] count = new long[1];
+		repository.forEachAccount(account -> count[0]++);
+		assertEquals(50000, count[0]);
+	}
+
+	@Test(timeout = 30000)
+	public void slowVisitorsHoldUpNeitherTransfersNorInserts() throws Exception {
+		AccountsRepositoryOffHeap repository = repository(100);
+		repository.createAccount(new Account("Id-1", BigDecimal.TEN));
+		repository.createAccount(new Account("Id-2", BigDecimal.TEN));
+		this.executor = Executors.newSingleThreadExecutor();
+
+		List<String> visited = new ArrayList<>();
+		repository.forEachAccount(account -> {
+			// Accounts inserted here may be met later in the walk
+			if (account.getAccountId().startsWith("Id-new-")) {
+				return;
+			}
+			try {
+				this.executor.submit(() -> repository.transfer("Id-1", "Id-2", BigDecimal.ONE)).get(5, TimeUnit.SECONDS);
+				this.executor.submit(() -> repository.createAccount(new Account("Id-new-" + account.getAccountId())))
+						.get(5, TimeUnit.SECONDS);
+			} catch (Exception ex) {
+				throw new AssertionError("Blocked by the walk", ex);
+			}
+			visited.add(account.getAccountId());
+		});
+
+		assertEquals(2, visited.size());
+		assertEquals(0, repository.getAccount("Id-1").getBalance().compareTo(new BigDecimal("8")));
+	}
+
+	@Test
+	public void rejectsDuplicatesAndAmountsFinerThanTheScale() {
+		AccountsRepositoryOffHeap repository = repository(100);
+		repository.createAccount(new Account("Id-1", new BigDecimal("10.25")));
+		try {
+			repository.createAccount(new Account("Id-1", BigDecimal.ONE));
+			fail("Should have failed when adding duplicate account");
+		} catch (DuplicateAccountIdException ex) {
+			assertEquals("Account id Id-1 already exists!", ex.getMessage());
+		}
+		try {
+			repository.createAccount(new Account("Id-2", new BigDecimal("0.001")));
+			fail("Should have rejected an amount below the minor unit");
+		} catch (InvalidAmountException ex) {
+			assertNull(repository.getAccount("Id-2"));
+		}
+	}
+
+	@Test
+	public void tableRefusesAccountsBeyondItsCapacity() {
+		AccountsRepositoryOffHeap repository = repository(10);
+		int created = 0;
+		try {
+			for (; created < 100; created++) {
+				repository.createAccount(new Account("Id-" + created));
+			}
+			fail("Should have run out of slots");
+		} catch (IllegalStateException ex) {
+			assertEquals(12, created);
+		}
+		repository.clearAccounts();
+		repository.createAccount(new Account("Id-0"));
+		assertEquals(0, repository.getAccount("Id-0").getBalance().signum());
+	}
+
+	@Test
+	public void closeAndArchiveAreNotOffered() {
+		AccountsRepositoryOffHeap repository = repository(10);
+		repository.createAccount(new Account("Id-1"));
+		AccountsController controller = new AccountsController(new AccountsService(repository),
+				new AccountsBulkService(repository), new IdempotencyCache(100, 3600, 4),
+				new AccountResponseCache(new ObjectMapper(), 100, 4), 100);
+
+		// Slots have no room to mark an account closed
+		assertFalse(repository instanceof LifecycleAccountsRepository);
+		assertEquals(HttpStatus.NOT_FOUND, controller.closeAccount("Id-1").getStatusCode());
+		assertEquals(HttpStatus.NOT_FOUND, controller.archiveAccount("Id-1").getStatusCode());
+		assertFalse(repository.getAccount("Id-1").isClosed());
+	}
+
+	@Test
+	public void transfersMoveMinorUnitsAndBumpVersions() {
+		AccountsRepositoryOffHeap repository = repository(100);
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", new BigDecimal("5")));
+
+		TransferResult result = repository.transfer("Id-1", "Id-2", new BigDecimal("10.50"));
+
+		assertEquals(0, result.getNewWithdrawnAccountBalance().compareTo(new BigDecimal("89.50")));
+		assertEquals(0, result.getNewDepositedAccountBalance().compareTo(new BigDecimal("15.50")));
+		assertEquals(1, repository.getAccount("Id-1").currentBalance().getVersion());
+		try {
+			repository.transfer("Id-2", "Id-1", new BigDecimal("15.51"));
+			fail("Should have rejected the overdraft");
+		} catch (LowAccountBalanceException ex) {
+			assertEquals(0, repository.getAccount("Id-2").getBalance().compareTo(new BigDecimal("15.50")));
+		}
+	}
+
+	@Test
+	public void transfersNotifyByIdWithoutCopyingAccounts() {
+		NotificationService notificationService = Mockito.mock(NotificationService.class);
+		AccountsRepositoryOffHeap repository = Mockito.spy(new AccountsRepositoryOffHeap(notificationService, 2, 100, 64));
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", new BigDecimal("5")));
+
+		repository.transfer("Id-1", "Id-2", BigDecimal.TEN);
+		repository.withdraw("Id-1", "Id-2", BigDecimal.ONE);
+		repository.deposit("Id-1", "Id-2", BigDecimal.ONE);
+
+		Mockito.verify(notificationService).notifyAboutTransfer("Id-1", TransferDirection.OUTGOING, BigDecimal.TEN);
+		Mockito.verify(notificationService).notifyAboutTransfer("Id-2", TransferDirection.INCOMING, BigDecimal.TEN);
+		Mockito.verify(notificationService, Mockito.times(2)).notifyAboutTransfer("Id-2", TransferDirection.INCOMING,
+				BigDecimal.ONE);
+		Mockito.verify(repository, Mockito.never()).getAccount(Mockito.anyString());
+	}
+
+	@Test
+	public void transferBatchAllOrNothingAppliesNothingWhenOneTransferOverdraws() {
+		AccountsRepositoryOffHeap repository = repository(100);
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", new BigDecimal("50")));
+		List<TransferRequest> transfers = Arrays.asList(
+				new TransferRequest("Id-1", "Id-2", new BigDecimal("80")),
+				new TransferRequest("Id-2", "Id-1", new BigDecimal("140")));
+
+		BatchTransferResult result = repository.transferBatch(transfers, BatchMode.ALL_OR_NOTHING);
+
+		assertFalse(result.isFullyApplied());
+		assertEquals(0, repository.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100")));
+		assertEquals(0, repository.getAccount("Id-2").getBalance().compareTo(new BigDecimal("50")));
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentTransfersKeepTheTotal() throws Exception {
+		AccountsRepositoryOffHeap repository = repository(1000);
+		int accounts = 16;
+		for (int i = 0; i < accounts; i++) {
+			repository.createAccount(new Account("Id-" + i, new BigDecimal("100")));
+		}
+		int threads = 4;
+		this.executor = Executors.newFixedThreadPool(threads);
+
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			futures.add(this.executor.submit(() -> {
+				start.await();
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int n = 0; n < 5000; n++) {
+					try {
+						repository.transfer("Id-" + random.nextInt(accounts), "Id-" + random.nextInt(accounts),
+								new BigDecimal(random.nextInt(1, 30)));
+					} catch (LowAccountBalanceException ex) {
+						// Expected now and then
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < accounts; i++) {
+			BigDecimal balance = repository.getAccount("Id-" + i).getBalance();
+			assertTrue(balance.signum() >= 0);
+			total = total.add(balance);
+		}
+		assertEquals(0, total.compareTo(new BigDecimal(100 * accounts)));
+	}
+
+	private static AccountsRepositoryOffHeap repository(long capacity) {
+		return new AccountsRepositoryOffHeap(Mockito.mock(NotificationService.class), 2, capacity, 64);
+	}
+}
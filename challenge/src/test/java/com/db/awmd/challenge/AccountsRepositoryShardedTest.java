@@ -0,0 +1,277 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult.Status;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.AccountClosedException;
+import com.db.awmd.challenge.exception.AccountNotEmptyException;
+import com.db.awmd.challenge.exception.DuplicateAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.repository.AccountsRepositorySharded;
+import com.db.awmd.challenge.repository.ArchivingAccountsRepository;
+import com.db.awmd.challenge.service.NotificationService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AccountsRepositoryShardedTest {
+
+	private AccountsRepositorySharded repository;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		this.repository = new AccountsRepositorySharded(Mockito.mock(NotificationService.class), 4);
+		this.repository.start();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+		this.repository.stop();
+	}
+
+	@Test
+	public void createsAndFindsAccountsInEveryShard() {
+		for (int i = 0; i < 1000; i++) {
+			this.repository.createAccount(new Account("Id-" + i, new BigDecimal(i)));
+		}
+		try {
+			this.repository.createAccount(new Account("Id-1", BigDecimal.ONE));
+			fail("Should have failed when adding duplicate account");
+		} catch (DuplicateAccountIdException ex) {
+			assertEquals("Account id Id-1 already exists!", ex.getMessage());
+		}
+
+		assertEquals(0, this.repository.getAccount("Id-999").getBalance().compareTo(new BigDecimal(999)));
+		long[] count = new long[1];
+		this.repository.forEachAccount(account -> count[0]++);
+		assertEquals(1000, count[0]);
+	}
+
+	@Test
+	public void createAccountsSplitsTheBatchByShardAndReportsDuplicates() {
+		this.repository.createAccount(new Account("Id-3"));
+		List<Account> batch = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			batch.add(new Account("Id-" + i, BigDecimal.TEN));
+		}
+		batch.add(new Account("Id-42"));
+		List<String> rejected = new ArrayList<>();
+
+		int created = this.repository.createAccounts(batch, (account, ex) -> rejected.add(ex.getMessage()));
+
+		assertEquals(99, created);
+		assertEquals(2, rejected.size());
+		assertTrue(rejected.contains("Account id Id-42 already exists!"));
+		assertEquals(0, this.repository.getAccount("Id-42").getBalance().compareTo(BigDecimal.TEN));
+	}
+
+	@Test
+	public void transfersWithinAndAcrossShards() {
+		for (int i = 0; i < 16; i++) {
+			this.repository.createAccount(new Account("Id-" + i, new BigDecimal("100")));
+		}
+
+		// Sixteen accounts over four shards: some pairs share a shard and the rest do not
+		for (int i = 1; i < 16; i++) {
+			TransferResult result = this.repository.transfer("Id-0", "Id-" + i, new BigDecimal("5"));
+			assertEquals(0, result.getNewWithdrawnAccountBalance().compareTo(new BigDecimal(100 - 5 * i)));
+			assertEquals(0, result.getNewDepositedAccountBalance().compareTo(new BigDecimal("105")));
+		}
+		try {
+			this.repository.transfer("Id-0", "Id-1", new BigDecimal("26"));
+			fail("Should have rejected the overdraft");
+		} catch (LowAccountBalanceException ex) {
+			assertEquals(0, this.repository.getAccount("Id-0").getBalance().compareTo(new BigDecimal("25")));
+		}
+		assertEquals(0, this.repository.getReservedTransfers());
+	}
+
+	@Test
+	public void transferToAnUnknownAccountReservesNothing() {
+		this.repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		try {
+			this.repository.transfer("Id-1", "Id-unknown", new BigDecimal("10"));
+			fail("Should have rejected the unknown account");
+		} catch (InvalidAccountIdException ex) {
+			assertEquals(0, this.repository.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100")));
+		}
+		assertEquals(0, this.repository.getReservedTransfers());
+	}
+
+	@Test
+	public void transferThatWouldOverflowTheDepositAccountLeavesBothBalances() throws Exception {
+		// One shard, so the transfer takes the same-shard path
+		AccountsRepositorySharded minorUnits = new AccountsRepositorySharded(Mockito.mock(NotificationService.class),
+				MoneyMode.MINOR_UNITS, 2, 1);
+		minorUnits.start();
+		try {
+			BigDecimal full = BigDecimal.valueOf(Long.MAX_VALUE, 2);
+			minorUnits.createAccount(new Account("Id-1", new BigDecimal("100.00")));
+			minorUnits.createAccount(new Account("Id-2", full));
+			try {
+				minorUnits.transfer("Id-1", "Id-2", BigDecimal.TEN);
+				fail("The credit should have overflowed");
+			} catch (InvalidAmountException ex) {
+				assertEquals("Balance overflow", ex.getMessage());
+			}
+			assertEquals(0, minorUnits.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100.00")));
+			assertEquals(0, minorUnits.getAccount("Id-2").getBalance().compareTo(full));
+		} finally {
+			minorUnits.stop();
+		}
+	}
+
+	@Test
+	public void transferBatchRejectsACreditThatWouldOverflowWithoutLeavingItsDebit() throws Exception {
+		AccountsRepositorySharded minorUnits = new AccountsRepositorySharded(Mockito.mock(NotificationService.class),
+				MoneyMode.MINOR_UNITS, 2, 2);
+		minorUnits.start();
+		try {
+			BigDecimal full = BigDecimal.valueOf(Long.MAX_VALUE, 2);
+			minorUnits.createAccount(new Account("Id-1", new BigDecimal("100.00")));
+			minorUnits.createAccount(new Account("Id-2", full));
+			List<TransferRequest> transfers = Arrays.asList(new TransferRequest("Id-2", "Id-1", BigDecimal.ONE),
+					new TransferRequest("Id-1", "Id-2", new BigDecimal("2")));
+
+			BatchTransferResult allOrNothing = minorUnits.transferBatch(transfers, BatchMode.ALL_OR_NOTHING);
+			assertEquals(0, allOrNothing.getApplied());
+			assertEquals("Balance overflow for Account Id Id-2", allOrNothing.getResults().get(1).getMessage());
+
+			BatchTransferResult bestEffort = minorUnits.transferBatch(transfers, BatchMode.BEST_EFFORT);
+			assertEquals(1, bestEffort.getApplied());
+			assertEquals(1, bestEffort.getRejected());
+			assertEquals(0, minorUnits.getAccount("Id-1").getBalance().compareTo(new BigDecimal("101.00")));
+			assertEquals(0, minorUnits.getAccount("Id-2").getBalance().compareTo(full.subtract(BigDecimal.ONE)));
+		} finally {
+			minorUnits.stop();
+		}
+	}
+
+	@Test
+	public void transferBatchAllOrNothingAppliesNothingWhenOneTransferOverdraws() {
+		this.repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		this.repository.createAccount(new Account("Id-2", new BigDecimal("50")));
+		this.repository.createAccount(new Account("Id-3", new BigDecimal("0")));
+		List<TransferRequest> transfers = Arrays.asList(
+				new TransferRequest("Id-1", "Id-2", new BigDecimal("80")),
+				new TransferRequest("Id-2", "Id-3", new BigDecimal("130")),
+				new TransferRequest("Id-3", "Id-1", new BigDecimal("131")));
+
+		BatchTransferResult result = this.repository.transferBatch(transfers, BatchMode.ALL_OR_NOTHING);
+
+		assertFalse(result.isFullyApplied());
+		assertEquals(0, this.repository.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100")));
+		assertEquals(0, this.repository.getAccount("Id-2").getBalance().compareTo(new BigDecimal("50")));
+		assertEquals(0, this.repository.getAccount("Id-3").getBalance().signum());
+
+		// In request order the first two transfers fund each other
+		result = this.repository.transferBatch(transfers.subList(0, 2), BatchMode.ALL_OR_NOTHING);
+		assertTrue(result.isFullyApplied());
+		assertEquals(0, this.repository.getAccount("Id-3").getBalance().compareTo(new BigDecimal("130")));
+	}
+
+	@Test
+	public void closedAccountsRefuseTransfersAcrossShardsAndInBatches() {
+		this.repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		this.repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		try {
+			this.repository.closeAccount("Id-1");
+			fail("An account holding money must not close");
+		} catch (AccountNotEmptyException ex) {
+			assertEquals("Account id Id-1 still holds a balance of 100", ex.getMessage());
+		}
+		assertTrue(this.repository.closeAccount("Id-2").isClosed());
+		assertEquals(1, this.repository.getAccount("Id-2").getVersion());
+
+		try {
+			this.repository.transfer("Id-1", "Id-2", BigDecimal.ONE);
+			fail("A closed account must not take deposits");
+		} catch (AccountClosedException ex) {
+			assertEquals("Account id Id-2 is closed", ex.getMessage());
+		}
+		BatchTransferResult result = this.repository.transferBatch(
+				Arrays.asList(new TransferRequest("Id-1", "Id-2", BigDecimal.ONE)), BatchMode.ALL_OR_NOTHING);
+		assertEquals(Status.REJECTED, result.getResults().get(0).getStatus());
+		assertEquals(0, this.repository.getAccount("Id-1").getBalance().compareTo(new BigDecimal("100")));
+		// Nowhere to archive to, so the store does not offer it
+		assertFalse(this.repository instanceof ArchivingAccountsRepository);
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentTransfersAndBatchesKeepTheTotal() throws Exception {
+		int accounts = 32;
+		for (int i = 0; i < accounts; i++) {
+			this.repository.createAccount(new Account("Id-" + i, new BigDecimal("100")));
+		}
+		int threads = 4;
+		this.executor = Executors.newFixedThreadPool(threads);
+
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int thread = t;
+			futures.add(this.executor.submit(() -> {
+				start.await();
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				for (int n = 0; n < 5000; n++) {
+					String from = "Id-" + random.nextInt(accounts);
+					String to = "Id-" + random.nextInt(accounts);
+					BigDecimal amount = new BigDecimal(random.nextInt(1, 30));
+					if (thread == 0 && n % 100 == 0) {
+						this.repository.transferBatch(Arrays.asList(new TransferRequest(from, to, amount),
+								new TransferRequest(to, from, amount)), BatchMode.BEST_EFFORT);
+						continue;
+					}
+					try {
+						this.repository.transfer(from, to, amount);
+					} catch (LowAccountBalanceException ex) {
+						// Expected now and then
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		// Commits travel back to the source shard after the caller has its answer
+		while (this.repository.getReservedTransfers() > 0) {
+			Thread.sleep(1);
+		}
+
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < accounts; i++) {
+			BigDecimal balance = this.repository.getAccount("Id-" + i).getBalance();
+			assertTrue(balance.signum() >= 0);
+			total = total.add(balance);
+		}
+		assertEquals(0, total.compareTo(new BigDecimal(100 * accounts)));
+	}
+}
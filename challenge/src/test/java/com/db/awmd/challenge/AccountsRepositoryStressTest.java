@@ -0,0 +1,128 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.fx.FxRateTable;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryJournaled;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.repository.AccountsRepositorySharded;
+import com.db.awmd.challenge.repository.ColdAccountStore;
+import com.db.awmd.challenge.service.NotificationService;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mockito;
+
+public class AccountsRepositoryStressTest {
+
+	private static final long SEED = 20170614L;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AccountsStressHarness harness = new AccountsStressHarness(SEED, 4, 16, 5000);
+
+	@Test(timeout = 60000)
+	public void inMemoryStoreWithDecimalBalances() throws Exception {
+		check("in-memory", this.harness.run(new AccountsRepositoryInMemory(notificationService())));
+	}
+
+	@Test(timeout = 60000)
+	public void inMemoryStoreWithMinorUnitBalances() throws Exception {
+		check("in-memory minor units", this.harness.run(
+				new AccountsRepositoryInMemory(notificationService(), MoneyMode.MINOR_UNITS, 2)));
+	}
+
+	@Test(timeout = 60000)
+	public void inMemoryStoreWithAStripedHotAccount() throws Exception {
+		// The harness aims its hot traffic at its first account
+		check("striped", this.harness.run(new AccountsRepositoryInMemory(notificationService(), MoneyMode.DECIMAL, 2,
+				new String[] { "Id-stress-0" }, 8, new TransferMetrics())));
+	}
+
+	@Test(timeout = 60000)
+	public void inMemoryStoreWhileAccountsMoveToTheColdStore() throws Exception {
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(notificationService(), MoneyMode.DECIMAL,
+				2, new String[0], 0, new TransferMetrics(), new FxRateTable(),
+				new ColdAccountStore(this.folder.newFile().getPath()), 0, 60);
+		AtomicBoolean running = new AtomicBoolean(true);
+		// With no idle time every account that kept its version for one pass moves out
+		Thread evictor = new Thread(() -> {
+			while (running.get()) {
+				repository.evictIdleAccounts(System.nanoTime());
+			}
+		});
+		evictor.start();
+		try {
+			check("tiered", this.harness.run(repository));
+		} finally {
+			running.set(false);
+			evictor.join();
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void shardedStore() throws Exception {
+		AccountsRepositorySharded repository = new AccountsRepositorySharded(notificationService(), 4);
+		repository.start();
+		try {
+			check("sharded", this.harness.run(repository, () -> repository.getReservedTransfers() == 0));
+		} finally {
+			repository.stop();
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void offHeapStore() throws Exception {
+		check("off-heap", this.harness.run(new AccountsRepositoryOffHeap(notificationService(), 2, 1024, 64)));
+	}
+
+	@Test(timeout = 60000)
+	public void journaledStore() throws Exception {
+		AccountsRepositoryJournaled repository = new AccountsRepositoryJournaled(
+				new AccountsRepositoryInMemory(notificationService()), this.folder.getRoot().getPath(), 1 << 20, false, 0,
+				60000);
+		repository.recover();
+		try {
+			check("journaled", this.harness.run(repository));
+		} finally {
+			repository.close();
+		}
+	}
+
+	@Test(timeout = 60000)
+	public void sameSeedOnOneThreadEndsWithTheSameBalances() throws Exception {
+		AccountsStressHarness singleThreaded = new AccountsStressHarness(SEED, 1, 16, 5000);
+		AccountsRepository first = new AccountsRepositoryInMemory(notificationService());
+		AccountsRepository second = new AccountsRepositoryInMemory(notificationService());
+
+		AccountsStressHarness.Result firstRun = singleThreaded.run(first);
+		AccountsStressHarness.Result secondRun = singleThreaded.run(second);
+
+		check("first", firstRun);
+		check("second", secondRun);
+		assertEquals(firstRun.getApplied(), secondRun.getApplied());
+		for (int i = 0; i < 16; i++) {
+			assertEquals(0, first.getAccount("Id-stress-" + i).getBalance()
+					.compareTo(second.getAccount("Id-stress-" + i).getBalance()));
+		}
+	}
+
+	private static void check(String store, AccountsStressHarness.Result result) {
+		System.out.printf("Stress %s: %s%n", store, result);
+		assertTrue("Store " + store + " broke under seed " + result.getSeed() + ": " + result.getViolations(),
+				result.getViolations().isEmpty());
+		assertTrue(result.getApplied() > 0);
+		assertTrue(result.getRejected() > 0);
+	}
+
+	private static NotificationService notificationService() {
+		return Mockito.mock(NotificationService.class);
+	}
+}
@@ -0,0 +1,374 @@
+package com.db.awmd.challenge;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferItemResult;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Randomized concurrent transfer workload that any {@link AccountsRepository} can be run against.
+ *
+ * <p>Each worker draws its operations from its own {@code Random} seeded from the harness seed and
+ * its index, so the operations every worker issues are the same on every run with that seed; only
+ * their interleaving changes. A failing run is repeated with {@code -Dstress.seed=<seed>}. Workers
+ * mix single transfers, batches in both modes and balance reads, with part of the traffic aimed at
+ * one hot account so that transfers contend.
+ *
+ * <p>While the workload runs, every balance read must be non-negative, must never go back to an
+ * older version than the same worker saw before, must show a newer version once the worker's own
+ * transfer on that account has returned, and must show the same amount as every other read of that
+ * version. Once the workload has finished and the store has settled, every account must hold its
+ * opening balance plus the transfers reported as applied, so no money is created or lost.
+ */
+public class AccountsStressHarness {
+
+	public static final String SEED_PROPERTY = "stress.seed";
+
+	private final long seed;
+
+	private final int threads;
+
+	private final int accounts;
+
+	private final int operationsPerThread;
+
+	private final BigDecimal openingBalance;
+
+	public AccountsStressHarness(long seed, int threads, int accounts, int operationsPerThread) {
+		this(seed, threads, accounts, operationsPerThread, new BigDecimal("100.00"));
+	}
+
+	public AccountsStressHarness(long seed, int threads, int accounts, int operationsPerThread,
+			BigDecimal openingBalance) {
+		this.seed = Long.getLong(SEED_PROPERTY, seed);
+		this.threads = threads;
+		this.accounts = accounts;
+		this.operationsPerThread = operationsPerThread;
+		this.openingBalance = openingBalance;
+	}
+
+	public long getSeed() {
+		return this.seed;
+	}
+
+	public Result run(AccountsRepository repository) throws Exception {
+		return run(repository, () -> true);
+	}
+
+	/**
+	 * Creates the accounts, runs the workload and checks the store. {@code settled} is polled after
+	 * the workers finish, for stores that complete some work in the background, and must turn true
+	 * before the final balances are compared.
+	 */
+	public Result run(AccountsRepository repository, BooleanSupplier settled) throws Exception {
+		for (int i = 0; i < this.accounts; i++) {
+			repository.createAccount(new Account(accountId(i), this.openingBalance));
+		}
+		Result result = new Result(this.seed, this.accounts);
+		List<ConcurrentMap<Long, BigDecimal>> observed = newObservedTable();
+		ExecutorService pool = Executors.newFixedThreadPool(this.threads);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<Worker>> futures = new ArrayList<>();
+			for (int i = 0; i < this.threads; i++) {
+				Worker worker = new Worker(i, repository, observed, result);
+				futures.add(pool.submit(() -> {
+					start.await();
+					worker.run();
+					return worker;
+				}));
+			}
+			long begin = System.nanoTime();
+			start.countDown();
+			for (Future<Worker> future : futures) {
+				result.merge(future.get());
+			}
+			result.elapsedNanos = System.nanoTime() - begin;
+		} finally {
+			pool.shutdownNow();
+		}
+
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!settled.getAsBoolean()) {
+			if (System.nanoTime() > deadline) {
+				result.violation("Store did not settle within 10 seconds");
+				return result;
+			}
+			Thread.sleep(1);
+		}
+		verifyFinalBalances(repository, result);
+		return result;
+	}
+
+	private void verifyFinalBalances(AccountsRepository repository, Result result) {
+		BigDecimal total = BigDecimal.ZERO;
+		for (int i = 0; i < this.accounts; i++) {
+			Account account = repository.getAccount(accountId(i));
+			if (account == null) {
+				result.violation(accountId(i) + " is missing after the run");
+				continue;
+			}
+			BigDecimal balance = account.getBalance();
+			BigDecimal expected = this.openingBalance.add(result.deltas[i]);
+			if (balance.compareTo(expected) != 0) {
+				result.violation(accountId(i) + " holds " + balance + " but applied transfers leave " + expected);
+			}
+			total = total.add(balance);
+		}
+		BigDecimal opening = this.openingBalance.multiply(BigDecimal.valueOf(this.accounts));
+		if (total.compareTo(opening) != 0) {
+			result.violation("Accounts hold " + total + " in total but opened with " + opening);
+		}
+	}
+
+	private List<ConcurrentMap<Long, BigDecimal>> newObservedTable() {
+		List<ConcurrentMap<Long, BigDecimal>> observed = new ArrayList<>(this.accounts);
+		for (int i = 0; i < this.accounts; i++) {
+			observed.add(new ConcurrentHashMap<>());
+		}
+		return observed;
+	}
+
+	private static String accountId(int index) {
+		return "Id-stress-" + index;
+	}
+
+	/**
+	 * One worker thread's operations and what it saw.
+	 */
+	private final class Worker {
+
+		private final Random random;
+
+		private final AccountsRepository repository;
+
+		private final List<ConcurrentMap<Long, BigDecimal>> observed;
+
+		private final Result result;
+
+		private final BigDecimal[] deltas = new BigDecimal[AccountsStressHarness.this.accounts];
+
+		// Highest version this worker has read per account, and whether it has changed the account since
+		private final long[] lastSeenVersion = new long[AccountsStressHarness.this.accounts];
+
+		private final boolean[] wroteSinceRead = new boolean[AccountsStressHarness.this.accounts];
+
+		private long applied;
+
+		private long rejected;
+
+		private long reads;
+
+		private Worker(int index, AccountsRepository repository, List<ConcurrentMap<Long, BigDecimal>> observed,
+				Result result) {
+			this.random = new Random(AccountsStressHarness.this.seed * 31 + index);
+			this.repository = repository;
+			this.observed = observed;
+			this.result = result;
+			Arrays.fill(this.deltas, BigDecimal.ZERO);
+			Arrays.fill(this.lastSeenVersion, -1);
+		}
+
+		private void run() {
+			for (int n = 0; n < AccountsStressHarness.this.operationsPerThread; n++) {
+				int operation = this.random.nextInt(100);
+				if (operation < 60) {
+					transfer();
+				} else if (operation < 75) {
+					batch();
+				} else {
+					read(this.random.nextInt(AccountsStressHarness.this.accounts));
+				}
+			}
+		}
+
+		private void transfer() {
+			int from = pickAccount();
+			int to = pickOther(from);
+			BigDecimal amount = pickAmount();
+			try {
+				TransferResult transfer = this.repository.transfer(accountId(from), accountId(to), amount);
+				if (transfer.getNewWithdrawnAccountBalance().signum() < 0) {
+					this.result.violation(accountId(from) + " went to " + transfer.getNewWithdrawnAccountBalance());
+				}
+				applied(from, to, amount);
+			} catch (LowAccountBalanceException ex) {
+				this.rejected++;
+			} catch (RuntimeException ex) {
+				this.result.violation("Transfer from " + accountId(from) + " failed: " + ex);
+			}
+		}
+
+		private void batch() {
+			int size = 2 + this.random.nextInt(4);
+			BatchMode mode = this.random.nextBoolean() ? BatchMode.ALL_OR_NOTHING : BatchMode.BEST_EFFORT;
+			int[] from = new int[size];
+			int[] to = new int[size];
+			List<TransferRequest> requests = new ArrayList<>(size);
+			for (int i = 0; i < size; i++) {
+				from[i] = pickAccount();
+				to[i] = pickOther(from[i]);
+				requests.add(new TransferRequest(accountId(from[i]), accountId(to[i]), pickAmount()));
+			}
+			BatchTransferResult batch;
+			try {
+				batch = this.repository.transferBatch(requests, mode);
+			} catch (RuntimeException ex) {
+				this.result.violation("Batch failed: " + ex);
+				return;
+			}
+			if (mode == BatchMode.ALL_OR_NOTHING && batch.getApplied() != 0 && !batch.isFullyApplied()) {
+				this.result.violation("All-or-nothing batch applied " + batch.getApplied() + " of " + size);
+			}
+			for (BatchTransferItemResult item : batch.getResults()) {
+				int i = item.getIndex();
+				if (item.getStatus() == BatchTransferItemResult.Status.APPLIED) {
+					applied(from[i], to[i], requests.get(i).getAmount());
+				} else {
+					this.rejected++;
+				}
+			}
+		}
+
+		private void read(int index) {
+			this.reads++;
+			Account account = this.repository.getAccount(accountId(index));
+			if (account == null) {
+				this.result.violation(accountId(index) + " disappeared");
+				return;
+			}
+			Balance balance = account.currentBalance();
+			BigDecimal amount = balance.getAmount();
+			long version = balance.getVersion();
+			if (amount.signum() < 0) {
+				this.result.violation(accountId(index) + " read as " + amount + " at version " + version);
+			}
+			if (version < this.lastSeenVersion[index]
+					|| (this.wroteSinceRead[index] && version == this.lastSeenVersion[index])) {
+				this.result.violation(accountId(index) + " read at version " + version + " after version "
+						+ this.lastSeenVersion[index] + (this.wroteSinceRead[index] ? " and a transfer" : ""));
+			}
+			BigDecimal previous = this.observed.get(index).putIfAbsent(version, amount);
+			if (previous != null && previous.compareTo(amount) != 0) {
+				this.result.violation(accountId(index) + " version " + version + " read as both " + previous
+						+ " and " + amount);
+			}
+			this.lastSeenVersion[index] = Math.max(this.lastSeenVersion[index], version);
+			this.wroteSinceRead[index] = false;
+		}
+
+		private void applied(int from, int to, BigDecimal amount) {
+			this.applied++;
+			this.deltas[from] = this.deltas[from].subtract(amount);
+			this.deltas[to] = this.deltas[to].add(amount);
+			this.wroteSinceRead[from] = true;
+			this.wroteSinceRead[to] = true;
+		}
+
+		private int pickAccount() {
+			// A fifth of the traffic touches the first account, so transfers contend on it
+			return this.random.nextInt(5) == 0 ? 0 : this.random.nextInt(AccountsStressHarness.this.accounts);
+		}
+
+		private int pickOther(int account) {
+			int other = this.random.nextInt(AccountsStressHarness.this.accounts - 1);
+			return other >= account ? other + 1 : other;
+		}
+
+		private BigDecimal pickAmount() {
+			return BigDecimal.valueOf(1 + this.random.nextInt(5000), 2);
+		}
+	}
+
+	/**
+	 * What a run did and every rule it saw broken.
+	 */
+	public static final class Result {
+
+		private final long seed;
+
+		private final BigDecimal[] deltas;
+
+		private final List<String> violations = Collections.synchronizedList(new ArrayList<>());
+
+		private long applied;
+
+		private long rejected;
+
+		private long reads;
+
+		private long elapsedNanos;
+
+		private Result(long seed, int accounts) {
+			this.seed = seed;
+			this.deltas = new BigDecimal[accounts];
+			Arrays.fill(this.deltas, BigDecimal.ZERO);
+		}
+
+		public long getSeed() {
+			return this.seed;
+		}
+
+		public long getApplied() {
+			return this.applied;
+		}
+
+		public long getRejected() {
+			return this.rejected;
+		}
+
+		public long getReads() {
+			return this.reads;
+		}
+
+		public List<String> getViolations() {
+			return this.violations;
+		}
+
+		public double getOperationsPerSecond() {
+			long operations = this.applied + this.rejected + this.reads;
+			return this.elapsedNanos == 0 ? 0 : (double) operations * TimeUnit.SECONDS.toNanos(1) / this.elapsedNanos;
+		}
+
+		private void violation(String message) {
+			// Keeps a broken store from flooding the report
+			if (this.violations.size() < 20) {
+				this.violations.add(message);
+			}
+		}
+
+		private void merge(Worker worker) {
+			this.applied += worker.applied;
+			this.rejected += worker.rejected;
+			this.reads += worker.reads;
+			for (int i = 0; i < this.deltas.length; i++) {
+				this.deltas[i] = this.deltas[i].add(worker.deltas[i]);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return String.format("seed %d: %d applied, %d rejected, %d reads, %.0f ops/s, %d violations", this.seed,
+					this.applied, this.rejected, this.reads, getOperationsPerSecond(), this.violations.size());
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AccountsTransferContentionTest {
+
+	private static final int TRANSFERS_PER_THREAD = 5000;
+
+	private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000");
+
+	private AccountsService accountsService;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		NotificationService notificationService = Mockito.mock(NotificationService.class);
+		this.accountsService = new AccountsService(new AccountsRepositoryInMemory(notificationService));
+	}
+
+	@After
+	public void tearDown() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	// How this scales across cores is measured by DisjointTransfersBenchmark; timing has no place here
+	@Test(timeout = 60000)
+	public void transfersOnDisjointPairsKeepEachPairsTotal() throws Exception {
+		runDisjointPairs(Math.max(2, Runtime.getRuntime().availableProcessors()));
+	}
+
+	@Test(timeout = 30000)
+	public void opposingTransfersOnSamePairDoNotDeadlock() throws Exception {
+		this.accountsService.createAccount(new Account("Id-A", INITIAL_BALANCE));
+		this.accountsService.createAccount(new Account("Id-B", INITIAL_BALANCE));
+		this.executor = Executors.newFixedThreadPool(2);
+
+		CountDownLatch start = new CountDownLatch(1);
+		Future<?> aToB = this.executor.submit(() -> pingPong(start, "Id-A", "Id-B"));
+		Future<?> bToA = this.executor.submit(() -> pingPong(start, "Id-B", "Id-A"));
+		start.countDown();
+		aToB.get();
+		bToA.get();
+
+		BigDecimal total = this.accountsService.getAccount("Id-A").getBalance()
+				.add(this.accountsService.getAccount("Id-B").getBalance());
+		assertEquals(0, total.compareTo(INITIAL_BALANCE.add(INITIAL_BALANCE)));
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentCreditsAndTransfersKeepBalancesExact() throws Exception {
+		this.accountsService.createAccount(new Account("Id-hot", BigDecimal.ZERO));
+		this.accountsService.createAccount(new Account("Id-source", INITIAL_BALANCE));
+		int threads = 4;
+		this.executor = Executors.newFixedThreadPool(threads);
+
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			boolean transfers = i % 2 == 0;
+			futures.add(this.executor.submit(() -> {
+				start.await();
+				for (int n = 0; n < 250; n++) {
+					if (transfers) {
+						this.accountsService.transfer("Id-source", "Id-hot", BigDecimal.ONE);
+					} else {
+						this.accountsService.deposit("Id-source", "Id-hot", BigDecimal.ONE);
+					}
+				}
+				return null;
+			}));
+		}
+		start.countDown();
+		for (Future<?> future : futures) {
+			future.get();
+		}
+
+		Account hot = this.accountsService.getAccount("Id-hot");
+		assertEquals(0, hot.getBalance().compareTo(new BigDecimal(threads * 250)));
+		assertEquals(threads * 250, hot.currentBalance().getVersion());
+		assertEquals(0, this.accountsService.getAccount("Id-source").getBalance().compareTo(new BigDecimal("500")));
+	}
+
+	private void runDisjointPairs(int threads) throws Exception {
+		this.accountsService.getAccountsRepository().clearAccounts();
+		for (int i = 0; i < threads; i++) {
+			this.accountsService.createAccount(new Account("Id-" + i + "-from", INITIAL_BALANCE));
+			this.accountsService.createAccount(new Account("Id-" + i + "-to", INITIAL_BALANCE));
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			CountDownLatch start = new CountDownLatch(1);
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < threads; i++) {
+				String from = "Id-" + i + "-from";
+				String to = "Id-" + i + "-to";
+				futures.add(pool.submit(() -> pingPong(start, from, to)));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get();
+			}
+
+			for (int i = 0; i < threads; i++) {
+				BigDecimal total = this.accountsService.getAccount("Id-" + i + "-from").getBalance()
+						.add(this.accountsService.getAccount("Id-" + i + "-to").getBalance());
+				assertEquals(0, total.compareTo(INITIAL_BALANCE.add(INITIAL_BALANCE)));
+				assertEquals(TRANSFERS_PER_THREAD,
+						this.accountsService.getAccount("Id-" + i + "-from").currentBalance().getVersion());
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	private Void pingPong(CountDownLatch start, String fromAccountId, String toAccountId) throws Exception {
+		start.await();
+		BigDecimal amount = BigDecimal.ONE;
+		for (int i = 0; i < TRANSFERS_PER_THREAD; i++) {
+			if (i % 2 == 0) {
+				this.accountsService.transfer(fromAccountId, toAccountId, amount);
+			} else {
+				this.accountsService.transfer(toAccountId, fromAccountId, amount);
+			}
+		}
+		return null;
+	}
+}
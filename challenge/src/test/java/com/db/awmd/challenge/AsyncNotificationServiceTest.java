@@ -0,0 +1,99 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.service.AsyncNotificationService;
+import com.db.awmd.challenge.service.BackpressurePolicy;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.service.TransferDirection;
+import java.math.BigDecimal;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class AsyncNotificationServiceTest {
+
+	@Test
+	public void notificationsQueuedTogetherAreGroupedPerAccount() throws Exception {
+		NotificationService delegate = Mockito.mock(NotificationService.class);
+		AsyncNotificationService notificationService = new AsyncNotificationService(delegate, 100, 1, 100,
+				BackpressurePolicy.BLOCK);
+		Account account = new Account("Id-1");
+		notificationService.notifyAboutTransfer(account, "first");
+		notificationService.notifyAboutTransfer(account, "second");
+
+		// Started after enqueueing so both notifications are drained in one pass
+		notificationService.start();
+		notificationService.stop();
+
+		Mockito.verify(delegate).notifyAboutTransfer(account, "first\nsecond");
+		assertEquals(2, notificationService.getSentCount());
+		assertEquals(0, notificationService.getQueueDepth());
+	}
+
+	@Test
+	public void transferDescriptionIsBuiltWhenSent() throws Exception {
+		NotificationService delegate = Mockito.mock(NotificationService.class);
+		AsyncNotificationService notificationService = new AsyncNotificationService(delegate, 100, 1, 100,
+				BackpressurePolicy.BLOCK);
+		Account account = new Account("Id-1");
+		notificationService.notifyAboutTransfer(account, TransferDirection.OUTGOING, new BigDecimal("12.50"));
+		notificationService.notifyAboutTransfer("Id-2", TransferDirection.INCOMING, new BigDecimal("12.50"));
+
+		notificationService.start();
+		notificationService.stop();
+
+		Mockito.verify(delegate).notifyAboutTransfer(account, "Amount being transfered from account Id-1 is 12.50");
+		Mockito.verify(delegate).notifyAboutTransfer(new Account("Id-2"), "Amount being transfered to account Id-2 is 12.50");
+	}
+
+	@Test
+	public void fullQueueDropsOrBuffersAccordingToPolicy() {
+		// Workers are never started, so the single queue slot stays taken
+		NotificationService delegate = Mockito.mock(NotificationService.class);
+		AsyncNotificationService dropping = new AsyncNotificationService(delegate, 1, 1, 1, BackpressurePolicy.DROP);
+		AsyncNotificationService buffering = new AsyncNotificationService(delegate, 1, 1, 1,
+				BackpressurePolicy.OVERFLOW_BUFFER);
+		Account account = new Account("Id-1");
+		for (int i = 0; i < 3; i++) {
+			dropping.notifyAboutTransfer(account, "transfer " + i);
+			buffering.notifyAboutTransfer(account, "transfer " + i);
+		}
+
+		assertEquals(2, dropping.getDroppedCount());
+		assertEquals(2, buffering.getOverflowedCount());
+		assertEquals(3, buffering.getQueueDepth());
+	}
+
+	@Test
+	public void overflowBufferStopsAtItsCapacity() {
+		NotificationService delegate = Mockito.mock(NotificationService.class);
+		AsyncNotificationService buffering = new AsyncNotificationService(delegate, 1, 1, 1,
+				BackpressurePolicy.OVERFLOW_BUFFER, 2, new TransferMetrics());
+		Account account = new Account("Id-1");
+		for (int i = 0; i < 5; i++) {
+			buffering.notifyAboutTransfer(account, "transfer " + i);
+		}
+
+		assertEquals(2, buffering.getOverflowedCount());
+		assertEquals(2, buffering.getDroppedCount());
+		assertEquals(3, buffering.getQueueDepth());
+	}
+
+	@Test
+	public void aNotificationWithoutAnAccountDoesNotStopTheWorker() throws Exception {
+		NotificationService delegate = Mockito.mock(NotificationService.class);
+		AsyncNotificationService notificationService = new AsyncNotificationService(delegate, 100, 1, 1,
+				BackpressurePolicy.BLOCK);
+		notificationService.start();
+		Account account = new Account("Id-1");
+		notificationService.notifyAboutTransfer((Account) null, TransferDirection.OUTGOING, BigDecimal.ONE);
+		notificationService.notifyAboutTransfer(account, "after");
+
+		Mockito.verify(delegate, Mockito.timeout(5000)).notifyAboutTransfer(account, "after");
+		notificationService.stop();
+		assertEquals(1, notificationService.getSendFailureCount());
+		assertEquals(1, notificationService.getSentCount());
+	}
+}
@@ -0,0 +1,172 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.web.TransferAdmission;
+import com.db.awmd.challenge.wire.BinaryTransferProtocol;
+import com.db.awmd.challenge.wire.BinaryTransferServer;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class BinaryTransferServerTest {
+
+	private AccountsService accountsService;
+
+	private BinaryTransferServer server;
+
+	private SocketChannel client;
+
+	@Before
+	public void setUp() throws Exception {
+		this.accountsService = new AccountsService(
+				new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class)));
+		this.accountsService.createAccount(new Account("Id-1", new BigDecimal("100")));
+		this.accountsService.createAccount(new Account("Id-2", new BigDecimal("10")));
+		this.server = new BinaryTransferServer(this.accountsService, 0, 1, 1024, 100);
+		this.server.start();
+		this.client = SocketChannel.open(new InetSocketAddress("localhost", this.server.getPort()));
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		this.client.close();
+		this.server.stop();
+	}
+
+	@Test(timeout = 10000)
+	public void pipelinedTransfersAreAnsweredInOrder() throws Exception {
+		ByteBuffer requests = ByteBuffer.allocate(1024);
+		BinaryTransferProtocol.putTransfer(requests, 7, "Id-1", "Id-2", new BigDecimal("10.50"));
+		BinaryTransferProtocol.putTransfer(requests, 8, "Id-2", "Id-1", new BigDecimal("1000"));
+		BinaryTransferProtocol.putTransfer(requests, 9, "Id-1", "Id-missing", BigDecimal.ONE);
+		send(requests);
+
+		ByteBuffer applied = receive();
+		assertEquals(BinaryTransferProtocol.OK, applied.get());
+		assertEquals(7, applied.getInt());
+		assertEquals(new BigDecimal("89.50"), BinaryTransferProtocol.getAmount(applied));
+		assertEquals(new BigDecimal("20.50"), BinaryTransferProtocol.getAmount(applied));
+
+		ByteBuffer lowBalance = receive();
+		assertEquals(BinaryTransferProtocol.LOW_BALANCE, lowBalance.get());
+		assertEquals(8, lowBalance.getInt());
+
+		ByteBuffer unknown = receive();
+		assertEquals(BinaryTransferProtocol.INVALID_ACCOUNT, unknown.get());
+		assertEquals(9, unknown.getInt());
+		assertEquals("Please enter a valid account id!", message(unknown));
+
+		assertEquals(3, this.server.getFrameCount());
+		assertEquals(1, this.accountsService.transferHistory("Id-1", null, null, 10).getTransfers().size());
+	}
+
+	@Test(timeout = 10000)
+	public void batchFramesGoThroughTheService() throws Exception {
+		ByteBuffer requests = ByteBuffer.allocate(1024);
+		BinaryTransferProtocol.putBatch(requests, 1, BatchMode.BEST_EFFORT,
+				Arrays.asList(new TransferRequest("Id-1", "Id-2", BigDecimal.TEN),
+						new TransferRequest("Id-2", "Id-1", new BigDecimal("500"))));
+		send(requests);
+
+		ByteBuffer response = receive();
+		assertEquals(BinaryTransferProtocol.OK, response.get());
+		assertEquals(1, response.getInt());
+		assertEquals(1, response.getInt());
+		assertEquals(1, response.getInt());
+		assertEquals(BinaryTransferProtocol.ITEM_APPLIED, response.get());
+		assertEquals(BinaryTransferProtocol.ITEM_REJECTED, response.get());
+		assertEquals(0, this.accountsService.getAccount("Id-2").getBalance().compareTo(new BigDecimal("20")));
+	}
+
+	@Test(timeout = 10000)
+	public void malformedFramesAreRejectedAndOversizedOnesCloseTheConnection() throws Exception {
+		ByteBuffer requests = ByteBuffer.allocate(64);
+		requests.putInt(6).put((byte) 42).putInt(5).put((byte) 0);
+		requests.putInt(5000);
+		send(requests);
+
+		ByteBuffer unknownType = receive();
+		assertEquals(BinaryTransferProtocol.BAD_FRAME, unknownType.get());
+		assertEquals(5, unknownType.getInt());
+
+		ByteBuffer oversized = receive();
+		assertEquals(BinaryTransferProtocol.BAD_FRAME, oversized.get());
+		assertEquals(0, oversized.getInt());
+		assertTrue(this.client.read(ByteBuffer.allocate(1)) < 0);
+		assertEquals(2, this.server.getBadFrameCount());
+	}
+
+	@Test(timeout = 10000)
+	public void framesOverTheAdmissionLimitsAreThrottled() throws Exception {
+		this.client.close();
+		this.server.stop();
+		TransferAdmission admission = new TransferAdmission(0, 0, 1, 2, 100, 0);
+		this.server = new BinaryTransferServer(this.accountsService, admission, 0, 1, 1024, 100);
+		this.server.start();
+		this.client = SocketChannel.open(new InetSocketAddress("localhost", this.server.getPort()));
+
+		ByteBuffer requests = ByteBuffer.allocate(1024);
+		for (int i = 0; i < 3; i++) {
+			BinaryTransferProtocol.putTransfer(requests, i, "Id-1", "Id-2", BigDecimal.ONE);
+		}
+		BinaryTransferProtocol.putTransfer(requests, 3, "Id-2", "Id-1", BigDecimal.ONE);
+		send(requests);
+
+		assertEquals(BinaryTransferProtocol.OK, receive().get());
+		assertEquals(BinaryTransferProtocol.OK, receive().get());
+		ByteBuffer throttled = receive();
+		assertEquals(BinaryTransferProtocol.THROTTLED, throttled.get());
+		assertEquals(2, throttled.getInt());
+		assertEquals("Too many transfers from account Id-1", message(throttled));
+		assertEquals(BinaryTransferProtocol.OK, receive().get());
+
+		assertEquals(1, admission.getAccountRejectionCount());
+		assertEquals(0, this.accountsService.getAccount("Id-1").getBalance().compareTo(new BigDecimal("99")));
+	}
+
+	private void send(ByteBuffer requests) throws IOException {
+		requests.flip();
+		while (requests.hasRemaining()) {
+			this.client.write(requests);
+		}
+	}
+
+	private ByteBuffer receive() throws IOException {
+		ByteBuffer length = readFully(4);
+		return readFully(length.getInt());
+	}
+
+	private ByteBuffer readFully(int size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+		while (buffer.hasRemaining()) {
+			if (this.client.read(buffer) < 0) {
+				throw new EOFException();
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	private static String message(ByteBuffer response) {
+		byte[] bytes = new byte[response.getShort()];
+		response.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,184 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.BatchTransferResult;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.InvalidAmountException;
+import com.db.awmd.challenge.exception.UnsupportedCurrencyException;
+import com.db.awmd.challenge.fx.FxRateTable;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepository;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.repository.AccountsRepositoryOffHeap;
+import com.db.awmd.challenge.repository.AccountsRepositorySharded;
+import com.db.awmd.challenge.service.NotificationService;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class FxTransferTest {
+
+	private FxRateTable fxRates;
+
+	@Before
+	public void setUp() {
+		this.fxRates = new FxRateTable();
+		Map<String, BigDecimal> rates = new HashMap<>();
+		rates.put("USD", new BigDecimal("1.10"));
+		rates.put("JPY", new BigDecimal("160"));
+		this.fxRates.update(rates);
+	}
+
+	@Test
+	public void transferBetweenCurrenciesCreditsTheConvertedAmount() {
+		AccountsRepository repository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class),
+				MoneyMode.DECIMAL, 2, new String[0], 0, new TransferMetrics(), this.fxRates);
+		repository.createAccount(new Account("Id-eur", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-usd", new BigDecimal("0"), "USD"));
+		repository.createAccount(new Account("Id-jpy", new BigDecimal("0"), "JPY"));
+
+		TransferResult toUsd = repository.transfer("Id-eur", "Id-usd", new BigDecimal("10"));
+		assertEquals(0, toUsd.getNewWithdrawnAccountBalance().compareTo(new BigDecimal("90")));
+		assertEquals(new BigDecimal("11.00"), toUsd.getDepositedAmount());
+		assertEquals(0, toUsd.getRate().compareTo(new BigDecimal("1.10")));
+
+		// Yen has no minor unit, and the USD to JPY rate is crossed through the base currency
+		TransferResult toJpy = repository.transfer("Id-usd", "Id-jpy", new BigDecimal("1.00"));
+		assertEquals(new BigDecimal("145"), toJpy.getDepositedAmount());
+
+		TransferResult sameCurrency = repository.transfer("Id-eur", "Id-eur", BigDecimal.ONE);
+		assertNull(sameCurrency.getRate());
+		assertNull(sameCurrency.getDepositedAmount());
+	}
+
+	@Test
+	public void missingRatesAndUnknownCurrenciesAreRejected() {
+		AccountsRepository repository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class),
+				MoneyMode.MINOR_UNITS, 2, new String[0], 0, new TransferMetrics(), this.fxRates);
+		repository.createAccount(new Account("Id-eur", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-chf", new BigDecimal("0"), "CHF"));
+		try {
+			repository.createAccount(new Account("Id-xyz", BigDecimal.ZERO, "XYZ"));
+			fail("Should have rejected an unknown currency");
+		} catch (UnsupportedCurrencyException ex) {
+			assertEquals("Unknown currency XYZ", ex.getMessage());
+		}
+
+		try {
+			repository.transfer("Id-eur", "Id-chf", BigDecimal.TEN);
+			fail("Should have rejected a pair without a rate");
+		} catch (UnsupportedCurrencyException ex) {
+			assertEquals("No exchange rate from EUR to CHF", ex.getMessage());
+		}
+		assertEquals(0, repository.getAccount("Id-eur").getBalance().compareTo(new BigDecimal("100")));
+
+		BatchTransferResult result = repository.transferBatch(
+				Arrays.asList(new TransferRequest("Id-eur", "Id-chf", BigDecimal.ONE)), BatchMode.BEST_EFFORT);
+		assertEquals(1, result.getRejected());
+	}
+
+	@Test
+	public void minorUnitsCountEachCurrencysOwnDecimals() {
+		AccountsRepository repository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class),
+				MoneyMode.MINOR_UNITS, 4, new String[0], 0, new TransferMetrics(), this.fxRates);
+		repository.createAccount(new Account("Id-usd", new BigDecimal("10"), "USD"));
+		repository.createAccount(new Account("Id-jpy", BigDecimal.ZERO, "JPY"));
+
+		// Yen is rounded to whole units, not to accounts.money.scale
+		TransferResult toJpy = repository.transfer("Id-usd", "Id-jpy", new BigDecimal("1.00"));
+		assertEquals(new BigDecimal("145"), toJpy.getDepositedAmount());
+		assertEquals(0, repository.getAccount("Id-jpy").getBalance().compareTo(new BigDecimal("145")));
+		try {
+			repository.transfer("Id-jpy", "Id-usd", new BigDecimal("0.5"));
+			fail("Should have rejected a fraction of a yen");
+		} catch (InvalidAmountException ex) {
+			assertEquals(0, repository.getAccount("Id-jpy").getBalance().compareTo(new BigDecimal("145")));
+		}
+	}
+
+	@Test
+	public void offHeapStoreKeepsCurrenciesAndConverts() {
+		AccountsRepositoryOffHeap repository = new AccountsRepositoryOffHeap(Mockito.mock(NotificationService.class), 2,
+				100, 16, new TransferMetrics(), this.fxRates);
+		repository.createAccount(new Account("Id-eur", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-usd", BigDecimal.ZERO, "USD"));
+		repository.createAccount(new Account("Id-jpy", BigDecimal.ZERO, "JPY"));
+
+		TransferResult toUsd = repository.transfer("Id-eur", "Id-usd", new BigDecimal("10"));
+		assertEquals(new BigDecimal("11.00"), toUsd.getDepositedAmount());
+		assertEquals("USD", repository.getAccount("Id-usd").getCurrency());
+		assertNull(repository.getAccount("Id-eur").getCurrency());
+
+		BatchTransferResult batch = repository.transferBatch(
+				Arrays.asList(new TransferRequest("Id-usd", "Id-jpy", new BigDecimal("1.00"))), BatchMode.ALL_OR_NOTHING);
+		assertTrue(batch.isFullyApplied());
+		assertEquals(0, repository.getAccount("Id-jpy").getBalance().compareTo(new BigDecimal("145")));
+		assertEquals(0, repository.getAccount("Id-usd").getBalance().compareTo(new BigDecimal("10")));
+	}
+
+	@Test
+	public void shardedStoreConvertsWithinAndAcrossShards() throws Exception {
+		AccountsRepositorySharded repository = new AccountsRepositorySharded(Mockito.mock(NotificationService.class),
+				MoneyMode.MINOR_UNITS, 2, 4, this.fxRates);
+		repository.start();
+		try {
+			repository.createAccount(new Account("Id-eur", new BigDecimal("1000")));
+			for (int i = 0; i < 8; i++) {
+				repository.createAccount(new Account("Id-usd-" + i, BigDecimal.ZERO, "USD"));
+				TransferResult result = repository.transfer("Id-eur", "Id-usd-" + i, new BigDecimal("20"));
+				assertEquals(0, result.getNewDepositedAccountBalance().compareTo(new BigDecimal("22")));
+			}
+			assertEquals(0, repository.getAccount("Id-eur").getBalance().compareTo(new BigDecimal("840")));
+
+			BatchTransferResult batch = repository.transferBatch(
+					Arrays.asList(new TransferRequest("Id-usd-0", "Id-eur", new BigDecimal("11"))),
+					BatchMode.ALL_OR_NOTHING);
+			assertTrue(batch.isFullyApplied());
+			assertEquals(0, repository.getAccount("Id-eur").getBalance().compareTo(new BigDecimal("850")));
+		} finally {
+			repository.stop();
+		}
+	}
+
+	@Test
+	public void ratesFileIsReloadedWhenItChangesAndKeptWhenItIsBroken() throws Exception {
+		Path file = Files.createTempFile("fx-rates", ".properties");
+		try {
+			Files.write(file, "USD=1.25\n".getBytes(StandardCharsets.UTF_8));
+			FxRateTable table = new FxRateTable("EUR", file.toString(), 0);
+			table.start();
+			assertEquals(0, table.getRate("EUR", "USD").compareTo(new BigDecimal("1.25")));
+			assertEquals(0, table.getRate("USD", "EUR").compareTo(new BigDecimal("0.8")));
+
+			Files.write(file, "USD=1.5\nGBP=0.75\n".getBytes(StandardCharsets.UTF_8));
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+			table.refresh();
+			assertEquals(0, table.getRate("GBP", "USD").compareTo(new BigDecimal("2")));
+
+			Files.write(file, "USD=not a rate\n".getBytes(StandardCharsets.UTF_8));
+			Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() + 10000));
+			table.refresh();
+			assertEquals(0, table.getRate("EUR", "USD").compareTo(new BigDecimal("1.5")));
+			assertFalse(table.sameCurrency("USD", null));
+		} finally {
+			Files.delete(file);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.exception.IdempotencyKeyReusedException;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.web.AccountResponseCache;
+import com.db.awmd.challenge.web.AccountsController;
+import com.db.awmd.challenge.web.IdempotencyCache;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpStatus;
+
+public class IdempotencyCacheTest {
+
+	@Test
+	public void repeatedKeyReturnsOriginalResultWithoutRunningAgain() {
+		IdempotencyCache cache = new IdempotencyCache(100, 60, 4);
+		AtomicInteger runs = new AtomicInteger();
+
+		assertEquals(Integer.valueOf(1), cache.execute("key-1", runs::incrementAndGet));
+		assertEquals(Integer.valueOf(1), cache.execute("key-1", runs::incrementAndGet));
+		assertEquals(Integer.valueOf(2), cache.execute("key-2", runs::incrementAndGet));
+
+		assertEquals(2, runs.get());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void failedActionIsNotRemembered() {
+		IdempotencyCache cache = new IdempotencyCache(100, 60, 4);
+		try {
+			cache.execute("key-1", () -> {
+				throw new IllegalStateException("backend down");
+			});
+			fail("Expected the failure to propagate");
+		} catch (IllegalStateException expected) {
+		}
+
+		assertEquals("retried", cache.execute("key-1", () -> "retried"));
+	}
+
+	@Test
+	public void keyReusedForAnotherRequestIsRefused() {
+		IdempotencyCache cache = new IdempotencyCache(100, 60, 4);
+		assertEquals("first", cache.execute("key-1", 1L, () -> "first"));
+		try {
+			cache.execute("key-1", 2L, () -> "second");
+			fail("Should have refused a key sent with another request");
+		} catch (IdempotencyKeyReusedException expected) {
+		}
+		assertEquals("first", cache.execute("key-1", 1L, () -> "second"));
+	}
+
+	@Test
+	public void controllerScopesKeysPerClientAndAnswers422ForAnotherTransfer() {
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class));
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", BigDecimal.ZERO));
+		AccountsController controller = new AccountsController(new AccountsService(repository),
+				new AccountsBulkService(repository), new IdempotencyCache(100, 3600, 4),
+				new AccountResponseCache(new ObjectMapper(), 100, 4), 100);
+
+		assertEquals(HttpStatus.OK, controller.transferMoney("Id-1", "Id-2", BigDecimal.TEN, "key", "client-a")
+				.getStatusCode());
+		// The same transfer at another scale is the same request, and is not applied again
+		assertEquals(HttpStatus.OK, controller.transferMoney("Id-1", "Id-2", new BigDecimal("10.00"), "key", "client-a")
+				.getStatusCode());
+		assertEquals(HttpStatus.UNPROCESSABLE_ENTITY,
+				controller.transferMoney("Id-1", "Id-2", BigDecimal.ONE, "key", "client-a").getStatusCode());
+		assertEquals(0, repository.getAccount("Id-2").getBalance().compareTo(BigDecimal.TEN));
+
+		// Another client's key of the same name is its own
+		assertEquals(HttpStatus.OK, controller.transferMoney("Id-1", "Id-2", BigDecimal.ONE, "key", "client-b")
+				.getStatusCode());
+		assertEquals(0, repository.getAccount("Id-2").getBalance().compareTo(new BigDecimal("11")));
+	}
+
+	@Test
+	public void oldestKeysAreEvictedWhenFull() {
+		IdempotencyCache cache = new IdempotencyCache(2, 60, 1);
+		cache.execute("key-1", () -> "first");
+		cache.execute("key-2", () -> "second");
+		cache.execute("key-3", () -> "third");
+
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2, cache.size());
+		assertEquals("again", cache.execute("key-1", () -> "again"));
+	}
+}
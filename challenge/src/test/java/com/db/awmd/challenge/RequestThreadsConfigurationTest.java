@@ -0,0 +1,102 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.db.awmd.challenge.web.RequestThreadMode;
+import com.db.awmd.challenge.web.RequestThreadsConfiguration;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.boot.context.embedded.EmbeddedServletContainer;
+import org.springframework.boot.context.embedded.tomcat.TomcatConnectorCustomizer;
+import org.springframework.boot.context.embedded.tomcat.TomcatEmbeddedServletContainerFactory;
+
+public class RequestThreadsConfigurationTest {
+
+	private ExecutorService executor;
+
+	private EmbeddedServletContainer container;
+
+	@After
+	public void tearDown() {
+		if (this.container != null) {
+			this.container.stop();
+		}
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void virtualModeFallsBackToTomcatsPoolWhenVirtualThreadsAreMissing() {
+		TomcatEmbeddedServletContainerFactory factory = new TomcatEmbeddedServletContainerFactory(0);
+		RequestThreadsConfiguration.threadsCustomizer(RequestThreadMode.VIRTUAL, 500, () -> {
+			throw new IllegalStateException("server.threads.mode=VIRTUAL needs Java 21 or later");
+		}).customize(factory);
+
+		AbstractProtocol<?> protocol = customizedProtocol(factory);
+
+		assertNull(protocol.getExecutor());
+		assertEquals(500, protocol.getMaxConnections());
+	}
+
+	@Test
+	public void platformModeNeverAsksForVirtualThreads() {
+		TomcatEmbeddedServletContainerFactory factory = new TomcatEmbeddedServletContainerFactory(0);
+		RequestThreadsConfiguration.threadsCustomizer(RequestThreadMode.PLATFORM, 500, () -> {
+			throw new AssertionError("PLATFORM must keep Tomcat's pool");
+		}).customize(factory);
+
+		assertNull(customizedProtocol(factory).getExecutor());
+	}
+
+	@Test(timeout = 30000)
+	public void requestsRunOnTheConfiguredExecutor() throws Exception {
+		this.executor = Executors.newFixedThreadPool(2, task -> new Thread(task, "configured-request-thread"));
+		TomcatEmbeddedServletContainerFactory factory = new TomcatEmbeddedServletContainerFactory(0);
+		RequestThreadsConfiguration.threadsCustomizer(RequestThreadMode.VIRTUAL, 500, () -> this.executor)
+				.customize(factory);
+		this.container = factory.getEmbeddedServletContainer(
+				servletContext -> servletContext.addServlet("thread", new HttpServlet() {
+					@Override
+					protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+						response.getWriter().write(Thread.currentThread().getName());
+					}
+				}).addMapping("/thread"));
+		this.container.start();
+
+		assertEquals("configured-request-thread", get("http://localhost:" + this.container.getPort() + "/thread"));
+	}
+
+	private static AbstractProtocol<?> customizedProtocol(TomcatEmbeddedServletContainerFactory factory) {
+		Connector connector = new Connector(TomcatEmbeddedServletContainerFactory.DEFAULT_PROTOCOL);
+		for (TomcatConnectorCustomizer customizer : factory.getTomcatConnectorCustomizers()) {
+			customizer.customize(connector);
+		}
+		return (AbstractProtocol<?>) connector.getProtocolHandler();
+	}
+
+	private static String get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
+			return reader.readLine();
+		} finally {
+			connection.disconnect();
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.Balance;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.domain.StripedAccount;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.NotificationService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class StripedAccountTest {
+
+	private ExecutorService executor;
+
+	@After
+	public void tearDown() {
+		if (this.executor != null) {
+			this.executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void configuredAccountsAreStriped() {
+		AccountsRepositoryInMemory repository = repository(MoneyMode.DECIMAL);
+		repository.createAccount(new Account("Id-hot", new BigDecimal("10")));
+		repository.createAccount(new Account("Id-cold", new BigDecimal("10")));
+
+		assertTrue(repository.getAccount("Id-hot") instanceof StripedAccount);
+		assertEquals(Account.class, repository.getAccount("Id-cold").getClass());
+		assertEquals(0, repository.getAccount("Id-hot").getBalance().compareTo(new BigDecimal("10")));
+	}
+
+	@Test
+	public void withdrawalCountsCreditsSpreadOverStripes() {
+		AccountsRepositoryInMemory repository = repository(MoneyMode.MINOR_UNITS);
+		repository.createAccount(new Account("Id-hot", BigDecimal.ZERO));
+		repository.createAccount(new Account("Id-source", new BigDecimal("100")));
+		for (int i = 0; i < 10; i++) {
+			repository.transfer("Id-source", "Id-hot", BigDecimal.ONE);
+		}
+
+		repository.transfer("Id-hot", "Id-source", new BigDecimal("10"));
+		try {
+			repository.transfer("Id-hot", "Id-source", new BigDecimal("0.01"));
+			fail("Expected the striped account to be empty");
+		} catch (LowAccountBalanceException ex) {
+			assertEquals(0, repository.getAccount("Id-hot").getBalance().signum());
+		}
+	}
+
+	@Test(timeout = 30000)
+	public void concurrentDepositsAndWithdrawalsNeverOverdraw() throws Exception {
+		AccountsRepositoryInMemory repository = repository(MoneyMode.DECIMAL);
+		repository.createAccount(new Account("Id-hot", BigDecimal.ZERO));
+		repository.createAccount(new Account("Id-source", new BigDecimal("2000")));
+		repository.createAccount(new Account("Id-sink", BigDecimal.ZERO));
+		int threads = 4;
+		this.executor = Executors.newFixedThreadPool(threads);
+
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			boolean deposits = i % 2 == 0;
+			futures.add(this.executor.submit(() -> {
+				start.await();
+				int withdrawn = 0;
+				for (int n = 0; n < 1000; n++) {
+					if (deposits) {
+						repository.transfer("Id-source", "Id-hot", BigDecimal.ONE);
+					} else {
+						try {
+							repository.transfer("Id-hot", "Id-sink", BigDecimal.ONE);
+							withdrawn++;
+						} catch (LowAccountBalanceException ex) {
+							// The hot account was empty at that moment
+						}
+					}
+				}
+				return withdrawn;
+			}));
+		}
+		start.countDown();
+		int withdrawn = 0;
+		for (Future<Integer> future : futures) {
+			withdrawn += future.get();
+		}
+
+		BigDecimal hot = repository.getAccount("Id-hot").getBalance();
+		assertTrue(hot.signum() >= 0);
+		assertEquals(0, hot.compareTo(new BigDecimal(2000 - withdrawn)));
+		assertEquals(0, repository.getAccount("Id-sink").getBalance().compareTo(new BigDecimal(withdrawn)));
+		assertEquals(0, repository.getAccount("Id-source").getBalance().signum());
+	}
+
+	@Test(timeout = 30000)
+	public void readsNeverSeeAnAmountHalfWayThroughADrain() throws Exception {
+		StripedAccount account = new StripedAccount(new Account("Id-hot", BigDecimal.ZERO), 1);
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread(() -> {
+			while (running.get()) {
+				// Versions 4n + 1 and 4n + 3 hold one, 4n holds zero
+				account.credit(BigDecimal.ONE);
+				account.getLock().lock();
+				try {
+					account.debit(BigDecimal.ONE);
+				} finally {
+					account.getLock().unlock();
+				}
+			}
+		});
+		writer.start();
+		try {
+			for (int n = 0; n < 200000; n++) {
+				Balance balance = account.currentBalance();
+				// 4n + 2 only exists between the drain emptying the stripe and crediting the main cell
+				assertTrue("Read " + balance, balance.getVersion() % 4 != 2);
+				assertEquals(balance.getVersion() % 4 == 0 ? 0 : 1, balance.getAmount().intValueExact());
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+
+	private static AccountsRepositoryInMemory repository(MoneyMode moneyMode) {
+		return new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class), moneyMode, 2,
+				new String[] { "Id-hot" }, 4, new TransferMetrics());
+	}
+}
@@ -0,0 +1,152 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsBulkService;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.web.AccountResponseCache;
+import com.db.awmd.challenge.web.AccountsController;
+import com.db.awmd.challenge.web.IdempotencyCache;
+import com.db.awmd.challenge.web.TokenBucketLimiter;
+import com.db.awmd.challenge.web.TransferAdmission;
+import com.db.awmd.challenge.web.TransferAdmissionInterceptor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+public class TransferAdmissionTest {
+
+	@Test
+	public void bucketRefillsAtTheConfiguredRate() {
+		TokenBucketLimiter limiter = new TokenBucketLimiter(10, 3, 100);
+		long now = 0;
+
+		for (int i = 0; i < 3; i++) {
+			assertEquals(0, limiter.tryAcquire("client", now));
+		}
+		long wait = limiter.tryAcquire("client", now);
+		assertEquals(TimeUnit.MILLISECONDS.toNanos(100), wait);
+		assertEquals(0, limiter.tryAcquire("other", now));
+
+		assertEquals(0, limiter.tryAcquire("client", now + wait));
+		assertTrue(limiter.tryAcquire("client", now + wait) > 0);
+	}
+
+	@Test
+	public void fullBucketsAreSweptWhenTheLimiterRunsOutOfKeys() {
+		TokenBucketLimiter limiter = new TokenBucketLimiter(1000, 1, 2);
+		limiter.tryAcquire("a", 0);
+		limiter.tryAcquire("b", 0);
+
+		// Both are still refilling, so each new key evicts one instead of sharing a bucket with the others
+		for (int i = 0; i < 10; i++) {
+			assertEquals(0, limiter.tryAcquire("rotating-" + i, 0));
+		}
+		assertEquals(0, limiter.tryAcquire("c", 0));
+		assertEquals(0, limiter.tryAcquire("d", 0));
+		assertTrue(limiter.tryAcquire("d", 0) > 0);
+		assertEquals(2, limiter.size());
+
+		assertEquals(0, limiter.tryAcquire("e", TimeUnit.SECONDS.toNanos(2)));
+		assertEquals(1, limiter.size());
+	}
+
+	@Test
+	public void transfersOverTheClientOrAccountLimitAreRejectedWith429() throws Exception {
+		TransferAdmissionInterceptor admission = new TransferAdmissionInterceptor(1, 3, 1, 2, 100, 0, "X-Client-Id",
+				"127.0.0.1");
+		MockMvc mockMvc = mockMvc(admission);
+
+		mockMvc.perform(post("/v1/accounts/transfer/Id-1/Id-2/1").header("X-Client-Id", "a")).andExpect(status().isOk());
+		mockMvc.perform(post("/v1/accounts/transfer/Id-1/Id-2/1").header("X-Client-Id", "a")).andExpect(status().isOk());
+		mockMvc.perform(post("/v1/accounts/transfer/Id-1/Id-2/1").header("X-Client-Id", "a"))
+				.andExpect(status().isTooManyRequests()).andExpect(header().string(HttpHeaders.RETRY_AFTER, "1"));
+		assertEquals(1, admission.getAdmission().getAccountRejectionCount());
+
+		// The refused transfer gave its client token back, so client a has one left
+		mockMvc.perform(post("/v1/accounts/transfer/Id-2/Id-1/1").header("X-Client-Id", "b")).andExpect(status().isOk());
+		mockMvc.perform(post("/v1/accounts/transfer/Id-2/Id-1/1").header("X-Client-Id", "a")).andExpect(status().isOk());
+		mockMvc.perform(post("/v1/accounts/transfer/Id-2/Id-1/1").header("X-Client-Id", "a"))
+				.andExpect(status().isTooManyRequests());
+		assertEquals(1, admission.getAdmission().getClientRejectionCount());
+	}
+
+	@Test
+	public void clientHeaderIsOnlyBelievedFromATrustedProxy() throws Exception {
+		TransferAdmissionInterceptor admission = new TransferAdmissionInterceptor(1, 2, 0, 0, 100, 0, "X-Client-Id",
+				"10.0.0.1");
+		MockMvc mockMvc = mockMvc(admission);
+
+		// From anywhere else a fresh header value per request is still the same client
+		mockMvc.perform(post("/v1/accounts/transfer/Id-1/Id-2/1").header("X-Client-Id", "a")).andExpect(status().isOk());
+		mockMvc.perform(post("/v1/accounts/transfer/Id-1/Id-2/1").header("X-Client-Id", "b")).andExpect(status().isOk());
+		mockMvc.perform(post("/v1/accounts/transfer/Id-1/Id-2/1").header("X-Client-Id", "c"))
+				.andExpect(status().isTooManyRequests());
+
+		mockMvc.perform(post("/v1/accounts/transfer/Id-1/Id-2/1").header("X-Client-Id", "c").with(request -> {
+			request.setRemoteAddr("10.0.0.1");
+			return request;
+		})).andExpect(status().isOk());
+	}
+
+	@Test
+	public void refusedTransfersGiveBackTheTokensTheyTook() {
+		TransferAdmission admission = new TransferAdmission(1, 2, 1, 1, 100, 1);
+
+		assertNull(admission.tryAdmit("client", "Id-1"));
+		// Refused by the account limit, and then by the concurrency limit
+		assertNotNull(admission.tryAdmit("client", "Id-1"));
+		assertNotNull(admission.tryAdmit("client", "Id-2"));
+		admission.release();
+
+		// Neither refusal spent the client's second token, nor the second account's only one
+		assertNull(admission.tryAdmit("client", "Id-2"));
+		assertEquals(1, admission.getAccountRejectionCount());
+		assertEquals(1, admission.getConcurrencyRejectionCount());
+		assertEquals(0, admission.getClientRejectionCount());
+	}
+
+	@Test
+	public void transfersBeyondTheConcurrencyLimitAreShed() throws Exception {
+		TransferAdmissionInterceptor admission = new TransferAdmissionInterceptor(0, 0, 0, 0, 100, 1, "X-Client-Id");
+		MockHttpServletRequest first = new MockHttpServletRequest();
+		MockHttpServletRequest second = new MockHttpServletRequest();
+		MockHttpServletResponse rejected = new MockHttpServletResponse();
+
+		assertTrue(admission.preHandle(first, new MockHttpServletResponse(), null));
+		assertEquals(false, admission.preHandle(second, rejected, null));
+		assertEquals(429, rejected.getStatus());
+		assertEquals(1, admission.getAdmission().getConcurrencyRejectionCount());
+
+		admission.afterCompletion(first, new MockHttpServletResponse(), null, null);
+		assertEquals(0, admission.getAdmission().getInFlight());
+		assertTrue(admission.preHandle(second, new MockHttpServletResponse(), null));
+	}
+
+	private static MockMvc mockMvc(TransferAdmissionInterceptor admission) {
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class));
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", new BigDecimal("100")));
+		AccountsController controller = new AccountsController(new AccountsService(repository),
+				new AccountsBulkService(repository), new IdempotencyCache(100, 3600, 4),
+				new AccountResponseCache(new ObjectMapper(), 100, 4), 100);
+		return MockMvcBuilders.standaloneSetup(controller)
+				.addMappedInterceptors(new String[] { "/v1/accounts/transfer/**" }, admission).build();
+	}
+}
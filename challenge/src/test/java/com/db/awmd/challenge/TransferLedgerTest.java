@@ -0,0 +1,226 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.BatchMode;
+import com.db.awmd.challenge.domain.TransferEvent;
+import com.db.awmd.challenge.domain.TransferHistoryPage;
+import com.db.awmd.challenge.domain.TransferRequest;
+import com.db.awmd.challenge.domain.TransferResult;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.ledger.TransferLedger;
+import com.db.awmd.challenge.ledger.TransferSequence;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TransferLedgerTest {
+
+	@Test
+	public void pagesThroughOneAccountWithTheCursor() {
+		TransferLedger ledger = new TransferLedger(1000, 3600, 1000);
+		for (int i = 0; i < 250; i++) {
+			ledger.record(transfer("Id-" + (i % 5), "Id-" + ((i + 1) % 5)));
+		}
+
+		List<Long> sequences = new ArrayList<>();
+		Long cursor = null;
+		int pages = 0;
+		do {
+			TransferHistoryPage page = ledger.history("Id-0", null, cursor, 30);
+			for (TransferEvent event : page.getTransfers()) {
+				assertTrue(event.getTransfer().getFromAccountId().equals("Id-0")
+						|| event.getTransfer().getToAccountId().equals("Id-0"));
+				sequences.add(event.getSequence());
+			}
+			cursor = page.getNextCursor();
+			pages++;
+		} while (cursor != null);
+
+		// Id-0 sends every fifth transfer and receives the one before it
+		assertEquals(100, sequences.size());
+		assertEquals(4, pages);
+		for (int i = 1; i < sequences.size(); i++) {
+			assertTrue(sequences.get(i - 1) < sequences.get(i));
+		}
+	}
+
+	@Test
+	public void sinceStartsAtTheFirstTransferAtOrAfterThatTime() throws Exception {
+		TransferLedger ledger = new TransferLedger(1000, 3600, 1000);
+		ledger.record(transfer("Id-1", "Id-2"));
+		ledger.record(transfer("Id-2", "Id-1"));
+		Thread.sleep(5);
+		long since = System.currentTimeMillis();
+		TransferEvent later = ledger.record(transfer("Id-1", "Id-3"));
+
+		TransferHistoryPage page = ledger.history("Id-1", since, null, 10);
+
+		assertEquals(1, page.getTransfers().size());
+		assertEquals(later.getSequence(), page.getTransfers().get(0).getSequence());
+		assertNull(page.getNextCursor());
+		assertEquals(3, ledger.history("Id-1", 0L, null, 10).getTransfers().size());
+	}
+
+	@Test
+	public void evictsTheOldestTransfersWhenFull() {
+		TransferLedger ledger = new TransferLedger(10, 3600, 1000);
+		ledger.record(transfer("Id-old", "Id-1"));
+		for (int i = 0; i < 20; i++) {
+			ledger.record(transfer("Id-1", "Id-2"));
+		}
+
+		assertEquals(10, ledger.size());
+		assertEquals(11, ledger.getEvictedCount());
+		assertTrue(ledger.history("Id-old", null, null, 10).getTransfers().isEmpty());
+		TransferHistoryPage page = ledger.history("Id-2", null, null, 100);
+		assertEquals(10, page.getTransfers().size());
+		assertEquals(11, page.getTransfers().get(0).getSequence());
+	}
+
+	@Test
+	public void evictionByAgeStepsOverNumbersThatAreNeverRecorded() throws Exception {
+		TransferSequence sequence = new TransferSequence();
+		TransferLedger ledger = new TransferLedger(100000, 1, 1000, 10, sequence);
+		TransferResult first = transfer("Id-1", "Id-2");
+		first.setSequence(sequence.next(0));
+		ledger.record(first);
+		// Taken for a transfer that then failed
+		sequence.next(0);
+		TransferResult third = transfer("Id-1", "Id-2");
+		third.setSequence(sequence.next(0));
+		ledger.record(third);
+		// Other stores run far enough ahead that no stripe can still hand out the missing number
+		for (int i = 0; i < 10000; i++) {
+			sequence.next();
+		}
+
+		Thread.sleep(1100);
+		ledger.history("Id-1", null, null, 10);
+		Thread.sleep(20);
+		ledger.history("Id-1", null, null, 10);
+		assertEquals(0, ledger.size());
+		assertEquals(2, ledger.getEvictedCount());
+	}
+
+	@Test
+	public void serviceRecordsAppliedTransfersOnly() {
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class));
+		TransferLedger ledger = new TransferLedger(1000, 3600, 2);
+		AccountsService service = new AccountsService(repository, new TransferMetrics(), ledger);
+		repository.createAccount(new Account("Id-1", new BigDecimal("100")));
+		repository.createAccount(new Account("Id-2", new BigDecimal("0")));
+
+		service.transfer("Id-1", "Id-2", new BigDecimal("10"));
+		service.transferBatch(Arrays.asList(new TransferRequest("Id-1", "Id-2", new BigDecimal("20")),
+				new TransferRequest("Id-2", "Id-1", new BigDecimal("500"))), BatchMode.BEST_EFFORT);
+
+		TransferHistoryPage page = service.transferHistory("Id-2", null, null, 100);
+		assertEquals(2, page.getTransfers().size());
+		assertEquals(0, page.getTransfers().get(1).getTransfer().getNewDepositedAccountBalance()
+				.compareTo(new BigDecimal("30")));
+		assertNull(page.getNextCursor());
+		try {
+			service.transferHistory("Id-unknown", null, null, 100);
+			fail("Should have rejected the unknown account");
+		} catch (InvalidAccountIdException ex) {
+			assertEquals("Please enter a valid account id!", ex.getMessage());
+		}
+	}
+
+	@Test
+	public void concurrentTransfersOutOfOneAccountAreListedInDebitOrder() throws Exception {
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class));
+		TransferLedger ledger = new TransferLedger(100000, 3600, 100000);
+		AccountsService service = new AccountsService(repository, new TransferMetrics(), ledger);
+		repository.createAccount(new Account("Id-source", new BigDecimal("100000")));
+		int threads = 4;
+		int transfersPerThread = 2000;
+		for (int t = 0; t < threads; t++) {
+			repository.createAccount(new Account("Id-" + t, BigDecimal.ZERO));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<?>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			String to = "Id-" + t;
+			futures.add(executor.submit(() -> {
+				for (int i = 0; i < transfersPerThread; i++) {
+					service.transfer("Id-source", to, BigDecimal.ONE);
+				}
+			}));
+		}
+		for (Future<?> future : futures) {
+			future.get();
+		}
+		executor.shutdown();
+
+		assertEquals(threads * transfersPerThread, ledger.size());
+		List<TransferEvent> events = ledger.history("Id-source", null, null, 100000).getTransfers();
+		assertEquals(threads * transfersPerThread, events.size());
+		// Each debit left the source one lower than the one before it
+		for (int i = 0; i < events.size(); i++) {
+			assertEquals(0, events.get(i).getTransfer().getNewWithdrawnAccountBalance()
+					.compareTo(BigDecimal.valueOf(100000 - i - 1)));
+		}
+		for (int t = 0; t < threads; t++) {
+			assertEquals(transfersPerThread, ledger.history("Id-" + t, null, null, 100000).getTransfers().size());
+		}
+	}
+
+	@Test
+	public void stripedSequencesAreUniqueAndGrowPerHint() throws Exception {
+		TransferSequence sequence = new TransferSequence();
+		int threads = 8;
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<long[]>> futures = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int hint = t;
+			futures.add(executor.submit(() -> {
+				long[] taken = new long[10000];
+				for (int i = 0; i < taken.length; i++) {
+					taken[i] = sequence.next(hint);
+				}
+				return taken;
+			}));
+		}
+		Set<Long> seen = new HashSet<>();
+		for (Future<long[]> future : futures) {
+			long[] taken = future.get();
+			for (int i = 0; i < taken.length; i++) {
+				assertTrue(seen.add(taken[i]));
+				if (i > 0) {
+					assertTrue(taken[i - 1] < taken[i]);
+				}
+			}
+		}
+		executor.shutdown();
+
+		// A stripe left behind by the others drops its old block rather than hand out stale numbers
+		long idle = sequence.next(100);
+		for (int i = 0; i < 100000; i++) {
+			sequence.next();
+		}
+		assertTrue(sequence.next(100) > idle + 100000);
+	}
+
+	private static TransferResult transfer(String from, String to) {
+		return new TransferResult(from, to, BigDecimal.ONE, BigDecimal.ZERO, BigDecimal.ONE);
+	}
+}
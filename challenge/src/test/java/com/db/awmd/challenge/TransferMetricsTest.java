@@ -0,0 +1,139 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.domain.MoneyMode;
+import com.db.awmd.challenge.exception.InvalidAccountIdException;
+import com.db.awmd.challenge.exception.LowAccountBalanceException;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.web.IdempotencyCache;
+import com.db.awmd.challenge.web.TransferAdmission;
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+
+public class TransferMetricsTest {
+
+	private TransferMetrics transferMetrics;
+
+	private AccountsService accountsService;
+
+	@Before
+	public void setUp() {
+		this.transferMetrics = new TransferMetrics(1);
+		AccountsRepositoryInMemory repository = new AccountsRepositoryInMemory(Mockito.mock(NotificationService.class),
+				MoneyMode.DECIMAL, 2, new String[0], 0, this.transferMetrics);
+		this.accountsService = new AccountsService(repository, this.transferMetrics);
+		this.accountsService.createAccount(new Account("Id-1", new BigDecimal("10")));
+		this.accountsService.createAccount(new Account("Id-2", BigDecimal.ZERO));
+	}
+
+	@Test
+	public void transfersAndRejectionsAreCounted() {
+		this.accountsService.transfer("Id-1", "Id-2", BigDecimal.ONE);
+		try {
+			this.accountsService.transfer("Id-2", "Id-1", new BigDecimal("5"));
+			fail("Expected an overdraft");
+		} catch (LowAccountBalanceException ex) {
+			// counted below
+		}
+		try {
+			this.accountsService.transfer("Id-1", "Id-missing", BigDecimal.ONE);
+			fail("Expected an unknown account");
+		} catch (InvalidAccountIdException ex) {
+			// counted below
+		}
+
+		Map<String, Number> metrics = publish();
+		assertEquals(3L, metrics.get("histogram.transfers.latency.count"));
+		assertEquals(1L, metrics.get("counter.exceptions.low-account-balance"));
+		assertEquals(1L, metrics.get("counter.exceptions.invalid-account-id"));
+		assertTrue(metrics.get("histogram.transfers.latency.max").doubleValue() > 0);
+	}
+
+	@Test
+	public void histogramsKeepEverythingRecordedAcrossReads() {
+		this.transferMetrics.getTransferLatency().recordNanos(1000);
+		publish();
+		this.transferMetrics.getTransferLatency().recordNanos(3000);
+
+		Map<String, Number> metrics = publish();
+		assertEquals(2L, metrics.get("histogram.transfers.latency.count"));
+		assertEquals(3.0, metrics.get("histogram.transfers.latency.max").doubleValue(), 0.05);
+	}
+
+	@Test
+	public void lockWaitIsRecordedOnlyWhenContended() throws Exception {
+		ReentrantLock lock = new ReentrantLock();
+		this.transferMetrics.lock(lock);
+		Thread waiter = new Thread(() -> {
+			this.transferMetrics.lock(lock);
+			lock.unlock();
+		});
+		waiter.start();
+		while (!lock.hasQueuedThreads()) {
+			Thread.yield();
+		}
+		lock.unlock();
+		waiter.join();
+
+		assertEquals(1L, publish().get("histogram.accounts.lock-wait.count"));
+	}
+
+	@Test
+	public void disabledMetricsTimeNothingButStillCountRejections() {
+		TransferMetrics disabled = new TransferMetrics(1, false);
+		AccountsService service = new AccountsService(new AccountsRepositoryInMemory(
+				Mockito.mock(NotificationService.class), MoneyMode.DECIMAL, 2, new String[0], 0, disabled), disabled);
+		service.createAccount(new Account("Id-1", new BigDecimal("10")));
+		service.createAccount(new Account("Id-2", BigDecimal.ZERO));
+
+		service.transfer("Id-1", "Id-2", BigDecimal.ONE);
+		try {
+			service.transfer("Id-2", "Id-1", new BigDecimal("5"));
+			fail("Expected an overdraft");
+		} catch (LowAccountBalanceException ex) {
+			// counted below
+		}
+
+		Map<String, Number> metrics = publish(disabled);
+		assertEquals(0L, metrics.get("histogram.transfers.latency.count"));
+		assertEquals(1L, metrics.get("counter.exceptions.low-account-balance"));
+	}
+
+	@Test
+	public void componentsPublishTheirOwnMetrics() {
+		IdempotencyCache cache = new IdempotencyCache(100, 3600, 4);
+		cache.execute("key", () -> "response");
+		cache.execute("key", () -> "response");
+
+		Map<String, Number> metrics = publish(cache);
+		assertEquals(1L, metrics.get("counter.idempotency.hits"));
+		assertEquals(1, metrics.get("gauge.idempotency.size"));
+		assertEquals(0, publish(new TransferAdmission()).get("gauge.transfers.in-flight"));
+	}
+
+	private Map<String, Number> publish() {
+		return publish(this.transferMetrics);
+	}
+
+	private static Map<String, Number> publish(PublicMetrics publicMetrics) {
+		Map<String, Number> values = new HashMap<>();
+		for (Metric<?> metric : publicMetrics.metrics()) {
+			values.put(metric.getName(), metric.getValue());
+		}
+		return values;
+	}
+}
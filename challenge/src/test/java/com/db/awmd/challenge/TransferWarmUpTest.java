@@ -0,0 +1,83 @@
+package com.db.awmd.challenge;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.db.awmd.challenge.domain.Account;
+import com.db.awmd.challenge.ledger.TransferLedger;
+import com.db.awmd.challenge.metrics.TransferMetrics;
+import com.db.awmd.challenge.repository.AccountsRepositoryInMemory;
+import com.db.awmd.challenge.service.AccountsService;
+import com.db.awmd.challenge.service.NotificationService;
+import com.db.awmd.challenge.warmup.TransferWarmUp;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.math.BigDecimal;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+public class TransferWarmUpTest {
+
+	private NotificationService notificationService;
+
+	private TransferMetrics transferMetrics;
+
+	private TransferLedger transferLedger;
+
+	private AccountsService accountsService;
+
+	@Before
+	public void setUp() {
+		this.notificationService = Mockito.mock(NotificationService.class);
+		this.transferMetrics = new TransferMetrics(1);
+		this.transferLedger = new TransferLedger();
+		this.accountsService = new AccountsService(new AccountsRepositoryInMemory(this.notificationService),
+				this.transferMetrics, this.transferLedger);
+		this.accountsService.createAccount(new Account("Id-1", new BigDecimal("100")));
+		this.accountsService.createAccount(new Account("Id-2", new BigDecimal("50")));
+	}
+
+	@Test
+	public void reportsOutOfServiceUntilWarmThenUp() throws Exception {
+		TransferWarmUp warmUp = new TransferWarmUp(this.accountsService, new ObjectMapper(), 2000);
+		assertEquals(Status.OUT_OF_SERVICE, warmUp.health().getStatus());
+
+		warmUp.warmUp();
+
+		Health health = warmUp.health();
+		assertTrue(warmUp.isWarm());
+		assertEquals(Status.UP, health.getStatus());
+		assertEquals(2000, health.getDetails().get("transfers"));
+		assertEquals(2L, health.getDetails().get("preloadedAccounts"));
+	}
+
+	@Test
+	public void leavesTheLiveStoreLedgerMetricsAndNotificationsUntouched() throws Exception {
+		new TransferWarmUp(this.accountsService, new ObjectMapper(), 2000).warmUp();
+
+		assertNull(this.accountsService.getAccount("warmup-0"));
+		int[] accounts = new int[1];
+		this.accountsService.getAccountsRepository().forEachAccount(account -> accounts[0]++);
+		assertEquals(2, accounts[0]);
+		assertEquals(0, this.accountsService.getAccount("Id-1").getVersion());
+		assertEquals(0, this.transferLedger.size());
+		assertEquals(0, this.transferMetrics.getTransferLatency().snapshot().getTotalCount());
+		assertEquals(0, this.transferMetrics.getLowAccountBalanceCount());
+		Mockito.verifyZeroInteractions(this.notificationService);
+	}
+
+	@Test
+	public void noTransfersStillPreloadsAndBecomesReady() throws Exception {
+		TransferWarmUp warmUp = new TransferWarmUp(this.accountsService, new ObjectMapper(), 0);
+		assertFalse(warmUp.isWarm());
+
+		warmUp.warmUp();
+
+		assertEquals(Status.UP, warmUp.health().getStatus());
+		assertEquals(0, warmUp.health().getDetails().get("transfers"));
+	}
+}